@@ -0,0 +1,150 @@
+/**
+ * GDMS-Topology is a library dedicated to graph analysis. It is based on the
+ * JGraphT library available at <http://www.jgrapht.org/>. It enables computing
+ * and processing large graphs using spatial and alphanumeric indexes.
+ *
+ * This version is developed at French IRSTV institut as part of the EvalPDU
+ * project, funded by the French Agence Nationale de la Recherche (ANR) under
+ * contract ANR-08-VILL-0005-01 and GEBD project funded by the French Ministery
+ * of Ecology and Sustainable Development.
+ *
+ * GDMS-Topology is distributed under GPL 3 license. It is produced by the
+ * "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR
+ * 2488.
+ *
+ * Copyright (C) 2009-2012 IRSTV (FR CNRS 2488)
+ *
+ * GDMS-Topology is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * GDMS-Topology is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * GDMS-Topology. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://wwwc.orbisgis.org/> or contact
+ * directly: info_at_ orbisgis.org
+ */
+package org.gdms.gdmstopology.benchmarks;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import java.io.File;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.gdms.data.DataSourceFactory;
+import org.gdms.data.types.Type;
+import org.gdms.data.types.TypeFactory;
+import org.gdms.data.values.Value;
+import org.gdms.data.values.ValueFactory;
+import org.gdms.driver.DataSet;
+import org.gdms.driver.memory.MemoryDataSetDriver;
+import org.gdms.gdmstopology.function.ST_BlockIdentity;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.orbisgis.progress.NullProgressMonitor;
+import org.orbisgis.utils.FileUtils;
+
+/**
+ * Benchmarks {@link ST_BlockIdentity} on a grid of square parcels from which
+ * some parcels were removed at random, leaving blocks of touching parcels.
+ *
+ * @author Adam Gouge
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class BlockIdentityBenchmark {
+
+    /**
+     * Seed of the random generator.
+     */
+    private static final long SEED = 42L;
+    /**
+     * Share of the parcels that are removed.
+     */
+    private static final double VACANCY = 0.4;
+    /**
+     * Number of parcels on each side of the grid.
+     */
+    @Param({"100", "300"})
+    public int parcelGridSize;
+    /**
+     * The parcels: the_geom and gid.
+     */
+    private MemoryDataSetDriver parcels;
+    /**
+     * Data source factory working in {@link #folder}.
+     */
+    private DataSourceFactory dsf;
+    /**
+     * The temporary folder.
+     */
+    private File folder;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        folder = SyntheticNetwork.createTempFolder();
+        dsf = new DataSourceFactory(folder.getAbsolutePath(),
+                                    folder.getAbsolutePath());
+        parcels = new MemoryDataSetDriver(
+                new String[]{"the_geom", "gid"},
+                new Type[]{TypeFactory.createType(Type.GEOMETRY),
+                           TypeFactory.createType(Type.INT)});
+        GeometryFactory factory = new GeometryFactory();
+        Random random = new Random(SEED);
+        int gid = 1;
+        for (int i = 0; i < parcelGridSize; i++) {
+            for (int j = 0; j < parcelGridSize; j++) {
+                if (random.nextDouble() < VACANCY) {
+                    continue;
+                }
+                parcels.addValues(new Value[]{
+                    ValueFactory.createValue(factory.createPolygon(
+                            factory.createLinearRing(new Coordinate[]{
+                        new Coordinate(i, j),
+                        new Coordinate(i + 1, j),
+                        new Coordinate(i + 1, j + 1),
+                        new Coordinate(i, j + 1),
+                        new Coordinate(i, j)}), null)),
+                    ValueFactory.createValue(gid++)});
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        FileUtils.deleteDir(folder);
+    }
+
+    @Benchmark
+    public void blockIdentity(Blackhole bh) throws Exception {
+        SyntheticNetwork.consume(
+                new ST_BlockIdentity().evaluate(
+                dsf,
+                new DataSet[]{parcels},
+                new Value[]{ValueFactory.createValue("the_geom")},
+                new NullProgressMonitor()),
+                bh);
+    }
+}
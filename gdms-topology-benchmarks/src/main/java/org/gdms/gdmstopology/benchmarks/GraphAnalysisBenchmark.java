@@ -0,0 +1,83 @@
+/**
+ * GDMS-Topology is a library dedicated to graph analysis. It is based on the
+ * JGraphT library available at <http://www.jgrapht.org/>. It enables computing
+ * and processing large graphs using spatial and alphanumeric indexes.
+ *
+ * This version is developed at French IRSTV institut as part of the EvalPDU
+ * project, funded by the French Agence Nationale de la Recherche (ANR) under
+ * contract ANR-08-VILL-0005-01 and GEBD project funded by the French Ministery
+ * of Ecology and Sustainable Development.
+ *
+ * GDMS-Topology is distributed under GPL 3 license. It is produced by the
+ * "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR
+ * 2488.
+ *
+ * Copyright (C) 2009-2012 IRSTV (FR CNRS 2488)
+ *
+ * GDMS-Topology is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * GDMS-Topology is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * GDMS-Topology. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://wwwc.orbisgis.org/> or contact
+ * directly: info_at_ orbisgis.org
+ */
+package org.gdms.gdmstopology.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.gdms.data.values.Value;
+import org.gdms.data.values.ValueFactory;
+import org.gdms.driver.DataSet;
+import org.gdms.gdmstopology.centrality.ST_GraphAnalysis;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+import org.orbisgis.progress.NullProgressMonitor;
+
+/**
+ * Benchmarks the centrality measures of {@link ST_GraphAnalysis}. They need
+ * one shortest path search per node, so each call is timed on its own; small
+ * grids ({@code -p gridSize=50}) keep a run short.
+ *
+ * @author Adam Gouge
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+public class GraphAnalysisBenchmark {
+
+    @Benchmark
+    public void weighted(SyntheticNetwork network) throws Exception {
+        new ST_GraphAnalysis().evaluate(
+                network.dsf,
+                new DataSet[]{network.edges},
+                new Value[]{
+                    ValueFactory.createValue(SyntheticNetwork.WEIGHT),
+                    ValueFactory.createValue(SyntheticNetwork.ORIENTATION)},
+                new NullProgressMonitor());
+    }
+
+    @Benchmark
+    public void unweighted(SyntheticNetwork network) throws Exception {
+        new ST_GraphAnalysis().evaluate(
+                network.dsf,
+                new DataSet[]{network.edges},
+                new Value[]{
+                    ValueFactory.createValue(SyntheticNetwork.ORIENTATION)},
+                new NullProgressMonitor());
+    }
+}
@@ -0,0 +1,104 @@
+/**
+ * GDMS-Topology is a library dedicated to graph analysis. It is based on the
+ * JGraphT library available at <http://www.jgrapht.org/>. It enables computing
+ * and processing large graphs using spatial and alphanumeric indexes.
+ *
+ * This version is developed at French IRSTV institut as part of the EvalPDU
+ * project, funded by the French Agence Nationale de la Recherche (ANR) under
+ * contract ANR-08-VILL-0005-01 and GEBD project funded by the French Ministery
+ * of Ecology and Sustainable Development.
+ *
+ * GDMS-Topology is distributed under GPL 3 license. It is produced by the
+ * "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR
+ * 2488.
+ *
+ * Copyright (C) 2009-2012 IRSTV (FR CNRS 2488)
+ *
+ * GDMS-Topology is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * GDMS-Topology is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * GDMS-Topology. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://wwwc.orbisgis.org/> or contact
+ * directly: info_at_ orbisgis.org
+ */
+package org.gdms.gdmstopology.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.gdms.data.values.Value;
+import org.gdms.data.values.ValueFactory;
+import org.gdms.driver.DataSet;
+import org.gdms.gdmstopology.function.ST_ShortestPathLength;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.orbisgis.progress.NullProgressMonitor;
+
+/**
+ * Benchmarks {@link ST_ShortestPathLength} in its one-to-one, one-to-all and
+ * many-to-many forms. Each call includes building the graph, as it does in
+ * SQL.
+ *
+ * @author Adam Gouge
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ShortestPathLengthBenchmark {
+
+    @Benchmark
+    public void oneToOne(SyntheticNetwork network, Blackhole bh)
+            throws Exception {
+        evaluate(network, bh,
+                 new DataSet[]{network.edges},
+                 ValueFactory.createValue(network.getCenter()),
+                 ValueFactory.createValue(network.getCorner()),
+                 ValueFactory.createValue(SyntheticNetwork.WEIGHT),
+                 ValueFactory.createValue(SyntheticNetwork.ORIENTATION));
+    }
+
+    @Benchmark
+    public void oneToAll(SyntheticNetwork network, Blackhole bh)
+            throws Exception {
+        evaluate(network, bh,
+                 new DataSet[]{network.edges},
+                 ValueFactory.createValue(network.getCenter()),
+                 ValueFactory.createValue(SyntheticNetwork.WEIGHT),
+                 ValueFactory.createValue(SyntheticNetwork.ORIENTATION));
+    }
+
+    @Benchmark
+    public void manyToMany(SyntheticNetwork network, Blackhole bh)
+            throws Exception {
+        evaluate(network, bh,
+                 new DataSet[]{network.edges,
+                               network.sourceDestinationTable},
+                 ValueFactory.createValue(SyntheticNetwork.WEIGHT),
+                 ValueFactory.createValue(SyntheticNetwork.ORIENTATION));
+    }
+
+    private static void evaluate(SyntheticNetwork network,
+                                 Blackhole bh,
+                                 DataSet[] tables,
+                                 Value... values) throws Exception {
+        SyntheticNetwork.consume(
+                new ST_ShortestPathLength().evaluate(
+                network.dsf, tables, values, new NullProgressMonitor()),
+                bh);
+    }
+}
@@ -0,0 +1,332 @@
+/**
+ * GDMS-Topology is a library dedicated to graph analysis. It is based on the
+ * JGraphT library available at <http://www.jgrapht.org/>. It enables computing
+ * and processing large graphs using spatial and alphanumeric indexes.
+ *
+ * This version is developed at French IRSTV institut as part of the EvalPDU
+ * project, funded by the French Agence Nationale de la Recherche (ANR) under
+ * contract ANR-08-VILL-0005-01 and GEBD project funded by the French Ministery
+ * of Ecology and Sustainable Development.
+ *
+ * GDMS-Topology is distributed under GPL 3 license. It is produced by the
+ * "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR
+ * 2488.
+ *
+ * Copyright (C) 2009-2012 IRSTV (FR CNRS 2488)
+ *
+ * GDMS-Topology is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * GDMS-Topology is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * GDMS-Topology. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://wwwc.orbisgis.org/> or contact
+ * directly: info_at_ orbisgis.org
+ */
+package org.gdms.gdmstopology.benchmarks;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import org.gdms.data.DataSource;
+import org.gdms.data.DataSourceFactory;
+import org.gdms.data.types.Type;
+import org.gdms.data.types.TypeFactory;
+import org.gdms.data.values.Value;
+import org.gdms.data.values.ValueFactory;
+import org.gdms.driver.DataSet;
+import org.gdms.driver.DiskBufferDriver;
+import org.gdms.driver.DriverException;
+import org.gdms.driver.memory.MemoryDataSetDriver;
+import org.gdms.gdmstopology.function.ST_Graph;
+import org.gdms.gdmstopology.function.ST_ShortestPathLength;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+import org.orbisgis.progress.NullProgressMonitor;
+import org.orbisgis.utils.FileUtils;
+
+/**
+ * A synthetic road network shared by the benchmarks: a square grid of
+ * {@link #gridSize} x {@link #gridSize} intersections whose coordinates are
+ * jittered, with a random weight on each street. Everything is generated from
+ * a fixed seed, so that two runs benchmark the same network and no data has to
+ * be downloaded.
+ *
+ * <p> The size can be changed from the command line, e.g. {@code -p
+ * gridSize=500}.
+ *
+ * @author Adam Gouge
+ */
+@State(Scope.Benchmark)
+public class SyntheticNetwork {
+
+    /**
+     * Name of the weight column.
+     */
+    public static final String WEIGHT = "weight";
+    /**
+     * Graph orientation used by the benchmarks.
+     */
+    public static final String ORIENTATION = ST_ShortestPathLength.UNDIRECTED;
+    /**
+     * Seed of the random generator.
+     */
+    private static final long SEED = 42L;
+    /**
+     * Maximum jitter of an intersection, in grid units.
+     */
+    private static final double JITTER = 0.25;
+    /**
+     * Number of intersections on each side of the grid.
+     */
+    @Param({"50", "200"})
+    public int gridSize;
+    /**
+     * Number of sources and destinations of the many-to-many and
+     * accessibility benchmarks.
+     */
+    @Param({"10"})
+    public int sampleSize;
+    /**
+     * {@link ST_Graph} options used to build the graph, e.g. {@code -p
+     * buildOptions=reorder} to compare the searches on a spatially ordered
+     * graph.
+     */
+    @Param({""})
+    public String buildOptions;
+    /**
+     * Data source factory working in a temporary folder.
+     */
+    public DataSourceFactory dsf;
+    /**
+     * The streets: the_geom, gid and weight.
+     */
+    public MemoryDataSetDriver lines;
+    /**
+     * The edges table produced by {@link ST_Graph} from {@link #lines}.
+     */
+    public DataSet edges;
+    /**
+     * A (source, destination) table of {@link #sampleSize} x
+     * {@link #sampleSize} pairs.
+     */
+    public MemoryDataSetDriver sourceDestinationTable;
+    /**
+     * A comma-separated list of {@link #sampleSize} destinations.
+     */
+    public String destinations;
+    /**
+     * The temporary folder.
+     */
+    private File folder;
+    /**
+     * The opened edges data source.
+     */
+    private DataSource edgeSource;
+
+    /**
+     * Generates the network and builds its graph.
+     *
+     * @throws Exception
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        folder = createTempFolder();
+        dsf = new DataSourceFactory(folder.getAbsolutePath(),
+                                    folder.getAbsolutePath());
+        Random random = new Random(SEED);
+        lines = createGrid(gridSize, random);
+        new ST_Graph().evaluate(dsf,
+                                new DataSet[]{lines},
+                                new Value[]{ValueFactory.createValue(0),
+                                            ValueFactory.createValue(false),
+                                            ValueFactory.createValue("network"),
+                                            ValueFactory.createValue(
+                    buildOptions)},
+                                new NullProgressMonitor());
+        edgeSource = dsf.getDataSource("network.edges");
+        edgeSource.open();
+        edges = edgeSource;
+
+        sourceDestinationTable = new MemoryDataSetDriver(
+                new String[]{ST_ShortestPathLength.SOURCE,
+                             ST_ShortestPathLength.DESTINATION},
+                new Type[]{TypeFactory.createType(Type.INT),
+                           TypeFactory.createType(Type.INT)});
+        int[] sources = randomNodes(random);
+        int[] targets = randomNodes(random);
+        StringBuilder list = new StringBuilder();
+        for (int i = 0; i < sampleSize; i++) {
+            for (int j = 0; j < sampleSize; j++) {
+                sourceDestinationTable.addValues(new Value[]{
+                    ValueFactory.createValue(sources[i]),
+                    ValueFactory.createValue(targets[j])});
+            }
+            if (i > 0) {
+                list.append(", ");
+            }
+            list.append(targets[i]);
+        }
+        destinations = list.toString();
+    }
+
+    /**
+     * Deletes the temporary folder.
+     *
+     * @throws Exception
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        edgeSource.close();
+        FileUtils.deleteDir(folder);
+    }
+
+    /**
+     * Returns the number of intersections.
+     *
+     * @return The number of intersections
+     */
+    public int getNodeCount() {
+        return gridSize * gridSize;
+    }
+
+    /**
+     * Returns the intersection at the center of the grid.
+     *
+     * @return Its id
+     */
+    public int getCenter() {
+        return getNodeCount() / 2 + 1;
+    }
+
+    /**
+     * Returns the last intersection, at a corner of the grid.
+     *
+     * @return Its id
+     */
+    public int getCorner() {
+        return getNodeCount();
+    }
+
+    /**
+     * Reads every row of the given result and closes it, so that lazy results
+     * are measured in full and file handles do not pile up.
+     *
+     * @param result A result table
+     * @param bh     Black hole
+     *
+     * @throws DriverException
+     */
+    public static void consume(DataSet result, Blackhole bh)
+            throws DriverException {
+        long rowCount = result.getRowCount();
+        for (long i = 0; i < rowCount; i++) {
+            bh.consume(result.getRow(i));
+        }
+        if (result instanceof DiskBufferDriver) {
+            ((DiskBufferDriver) result).close();
+        }
+    }
+
+    /**
+     * Creates an empty temporary folder for the sources and results of a
+     * benchmark.
+     *
+     * @return The folder
+     *
+     * @throws IOException
+     */
+    static File createTempFolder() throws IOException {
+        File folder = File.createTempFile("gdms-topology-benchmarks", "");
+        if (!folder.delete() || !folder.mkdir()) {
+            throw new IOException("Cannot create the folder " + folder);
+        }
+        return folder;
+    }
+
+    /**
+     * Picks {@link #sampleSize} random node ids.
+     *
+     * @param random Random generator
+     *
+     * @return The node ids
+     */
+    private int[] randomNodes(Random random) {
+        int[] nodes = new int[sampleSize];
+        for (int i = 0; i < nodes.length; i++) {
+            nodes[i] = 1 + random.nextInt(getNodeCount());
+        }
+        return nodes;
+    }
+
+    /**
+     * Creates the streets of a jittered square grid.
+     *
+     * @param size   Number of intersections on each side
+     * @param random Random generator
+     *
+     * @return The streets
+     */
+    static MemoryDataSetDriver createGrid(int size, Random random) {
+        MemoryDataSetDriver data = new MemoryDataSetDriver(
+                new String[]{"the_geom", "gid", WEIGHT},
+                new Type[]{TypeFactory.createType(Type.GEOMETRY),
+                           TypeFactory.createType(Type.INT),
+                           TypeFactory.createType(Type.DOUBLE)});
+        Coordinate[][] nodes = new Coordinate[size][size];
+        for (int i = 0; i < size; i++) {
+            for (int j = 0; j < size; j++) {
+                nodes[i][j] = new Coordinate(
+                        i + JITTER * (2 * random.nextDouble() - 1),
+                        j + JITTER * (2 * random.nextDouble() - 1));
+            }
+        }
+        GeometryFactory factory = new GeometryFactory();
+        int gid = 1;
+        for (int i = 0; i < size; i++) {
+            for (int j = 0; j < size; j++) {
+                if (i + 1 < size) {
+                    addStreet(data, factory, nodes[i][j], nodes[i + 1][j],
+                              gid++, random);
+                }
+                if (j + 1 < size) {
+                    addStreet(data, factory, nodes[i][j], nodes[i][j + 1],
+                              gid++, random);
+                }
+            }
+        }
+        return data;
+    }
+
+    /**
+     * Adds a street whose weight is its length times a random factor in [1,
+     * 2).
+     */
+    private static void addStreet(MemoryDataSetDriver data,
+                                  GeometryFactory factory,
+                                  Coordinate start,
+                                  Coordinate end,
+                                  int gid,
+                                  Random random) {
+        data.addValues(new Value[]{
+            ValueFactory.createValue(factory.createLineString(
+                    new Coordinate[]{start, end})),
+            ValueFactory.createValue(gid),
+            ValueFactory.createValue(
+                    start.distance(end) * (1 + random.nextDouble()))});
+    }
+}
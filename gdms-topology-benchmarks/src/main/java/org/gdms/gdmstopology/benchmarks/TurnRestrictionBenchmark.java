@@ -0,0 +1,193 @@
+/**
+ * GDMS-Topology is a library dedicated to graph analysis. It is based on the
+ * JGraphT library available at <http://www.jgrapht.org/>. It enables computing
+ * and processing large graphs using spatial and alphanumeric indexes.
+ *
+ * This version is developed at French IRSTV institut as part of the EvalPDU
+ * project, funded by the French Agence Nationale de la Recherche (ANR) under
+ * contract ANR-08-VILL-0005-01 and GEBD project funded by the French Ministery
+ * of Ecology and Sustainable Development.
+ *
+ * GDMS-Topology is distributed under GPL 3 license. It is produced by the
+ * "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR
+ * 2488.
+ *
+ * Copyright (C) 2009-2012 IRSTV (FR CNRS 2488)
+ *
+ * GDMS-Topology is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * GDMS-Topology is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * GDMS-Topology. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://wwwc.orbisgis.org/> or contact
+ * directly: info_at_ orbisgis.org
+ */
+package org.gdms.gdmstopology.benchmarks;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.gdms.data.schema.Metadata;
+import org.gdms.data.types.Type;
+import org.gdms.data.types.TypeFactory;
+import org.gdms.data.values.Value;
+import org.gdms.data.values.ValueFactory;
+import org.gdms.driver.DataSet;
+import org.gdms.driver.memory.MemoryDataSetDriver;
+import org.gdms.gdmstopology.function.ST_ShortestPathLength;
+import org.gdms.gdmstopology.model.GraphSchema;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.orbisgis.progress.NullProgressMonitor;
+
+/**
+ * Benchmarks {@link ST_ShortestPathLength} under turn restrictions against
+ * the same searches without them. The grid stands for a dense urban core:
+ * every intersection has one forbidden and one penalized turn, so that the
+ * allocation rate reported by the GC profiler shows the cost of the edge-based
+ * expansion at its worst.
+ *
+ * @author Adam Gouge
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class TurnRestrictionBenchmark {
+
+    /**
+     * The turns table of the synthetic network.
+     */
+    @State(Scope.Benchmark)
+    public static class Turns {
+
+        /**
+         * Cost of the penalized turns.
+         */
+        private static final double PENALTY = 0.5;
+        /**
+         * The turns table.
+         */
+        public MemoryDataSetDriver table;
+
+        /**
+         * Restricts two turns at every intersection with four streets or
+         * more.
+         *
+         * @param network The network
+         *
+         * @throws Exception
+         */
+        @Setup(Level.Trial)
+        public void setUp(SyntheticNetwork network) throws Exception {
+            Metadata md = network.edges.getMetadata();
+            int idIndex = md.getFieldIndex(GraphSchema.ID);
+            int startIndex = md.getFieldIndex(GraphSchema.START_NODE);
+            int endIndex = md.getFieldIndex(GraphSchema.END_NODE);
+            Map<Integer, List<Integer>> incident =
+                    new HashMap<Integer, List<Integer>>();
+            for (int i = 0; i < network.edges.getRowCount(); i++) {
+                int id = network.edges.getFieldValue(i, idIndex).getAsInt();
+                for (int index : new int[]{startIndex, endIndex}) {
+                    int node = network.edges.getFieldValue(i, index)
+                            .getAsInt();
+                    List<Integer> edges = incident.get(node);
+                    if (edges == null) {
+                        edges = new ArrayList<Integer>(4);
+                        incident.put(node, edges);
+                    }
+                    edges.add(id);
+                }
+            }
+            table = new MemoryDataSetDriver(
+                    new String[]{GraphSchema.FROM_EDGE, GraphSchema.VIA_NODE,
+                                 GraphSchema.TO_EDGE, GraphSchema.TURN_COST},
+                    new Type[]{TypeFactory.createType(Type.INT),
+                               TypeFactory.createType(Type.INT),
+                               TypeFactory.createType(Type.INT),
+                               TypeFactory.createType(Type.DOUBLE)});
+            for (Map.Entry<Integer, List<Integer>> e : incident.entrySet()) {
+                List<Integer> edges = e.getValue();
+                if (edges.size() < 4) {
+                    continue;
+                }
+                Value via = ValueFactory.createValue(e.getKey());
+                table.addValues(new Value[]{
+                    ValueFactory.createValue(edges.get(0)), via,
+                    ValueFactory.createValue(edges.get(1)),
+                    ValueFactory.createNullValue()});
+                table.addValues(new Value[]{
+                    ValueFactory.createValue(edges.get(2)), via,
+                    ValueFactory.createValue(edges.get(3)),
+                    ValueFactory.createValue(PENALTY)});
+            }
+        }
+    }
+
+    @Benchmark
+    public void oneToOneWithoutTurns(SyntheticNetwork network, Blackhole bh)
+            throws Exception {
+        evaluate(network, bh, new DataSet[]{network.edges},
+                 ValueFactory.createValue(network.getCenter()),
+                 ValueFactory.createValue(network.getCorner()));
+    }
+
+    @Benchmark
+    public void oneToOneWithTurns(SyntheticNetwork network, Turns turns,
+                                  Blackhole bh) throws Exception {
+        evaluate(network, bh, new DataSet[]{network.edges, turns.table},
+                 ValueFactory.createValue(network.getCenter()),
+                 ValueFactory.createValue(network.getCorner()));
+    }
+
+    @Benchmark
+    public void oneToAllWithoutTurns(SyntheticNetwork network, Blackhole bh)
+            throws Exception {
+        evaluate(network, bh, new DataSet[]{network.edges},
+                 ValueFactory.createValue(network.getCenter()));
+    }
+
+    @Benchmark
+    public void oneToAllWithTurns(SyntheticNetwork network, Turns turns,
+                                  Blackhole bh) throws Exception {
+        evaluate(network, bh, new DataSet[]{network.edges, turns.table},
+                 ValueFactory.createValue(network.getCenter()));
+    }
+
+    private static void evaluate(SyntheticNetwork network,
+                                 Blackhole bh,
+                                 DataSet[] tables,
+                                 Value... nodes) throws Exception {
+        Value[] values = new Value[nodes.length + 2];
+        System.arraycopy(nodes, 0, values, 0, nodes.length);
+        values[nodes.length] = ValueFactory.createValue(
+                SyntheticNetwork.WEIGHT);
+        values[nodes.length + 1] = ValueFactory.createValue(
+                SyntheticNetwork.ORIENTATION);
+        SyntheticNetwork.consume(
+                new ST_ShortestPathLength().evaluate(
+                network.dsf, tables, values, new NullProgressMonitor()),
+                bh);
+    }
+}
@@ -34,6 +34,7 @@ import org.gdms.gdmstopology.centrality.ST_Accessibility;
 import org.gdms.gdmstopology.function.*;
 import org.gdms.gdmstopology.centrality.ST_GraphAnalysis;
 import org.gdms.gdmstopology.centrality.ST_StrahlerStreamOrder;
+import org.gdms.gdmstopology.process.TopologyExecutorService;
 import org.gdms.sql.function.Function;
 import org.osgi.framework.BundleActivator;
 import org.osgi.framework.BundleContext;
@@ -52,6 +53,14 @@ public class Activator implements BundleActivator {
     public void start(BundleContext context) throws Exception {
         this.context = context;
         LOGGER.info("Activator of org.gdms.gdmstopology starting..");
+        // Thread pools shared by the parallel algorithms
+        TopologyExecutorService executor =
+                TopologyExecutorService.fromProperties(
+                context.getProperty(TopologyExecutorService.CPU_THREADS),
+                context.getProperty(TopologyExecutorService.IO_THREADS));
+        TopologyExecutorService.setShared(executor);
+        context.registerService(TopologyExecutorService.class, executor,
+                                null);
         // Register dummy sql function service
         reg(new ST_BlockIdentity());
         reg(new ST_Graph());
@@ -69,6 +78,14 @@ public class Activator implements BundleActivator {
         reg(new ST_ShortestPathLength());
         reg(new ST_ShortestPathTree());
         reg(new ST_Accessibility());
+        reg(new ST_ReadDistanceMatrix());
+        reg(new ST_DistanceMatrix());
+        reg(new ST_Isochrones());
+        reg(new ST_SnapToGraph());
+        reg(new ST_SnappedGraph());
+        reg(new ST_MapMatch());
+        reg(new ST_TrafficAssignment());
+        reg(new ST_MinimumSpanningTree());
     }
 
     private void reg(Function gdmsFunc) {
@@ -84,5 +101,6 @@ public class Activator implements BundleActivator {
     @Override
     public void stop(BundleContext context) throws Exception {
         LOGGER.info("Activator of org.gdms.gdmstopology stopping..");
+        TopologyExecutorService.setShared(null);
     }
 }
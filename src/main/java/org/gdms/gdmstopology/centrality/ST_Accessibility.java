@@ -147,26 +147,6 @@ public class ST_Accessibility extends AbstractTableFunction {
         GraphSchema.ID,
         GraphSchema.CLOSEST_DESTINATION,
         GraphSchema.DIST_TO_CLOSEST_DESTINATION});
-    /**
-     * Table of destinations.
-     */
-    private DataSet destinationTable = null;
-    /**
-     * Destinations array if a table is not used.
-     */
-    private int[] destinations = null;
-    /**
-     * Weight column name.
-     */
-    private String weightsColumn = null;
-    /**
-     * Global orientation string.
-     */
-    private String globalOrientation = null;
-    /**
-     * Edge orientation string.
-     */
-    private String edgeOrientationColumnName = null;
     /**
      * Logger.
      */
@@ -182,15 +162,15 @@ public class ST_Accessibility extends AbstractTableFunction {
         final DataSet edges = tables[0];
 
         // Recover all other parameters.
-        parseArguments(edges, tables, values);
+        final Request request = parseArguments(edges, tables, values);
 
         // Prepare the graph.
-        KeyedGraph<VAccess, Edge> graph = prepareGraph(edges);
+        KeyedGraph<VAccess, Edge> graph = prepareGraph(edges, request);
 
         // Compute and return results.
         DiskBufferDriver results = null;
         try {
-            results = compute(dsf, graph);
+            results = compute(dsf, graph, request);
         } catch (DriverException ex) {
             LOGGER.error(ex.toString());
         }
@@ -202,10 +182,15 @@ public class ST_Accessibility extends AbstractTableFunction {
      *
      * @param tables Input table(s)
      * @param values Arguments
+     *
+     * @return The parsed request
      */
-    private void parseArguments(DataSet edges, DataSet[] tables, Value[] values) {
+    private Request parseArguments(DataSet edges, DataSet[] tables,
+                                   Value[] values) {
         GraphFunctionParser parser = new GraphFunctionParser();
         int valuesIndex = 0;
+        DataSet destinationTable = null;
+        int[] destinations = null;
         // (dest_table, ...)
         if (tables.length == 2) {
             destinationTable = tables[1];
@@ -214,20 +199,25 @@ public class ST_Accessibility extends AbstractTableFunction {
             destinations = parser.parseDestinationsString(values[valuesIndex++]);
         }
         parser.parseOptionalArguments(edges, values, valuesIndex);
-        globalOrientation = parser.getGlobalOrientation();
-        edgeOrientationColumnName = parser.getEdgeOrientationColumnName();
-        weightsColumn = parser.getWeightsColumn();
+        return new Request(destinationTable, destinations,
+                           parser.getWeightsColumn(),
+                           parser.getGlobalOrientation(),
+                           parser.getEdgeOrientationColumnName());
     }
 
     /**
      * Prepare the JGraphT graph from the given edges table.
      *
-     * @param edges Edges table
+     * @param edges   Edges table
+     * @param request Parsed request
      *
      * @return JGraphT graph
      */
-    private KeyedGraph<VAccess, Edge> prepareGraph(final DataSet edges) {
+    private KeyedGraph<VAccess, Edge> prepareGraph(final DataSet edges,
+                                                   Request request) {
         KeyedGraph<VAccess, Edge> graph;
+        String globalOrientation = request.globalOrientation;
+        String edgeOrientationColumnName = request.edgeOrientationColumnName;
 
         // Get the graph orientation.
         int graphType = -1;
@@ -245,14 +235,14 @@ public class ST_Accessibility extends AbstractTableFunction {
         }
 
         // Create the graph.
-        if (weightsColumn != null) {
+        if (request.weightsColumn != null) {
             graph = new WeightedGraphCreator<VAccess, Edge>(
                     edges,
                     graphType,
                     edgeOrientationColumnName,
                     VAccess.class,
                     Edge.class,
-                    weightsColumn).prepareGraph();
+                    request.weightsColumn).prepareGraph();
         } else {
             graph = new GraphCreator<VAccess, Edge>(
                     edges,
@@ -267,16 +257,20 @@ public class ST_Accessibility extends AbstractTableFunction {
     /**
      * Compute the distances and write them to a table.
      *
-     * @param dsf   Data source factory
-     * @param graph JGraphT graph
+     * @param dsf     Data source factory
+     * @param graph   JGraphT graph
+     * @param request Parsed request
      *
      * @return The requested distances
      *
      * @throws DriverException
      */
     private DiskBufferDriver compute(DataSourceFactory dsf,
-                                     KeyedGraph<VAccess, Edge> graph)
+                                     KeyedGraph<VAccess, Edge> graph,
+                                     Request request)
             throws DriverException {
+        final DataSet destinationTable = request.destinationTable;
+        final int[] destinations = request.destinations;
 
         // Initialize the output.
         DiskBufferDriver output = new DiskBufferDriver(dsf, getMetadata(null));
@@ -413,4 +407,44 @@ public class ST_Accessibility extends AbstractTableFunction {
     public String getDescription() {
         return DESCRIPTION;
     }
+
+    /**
+     * The destinations, weights and orientations of one evaluation, as read
+     * by {@link #parseArguments}.
+     */
+    private static final class Request {
+
+        /**
+         * Table of destinations, or {@code null}.
+         */
+        private final DataSet destinationTable;
+        /**
+         * Destinations array if a table is not used.
+         */
+        private final int[] destinations;
+        /**
+         * Weight column name.
+         */
+        private final String weightsColumn;
+        /**
+         * Global orientation string.
+         */
+        private final String globalOrientation;
+        /**
+         * Edge orientation string.
+         */
+        private final String edgeOrientationColumnName;
+
+        private Request(DataSet destinationTable,
+                        int[] destinations,
+                        String weightsColumn,
+                        String globalOrientation,
+                        String edgeOrientationColumnName) {
+            this.destinationTable = destinationTable;
+            this.destinations = destinations;
+            this.weightsColumn = weightsColumn;
+            this.globalOrientation = globalOrientation;
+            this.edgeOrientationColumnName = edgeOrientationColumnName;
+        }
+    }
 }
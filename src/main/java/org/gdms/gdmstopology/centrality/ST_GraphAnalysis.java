@@ -128,18 +128,6 @@ public class ST_GraphAnalysis extends AbstractExecutorFunction {
      */
     private static final String DESCRIPTION =
             SHORT_DESCRIPTION + LONG_DESCRIPTION;
-    /**
-     * Weight column name.
-     */
-    private String weightsColumn = null;
-    /**
-     * Global orientation string.
-     */
-    private String globalOrientation = null;
-    /**
-     * Edge orientation string.
-     */
-    private String edgeOrientationColumnName = null;
     /**
      * Logger.
      */
@@ -167,18 +155,19 @@ public class ST_GraphAnalysis extends AbstractExecutorFunction {
             Value[] values,
             ProgressMonitor pm) {
         final DataSet edges = tables[0];
-        parseArguments(edges, tables, values);
-        doAnalysisAccordingToUserInput(dsf, edges, pm);
+        doAnalysisAccordingToUserInput(
+                dsf, edges, parseArguments(edges, tables, values), pm);
     }
 
     /**
      * Registers closeness centrality according to the SQL arguments provided by
      * the user.
      *
-     * @param dsf   The {@link DataSourceFactory} used to parse the data set.
-     * @param edges The edges table.
-     * @param pm    The progress monitor used to track the progress of the
-     *              calculation.
+     * @param dsf     The {@link DataSourceFactory} used to parse the data set.
+     * @param edges   The edges table.
+     * @param request The parsed arguments.
+     * @param pm      The progress monitor used to track the progress of the
+     *                calculation.
      *
      * @throws GraphException
      * @throws DriverException
@@ -186,7 +175,12 @@ public class ST_GraphAnalysis extends AbstractExecutorFunction {
     private void doAnalysisAccordingToUserInput(
             DataSourceFactory dsf,
             DataSet edges,
+            Request request,
             ProgressMonitor pm) {
+        final String globalOrientation = request.globalOrientation;
+        final String edgeOrientationColumnName =
+                request.edgeOrientationColumnName;
+        final String weightsColumn = request.weightsColumn;
         // Get the graph orientation.
         int graphType = -1;
         if (globalOrientation != null) {
@@ -214,11 +208,16 @@ public class ST_GraphAnalysis extends AbstractExecutorFunction {
         final SourceManager sourceManager = dsf.getSourceManager();
         // Nodes table
         final DiskBufferDriver nodesDriver = analyzer.prepareDataSet();
-        sourceManager.register(sourceManager.getUniqueName("node_centrality"),
-                nodesDriver.getFile());
         // Edges table
         final DiskBufferDriver edgesDriver = analyzer.getEdgesDriver();
-        sourceManager.register(sourceManager.getUniqueName("edge_centrality"),
+        // The unique name is chosen before the table is registered, so two
+        // concurrent analyses may still pick the same name, in which case
+        // the second registration fails.
+        sourceManager.register(
+                sourceManager.getUniqueName("node_centrality"),
+                nodesDriver.getFile());
+        sourceManager.register(
+                sourceManager.getUniqueName("edge_centrality"),
                 edgesDriver.getFile());
     }
 
@@ -330,12 +329,43 @@ public class ST_GraphAnalysis extends AbstractExecutorFunction {
      *
      * @param tables Input table(s)
      * @param values Arguments
+     *
+     * @return The parsed arguments
      */
-    private void parseArguments(DataSet edges, DataSet[] tables, Value[] values) {
+    private Request parseArguments(DataSet edges, DataSet[] tables,
+                                   Value[] values) {
         GraphFunctionParser parser = new GraphFunctionParser();
         parser.parseOptionalArguments(edges, values, 0);
-        globalOrientation = parser.getGlobalOrientation();
-        edgeOrientationColumnName = parser.getEdgeOrientationColumnName();
-        weightsColumn = parser.getWeightsColumn();
+        return new Request(parser.getWeightsColumn(),
+                           parser.getGlobalOrientation(),
+                           parser.getEdgeOrientationColumnName());
+    }
+
+    /**
+     * The weights and orientations of one analysis, as read by
+     * {@link #parseArguments}.
+     */
+    private static final class Request {
+
+        /**
+         * Weight column name.
+         */
+        private final String weightsColumn;
+        /**
+         * Global orientation string.
+         */
+        private final String globalOrientation;
+        /**
+         * Edge orientation string.
+         */
+        private final String edgeOrientationColumnName;
+
+        private Request(String weightsColumn,
+                        String globalOrientation,
+                        String edgeOrientationColumnName) {
+            this.weightsColumn = weightsColumn;
+            this.globalOrientation = globalOrientation;
+            this.edgeOrientationColumnName = edgeOrientationColumnName;
+        }
     }
 }
@@ -32,16 +32,8 @@
  */
 package org.gdms.gdmstopology.function;
 
-import com.vividsolutions.jts.algorithm.CGAlgorithms;
 import com.vividsolutions.jts.geom.Geometry;
-import com.vividsolutions.jts.operation.distance.DistanceOp;
-import java.util.HashSet;
-import java.util.Iterator;
-import java.util.Set;
-import org.gdms.data.NoSuchTableException;
 import org.gdms.data.DataSourceFactory;
-import org.gdms.data.indexes.DefaultSpatialIndexQuery;
-import org.gdms.data.indexes.IndexException;
 import org.gdms.data.schema.DefaultMetadata;
 import org.gdms.data.schema.Metadata;
 import org.gdms.data.types.Type;
@@ -51,6 +43,8 @@ import org.gdms.data.values.ValueFactory;
 import org.gdms.driver.DiskBufferDriver;
 import org.gdms.driver.DriverException;
 import org.gdms.driver.DataSet;
+import org.gdms.gdmstopology.process.BlockIdentifier;
+import org.gdms.gdmstopology.process.TopologyExecutorService;
 import org.gdms.sql.function.FunctionException;
 import org.gdms.sql.function.FunctionSignature;
 import org.gdms.sql.function.ScalarArgument;
@@ -71,23 +65,12 @@ import org.orbisgis.progress.ProgressMonitor;
  * used. By default if nothing is specified, all fields of the input table are
  * kept.
  *
- * <p> The algorithm uses an index to get the nearest geometries of a fixed
- * geometry and then uses the <a
- * href="http://www.vividsolutions.com/jts/jtshome.htm">JTS</a> Class
- * {@link com.vividsolutions.jts.operation.distance.DistanceOp} to check if the
- * (smallest) distance between the two is 0. If it is, the two are grouped and
- * the same algorithm is computed on the newly added geometries, until the group
- * does not expand anymore.
- *
- * <p> <i>Note</i>: This is a <b>BRUTE-FORCE</b>, <b>NON-ROBUST</b> algorithm.
- *
- * <p> Using {@link com.vividsolutions.jts.operation.distance.DistanceOp} is
- * <i>much</i> faster than using {@code geom1.touches(geom2)}, because it does
- * not need to compute the DE-9IM intersection matrix. However it is still a
- * brute-force algorithm on the lines and points of both geometries. Also, it
- * uses a non-robust computational geometric algorithm in the JTS Class
- * {@link com.vividsolutions.jts.algorithm.CGAlgorithms}. This could be improved
- * by writing a custom JTS {@code TouchesOp}.
+ * <p> The algorithm packs the envelopes of all geometries into an in-memory
+ * STR-tree, then tests each geometry against the candidates returned by the
+ * tree on several threads, using a prepared geometry. Two geometries at
+ * distance zero (i.e., intersecting or touching) belong to the same block.
+ * The pairs found are merged in a union-find, and the rows are written block
+ * by block (see {@link BlockIdentifier}).
  *
  * <p> October 12, 2012: Documentation updated by Adam Gouge.
  *
@@ -97,27 +80,7 @@ import org.orbisgis.progress.ProgressMonitor;
 public class ST_BlockIdentity extends AbstractTableFunction {
 
     /**
-     *
-     */
-    private HashSet<Integer> idsToProcess;
-    /**
-     *
-     */
-    private int[] fieldIds;
-    /**
-     *
-     */
-    private DataSet dataSet;
-    /**
-     *
-     */
-    private int geomFieldIndex;
-    /**
-     *
-     */
-    private String geomField;
-    /**
-     *
+     * Result driver, closed when the work is finished.
      */
     private DiskBufferDriver diskBufferDriver;
 
@@ -136,43 +99,44 @@ public class ST_BlockIdentity extends AbstractTableFunction {
     public DataSet evaluate(DataSourceFactory dsf, DataSet[] tables,
                             Value[] values, ProgressMonitor pm) throws
             FunctionException {
-        dataSet = tables[0];
+        final DataSet dataSet = tables[0];
         //We need to read our source.                
         try {
             Metadata metadata = dataSet.getMetadata();
             String[] fieldNames;
+            String geomField = values[0].getAsString();
 
             if (values.length == 2) {
-                geomField = values[0].getAsString();
                 fieldNames = values[1].getAsString().split(", *");
             } else {
-                geomField = values[0].getAsString();
                 fieldNames = metadata.getFieldNames();
             }
 
-            geomFieldIndex = metadata.getFieldIndex(geomField);
+            int geomFieldIndex = metadata.getFieldIndex(geomField);
             if (geomFieldIndex != -1) {
-                fieldIds = new int[fieldNames.length];
+                int[] fieldIds = new int[fieldNames.length];
                 for (int i = 0; i < fieldNames.length; i++) {
                     fieldIds[i] = metadata.getFieldIndex(fieldNames[i]);
                 }
 
-
-
-
-                pm.startTask("Building indexes", 100);
-                // build indexes
-                if (!dsf.getIndexManager().isIndexed(dataSet, geomField)) {
-                    dsf.getIndexManager().buildIndex(dataSet, geomField, pm);
+                // Read the geometries.
+                final int rowCount = (int) dataSet.getRowCount();
+                Geometry[] geometries = new Geometry[rowCount];
+                for (int i = 0; i < rowCount; i++) {
+                    geometries[i] = dataSet.getFieldValue(i, geomFieldIndex).
+                            getAsGeometry();
                 }
-                pm.endTask();
-
 
-                //Populate a hashset with all row ids
-                idsToProcess = new HashSet<Integer>();
-                for (int i = 0; i < dataSet.getRowCount(); i++) {
-                    idsToProcess.add(i);
+                // Find the blocks.
+                pm.startTask("Finding blocks", 100);
+                int[] blockIds = new BlockIdentifier(
+                        TopologyExecutorService.getShared())
+                        .identifyBlocks(geometries, pm);
+                pm.endTask();
+                if (blockIds == null) {
+                    return null;
                 }
+                geometries = null;
 
                 // results
                 DefaultMetadata met = new DefaultMetadata();
@@ -184,36 +148,34 @@ public class ST_BlockIdentity extends AbstractTableFunction {
 
                 diskBufferDriver = new DiskBufferDriver(dsf, met);
 
-
-                int blockId = 1;
-                while (!idsToProcess.isEmpty()) {
-
-                    // starts the block
-                    int start = idsToProcess.iterator().next();
-                    HashSet<Integer> block = new HashSet<Integer>();
-                    block.add(start);
-
-                    // aggregates the block
-                    aggregateNeighbours(dsf, start, block);
-
-                    // writes the block
-                    for (Integer next : block) {
-                        Value[] res = new Value[fieldIds.length + 1];
-                        for (int i = 0; i < fieldIds.length; i++) {
-                            res[i] = dataSet.getFieldValue(next, fieldIds[i]);
-                        }
-                        res[fieldIds.length] = ValueFactory.createValue(blockId);
-                        diskBufferDriver.addValues(res);
+                // Sort the rows by block (counting sort) and write them
+                // block by block.
+                int blockCount = 0;
+                for (int b : blockIds) {
+                    blockCount = Math.max(blockCount, b);
+                }
+                int[] blockStart = new int[blockCount + 2];
+                for (int b : blockIds) {
+                    blockStart[b + 1]++;
+                }
+                for (int b = 1; b <= blockCount; b++) {
+                    blockStart[b + 1] += blockStart[b];
+                }
+                int[] rows = new int[rowCount];
+                for (int i = 0; i < rowCount; i++) {
+                    rows[blockStart[blockIds[i]]++] = i;
+                }
+                for (int k = 0; k < rowCount; k++) {
+                    int next = rows[k];
+                    Value[] res = new Value[fieldIds.length + 1];
+                    for (int i = 0; i < fieldIds.length; i++) {
+                        res[i] = dataSet.getFieldValue(next, fieldIds[i]);
                     }
-
-                    // mark all those geometries as processed
-                    idsToProcess.removeAll(block);
-
-                    blockId++;
+                    res[fieldIds.length] =
+                            ValueFactory.createValue((long) blockIds[next]);
+                    diskBufferDriver.addValues(res);
                 }
-                pm.endTask();
                 diskBufferDriver.writingFinished();
-                pm.endTask();
                 diskBufferDriver.open();
                 return diskBufferDriver;
             } else {
@@ -223,10 +185,6 @@ public class ST_BlockIdentity extends AbstractTableFunction {
 
         } catch (DriverException ex) {
             throw new FunctionException(ex);
-        } catch (NoSuchTableException ex) {
-            throw new FunctionException(ex);
-        } catch (IndexException ex) {
-            throw new FunctionException(ex);
         }
     }
 
@@ -237,54 +195,6 @@ public class ST_BlockIdentity extends AbstractTableFunction {
         }
     }
 
-    private void aggregateNeighbours(DataSourceFactory dsf, int id,
-                                     Set<Integer> agg) throws DriverException {
-        int size = agg.size();
-
-        Set<Integer> re = relativesOf(dsf, id, agg);
-        agg.addAll(re);
-        int nSize = agg.size();
-
-
-        if (nSize == size) {
-            // blockSize has not changed, there is no more blocks to add
-            return;
-        } else {
-            for (Integer next : re) {
-                aggregateNeighbours(dsf, next, agg);
-            }
-        }
-    }
-
-    private Set<Integer> relativesOf(DataSourceFactory dsf, int id,
-                                     Set<Integer> excluded) throws
-            DriverException {
-        Geometry geom = dataSet.getFieldValue(id, geomFieldIndex).
-                getAsGeometry();
-
-        // query index
-        DefaultSpatialIndexQuery query = new DefaultSpatialIndexQuery(geomField,
-                                                                      geom.
-                getEnvelopeInternal());
-
-        HashSet<Integer> h = new HashSet<Integer>();
-        for (Iterator<Integer> s = dataSet.queryIndex(dsf, query);
-                s.hasNext();) {
-            int i = s.next();
-
-            // i != id to prevent adding itself
-            // !excluded.contains(i) to filter already added geometries
-            //      (this is O(1) while the next test is far from it...)
-            // test if both geoms are at 0 distance, i.e. touches
-            if (i != id && !excluded.contains(i) && DistanceOp.isWithinDistance(
-                    geom, dataSet.getFieldValue(i, geomFieldIndex).
-                    getAsGeometry(), 0)) {
-                h.add(i);
-            }
-        }
-        return h;
-    }
-
     /**
      * Returns the name of this function. This name will be used in SQL
      * statements.
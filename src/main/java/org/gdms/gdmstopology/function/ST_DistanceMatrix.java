@@ -0,0 +1,261 @@
+/**
+ * GDMS-Topology is a library dedicated to graph analysis. It is based on the
+ * JGraphT library available at <http://www.jgrapht.org/>. It enables computing
+ * and processing large graphs using spatial and alphanumeric indexes.
+ *
+ * This version is developed at French IRSTV institut as part of the EvalPDU
+ * project, funded by the French Agence Nationale de la Recherche (ANR) under
+ * contract ANR-08-VILL-0005-01 and GEBD project funded by the French Ministery
+ * of Ecology and Sustainable Development.
+ *
+ * GDMS-Topology is distributed under GPL 3 license. It is produced by the
+ * "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR
+ * 2488.
+ *
+ * Copyright (C) 2009-2012 IRSTV (FR CNRS 2488)
+ *
+ * GDMS-Topology is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * GDMS-Topology is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * GDMS-Topology. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://wwwc.orbisgis.org/> or contact
+ * directly: info_at_ orbisgis.org
+ */
+package org.gdms.gdmstopology.function;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import org.gdms.data.DataSourceFactory;
+import org.gdms.data.schema.Metadata;
+import org.gdms.data.values.Value;
+import org.gdms.driver.DataSet;
+import org.gdms.driver.DriverException;
+import org.gdms.gdmstopology.graphcreator.WeightedGraphCreator;
+import org.gdms.gdmstopology.model.CompactGraph;
+import org.gdms.gdmstopology.model.DistanceMatrixDataSet;
+import org.gdms.gdmstopology.model.GraphSchema;
+import org.gdms.gdmstopology.parse.BuildOptionsParser;
+import org.gdms.gdmstopology.parse.GraphFunctionParser;
+import org.gdms.gdmstopology.process.DistanceMatrixSearcher;
+import org.gdms.gdmstopology.process.TopologyExecutorService;
+import org.gdms.gdmstopology.utils.DistanceMatrixFile;
+import org.gdms.sql.function.FunctionException;
+import org.gdms.sql.function.ScalarArgument;
+import org.gdms.sql.function.table.AbstractTableFunction;
+import org.gdms.sql.function.table.TableArgument;
+import org.gdms.sql.function.table.TableDefinition;
+import org.gdms.sql.function.table.TableFunctionSignature;
+import org.javanetworkanalyzer.data.VWCent;
+import org.javanetworkanalyzer.model.Edge;
+import org.orbisgis.progress.ProgressMonitor;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Computes the distance between every pair of nodes of a nodes table.
+ *
+ * <p> On an undirected graph, only the upper triangle of the matrix is
+ * searched and the distances are mirrored. The searches of the nodes run in
+ * parallel and stop once all their targets are settled. The distances are
+ * written to a memory-mapped binary matrix, read lazily as a
+ * {@code (source, destination, distance)} table.
+ *
+ * @author Adam Gouge
+ */
+public class ST_DistanceMatrix extends AbstractTableFunction {
+
+    /**
+     * The name of this function.
+     */
+    private static final String NAME = "ST_DistanceMatrix";
+    /**
+     * The SQL order of this function.
+     */
+    private static final String SQL_ORDER =
+            "SELECT * FROM " + NAME + "("
+            + "output.edges, nodes_table, 'weights_column', "
+            + ST_ShortestPathLength.POSSIBLE_ORIENTATIONS
+            + "[, '" + ST_ShortestPathLength.FLOAT32 + ", "
+            + ST_Graph.REORDER + "']);";
+    /**
+     * Short description of this function.
+     */
+    private static final String SHORT_DESCRIPTION =
+            "Calculates the distance between every pair of nodes of a table.";
+    /**
+     * Long description of this function.
+     */
+    private static final String LONG_DESCRIPTION =
+            "<p> Example usage: "
+            + "<center> "
+            + "<code>" + SQL_ORDER + "</code> </center> "
+            + "<p> Required parameters: "
+            + "<ul> "
+            + "<li> <code>output.edges</code> - The <code>output.edges</code> "
+            + "table produced by <code>ST_Graph</code>, with an additional "
+            + "column specifying the weight of each edge. "
+            + "<li> <code>nodes_table</code> - a table of node ids (under "
+            + "column '" + GraphSchema.ID + "'). "
+            + "<li> <code>'weights_column'</code> - the name of the weight "
+            + "column. "
+            + "<li> <code>orientation</code> - as in "
+            + "<code>ST_ShortestPathLength</code>. For an '"
+            + ST_ShortestPathLength.UNDIRECTED + "' graph, each pair is "
+            + "computed once. </ul>"
+            + "<p> Optional parameter: "
+            + "<ul> "
+            + "<li> <code>'" + ST_ShortestPathLength.FLOAT32 + ", "
+            + ST_Graph.REORDER + "'</code> - the option '"
+            + ST_ShortestPathLength.FLOAT32 + "' stores the distances as "
+            + "float32 instead of float64; the option '" + ST_Graph.REORDER
+            + "' renumbers the vertices in reverse Cuthill-McKee order before "
+            + "the searches, so that neighbouring vertices are stored close "
+            + "together. </ul>"
+            + "<p> The matrix file can be read again later with "
+            + "<code>ST_ReadDistanceMatrix</code>.";
+    /**
+     * Logger.
+     */
+    private static final org.slf4j.Logger LOGGER =
+            LoggerFactory.getLogger(ST_DistanceMatrix.class);
+
+    @Override
+    public DataSet evaluate(DataSourceFactory dsf, DataSet[] tables,
+                            Value[] values, ProgressMonitor pm) throws
+            FunctionException {
+        final DataSet edges = tables[0];
+        GraphFunctionParser parser = new GraphFunctionParser();
+        parser.parseOptionalArguments(edges, values, 0);
+        Set<String> options = values.length == 3
+                ? BuildOptionsParser.parseOptions(
+                values[2].getAsString(), NAME,
+                ST_ShortestPathLength.FLOAT32, ST_Graph.REORDER)
+                : Collections.<String>emptySet();
+        boolean floatPrecision =
+                options.contains(ST_ShortestPathLength.FLOAT32);
+        if (parser.getWeightsColumn() == null) {
+            throw new IllegalArgumentException(
+                    NAME + " requires a weights column.");
+        }
+        int graphType = parser.getGraphType();
+        try {
+            int[] nodes = getNodes(tables[1]);
+            // Only a compact copy of the graph is kept.
+            CompactGraph graph = new CompactGraph(
+                    new WeightedGraphCreator<VWCent, Edge>(
+                    edges,
+                    graphType,
+                    parser.getEdgeOrientationColumnName(),
+                    VWCent.class,
+                    Edge.class,
+                    parser.getWeightsColumn()).prepareGraph());
+            if (options.contains(ST_Graph.REORDER)) {
+                graph = graph.reorder();
+            }
+            DistanceMatrixSearcher searcher = new DistanceMatrixSearcher(
+                    graph, TopologyExecutorService.getShared());
+
+            File file = dsf.getResultFile("dmx");
+            DistanceMatrixFile matrix = DistanceMatrixFile.create(
+                    file, nodes, nodes, floatPrecision);
+            pm.startTask("Computing distances", 100);
+            boolean done = searcher.compute(
+                    nodes, graphType == GraphSchema.UNDIRECT, matrix, pm);
+            pm.endTask();
+            if (!done) {
+                // The matrix is incomplete: drop it.
+                if (!file.delete()) {
+                    file.deleteOnExit();
+                }
+                return null;
+            }
+            matrix.flush();
+            LOGGER.info("Distance matrix written to {}.", file);
+            return new DistanceMatrixDataSet(getMetadata(null), matrix);
+        } catch (IOException ex) {
+            throw new FunctionException(
+                    "Cannot write the distance matrix.", ex);
+        } catch (DriverException ex) {
+            throw new FunctionException(ex);
+        }
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public String getSqlOrder() {
+        return SQL_ORDER;
+    }
+
+    @Override
+    public String getDescription() {
+        return SHORT_DESCRIPTION + LONG_DESCRIPTION;
+    }
+
+    @Override
+    public TableFunctionSignature[] getFunctionSignatures() {
+        return new TableFunctionSignature[]{
+            // (nodes,w,o) OR (nodes,o,w)
+            new TableFunctionSignature(TableDefinition.ANY,
+                                       TableArgument.GEOMETRY,
+                                       TableArgument.ANY,
+                                       ScalarArgument.STRING,
+                                       ScalarArgument.STRING),
+            // (nodes,w,o,'float32') OR (nodes,o,w,'float32')
+            new TableFunctionSignature(TableDefinition.ANY,
+                                       TableArgument.GEOMETRY,
+                                       TableArgument.ANY,
+                                       ScalarArgument.STRING,
+                                       ScalarArgument.STRING,
+                                       ScalarArgument.STRING)
+        };
+    }
+
+    @Override
+    public Metadata getMetadata(Metadata[] tables) throws DriverException {
+        return new ST_ShortestPathLength().getMetadata(null);
+    }
+
+    /**
+     * Returns the distinct node ids of the nodes table, in order of first
+     * appearance.
+     *
+     * @param nodesTable The nodes table
+     *
+     * @return The node ids
+     *
+     * @throws DriverException
+     */
+    static int[] getNodes(DataSet nodesTable) throws DriverException {
+        int idIndex = nodesTable.getMetadata().getFieldIndex(GraphSchema.ID);
+        if (idIndex == -1) {
+            throw new IllegalArgumentException(
+                    "The nodes table must contain a column named \'"
+                    + GraphSchema.ID + "\'.");
+        }
+        Set<Integer> ids = new LinkedHashSet<Integer>();
+        for (int i = 0; i < nodesTable.getRowCount(); i++) {
+            ids.add(nodesTable.getFieldValue(i, idIndex).getAsInt());
+        }
+        int[] nodes = new int[ids.size()];
+        int i = 0;
+        for (int id : ids) {
+            nodes[i++] = id;
+        }
+        return nodes;
+    }
+}
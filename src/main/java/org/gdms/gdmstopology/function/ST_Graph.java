@@ -34,11 +34,13 @@ package org.gdms.gdmstopology.function;
 
 import org.gdms.gdmstopology.process.NetworkGraphBuilder;
 import java.io.IOException;
+import java.util.Set;
 import org.gdms.data.NonEditableDataSourceException;
 import org.gdms.data.DataSourceFactory;
 import org.gdms.data.values.Value;
 import org.gdms.driver.DriverException;
 import org.gdms.driver.driverManager.DriverLoadException;
+import org.gdms.gdmstopology.parse.BuildOptionsParser;
 import org.gdms.sql.function.FunctionSignature;
 import org.orbisgis.progress.ProgressMonitor;
 import org.gdms.driver.DataSet;
@@ -58,7 +60,8 @@ import org.gdms.sql.function.table.TableDefinition;
  * input_table
  * [, tolerance,
  * orient_by_slope,
- * 'output_table_prefix']);}
+ * 'output_table_prefix'
+ * [, 'options']]);}
  * </center>
  *
  * <p> Concretely, this function produces two tables, containing the indicated
@@ -91,7 +94,18 @@ import org.gdms.sql.function.table.TableDefinition;
  * according to the input geometry. That is, the orientation will be from the
  * first point of a segment to the last point of the segment. <li>
  * {@code 'output_table_prefix'} - a string used to prefix the names of the two
- * output tables. </ul>
+ * output tables. <li> {@code 'options'} - a comma-separated list of build
+ * options: <ul> <li> {@code parallel} - snap the nodes tile by tile on several
+ * threads. The resulting tables are the same as those of a sequential build,
+ * apart from the node numbering when the tolerance is positive. <li>
+ * {@code external} - identify the nodes by an external merge sort of the line
+ * endpoints instead of R-tree queries, for inputs bigger than the memory. The
+ * nodes are numbered in coordinate order and, for a positive tolerance, the
+ * endpoints are snapped to a grid whose cells measure the tolerance. <li>
+ * {@code reorder} - renumber the nodes along a Hilbert curve through their
+ * coordinates and the edges by start node, and write both tables in that
+ * order, so that neighbouring nodes and edges are stored together. </ul>
+ * </ul>
  *
  * <p> October 12, 2012: Documentation added by Adam Gouge.
  *
@@ -109,6 +123,19 @@ import org.gdms.sql.function.table.TableDefinition;
 // TODO: How is the order determined in output_table_prefix.edges?
 public class ST_Graph extends AbstractExecutorFunction {
 
+    /**
+     * Option to build the graph in parallel.
+     */
+    public static final String PARALLEL = "parallel";
+    /**
+     * Option to identify the nodes by external sorting.
+     */
+    public static final String EXTERNAL = "external";
+    /**
+     * Option to renumber the nodes and edges in spatial order.
+     */
+    public static final String REORDER = "reorder";
+
     /**
      * Returns the name of this function. This name will be used in SQL
      * statements.
@@ -127,7 +154,8 @@ public class ST_Graph extends AbstractExecutorFunction {
      */
     @Override
     public String getSqlOrder() {
-        return "EXECUTE ST_Graph(input_table[, tolerance, orient_by_slope, 'output_table_prefix']);";
+        return "EXECUTE ST_Graph(input_table[, tolerance, orient_by_slope, "
+                + "'output_table_prefix'[, 'options']]);";
     }
 
     /**
@@ -158,7 +186,16 @@ public class ST_Graph extends AbstractExecutorFunction {
                 + "geometry. That is, the orientation will be from the first "
                 + "point of a segment to the last point of the segment. "
                 + "<p>Finally, <code>output_table_prefix</code> prefixes the names of the two "
-                + "output tables (<code>.nodes</code> and <code>.edges</code>).";
+                + "output tables (<code>.nodes</code> and <code>.edges</code>)."
+                + "<p>The optional <code>options</code> string is a "
+                + "comma-separated list of build options. The option "
+                + "<code>'" + PARALLEL + "'</code> snaps the nodes tile by "
+                + "tile on several threads. The option <code>'" + EXTERNAL
+                + "'</code> identifies the nodes by sorting the line "
+                + "endpoints on disk, for inputs bigger than the memory. The "
+                + "option <code>'" + REORDER + "'</code> renumbers the nodes "
+                + "along a Hilbert curve and the edges by start node, so that "
+                + "the output tables are spatially clustered.";
     }
 
     /**
@@ -194,10 +231,13 @@ public class ST_Graph extends AbstractExecutorFunction {
             } else if (values.length == 2) {
                 graphNetwork.setTolerance(values[0].getAsDouble());
                 graphNetwork.setOrientBySlope(values[1].getAsBoolean());
-            } else if (values.length == 3) {
+            } else if (values.length >= 3) {
                 graphNetwork.setTolerance(values[0].getAsDouble());
                 graphNetwork.setOrientBySlope(values[1].getAsBoolean());
                 graphNetwork.setOutput_name(values[2].getAsString());
+                if (values.length == 4) {
+                    parseOptions(graphNetwork, values[3].getAsString());
+                }
             }
             // Build the actual graph.
             graphNetwork.buildGraph(dataSet);
@@ -212,6 +252,21 @@ public class ST_Graph extends AbstractExecutorFunction {
         }
     }
 
+    /**
+     * Applies the given comma-separated build options to the given builder.
+     *
+     * @param graphNetwork The graph builder
+     * @param options      The options string
+     */
+    private void parseOptions(NetworkGraphBuilder graphNetwork,
+                              String options) {
+        Set<String> found = BuildOptionsParser.parseOptions(
+                options, getName(), PARALLEL, EXTERNAL, REORDER);
+        graphNetwork.setParallel(found.contains(PARALLEL));
+        graphNetwork.setExternal(found.contains(EXTERNAL));
+        graphNetwork.setReorder(found.contains(REORDER));
+    }
+
     /**
      * Returns an array of all possible signatures of this function. Multiple
      * signatures arise from some arguments being optional.
@@ -223,6 +278,8 @@ public class ST_Graph extends AbstractExecutorFunction {
      * {@code (TABLE input_table, DOUBLE tolerance, BOOLEAN orient_by_slope)}
      * <li>
      * {@code (TABLE input_table, DOUBLE tolerance, BOOLEAN orient_by_slope, STRING output_table_prefix)}
+     * <li>
+     * {@code (TABLE input_table, DOUBLE tolerance, BOOLEAN orient_by_slope, STRING output_table_prefix, STRING options)}
      * </OL>
      *
      * @return An array of all possible signatures of this function.
@@ -249,6 +306,13 @@ public class ST_Graph extends AbstractExecutorFunction {
             new TableArgument(TableDefinition.GEOMETRY),
             ScalarArgument.DOUBLE,
             ScalarArgument.BOOLEAN,
+            ScalarArgument.STRING),
+            // Fifth possible signature: (..., STRING output_table_prefix, STRING options).
+            new ExecutorFunctionSignature(
+            new TableArgument(TableDefinition.GEOMETRY),
+            ScalarArgument.DOUBLE,
+            ScalarArgument.BOOLEAN,
+            ScalarArgument.STRING,
             ScalarArgument.STRING)
         };
     }
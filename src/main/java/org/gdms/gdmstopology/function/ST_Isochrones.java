@@ -0,0 +1,280 @@
+/**
+ * GDMS-Topology is a library dedicated to graph analysis. It is based on the
+ * JGraphT library available at <http://www.jgrapht.org/>. It enables computing
+ * and processing large graphs using spatial and alphanumeric indexes.
+ *
+ * This version is developed at French IRSTV institut as part of the EvalPDU
+ * project, funded by the French Agence Nationale de la Recherche (ANR) under
+ * contract ANR-08-VILL-0005-01 and GEBD project funded by the French Ministery
+ * of Ecology and Sustainable Development.
+ *
+ * GDMS-Topology is distributed under GPL 3 license. It is produced by the
+ * "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR
+ * 2488.
+ *
+ * Copyright (C) 2009-2012 IRSTV (FR CNRS 2488)
+ *
+ * GDMS-Topology is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * GDMS-Topology is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * GDMS-Topology. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://wwwc.orbisgis.org/> or contact
+ * directly: info_at_ orbisgis.org
+ */
+package org.gdms.gdmstopology.function;
+
+import com.vividsolutions.jts.geom.Geometry;
+import java.util.Arrays;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import org.gdms.data.DataSourceFactory;
+import org.gdms.data.schema.DefaultMetadata;
+import org.gdms.data.schema.Metadata;
+import org.gdms.data.types.Type;
+import org.gdms.data.types.TypeFactory;
+import org.gdms.data.values.Value;
+import org.gdms.data.values.ValueFactory;
+import org.gdms.driver.DataSet;
+import org.gdms.driver.DiskBufferDriver;
+import org.gdms.driver.DriverException;
+import org.gdms.gdmstopology.graphcreator.WeightedGraphCreator;
+import org.gdms.gdmstopology.model.CompactGraph;
+import org.gdms.gdmstopology.model.GraphSchema;
+import org.gdms.gdmstopology.parse.GraphFunctionParser;
+import org.gdms.gdmstopology.process.IsochroneBuilder;
+import org.gdms.gdmstopology.process.TopologyExecutorService;
+import org.gdms.sql.function.FunctionException;
+import org.gdms.sql.function.ScalarArgument;
+import org.gdms.sql.function.table.AbstractTableFunction;
+import org.gdms.sql.function.table.TableArgument;
+import org.gdms.sql.function.table.TableDefinition;
+import org.gdms.sql.function.table.TableFunctionSignature;
+import org.javanetworkanalyzer.data.VWCent;
+import org.javanetworkanalyzer.model.Edge;
+import org.orbisgis.progress.ProgressMonitor;
+
+/**
+ * Computes the service areas (isochrones) of facilities for several cost
+ * breaks at once.
+ *
+ * <p> Each facility is searched once, up to the largest break, and the
+ * facilities are searched in parallel. Edges partially within a break are cut
+ * at the break, and the reached edges are buffered into one polygon per
+ * facility and break.
+ *
+ * @author Adam Gouge
+ */
+public class ST_Isochrones extends AbstractTableFunction {
+
+    /**
+     * The name of this function.
+     */
+    private static final String NAME = "ST_Isochrones";
+    /**
+     * Facility field of the output.
+     */
+    public static final String FACILITY = "facility";
+    /**
+     * Break field of the output.
+     */
+    public static final String CUTOFF = "cutoff";
+    /**
+     * The SQL order of this function.
+     */
+    private static final String SQL_ORDER =
+            "SELECT * FROM " + NAME + "("
+            + "output.edges, facilities_table, 'weights_column'"
+            + "[, " + ST_ShortestPathLength.POSSIBLE_ORIENTATIONS + "], "
+            + "'break1, break2, ...'[, buffer]);";
+    /**
+     * Short description of this function.
+     */
+    private static final String SHORT_DESCRIPTION =
+            "Calculates the service area of each facility for each break.";
+    /**
+     * Long description of this function.
+     */
+    private static final String LONG_DESCRIPTION =
+            "<p> Example usage: "
+            + "<center> "
+            + "<code>" + SQL_ORDER + "</code> </center> "
+            + "<p> Required parameters: "
+            + "<ul> "
+            + "<li> <code>output.edges</code> - The <code>output.edges</code> "
+            + "table produced by <code>ST_Graph</code>, with an additional "
+            + "column specifying the weight of each edge. "
+            + "<li> <code>facilities_table</code> - a table of facility node "
+            + "ids (under column '" + GraphSchema.ID + "'). "
+            + "<li> <code>'weights_column'</code> - the name of the weight "
+            + "column. "
+            + "<li> <code>'break1, break2, ...'</code> - the cost breaks. "
+            + "</ul>"
+            + "<p> Optional parameters: "
+            + "<ul> "
+            + "<li> <code>orientation</code> - as in "
+            + "<code>ST_ShortestPathLength</code>. "
+            + "<li> <code>buffer</code> - the buffer distance of the reached "
+            + "edges (by default, half the mean edge length). </ul>"
+            + "<p> The output contains one polygon per facility and break, "
+            + "with fields '" + FACILITY + "' and '" + CUTOFF + "'. The "
+            + "service area of a break contains those of the smaller breaks.";
+
+    @Override
+    public DataSet evaluate(DataSourceFactory dsf, DataSet[] tables,
+                            Value[] values, ProgressMonitor pm) throws
+            FunctionException {
+        final DataSet edges = tables[0];
+        int last = values.length - 1;
+        double buffer = -1;
+        if (values[last].getType() != Type.STRING) {
+            buffer = values[last].getAsDouble();
+            last--;
+        }
+        double[] breaks = parseBreaks(values[last].getAsString());
+        GraphFunctionParser parser = new GraphFunctionParser();
+        parser.parseOptionalArguments(edges, Arrays.copyOf(values, last), 0);
+        if (parser.getWeightsColumn() == null) {
+            throw new IllegalArgumentException(
+                    NAME + " requires a weights column.");
+        }
+        try {
+            int[] facilities = ST_DistanceMatrix.getNodes(tables[1]);
+            IsochroneBuilder builder = new IsochroneBuilder(
+                    new CompactGraph(new WeightedGraphCreator<VWCent, Edge>(
+                    edges,
+                    parser.getGraphType(),
+                    parser.getEdgeOrientationColumnName(),
+                    VWCent.class,
+                    Edge.class,
+                    parser.getWeightsColumn()).prepareGraph()),
+                    edges,
+                    TopologyExecutorService.getShared());
+            if (buffer < 0) {
+                buffer = builder.getMeanLength() / 2;
+            }
+
+            final DiskBufferDriver output =
+                    new DiskBufferDriver(dsf, getMetadata(null));
+            pm.startTask("Building service areas", 100);
+            boolean done = builder.build(facilities, breaks, buffer,
+                          new IsochroneBuilder.ServiceAreaHandler() {
+                @Override
+                public void handle(int facility, double cost, Geometry area)
+                        throws DriverException {
+                    if (!area.isEmpty()) {
+                        output.addValues(ValueFactory.createValue(area),
+                                         ValueFactory.createValue(facility),
+                                         ValueFactory.createValue(cost));
+                    }
+                }
+            }, pm);
+            pm.endTask();
+            if (!done) {
+                return null;
+            }
+            output.writingFinished();
+            output.open();
+            return output;
+        } catch (DriverException ex) {
+            throw new FunctionException(ex);
+        }
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public String getSqlOrder() {
+        return SQL_ORDER;
+    }
+
+    @Override
+    public String getDescription() {
+        return SHORT_DESCRIPTION + LONG_DESCRIPTION;
+    }
+
+    @Override
+    public TableFunctionSignature[] getFunctionSignatures() {
+        return new TableFunctionSignature[]{
+            // (f,w,breaks)
+            new TableFunctionSignature(TableDefinition.GEOMETRY,
+                                       TableArgument.GEOMETRY,
+                                       TableArgument.ANY,
+                                       ScalarArgument.STRING,
+                                       ScalarArgument.STRING),
+            // (f,w,o,breaks) OR (f,o,w,breaks)
+            new TableFunctionSignature(TableDefinition.GEOMETRY,
+                                       TableArgument.GEOMETRY,
+                                       TableArgument.ANY,
+                                       ScalarArgument.STRING,
+                                       ScalarArgument.STRING,
+                                       ScalarArgument.STRING),
+            // (f,w,breaks,buffer)
+            new TableFunctionSignature(TableDefinition.GEOMETRY,
+                                       TableArgument.GEOMETRY,
+                                       TableArgument.ANY,
+                                       ScalarArgument.STRING,
+                                       ScalarArgument.STRING,
+                                       ScalarArgument.DOUBLE),
+            // (f,w,o,breaks,buffer) OR (f,o,w,breaks,buffer)
+            new TableFunctionSignature(TableDefinition.GEOMETRY,
+                                       TableArgument.GEOMETRY,
+                                       TableArgument.ANY,
+                                       ScalarArgument.STRING,
+                                       ScalarArgument.STRING,
+                                       ScalarArgument.STRING,
+                                       ScalarArgument.DOUBLE)
+        };
+    }
+
+    @Override
+    public Metadata getMetadata(Metadata[] tables) throws DriverException {
+        return new DefaultMetadata(
+                new Type[]{TypeFactory.createType(Type.GEOMETRY),
+                           TypeFactory.createType(Type.INT),
+                           TypeFactory.createType(Type.DOUBLE)},
+                new String[]{"the_geom", FACILITY, CUTOFF});
+    }
+
+    /**
+     * Parses a comma-separated list of positive breaks.
+     *
+     * @param breaks The breaks
+     *
+     * @return The distinct breaks, in increasing order
+     */
+    private static double[] parseBreaks(String breaks) {
+        SortedSet<Double> set = new TreeSet<Double>();
+        for (String b : breaks.split(",")) {
+            double value;
+            try {
+                value = Double.parseDouble(b.trim());
+            } catch (NumberFormatException ex) {
+                throw new IllegalArgumentException(
+                        "Invalid break '" + b.trim() + "'.", ex);
+            }
+            if (!(value > 0)) {
+                throw new IllegalArgumentException(
+                        "Breaks must be positive.");
+            }
+            set.add(value);
+        }
+        double[] array = new double[set.size()];
+        int i = 0;
+        for (double b : set) {
+            array[i++] = b;
+        }
+        return array;
+    }
+}
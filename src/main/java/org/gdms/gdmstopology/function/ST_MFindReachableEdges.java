@@ -30,6 +30,8 @@
  */
 package org.gdms.gdmstopology.function;
 
+import java.util.Collections;
+import java.util.Set;
 import org.gdms.data.DataSourceFactory;
 import org.gdms.data.schema.Metadata;
 import org.gdms.data.values.Value;
@@ -37,6 +39,7 @@ import org.gdms.driver.DriverException;
 import org.gdms.driver.DataSet;
 import org.gdms.gdmstopology.model.GraphMetadataFactory;
 import org.gdms.gdmstopology.model.GraphSchema;
+import org.gdms.gdmstopology.parse.BuildOptionsParser;
 import org.gdms.gdmstopology.process.GraphUtilities;
 import org.gdms.sql.function.FunctionException;
 import org.gdms.sql.function.FunctionSignature;
@@ -53,14 +56,27 @@ import org.orbisgis.progress.ProgressMonitor;
  */
 public class ST_MFindReachableEdges extends AbstractTableFunction {
 
+        /**
+         * Option to count the hops instead of the costs.
+         */
+        public static final String UNWEIGHTED = "unweighted";
+
         @Override
         public DataSet evaluate(DataSourceFactory dsf, DataSet[] tables, Value[] values, ProgressMonitor pm) throws FunctionException {
                 try {
                         DataSet sdsEdges = tables[0];
                         DataSet vertexes = tables[1];
 
-                        if (values.length == 2) {
-                                return GraphUtilities.getMReachableEdges(dsf, sdsEdges, vertexes, values[0].getAsString(), Double.POSITIVE_INFINITY, values[1].getAsInt(), pm);
+                        if (values.length >= 2) {
+                                Set<String> options = values.length == 3
+                                        ? BuildOptionsParser.parseOptions(values[2].getAsString(), getName(),
+                                        ST_Graph.PARALLEL, UNWEIGHTED)
+                                        : Collections.<String>emptySet();
+                                if (options.contains(UNWEIGHTED)) {
+                                        return GraphUtilities.findMReachableEdgesByHops(dsf, sdsEdges, vertexes, values[1].getAsInt(), pm);
+                                }
+                                boolean parallel = options.contains(ST_Graph.PARALLEL);
+                                return GraphUtilities.getMReachableEdges(dsf, sdsEdges, vertexes, values[0].getAsString(), Double.POSITIVE_INFINITY, values[1].getAsInt(), parallel, pm);
                         } else {
                                 return GraphUtilities.getMReachableEdges(dsf, sdsEdges, vertexes, values[0].getAsString(), Double.POSITIVE_INFINITY, GraphSchema.DIRECT, pm);
                         }
@@ -83,12 +99,16 @@ public class ST_MFindReachableEdges extends AbstractTableFunction {
                         + "Optional argument : \n"
                         + "1 if the graph is directed\n"
                         + "2 if the graph is directed and edges are reversed."
-                        + "3 if the graph is undirected\n";
+                        + "3 if the graph is undirected\n"
+                        + "Optional options string after the orientation: 'parallel' runs\n"
+                        + "the searches of the sources on several threads; 'unweighted'\n"
+                        + "ignores the cost field and counts the hops, searching from 64\n"
+                        + "sources at once.\n";
         }
 
         @Override
         public String getSqlOrder() {
-                return "SELECT * from ST_MFindReachableEdges(graph, nodes, costField [,1]) );";
+                return "SELECT * from ST_MFindReachableEdges(graph, nodes, costField [,1 [,'parallel' | 'unweighted']]) );";
         }
 
         @Override
@@ -100,7 +120,8 @@ public class ST_MFindReachableEdges extends AbstractTableFunction {
         public FunctionSignature[] getFunctionSignatures() {
                 return new FunctionSignature[]{
                                 new TableFunctionSignature(TableDefinition.GEOMETRY, new TableArgument(TableDefinition.GEOMETRY), new TableArgument(TableDefinition.ANY), ScalarArgument.STRING),
-                                new TableFunctionSignature(TableDefinition.GEOMETRY, new TableArgument(TableDefinition.GEOMETRY), new TableArgument(TableDefinition.ANY), ScalarArgument.STRING, ScalarArgument.INT)
+                                new TableFunctionSignature(TableDefinition.GEOMETRY, new TableArgument(TableDefinition.GEOMETRY), new TableArgument(TableDefinition.ANY), ScalarArgument.STRING, ScalarArgument.INT),
+                                new TableFunctionSignature(TableDefinition.GEOMETRY, new TableArgument(TableDefinition.GEOMETRY), new TableArgument(TableDefinition.ANY), ScalarArgument.STRING, ScalarArgument.INT, ScalarArgument.STRING)
                         };
         }
 }
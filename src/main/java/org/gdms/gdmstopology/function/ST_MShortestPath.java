@@ -38,6 +38,7 @@ import org.gdms.driver.DiskBufferDriver;
 import org.gdms.driver.DriverException;
 import org.gdms.gdmstopology.model.GraphMetadataFactory;
 import org.gdms.gdmstopology.model.GraphSchema;
+import org.gdms.gdmstopology.parse.BuildOptionsParser;
 import org.gdms.gdmstopology.process.GraphPath;
 import org.gdms.sql.function.FunctionException;
 import org.gdms.sql.function.FunctionSignature;
@@ -57,9 +58,16 @@ public class ST_MShortestPath extends AbstractTableFunction {
         @Override
         public DataSet evaluate(DataSourceFactory dsf, DataSet[] tables, Value[] values, ProgressMonitor pm) throws FunctionException {
                 try {
-                        if (values.length == 2) {
+                        if (values.length >= 2) {
+                                boolean parallel = values.length == 3 && BuildOptionsParser.parseOptions(
+                                        values[2].getAsString(), getName(),
+                                        ST_Graph.PARALLEL).contains(ST_Graph.PARALLEL);
                                 DiskBufferDriver diskBufferDriver = GraphPath.getMShortestPath(dsf, tables[0], tables[1],
-                                        values[0].getAsString(), values[1].getAsInt(), pm);
+                                        values[0].getAsString(), values[1].getAsInt(), parallel, pm);
+                                if (diskBufferDriver == null) {
+                                        // Cancelled.
+                                        return null;
+                                }
                                 diskBufferDriver.open();
                                 return diskBufferDriver;
                         } else {
@@ -84,7 +92,9 @@ public class ST_MShortestPath extends AbstractTableFunction {
                         + " Optional argument : \n"
                         + " 1 if the graph is directed ."
                         + " 2 if the graph is directed and edges reversed\n"
-                        + " 3 if the graph is undirected\n";
+                        + " 3 if the graph is undirected\n"
+                        + " Optional options string after the orientation: 'parallel' groups\n"
+                        + " the requests by source and runs the searches on several threads.\n";
         }
 
         @Override
@@ -93,7 +103,10 @@ public class ST_MShortestPath extends AbstractTableFunction {
                                 new TableFunctionSignature(TableDefinition.GEOMETRY, new TableArgument(TableDefinition.GEOMETRY), new TableArgument(TableDefinition.ANY),
                                 ScalarArgument.STRING),
                                 new TableFunctionSignature(TableDefinition.GEOMETRY, new TableArgument(TableDefinition.GEOMETRY),
-                                new TableArgument(TableDefinition.ANY), ScalarArgument.STRING, ScalarArgument.INT)
+                                new TableArgument(TableDefinition.ANY), ScalarArgument.STRING, ScalarArgument.INT),
+                                new TableFunctionSignature(TableDefinition.GEOMETRY, new TableArgument(TableDefinition.GEOMETRY),
+                                new TableArgument(TableDefinition.ANY), ScalarArgument.STRING, ScalarArgument.INT,
+                                ScalarArgument.STRING)
                         };
         }
 
@@ -104,6 +117,6 @@ public class ST_MShortestPath extends AbstractTableFunction {
 
         @Override
         public String getSqlOrder() {
-                return "SELECT * from  ST_MShortestPath(table,tableNodes, costField [,1]);";
+                return "SELECT * from  ST_MShortestPath(table,tableNodes, costField [,1 [,'parallel']]);";
         }
 }
@@ -0,0 +1,248 @@
+/**
+ * GDMS-Topology is a library dedicated to graph analysis. It is based on the
+ * JGraphT library available at <http://www.jgrapht.org/>. It enables computing
+ * and processing large graphs using spatial and alphanumeric indexes.
+ *
+ * This version is developed at French IRSTV institut as part of the EvalPDU
+ * project, funded by the French Agence Nationale de la Recherche (ANR) under
+ * contract ANR-08-VILL-0005-01 and GEBD project funded by the French Ministery
+ * of Ecology and Sustainable Development.
+ *
+ * GDMS-Topology is distributed under GPL 3 license. It is produced by the
+ * "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR
+ * 2488.
+ *
+ * Copyright (C) 2009-2012 IRSTV (FR CNRS 2488)
+ *
+ * GDMS-Topology is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * GDMS-Topology is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * GDMS-Topology. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://wwwc.orbisgis.org/> or contact
+ * directly: info_at_ orbisgis.org
+ */
+package org.gdms.gdmstopology.function;
+
+import java.util.Arrays;
+import org.gdms.data.DataSourceFactory;
+import org.gdms.data.schema.DefaultMetadata;
+import org.gdms.data.schema.Metadata;
+import org.gdms.data.types.Type;
+import org.gdms.data.types.TypeFactory;
+import org.gdms.data.values.Value;
+import org.gdms.data.values.ValueFactory;
+import org.gdms.driver.DataSet;
+import org.gdms.driver.DiskBufferDriver;
+import org.gdms.driver.DriverException;
+import org.gdms.gdmstopology.model.GraphSchema;
+import org.gdms.gdmstopology.parse.GraphFunctionParser;
+import org.gdms.gdmstopology.process.EdgeSnapper;
+import org.gdms.gdmstopology.process.MapMatcher;
+import org.gdms.gdmstopology.process.TopologyExecutorService;
+import org.gdms.sql.function.FunctionException;
+import org.gdms.sql.function.ScalarArgument;
+import org.gdms.sql.function.table.AbstractTableFunction;
+import org.gdms.sql.function.table.TableArgument;
+import org.gdms.sql.function.table.TableDefinition;
+import org.gdms.sql.function.table.TableFunctionSignature;
+import org.orbisgis.progress.ProgressMonitor;
+
+/**
+ * Matches GPS traces onto the edges of a graph with a hidden Markov model
+ * (see {@link MapMatcher}).
+ *
+ * @author Adam Gouge
+ */
+public class ST_MapMatch extends AbstractTableFunction {
+
+    /**
+     * The name of this function.
+     */
+    private static final String NAME = "ST_MapMatch";
+    /**
+     * Part field of the output.
+     */
+    public static final String PART = "part";
+    /**
+     * Sequence field of the output.
+     */
+    public static final String SEQUENCE = "seq";
+    /**
+     * Default standard deviation of the GPS error.
+     */
+    public static final double DEFAULT_SIGMA = 10;
+    /**
+     * Default scale of the difference between route and fix distances.
+     */
+    public static final double DEFAULT_BETA = 5;
+    /**
+     * The SQL order of this function.
+     */
+    private static final String SQL_ORDER =
+            "SELECT * FROM " + NAME + "("
+            + "output.edges, traces"
+            + "[, " + ST_ShortestPathLength.POSSIBLE_ORIENTATIONS + "]"
+            + "[, sigma, beta]);";
+    /**
+     * Short description of this function.
+     */
+    private static final String SHORT_DESCRIPTION =
+            "Matches GPS traces onto the edges of a graph.";
+    /**
+     * Long description of this function.
+     */
+    private static final String LONG_DESCRIPTION =
+            "<p> Example usage: "
+            + "<center> "
+            + "<code>" + SQL_ORDER + "</code> </center> "
+            + "<p> Required parameters: "
+            + "<ul> "
+            + "<li> <code>output.edges</code> - The <code>output.edges</code> "
+            + "table produced by <code>ST_Graph</code>. "
+            + "<li> <code>traces</code> - a table of traces, each with an '"
+            + GraphSchema.ID + "' and a geometry (a line or multipoint) "
+            + "whose coordinates are the GPS fixes, in order. "
+            + "</ul>"
+            + "<p> Optional parameters: "
+            + "<ul> "
+            + "<li> <code>orientation</code> - as in "
+            + "<code>ST_ShortestPathLength</code> (by default, undirected). "
+            + "<li> <code>sigma</code> - the standard deviation of the GPS "
+            + "error (by default " + DEFAULT_SIGMA + "). "
+            + "<li> <code>beta</code> - the scale of the difference between "
+            + "the route length and the distance between consecutive fixes "
+            + "(by default " + DEFAULT_BETA + "). </ul>"
+            + "<p> Distances are those of the coordinate system. The output "
+            + "contains the matched edges of each trace in order of travel, "
+            + "with the trace '" + GraphSchema.ID + "', the '" + PART
+            + "' of the trace (a new part starts wherever no route joins two "
+            + "fixes), the '" + SEQUENCE + "' number of the edge in the part "
+            + "and its '" + ST_SnapToGraph.EDGE_ID + "'.";
+
+    @Override
+    public DataSet evaluate(DataSourceFactory dsf, DataSet[] tables,
+                            Value[] values, ProgressMonitor pm) throws
+            FunctionException {
+        final DataSet edges = tables[0];
+        GraphFunctionParser parser = new GraphFunctionParser();
+        double sigma = DEFAULT_SIGMA;
+        double beta = DEFAULT_BETA;
+        int optional = values.length;
+        if (values.length >= 2
+            && values[values.length - 1].getType() != Type.STRING) {
+            sigma = values[values.length - 2].getAsDouble();
+            beta = values[values.length - 1].getAsDouble();
+            optional -= 2;
+        }
+        if (optional > 0) {
+            parser.parseOptionalArguments(edges,
+                                          Arrays.copyOf(values, optional), 0);
+            if (parser.getWeightsColumn() != null) {
+                throw new IllegalArgumentException(
+                        NAME + " measures routes by length and takes no "
+                        + "weights column.");
+            }
+        }
+        int graphType = parser.getGlobalOrientation() == null
+                ? GraphSchema.UNDIRECT
+                : parser.getGraphType();
+        try {
+            MapMatcher matcher = new MapMatcher(
+                    edges, graphType, parser.getEdgeOrientationColumnName(),
+                    sigma, beta, TopologyExecutorService.getShared());
+            final EdgeSnapper snapper = matcher.getSnapper();
+            final DiskBufferDriver output =
+                    new DiskBufferDriver(dsf, getMetadata(null));
+            pm.startTask("Matching traces", 100);
+            boolean done = matcher.match(tables[1], new MapMatcher.MatchHandler() {
+                @Override
+                public void handle(int trace, int part, int[] rows)
+                        throws DriverException {
+                    for (int i = 0; i < rows.length; i++) {
+                        output.addValues(
+                                ValueFactory.createValue(
+                                snapper.getGeometry(rows[i])),
+                                ValueFactory.createValue(trace),
+                                ValueFactory.createValue(part),
+                                ValueFactory.createValue(i + 1),
+                                ValueFactory.createValue(
+                                snapper.getEdgeId(rows[i])));
+                    }
+                }
+            }, pm);
+            pm.endTask();
+            if (!done) {
+                return null;
+            }
+            output.writingFinished();
+            output.open();
+            return output;
+        } catch (DriverException ex) {
+            throw new FunctionException(ex);
+        }
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public String getSqlOrder() {
+        return SQL_ORDER;
+    }
+
+    @Override
+    public String getDescription() {
+        return SHORT_DESCRIPTION + LONG_DESCRIPTION;
+    }
+
+    @Override
+    public TableFunctionSignature[] getFunctionSignatures() {
+        return new TableFunctionSignature[]{
+            // (e,t)
+            new TableFunctionSignature(TableDefinition.GEOMETRY,
+                                       TableArgument.GEOMETRY,
+                                       TableArgument.GEOMETRY),
+            // (e,t,o)
+            new TableFunctionSignature(TableDefinition.GEOMETRY,
+                                       TableArgument.GEOMETRY,
+                                       TableArgument.GEOMETRY,
+                                       ScalarArgument.STRING),
+            // (e,t,sigma,beta)
+            new TableFunctionSignature(TableDefinition.GEOMETRY,
+                                       TableArgument.GEOMETRY,
+                                       TableArgument.GEOMETRY,
+                                       ScalarArgument.DOUBLE,
+                                       ScalarArgument.DOUBLE),
+            // (e,t,o,sigma,beta)
+            new TableFunctionSignature(TableDefinition.GEOMETRY,
+                                       TableArgument.GEOMETRY,
+                                       TableArgument.GEOMETRY,
+                                       ScalarArgument.STRING,
+                                       ScalarArgument.DOUBLE,
+                                       ScalarArgument.DOUBLE)
+        };
+    }
+
+    @Override
+    public Metadata getMetadata(Metadata[] tables) throws DriverException {
+        return new DefaultMetadata(
+                new Type[]{TypeFactory.createType(Type.GEOMETRY),
+                           TypeFactory.createType(Type.INT),
+                           TypeFactory.createType(Type.INT),
+                           TypeFactory.createType(Type.INT),
+                           TypeFactory.createType(Type.INT)},
+                new String[]{"the_geom", GraphSchema.ID, PART, SEQUENCE,
+                             ST_SnapToGraph.EDGE_ID});
+    }
+}
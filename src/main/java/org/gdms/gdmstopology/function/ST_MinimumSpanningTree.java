@@ -0,0 +1,207 @@
+/**
+ * GDMS-Topology is a library dedicated to graph analysis. It is based on the
+ * JGraphT library available at <http://www.jgrapht.org/>. It enables computing
+ * and processing large graphs using spatial and alphanumeric indexes.
+ *
+ * This version is developed at French IRSTV institut as part of the EvalPDU
+ * project, funded by the French Agence Nationale de la Recherche (ANR) under
+ * contract ANR-08-VILL-0005-01 and GEBD project funded by the French Ministery
+ * of Ecology and Sustainable Development.
+ *
+ * GDMS-Topology is distributed under GPL 3 license. It is produced by the
+ * "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR
+ * 2488.
+ *
+ * Copyright (C) 2009-2012 IRSTV (FR CNRS 2488)
+ *
+ * GDMS-Topology is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * GDMS-Topology is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * GDMS-Topology. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://wwwc.orbisgis.org/> or contact
+ * directly: info_at_ orbisgis.org
+ */
+package org.gdms.gdmstopology.function;
+
+import java.util.Arrays;
+import org.gdms.data.DataSourceFactory;
+import org.gdms.data.schema.DefaultMetadata;
+import org.gdms.data.schema.Metadata;
+import org.gdms.data.schema.MetadataUtilities;
+import org.gdms.data.types.Type;
+import org.gdms.data.types.TypeFactory;
+import org.gdms.data.values.Value;
+import org.gdms.data.values.ValueFactory;
+import org.gdms.driver.DataSet;
+import org.gdms.driver.DiskBufferDriver;
+import org.gdms.driver.DriverException;
+import org.gdms.gdmstopology.model.GraphSchema;
+import org.gdms.gdmstopology.process.SpanningForestBuilder;
+import org.gdms.gdmstopology.process.TopologyExecutorService;
+import org.gdms.sql.function.FunctionException;
+import org.gdms.sql.function.ScalarArgument;
+import org.gdms.sql.function.table.AbstractTableFunction;
+import org.gdms.sql.function.table.TableArgument;
+import org.gdms.sql.function.table.TableDefinition;
+import org.gdms.sql.function.table.TableFunctionSignature;
+import org.orbisgis.progress.ProgressMonitor;
+
+/**
+ * Computes the minimum spanning forest of an undirected weighted graph (see
+ * {@link SpanningForestBuilder}).
+ *
+ * @author Adam Gouge
+ */
+public class ST_MinimumSpanningTree extends AbstractTableFunction {
+
+    /**
+     * The name of this function.
+     */
+    private static final String NAME = "ST_MinimumSpanningTree";
+    /**
+     * The SQL order of this function.
+     */
+    private static final String SQL_ORDER =
+            "SELECT * FROM " + NAME + "(output.edges, 'weights_column');";
+    /**
+     * Short description of this function.
+     */
+    private static final String SHORT_DESCRIPTION =
+            "Computes the minimum spanning forest of an undirected graph.";
+    /**
+     * Long description of this function.
+     */
+    private static final String LONG_DESCRIPTION =
+            "<p> Example usage: "
+            + "<center> "
+            + "<code>" + SQL_ORDER + "</code> </center> "
+            + "<p> Required parameters: "
+            + "<ul> "
+            + "<li> <code>output.edges</code> - The <code>output.edges</code> "
+            + "table produced by <code>ST_Graph</code>, with an additional "
+            + "column specifying the weight of each edge. "
+            + "<li> <code>'weights_column'</code> - the name of the weight "
+            + "column. "
+            + "</ul>"
+            + "<p> The edges are considered undirected. The output contains "
+            + "the edges of a minimum spanning tree of each connected "
+            + "component, with their '" + GraphSchema.ID + "', '"
+            + GraphSchema.WEIGHT + "' and the '"
+            + GraphSchema.CONNECTED_COMPONENT + "' (numbered from 1) they "
+            + "span.";
+
+    @Override
+    public DataSet evaluate(DataSourceFactory dsf, DataSet[] tables,
+                            Value[] values, ProgressMonitor pm) throws
+            FunctionException {
+        final DataSet edges = tables[0];
+        final String weightsColumn = values[0].getAsString();
+        try {
+            Metadata md = edges.getMetadata();
+            int geometryIndex = MetadataUtilities.getSpatialFieldIndex(md);
+            int idIndex = md.getFieldIndex(GraphSchema.ID);
+            int startIndex = md.getFieldIndex(GraphSchema.START_NODE);
+            int endIndex = md.getFieldIndex(GraphSchema.END_NODE);
+            int weightIndex = md.getFieldIndex(weightsColumn);
+            if (weightIndex == -1) {
+                throw new IllegalArgumentException(
+                        "Weights column '" + weightsColumn + "' not found.");
+            }
+            int edgeCount = (int) edges.getRowCount();
+            int[] starts = new int[edgeCount];
+            int[] ends = new int[edgeCount];
+            double[] weights = new double[edgeCount];
+            for (int i = 0; i < edgeCount; i++) {
+                starts[i] = edges.getFieldValue(i, startIndex).getAsInt();
+                ends[i] = edges.getFieldValue(i, endIndex).getAsInt();
+                weights[i] = edges.getFieldValue(i, weightIndex).getAsDouble();
+            }
+            // Renumber the nodes from 0.
+            int[] nodes = new int[2 * edgeCount];
+            System.arraycopy(starts, 0, nodes, 0, edgeCount);
+            System.arraycopy(ends, 0, nodes, edgeCount, edgeCount);
+            Arrays.sort(nodes);
+            int nodeCount = 0;
+            for (int i = 0; i < nodes.length; i++) {
+                if (i == 0 || nodes[i] != nodes[i - 1]) {
+                    nodes[nodeCount++] = nodes[i];
+                }
+            }
+            for (int i = 0; i < edgeCount; i++) {
+                starts[i] = Arrays.binarySearch(nodes, 0, nodeCount, starts[i]);
+                ends[i] = Arrays.binarySearch(nodes, 0, nodeCount, ends[i]);
+            }
+
+            pm.startTask("Spanning", 100);
+            int[] forest = new SpanningForestBuilder(
+                    TopologyExecutorService.getShared()).build(
+                    nodeCount, starts, ends, weights, pm);
+            pm.endTask();
+            if (forest == null) {
+                return null;
+            }
+
+            DiskBufferDriver output =
+                    new DiskBufferDriver(dsf, getMetadata(null));
+            for (int i = 0; i < edgeCount; i++) {
+                if (forest[i] != 0) {
+                    output.addValues(
+                            ValueFactory.createValue(
+                            edges.getGeometry(i, geometryIndex)),
+                            edges.getFieldValue(i, idIndex),
+                            ValueFactory.createValue(weights[i]),
+                            ValueFactory.createValue(forest[i]));
+                }
+            }
+            output.writingFinished();
+            output.open();
+            return output;
+        } catch (DriverException ex) {
+            throw new FunctionException(ex);
+        }
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public String getSqlOrder() {
+        return SQL_ORDER;
+    }
+
+    @Override
+    public String getDescription() {
+        return SHORT_DESCRIPTION + LONG_DESCRIPTION;
+    }
+
+    @Override
+    public TableFunctionSignature[] getFunctionSignatures() {
+        return new TableFunctionSignature[]{
+            new TableFunctionSignature(TableDefinition.GEOMETRY,
+                                       TableArgument.GEOMETRY,
+                                       ScalarArgument.STRING)
+        };
+    }
+
+    @Override
+    public Metadata getMetadata(Metadata[] tables) throws DriverException {
+        return new DefaultMetadata(
+                new Type[]{TypeFactory.createType(Type.GEOMETRY),
+                           TypeFactory.createType(Type.INT),
+                           TypeFactory.createType(Type.DOUBLE),
+                           TypeFactory.createType(Type.INT)},
+                new String[]{"the_geom", GraphSchema.ID, GraphSchema.WEIGHT,
+                             GraphSchema.CONNECTED_COMPONENT});
+    }
+}
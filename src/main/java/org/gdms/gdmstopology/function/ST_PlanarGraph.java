@@ -40,6 +40,7 @@ import org.gdms.data.values.Value;
 import org.gdms.driver.DataSet;
 import org.gdms.driver.DriverException;
 import org.gdms.driver.driverManager.DriverLoadException;
+import org.gdms.gdmstopology.parse.BuildOptionsParser;
 import org.gdms.gdmstopology.process.PlanarGraphBuilder;
 import org.gdms.sql.function.FunctionException;
 import org.gdms.sql.function.FunctionSignature;
@@ -63,13 +64,17 @@ public class ST_PlanarGraph extends AbstractExecutorFunction {
 
         @Override
         public String getSqlOrder() {
-                return "EXECUTE ST_PlanarGraph(mytable, 'output_table_name');";
+                return "EXECUTE ST_PlanarGraph(mytable, 'output_table_name'[, 'parallel'[, scale]]);";
         }
 
         @Override
         public String getDescription() {
                 return "Build a planar graph based on geometries.\n"
-                        +"Output table name can be set.";
+                        +"Output table name can be set.\n"
+                        +"The option 'parallel' nodes the lines tile by tile on "
+                        +"several threads. A snap-rounding scale may follow the "
+                        +"options: the lines are then noded tile by tile and the "
+                        +"intersections are rounded to a grid of step 1/scale.";
         }
 
         @Override
@@ -77,13 +82,22 @@ public class ST_PlanarGraph extends AbstractExecutorFunction {
                 Value[] values, ProgressMonitor pm) throws FunctionException {
                 try {
                         PlanarGraphBuilder planarGraph = new PlanarGraphBuilder(dsf, pm);
-                        if (values.length == 1) {
+                        if (values.length >= 1) {
                                 planarGraph.setOutput_name(values[0].getAsString());
+                                if (values.length >= 2) {
+                                        planarGraph.setParallel(BuildOptionsParser.parseOptions(
+                                                values[1].getAsString(), getName(),
+                                                ST_Graph.PARALLEL).contains(ST_Graph.PARALLEL));
+                                }
+                                if (values.length == 3) {
+                                        planarGraph.setSnapRoundingScale(values[2].getAsDouble());
+                                }
                         } else {
                                 planarGraph.setOutput_name(dsf.getUID());
                         }
-                        planarGraph.buildGraph(tables[0]);
-                        planarGraph.createPolygonAndTopology();
+                        if (planarGraph.buildGraph(tables[0])) {
+                                planarGraph.createPolygonAndTopology();
+                        }
                 } catch (IOException e) {
                         throw new FunctionException(e);
                 } catch (DriverLoadException e) {
@@ -105,6 +119,8 @@ public class ST_PlanarGraph extends AbstractExecutorFunction {
         public FunctionSignature[] getFunctionSignatures() {
                 return new FunctionSignature[]{
                                 new ExecutorFunctionSignature(new TableArgument(TableDefinition.GEOMETRY)),
-                                new ExecutorFunctionSignature(new TableArgument(TableDefinition.GEOMETRY), ScalarArgument.STRING)};
+                                new ExecutorFunctionSignature(new TableArgument(TableDefinition.GEOMETRY), ScalarArgument.STRING),
+                                new ExecutorFunctionSignature(new TableArgument(TableDefinition.GEOMETRY), ScalarArgument.STRING, ScalarArgument.STRING),
+                                new ExecutorFunctionSignature(new TableArgument(TableDefinition.GEOMETRY), ScalarArgument.STRING, ScalarArgument.STRING, ScalarArgument.DOUBLE)};
         }
 }
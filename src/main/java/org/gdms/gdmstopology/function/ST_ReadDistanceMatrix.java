@@ -0,0 +1,113 @@
+/**
+ * GDMS-Topology is a library dedicated to graph analysis. It is based on the
+ * JGraphT library available at <http://www.jgrapht.org/>. It enables computing
+ * and processing large graphs using spatial and alphanumeric indexes.
+ *
+ * This version is developed at French IRSTV institut as part of the EvalPDU
+ * project, funded by the French Agence Nationale de la Recherche (ANR) under
+ * contract ANR-08-VILL-0005-01 and GEBD project funded by the French Ministery
+ * of Ecology and Sustainable Development.
+ *
+ * GDMS-Topology is distributed under GPL 3 license. It is produced by the
+ * "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR
+ * 2488.
+ *
+ * Copyright (C) 2009-2012 IRSTV (FR CNRS 2488)
+ *
+ * GDMS-Topology is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * GDMS-Topology is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * GDMS-Topology. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://wwwc.orbisgis.org/> or contact
+ * directly: info_at_ orbisgis.org
+ */
+package org.gdms.gdmstopology.function;
+
+import java.io.File;
+import java.io.IOException;
+import org.gdms.data.DataSourceFactory;
+import org.gdms.data.schema.Metadata;
+import org.gdms.data.values.Value;
+import org.gdms.driver.DataSet;
+import org.gdms.driver.DriverException;
+import org.gdms.gdmstopology.model.DistanceMatrixDataSet;
+import org.gdms.gdmstopology.utils.DistanceMatrixFile;
+import org.gdms.sql.function.FunctionException;
+import org.gdms.sql.function.ScalarArgument;
+import org.gdms.sql.function.table.AbstractTableFunction;
+import org.gdms.sql.function.table.TableDefinition;
+import org.gdms.sql.function.table.TableFunctionSignature;
+import org.orbisgis.progress.ProgressMonitor;
+
+/**
+ * Reads back a binary distance matrix written by
+ * {@link ST_ShortestPathLength} in matrix mode or by
+ * {@link ST_DistanceMatrix}, as a
+ * {@code (source, destination, distance)} table. The file is memory-mapped
+ * and the rows are read on demand.
+ *
+ * @author Adam Gouge
+ */
+public class ST_ReadDistanceMatrix extends AbstractTableFunction {
+
+    /**
+     * The name of this function.
+     */
+    private static final String NAME = "ST_ReadDistanceMatrix";
+
+    @Override
+    public DataSet evaluate(DataSourceFactory dsf, DataSet[] tables,
+                            Value[] values, ProgressMonitor pm) throws
+            FunctionException {
+        File file = new File(values[0].getAsString());
+        try {
+            return new DistanceMatrixDataSet(getMetadata(null),
+                                             DistanceMatrixFile.open(file));
+        } catch (IOException ex) {
+            throw new FunctionException(
+                    "Cannot read the distance matrix " + file, ex);
+        } catch (DriverException ex) {
+            throw new FunctionException(ex);
+        }
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public String getSqlOrder() {
+        return "SELECT * FROM " + NAME + "('/path/to/matrix.dmx');";
+    }
+
+    @Override
+    public String getDescription() {
+        return "Reads a binary distance matrix written by "
+                + "ST_ShortestPathLength with the 'matrix' option or by "
+                + "ST_DistanceMatrix. Cells that were not requested have a "
+                + "NULL distance.";
+    }
+
+    @Override
+    public TableFunctionSignature[] getFunctionSignatures() {
+        return new TableFunctionSignature[]{
+            new TableFunctionSignature(TableDefinition.ANY,
+                                       ScalarArgument.STRING)
+        };
+    }
+
+    @Override
+    public Metadata getMetadata(Metadata[] tables) throws DriverException {
+        return new ST_ShortestPathLength().getMetadata(null);
+    }
+}
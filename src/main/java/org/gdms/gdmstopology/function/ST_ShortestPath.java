@@ -44,9 +44,12 @@ import org.gdms.driver.DataSet;
 import org.gdms.driver.DiskBufferDriver;
 import org.gdms.driver.DriverException;
 import org.gdms.gdmstopology.graphcreator.WeightedGraphCreator;
+import org.gdms.gdmstopology.model.CompactGraph;
 import org.gdms.gdmstopology.model.GraphMetadataFactory;
 import org.gdms.gdmstopology.model.GraphSchema;
+import org.gdms.gdmstopology.model.TurnGraph;
 import org.gdms.gdmstopology.parse.GraphFunctionParser;
+import org.gdms.gdmstopology.process.BreadthFirstSearcher;
 import org.gdms.sql.function.FunctionException;
 import org.gdms.sql.function.FunctionSignature;
 import org.gdms.sql.function.ScalarArgument;
@@ -69,18 +72,14 @@ import static org.gdms.data.values.ValueFactory.createValue;
 
 /**
  * Calculates the shortest path between two vertices of a graph using Dijkstra's
- * algorithm.
+ * algorithm, optionally under the turn restrictions of a turns table (see
+ * {@link TurnGraph}).
  *
  * @author Erwan Bocher
  * @author Adam Gouge
  */
 public class ST_ShortestPath extends AbstractTableFunction {
 
-    private int source = -1;
-    private int destination = -1;
-    private String weightsColumn = null;
-    private String globalOrientation = null;
-    private String edgeOrientationColumnName = null;
     private static final org.slf4j.Logger LOGGER =
             LoggerFactory.getLogger(ST_ShortestPath.class);
     private static final Metadata METADATA = GraphMetadataFactory.createEdgeMetadataShortestPath();
@@ -90,8 +89,7 @@ public class ST_ShortestPath extends AbstractTableFunction {
      * algorithm.
      *
      * @param dsf    The {@link DataSourceFactory} used to parse the data set.
-     * @param tables The input table. (This {@link DataSet} array will contain
-     *               only one element since there is only one input table.)
+     * @param tables The input table, and optionally a turns table.
      * @param values Array containing the optional arguments.
      * @param pm     The progress monitor used to track the progress of the shortest
      *               path calculation.
@@ -110,15 +108,26 @@ public class ST_ShortestPath extends AbstractTableFunction {
         final DataSet edges = tables[0];
 
         // Recover all other parameters.
-        parseArguments(edges, values);
-
-        // Prepare the graph.
-        KeyedGraph<VWCent, Edge> graph = prepareGraph(edges);
+        final Request request = parseArguments(edges, values);
 
         // Compute and return results.
         DiskBufferDriver results = null;
         try {
-            results = compute(dsf, edges, graph, pm);
+            if (request.weightsColumn == null) {
+                if (tables.length == 2) {
+                    throw new IllegalArgumentException(
+                            "ST_ShortestPath requires a weights column "
+                            + "with a turns table.");
+                }
+                results = computeUnweighted(dsf, edges, request);
+            } else {
+                // Prepare the graph.
+                KeyedGraph<VWCent, Edge> graph = prepareGraph(edges, request);
+                results = tables.length == 2
+                        ? computeWithTurns(dsf, edges, graph, tables[1],
+                                           request, pm)
+                        : compute(dsf, edges, graph, request, pm);
+            }
         } catch (DriverException ex) {
             LOGGER.error(ex.toString());
         }
@@ -130,71 +139,54 @@ public class ST_ShortestPath extends AbstractTableFunction {
      *
      * @param edges  Edges input table
      * @param values Arguments
+     * @return The parsed request
      */
-    private void parseArguments(DataSet edges, Value[] values) {
+    private Request parseArguments(DataSet edges, Value[] values) {
         GraphFunctionParser parser = new GraphFunctionParser();
-        source = parser.parseSource(values[0]);
-        destination = parser.parseTarget(values[1]);
+        int source = parser.parseSource(values[0]);
+        int destination = parser.parseTarget(values[1]);
         parser.parseOptionalArguments(edges, values, 2);
-        globalOrientation = parser.getGlobalOrientation();
-        edgeOrientationColumnName = parser.getEdgeOrientationColumnName();
-        weightsColumn = parser.getWeightsColumn();
+        return new Request(source, destination,
+                           parser.getWeightsColumn(),
+                           parser.getGlobalOrientation(),
+                           parser.getEdgeOrientationColumnName());
     }
 
     /**
      * Prepare the JGraphT graph from the given edges table.
      *
-     * @param edges Edges table
+     * @param edges   Edges table
+     * @param request Parsed request
      * @return JGraphT graph
      */
-    private KeyedGraph<VWCent, Edge> prepareGraph(final DataSet edges) {
-        KeyedGraph<VWCent, Edge> graph;
-
-        // Get the graph orientation.
-        int graphType = -1;
-        if (globalOrientation != null) {
-            graphType = globalOrientation.equalsIgnoreCase(ST_ShortestPathLength.DIRECTED)
-                    ? GraphSchema.DIRECT
-                    : globalOrientation.equalsIgnoreCase(ST_ShortestPathLength.REVERSED)
-                    ? GraphSchema.DIRECT_REVERSED
-                    : globalOrientation.equalsIgnoreCase(ST_ShortestPathLength.UNDIRECTED)
-                    ? GraphSchema.UNDIRECT
-                    : -1;
-        } else if (graphType == -1) {
-            LOGGER.warn("Assuming a directed graph.");
-            graphType = GraphSchema.DIRECT;
-        }
-
-        // Create the graph.
-        if (weightsColumn != null) {
-            graph = new WeightedGraphCreator<VWCent, Edge>(
-                    edges,
-                    graphType,
-                    edgeOrientationColumnName,
-                    VWCent.class,
-                    Edge.class,
-                    weightsColumn).prepareGraph();
-        } else {
-            throw new UnsupportedOperationException(
-                    "ST_ShortestPath has not yet been implemented for "
-                            + "unweighted graphs.");
-        }
-        return graph;
+    private KeyedGraph<VWCent, Edge> prepareGraph(final DataSet edges,
+                                                  Request request) {
+        return new WeightedGraphCreator<VWCent, Edge>(
+                edges,
+                ST_ShortestPathLength.getGraphType(request.globalOrientation),
+                request.edgeOrientationColumnName,
+                VWCent.class,
+                Edge.class,
+                request.weightsColumn).prepareGraph();
     }
 
     /**
      * Compute the distances and write them to a table.
      *
-     * @param dsf   Data source factory
-     * @param graph JGraphT graph
+     * @param dsf     Data source factory
+     * @param graph   JGraphT graph
+     * @param request Parsed request
      * @return The requested distances
      * @throws DriverException
      */
     private DiskBufferDriver compute(DataSourceFactory dsf,
                                      DataSet dataSet,
                                      KeyedGraph<VWCent, Edge> graph,
+                                     Request request,
                                      ProgressMonitor pm)
             throws DriverException {
+        final int source = request.source;
+        final int destination = request.destination;
 
         // A DiskBufferDriver to store the shortest path.
         DiskBufferDriver output =
@@ -273,6 +265,113 @@ public class ST_ShortestPath extends AbstractTableFunction {
         return output;
     }
 
+    /**
+     * Compute the shortest path under the given turn restrictions and write
+     * it to a table, from the destination back to the source.
+     *
+     * @param dsf     Data source factory
+     * @param dataSet Edges table
+     * @param graph   JGraphT graph
+     * @param turns   Turns table
+     * @param request Parsed request
+     * @param pm      Progress monitor
+     * @return The shortest path
+     * @throws DriverException
+     */
+    private DiskBufferDriver computeWithTurns(DataSourceFactory dsf,
+                                              DataSet dataSet,
+                                              KeyedGraph<VWCent, Edge> graph,
+                                              DataSet turns,
+                                              Request request,
+                                              ProgressMonitor pm)
+            throws DriverException {
+        CompactGraph compact = new CompactGraph(graph);
+        TurnGraph turnGraph = TurnGraph.fromTable(compact, turns);
+        DiskBufferDriver output = new DiskBufferDriver(dsf, METADATA);
+        int source = compact.getIndex(request.source);
+        int destination = compact.getIndex(request.destination);
+        if (source != -1 && destination != -1) {
+            final int geomIndex = dataSet.getSpatialFieldIndex();
+            if (geomIndex == -1) {
+                throw new IndexOutOfBoundsException("Geometry field not found.");
+            }
+            buildIDIndex(dsf, dataSet, pm);
+            int[] path = turnGraph.search(source, destination)
+                    .getPath(destination);
+            int newID = 1;
+            for (int arc : path) {
+                int id = compact.getEdgeId(arc);
+                output.addValues(
+                        createValue(getEdgeGeometry(dsf, dataSet, geomIndex, id)),
+                        createValue(id),
+                        createValue(newID++),
+                        createValue(compact.getId(turnGraph.getTail(arc))),
+                        createValue(compact.getId(compact.getHead(arc))),
+                        createValue(compact.getWeight(arc)));
+            }
+        } else {
+            LOGGER.error("Source or destination not in the graph. " +
+                    "Source: " + request.source + ", Destination: "
+                    + request.destination);
+        }
+        output.writingFinished();
+        output.open();
+        return output;
+    }
+
+    /**
+     * Compute the path with the fewest edges by a breadth-first search on the
+     * unweighted graph and write it to a table, from the destination back to
+     * the source. Each edge has weight 1.
+     *
+     * @param dsf     Data source factory
+     * @param dataSet Edges table
+     * @param request Parsed request
+     * @return The shortest path
+     * @throws DriverException
+     */
+    private DiskBufferDriver computeUnweighted(DataSourceFactory dsf,
+                                               DataSet dataSet,
+                                               Request request)
+            throws DriverException {
+        BreadthFirstSearcher searcher = new BreadthFirstSearcher(
+                dataSet,
+                ST_ShortestPathLength.getGraphType(request.globalOrientation),
+                request.edgeOrientationColumnName);
+        CompactGraph graph = searcher.getGraph();
+        DiskBufferDriver output = new DiskBufferDriver(dsf, METADATA);
+        int source = graph.getIndex(request.source);
+        int destination = graph.getIndex(request.destination);
+        if (source != -1 && destination != -1) {
+            final int geomIndex = dataSet.getSpatialFieldIndex();
+            if (geomIndex == -1) {
+                throw new IndexOutOfBoundsException("Geometry field not found.");
+            }
+            BreadthFirstSearcher.Search search = searcher.newSearch();
+            search.run(source, Integer.MAX_VALUE, new int[]{destination});
+            int newID = 1;
+            int v = destination;
+            for (int row : search.getPath(destination)) {
+                int parent = search.getParent(v);
+                output.addValues(
+                        createValue(dataSet.getGeometry(row, geomIndex)),
+                        createValue(searcher.getEdgeId(row)),
+                        createValue(newID++),
+                        createValue(graph.getId(parent)),
+                        createValue(graph.getId(v)),
+                        createValue(1.0));
+                v = parent;
+            }
+        } else {
+            LOGGER.error("Source or destination not in the graph. " +
+                    "Source: " + request.source + ", Destination: "
+                    + request.destination);
+        }
+        output.writingFinished();
+        output.open();
+        return output;
+    }
+
     /**
      * Build an index on the field "id" of the given dataset.
      * @param dsf     DataSourceFactory
@@ -346,8 +445,8 @@ public class ST_ShortestPath extends AbstractTableFunction {
      */
     @Override
     public String getSqlOrder() {
-        return "SELECT * from  ST_ShortestPath(input_table, source_vertex, " +
-                "target_vertex, 'weights_column'[, "
+        return "SELECT * from  ST_ShortestPath(input_table[, turns_table], "
+                + "source_vertex, target_vertex[, 'weights_column'][, "
                 + ST_ShortestPathLength.POSSIBLE_ORIENTATIONS + "]);";
     }
 
@@ -377,7 +476,10 @@ public class ST_ShortestPath extends AbstractTableFunction {
                 + "<li> '" + ST_ShortestPathLength.UNDIRECTED + "'."
                 + "</ul> The default orientation is " + ST_ShortestPathLength.DIRECTED + " with edge "
                 + "orientations given by the geometries, though edge orientations "
-                + "should most definitely be provided by the user. ";
+                + "should most definitely be provided by the user. "
+                + "If the 'weights_column' is omitted, the path with the "
+                + "fewest edges is found by breadth-first search. "
+                + ST_ShortestPathLength.TURNS_DESCRIPTION;
     }
 
     /**
@@ -398,14 +500,21 @@ public class ST_ShortestPath extends AbstractTableFunction {
      * Returns an array of all possible signatures of this function. Multiple
      * signatures arise from some arguments being optional.
      * <p/>
-     * <p> Possible signatures: <OL> <li> {@code (TABLE, INT, INT, STRING)} <li>
-     * {@code (TABLE, INT, INT, STRING, INT)} </OL>
+     * <p> Possible signatures: <OL> <li> {@code (TABLE, INT, INT)} <li>
+     * {@code (TABLE, INT, INT, STRING)} <li>
+     * {@code (TABLE, INT, INT, STRING, INT)} <li> the last two with a turns
+     * table after the edges table </OL>
      *
      * @return An array of all possible signatures of this function.
      */
     @Override
     public FunctionSignature[] getFunctionSignatures() {
         return new FunctionSignature[]{
+                new TableFunctionSignature(
+                        TableDefinition.GEOMETRY,
+                        new TableArgument(TableDefinition.GEOMETRY),
+                        ScalarArgument.INT,
+                        ScalarArgument.INT),
                 new TableFunctionSignature(
                         TableDefinition.GEOMETRY,
                         new TableArgument(TableDefinition.GEOMETRY),
@@ -418,7 +527,47 @@ public class ST_ShortestPath extends AbstractTableFunction {
                         ScalarArgument.INT,
                         ScalarArgument.INT,
                         ScalarArgument.STRING,
+                        ScalarArgument.STRING),
+                new TableFunctionSignature(
+                        TableDefinition.GEOMETRY,
+                        new TableArgument(TableDefinition.GEOMETRY),
+                        TableArgument.ANY,
+                        ScalarArgument.INT,
+                        ScalarArgument.INT,
+                        ScalarArgument.STRING),
+                new TableFunctionSignature(
+                        TableDefinition.GEOMETRY,
+                        new TableArgument(TableDefinition.GEOMETRY),
+                        TableArgument.ANY,
+                        ScalarArgument.INT,
+                        ScalarArgument.INT,
+                        ScalarArgument.STRING,
                         ScalarArgument.STRING)
         };
     }
+
+    /**
+     * The source, destination, weights and orientations of the path to find,
+     * as read by {@link #parseArguments}.
+     */
+    private static final class Request {
+
+        private final int source;
+        private final int destination;
+        private final String weightsColumn;
+        private final String globalOrientation;
+        private final String edgeOrientationColumnName;
+
+        private Request(int source,
+                        int destination,
+                        String weightsColumn,
+                        String globalOrientation,
+                        String edgeOrientationColumnName) {
+            this.source = source;
+            this.destination = destination;
+            this.weightsColumn = weightsColumn;
+            this.globalOrientation = globalOrientation;
+            this.edgeOrientationColumnName = edgeOrientationColumnName;
+        }
+    }
 }
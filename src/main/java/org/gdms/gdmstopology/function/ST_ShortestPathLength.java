@@ -32,8 +32,15 @@
  */
 package org.gdms.gdmstopology.function;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
@@ -48,9 +55,16 @@ import org.gdms.driver.DataSet;
 import org.gdms.driver.DiskBufferDriver;
 import org.gdms.driver.DriverException;
 import org.gdms.gdmstopology.graphcreator.WeightedGraphCreator;
+import org.gdms.gdmstopology.model.CompactGraph;
+import org.gdms.gdmstopology.model.DistanceMatrixDataSet;
 import org.gdms.gdmstopology.model.GraphSchema;
+import org.gdms.gdmstopology.model.LazyDistanceDataSet;
+import org.gdms.gdmstopology.model.TurnGraph;
+import org.gdms.gdmstopology.parse.BuildOptionsParser;
 import org.gdms.gdmstopology.parse.GraphFunctionParser;
+import org.gdms.gdmstopology.process.BreadthFirstSearcher;
 import org.gdms.gdmstopology.utils.ArrayConcatenator;
+import org.gdms.gdmstopology.utils.DistanceMatrixFile;
 import org.gdms.sql.function.FunctionException;
 import org.gdms.sql.function.ScalarArgument;
 import org.gdms.sql.function.table.AbstractTableFunction;
@@ -87,6 +101,26 @@ public class ST_ShortestPathLength extends AbstractTableFunction {
             + "| '" + REVERSED + " - " + EDGE_ORIENTATION_COLUMN + "' "
             + "| '" + UNDIRECTED + "'";
     public static final String SEPARATOR = "-";
+    /**
+     * Output option: write the many-to-many distances to a binary matrix.
+     */
+    public static final String MATRIX = "matrix";
+    /**
+     * Output option: store the matrix distances as float32.
+     */
+    public static final String FLOAT32 = "float32";
+    /**
+     * Description of the optional turns table, shared with
+     * {@link ST_ShortestPath}.
+     */
+    public static final String TURNS_DESCRIPTION =
+            "<p> A turns table may follow the edges table, with fields '"
+            + GraphSchema.FROM_EDGE + "', '" + GraphSchema.VIA_NODE + "', '"
+            + GraphSchema.TO_EDGE + "' and optionally '"
+            + GraphSchema.TURN_COST + "': the listed turns are forbidden, or "
+            + "cost the given amount when it is not NULL. The search then "
+            + "runs on the edges instead of the nodes, and other turns are "
+            + "free. ";
     /**
      * The SQL order of this function.
      */
@@ -111,6 +145,13 @@ public class ST_ShortestPathLength extends AbstractTableFunction {
             + "output.edges, "
             + "source_dest_table"
             + "[, 'weights_column']"
+            + "[, " + POSSIBLE_ORIENTATIONS + "]"
+            + "[, '" + MATRIX + "[, " + FLOAT32 + "]']);"
+            + "\n-- (1) and (2) under the turn restrictions of a turns table."
+            + "\n(4) SELECT * FROM " + NAME + "("
+            + "output.edges, turns_table, "
+            + "source[, destination]"
+            + ", 'weights_column'"
             + "[, " + POSSIBLE_ORIENTATIONS + "]);";
     /**
      * Short description of this function.
@@ -144,7 +185,10 @@ public class ST_ShortestPathLength extends AbstractTableFunction {
             + "<ul> "
             + "<li> <code>'weights_column'</code> - a string specifying "
             + "the name of the column of the input table that gives the weight "
-            + "of each edge. If omitted, the graph is considered to be unweighted. "
+            + "of each edge. If omitted, the graph is considered to be "
+            + "unweighted: the distances count the edges and are computed "
+            + "by breadth-first search, run for 64 sources at once in the "
+            + "many-to-many case. "
             + "<li> <code>orientation</code> - a string specifying the "
             + "orientation of the graph: "
             + "<ul> "
@@ -153,36 +197,19 @@ public class ST_ShortestPathLength extends AbstractTableFunction {
             + "<li> '" + UNDIRECTED + "'."
             + "</ul> The default orientation is " + DIRECTED + " with edge "
             + "orientations given by the geometries, though edge orientations "
-            + "should most definitely be provided by the user. </ul>";
+            + "should most definitely be provided by the user. "
+            + "<li> <code>'" + MATRIX + "[, " + FLOAT32 + "]'</code> - for a "
+            + "source-destination table only, after the weights and "
+            + "orientation: writes the distances to a memory-mapped binary "
+            + "matrix file (float64, or float32 if requested) instead of a "
+            + "table. The result reads the file lazily; the file can be read "
+            + "again later with <code>ST_ReadDistanceMatrix</code>. </ul>"
+            + TURNS_DESCRIPTION;
     /**
      * Description of this function.
      */
     private static final String DESCRIPTION =
             SHORT_DESCRIPTION + LONG_DESCRIPTION;
-    /**
-     * Source node id.
-     */
-    private int source = -1;
-    /**
-     * Destination node id.
-     */
-    private int destination = -1;
-    /**
-     * Table of sources and destinations.
-     */
-    private DataSet sourceDestinationTable = null;
-    /**
-     * Weight column name.
-     */
-    private String weightsColumn = null;
-    /**
-     * Global orientation string.
-     */
-    private String globalOrientation = null;
-    /**
-     * Edge orientation string.
-     */
-    private String edgeOrientationColumnName = null;
     /**
      * Output metadata.
      */
@@ -208,15 +235,16 @@ public class ST_ShortestPathLength extends AbstractTableFunction {
         final DataSet edges = tables[0];
 
         // Recover all other parameters.
-        parseArguments(edges, tables, values);
-
-        // Prepare the graph.
-        KeyedGraph<VWCent, Edge> graph = prepareGraph(edges);
+        final Request request = parseArguments(edges, tables, values);
 
         // Compute and return results.
-        DiskBufferDriver results = null;
+        DataSet results = null;
         try {
-            results = compute(dsf, graph);
+            if (request.weightsColumn == null) {
+                results = computeUnweighted(dsf, edges, request);
+            } else {
+                results = compute(dsf, prepareGraph(edges, request), request);
+            }
         } catch (DriverException ex) {
             LOGGER.error(ex.toString());
         }
@@ -259,7 +287,8 @@ public class ST_ShortestPathLength extends AbstractTableFunction {
         return ArrayConcatenator.
                 concatenate(sourceDestinationSignatures(),
                             sourceSignatures(),
-                            sourceDestinationTableSignatures());
+                            sourceDestinationTableSignatures(),
+                            turnsSignatures());
     }
 
     /**
@@ -339,6 +368,52 @@ public class ST_ShortestPathLength extends AbstractTableFunction {
                                        TableArgument.GEOMETRY,
                                        TableArgument.ANY,
                                        ScalarArgument.STRING,
+                                       ScalarArgument.STRING),
+            // (s_d_t,w,o,output) OR (s_d_t,o,w,output)
+            new TableFunctionSignature(TableDefinition.ANY,
+                                       TableArgument.GEOMETRY,
+                                       TableArgument.ANY,
+                                       ScalarArgument.STRING,
+                                       ScalarArgument.STRING,
+                                       ScalarArgument.STRING)
+        };
+    }
+
+    /**
+     * Returns all possible function signatures for finding the distances from
+     * a given source under turn restrictions.
+     *
+     * @return Turns signatures
+     */
+    private TableFunctionSignature[] turnsSignatures() {
+        return new TableFunctionSignature[]{
+            // (t,s,w)
+            new TableFunctionSignature(TableDefinition.ANY,
+                                       TableArgument.GEOMETRY,
+                                       TableArgument.ANY,
+                                       ScalarArgument.INT,
+                                       ScalarArgument.STRING),
+            // (t,s,w,o) OR (t,s,o,w)
+            new TableFunctionSignature(TableDefinition.ANY,
+                                       TableArgument.GEOMETRY,
+                                       TableArgument.ANY,
+                                       ScalarArgument.INT,
+                                       ScalarArgument.STRING,
+                                       ScalarArgument.STRING),
+            // (t,s,d,w)
+            new TableFunctionSignature(TableDefinition.ANY,
+                                       TableArgument.GEOMETRY,
+                                       TableArgument.ANY,
+                                       ScalarArgument.INT,
+                                       ScalarArgument.INT,
+                                       ScalarArgument.STRING),
+            // (t,s,d,w,o) OR (t,s,d,o,w)
+            new TableFunctionSignature(TableDefinition.ANY,
+                                       TableArgument.GEOMETRY,
+                                       TableArgument.ANY,
+                                       ScalarArgument.INT,
+                                       ScalarArgument.INT,
+                                       ScalarArgument.STRING,
                                        ScalarArgument.STRING)
         };
     }
@@ -353,15 +428,46 @@ public class ST_ShortestPathLength extends AbstractTableFunction {
      *
      * @param tables Input table(s)
      * @param values Arguments
+     *
+     * @return The parsed request
      */
-    private void parseArguments(DataSet edges, DataSet[] tables, Value[] values) {
+    private Request parseArguments(DataSet edges, DataSet[] tables,
+                                   Value[] values) {
         GraphFunctionParser parser = new GraphFunctionParser();
         int valuesIndex = 0;
+        int source = -1;
+        int destination = -1;
+        DataSet sourceDestinationTable = null;
+        DataSet turns = null;
+        Set<String> outputOptions = null;
+        Value[] optionalValues = values;
         // (source_dest_table, ...)
-        if (tables.length == 2) {
+        if (tables.length == 2
+            && (values.length == 0 || values[0].getType() != Type.INT)) {
             sourceDestinationTable = tables[1];
-            parser.parseOptionalArguments(edges, values, valuesIndex);
+            // The output options may follow the weights and orientation,
+            // so they are recognized by their value.
+            List<Value> rest = new ArrayList<Value>();
+            for (Value value : values) {
+                if (outputOptions == null && isOutputOptions(value)) {
+                    outputOptions = BuildOptionsParser.parseOptions(
+                            value.getAsString(), NAME, MATRIX, FLOAT32);
+                } else {
+                    rest.add(value);
+                }
+            }
+            if (outputOptions != null && outputOptions.contains(FLOAT32)
+                && !outputOptions.contains(MATRIX)) {
+                throw new IllegalArgumentException(
+                        "The " + NAME + " option '" + FLOAT32
+                        + "' requires the option '" + MATRIX + "'.");
+            }
+            optionalValues = rest.toArray(new Value[rest.size()]);
         } else {
+            // (turns_table, source, ...)
+            if (tables.length == 2) {
+                turns = tables[1];
+            }
             source = parser.parseSource(values[valuesIndex++]);
             if (values.length > 1) {
                 // (source, destination, ...)
@@ -370,23 +476,68 @@ public class ST_ShortestPathLength extends AbstractTableFunction {
                 } // else: (source, ...)
             }
         }
-        parser.parseOptionalArguments(edges, values, valuesIndex);
-        globalOrientation = parser.getGlobalOrientation();
-        edgeOrientationColumnName = parser.getEdgeOrientationColumnName();
-        weightsColumn = parser.getWeightsColumn();
+        parser.parseOptionalArguments(edges, optionalValues, valuesIndex);
+        return new Request(source, destination, sourceDestinationTable,
+                           turns,
+                           parser.getWeightsColumn(),
+                           parser.getGlobalOrientation(),
+                           parser.getEdgeOrientationColumnName(),
+                           outputOptions);
+    }
+
+    /**
+     * Returns {@code true} if the given argument is a list of output options,
+     * that is if each of its comma-separated options is {@link #MATRIX} or
+     * {@link #FLOAT32}. A weights column named after an option is therefore
+     * taken for the option.
+     *
+     * @param value Argument
+     *
+     * @return {@code true} if the argument is a list of output options
+     */
+    private static boolean isOutputOptions(Value value) {
+        if (value.getType() != Type.STRING) {
+            return false;
+        }
+        boolean found = false;
+        for (String option : value.getAsString().split(",")) {
+            String o = option.trim().toLowerCase();
+            if (o.equals(MATRIX) || o.equals(FLOAT32)) {
+                found = true;
+            } else if (!o.isEmpty()) {
+                return false;
+            }
+        }
+        return found;
     }
 
     /**
      * Prepare the JGraphT graph from the given edges table.
      *
-     * @param edges Edges table
+     * @param edges   Edges table
+     * @param request Parsed request
      *
      * @return JGraphT graph
      */
-    private KeyedGraph<VWCent, Edge> prepareGraph(final DataSet edges) {
-        KeyedGraph<VWCent, Edge> graph;
+    private KeyedGraph<VWCent, Edge> prepareGraph(final DataSet edges,
+                                                  Request request) {
+        return new WeightedGraphCreator<VWCent, Edge>(
+                edges,
+                getGraphType(request.globalOrientation),
+                request.edgeOrientationColumnName,
+                VWCent.class,
+                Edge.class,
+                request.weightsColumn).prepareGraph();
+    }
 
-        // Get the graph orientation.
+    /**
+     * Returns the graph type of the given global orientation.
+     *
+     * @param globalOrientation Global orientation string, or {@code null}
+     *
+     * @return The graph type
+     */
+    static int getGraphType(String globalOrientation) {
         int graphType = -1;
         if (globalOrientation != null) {
             graphType = globalOrientation.equalsIgnoreCase(DIRECTED)
@@ -396,41 +547,254 @@ public class ST_ShortestPathLength extends AbstractTableFunction {
                     : globalOrientation.equalsIgnoreCase(UNDIRECTED)
                     ? GraphSchema.UNDIRECT
                     : -1;
-        } else if (graphType == -1) {
+        } else {
             LOGGER.warn("Assuming a directed graph.");
             graphType = GraphSchema.DIRECT;
         }
+        return graphType;
+    }
 
-        // Create the graph.
-        if (weightsColumn != null) {
-            graph = new WeightedGraphCreator<VWCent, Edge>(
-                    edges,
-                    graphType,
-                    edgeOrientationColumnName,
-                    VWCent.class,
-                    Edge.class,
-                    weightsColumn).prepareGraph();
-        } else {
-            throw new UnsupportedOperationException(
-                    NAME + " has not yet been implemented for "
-                    + "unweighted graphs.");
+    /**
+     * Compute the numbers of hops (edges) by breadth-first searches on the
+     * unweighted graph. As with weights, the one-to-all distances are
+     * returned in a {@link LazyDistanceDataSet} and unreachable destinations
+     * are at distance {@code +Infinity}.
+     *
+     * @param dsf     Data source factory
+     * @param edges   Edges table
+     * @param request Parsed request
+     *
+     * @return The requested distances
+     *
+     * @throws DriverException
+     */
+    private DataSet computeUnweighted(DataSourceFactory dsf, DataSet edges,
+                                      Request request)
+            throws DriverException {
+        if (request.turns != null) {
+            throw new IllegalArgumentException(
+                    NAME + " requires a weights column with a turns table.");
         }
-        return graph;
+        BreadthFirstSearcher searcher = new BreadthFirstSearcher(
+                edges, getGraphType(request.globalOrientation),
+                request.edgeOrientationColumnName);
+        CompactGraph graph = searcher.getGraph();
+        BreadthFirstSearcher.Search search = searcher.newSearch();
+        // (source, ...) (One-to-ALL)
+        if (request.sourceDestinationTable == null
+            && request.destination == -1) {
+            int source = graph.getIndex(request.source);
+            if (source == -1) {
+                throw new IllegalArgumentException(
+                        "Source " + request.source + " is not in the graph.");
+            }
+            search.run(source, Integer.MAX_VALUE, null);
+            int[] destinations = new int[graph.getVertexCount()];
+            double[] distances = new double[destinations.length];
+            for (int v = 0; v < destinations.length; v++) {
+                destinations[v] = graph.getId(v);
+                distances[v] = toDistance(search.getHops(v));
+            }
+            return new LazyDistanceDataSet(md, request.source, destinations,
+                                           distances);
+        }
+
+        DiskBufferDriver output = new DiskBufferDriver(dsf, md);
+        // (source, destination, ...) (One-to-one)
+        if (request.sourceDestinationTable == null) {
+            storeHops(graph, search, request.source,
+                      new int[]{request.destination}, output);
+        } // (source_dest_table, ...) (Many-to-many)
+        else {
+            DataSet table = request.sourceDestinationTable;
+            int sourceIndex = getSourceDestinationIndex(table, SOURCE);
+            int destinationIndex =
+                    getSourceDestinationIndex(table, DESTINATION);
+            Map<Integer, Set<Integer>> sourceDestinationMap =
+                    new LinkedHashMap<Integer, Set<Integer>>();
+            for (int i = 0; i < table.getRowCount(); i++) {
+                int s = table.getFieldValue(i, sourceIndex).getAsInt();
+                Set<Integer> targets = sourceDestinationMap.get(s);
+                if (targets == null) {
+                    targets = new LinkedHashSet<Integer>();
+                    sourceDestinationMap.put(s, targets);
+                }
+                targets.add(table.getFieldValue(i, destinationIndex)
+                        .getAsInt());
+            }
+            if (sourceDestinationMap.isEmpty()) {
+                LOGGER.error("No sources/destinations requested.");
+            }
+            if (sourceDestinationMap.size() == 1) {
+                Entry<Integer, Set<Integer>> e =
+                        sourceDestinationMap.entrySet().iterator().next();
+                storeHops(graph, search, e.getKey(), toArray(e.getValue()),
+                          output);
+            } else {
+                storeHops(graph, searcher.newMultiSearch(),
+                          sourceDestinationMap, output);
+            }
+        }
+        output.writingFinished();
+        output.open();
+        return output;
     }
 
     /**
-     * Compute the distances and write them to a table.
+     * Searches from the given source until the given destinations are
+     * reached and stores their numbers of hops.
      *
-     * @param dsf   Data source factory
-     * @param graph JGraphT graph
+     * @param graph        Graph searched
+     * @param search       Breadth-first search
+     * @param source       Source node id
+     * @param destinations Destination node ids
+     * @param output       Driver
+     *
+     * @throws DriverException
+     */
+    private void storeHops(CompactGraph graph,
+                           BreadthFirstSearcher.Search search, int source,
+                           int[] destinations, DiskBufferDriver output)
+            throws DriverException {
+        int sourceIndex = graph.getIndex(source);
+        int[] targets = new int[destinations.length];
+        for (int i = 0; i < destinations.length; i++) {
+            targets[i] = graph.getIndex(destinations[i]);
+        }
+        if (sourceIndex != -1) {
+            search.run(sourceIndex, Integer.MAX_VALUE, targets);
+        }
+        for (int i = 0; i < destinations.length; i++) {
+            storeValue(source, destinations[i],
+                       sourceIndex == -1 || targets[i] == -1
+                       ? Double.POSITIVE_INFINITY
+                       : toDistance(search.getHops(targets[i])),
+                       output);
+        }
+    }
+
+    /**
+     * Stores the numbers of hops of the given sources and destinations,
+     * searching from {@link BreadthFirstSearcher#BATCH_SIZE} sources at once
+     * until all their destinations are reached.
+     *
+     * @param graph                Graph searched
+     * @param search               Multi-source breadth-first search
+     * @param sourceDestinationMap Destination node ids of each source node id
+     * @param output               Driver
+     *
+     * @throws DriverException
+     */
+    private void storeHops(CompactGraph graph,
+                           BreadthFirstSearcher.MultiSearch search,
+                           Map<Integer, Set<Integer>> sourceDestinationMap,
+                           DiskBufferDriver output)
+            throws DriverException {
+        final long[] wanted = new long[graph.getVertexCount()];
+        final Map<Long, Integer> hops = new HashMap<Long, Integer>();
+        Iterator<Entry<Integer, Set<Integer>>> it =
+                sourceDestinationMap.entrySet().iterator();
+        while (it.hasNext()) {
+            List<Entry<Integer, Set<Integer>>> batch =
+                    new ArrayList<Entry<Integer, Set<Integer>>>();
+            while (it.hasNext()
+                   && batch.size() < BreadthFirstSearcher.BATCH_SIZE) {
+                batch.add(it.next());
+            }
+            int[] sources = new int[batch.size()];
+            int remaining = 0;
+            for (int i = 0; i < sources.length; i++) {
+                sources[i] = graph.getIndex(batch.get(i).getKey());
+                if (sources[i] != -1) {
+                    for (int destination : batch.get(i).getValue()) {
+                        int target = graph.getIndex(destination);
+                        if (target != -1 && (wanted[target] & 1L << i) == 0) {
+                            wanted[target] |= 1L << i;
+                            remaining++;
+                        }
+                    }
+                }
+            }
+            final int[] left = new int[]{remaining};
+            hops.clear();
+            search.run(sources, Integer.MAX_VALUE,
+                       new BreadthFirstSearcher.MultiSearchVisitor() {
+                @Override
+                public boolean visit(long reached, int vertex, int row,
+                                     int level) {
+                    long found = reached & wanted[vertex];
+                    while (found != 0) {
+                        int i = Long.numberOfTrailingZeros(found);
+                        found &= found - 1;
+                        hops.put((long) i << 32 | vertex, level);
+                        left[0]--;
+                    }
+                    return left[0] > 0;
+                }
+            });
+            for (int i = 0; i < sources.length; i++) {
+                int source = batch.get(i).getKey();
+                for (int destination : batch.get(i).getValue()) {
+                    int target = graph.getIndex(destination);
+                    Integer h = sources[i] == -1 || target == -1
+                            ? null : hops.get((long) i << 32 | target);
+                    storeValue(source, destination,
+                               h == null ? Double.POSITIVE_INFINITY : h,
+                               output);
+                    if (target != -1) {
+                        wanted[target] = 0;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Converts a number of hops into a distance.
+     *
+     * @param hops The number of hops, or -1 if unreachable
+     *
+     * @return The distance
+     */
+    static double toDistance(int hops) {
+        return hops < 0 ? Double.POSITIVE_INFINITY : hops;
+    }
+
+    /**
+     * Compute the distances and write them to a table. In the one-to-all case,
+     * the distances are not written but returned in a
+     * {@link LazyDistanceDataSet}.
+     *
+     * @param dsf     Data source factory
+     * @param graph   JGraphT graph
+     * @param request Parsed request
      *
      * @return The requested distances
      *
      * @throws DriverException
      */
-    private DiskBufferDriver compute(DataSourceFactory dsf,
-                                     KeyedGraph<VWCent, Edge> graph)
+    private DataSet compute(DataSourceFactory dsf,
+                            KeyedGraph<VWCent, Edge> graph,
+                            Request request)
             throws DriverException {
+        final int source = request.source;
+        final int destination = request.destination;
+        final DataSet sourceDestinationTable = request.sourceDestinationTable;
+        // (turns_table, source, ...) (One-to-one or one-to-all)
+        if (graph != null && request.turns != null) {
+            return computeWithTurns(dsf, graph, request);
+        }
+        // (source, ...) (One-to-ALL)
+        if (graph != null && source != -1 && destination == -1) {
+            return computeOneToAll(graph, source);
+        }
+        // (source_dest_table, ..., 'matrix') (Many-to-many)
+        if (graph != null && sourceDestinationTable != null
+            && request.outputOptions != null
+            && request.outputOptions.contains(MATRIX)) {
+            return computeMatrix(dsf, graph, sourceDestinationTable,
+                                 request.outputOptions.contains(FLOAT32));
+        }
 
         // Initialize the output.
         DiskBufferDriver output = new DiskBufferDriver(dsf, getMetadata(null));
@@ -447,48 +811,31 @@ public class ST_ShortestPathLength extends AbstractTableFunction {
                         dijkstra.oneToOne(graph.getVertex(source),
                                           graph.getVertex(destination));
                 storeValue(source, destination, distance, output);
-            } // (source, ...) (One-to-ALL)
-            else if (source != -1 && destination == -1) {
-                // TODO: Replace this by calculate().
-                Map<VWCent, Double> distances =
-                        dijkstra.oneToMany(graph.getVertex(source),
-                                           graph.vertexSet());
-                storeValues(source, distances, output);
             } // (source_dest_table, ...) (Many-to-many)
             else if (sourceDestinationTable != null) {
-                // Make sure the source-destination table has columns named
-                // SOURCE and DESTINATION.
-                Metadata metadata = sourceDestinationTable.getMetadata();
-                int sourceIndex = metadata.getFieldIndex(SOURCE);
-                int targetIndex = metadata.getFieldIndex(DESTINATION);
-                if (sourceIndex == -1) {
-                    throw new IllegalArgumentException(
-                            "The source-destination table must contain "
-                            + "a column named \'" + SOURCE + "\'.");
-                } else if (targetIndex == -1) {
-                    throw new IllegalArgumentException(
-                            "The source-destination table must contain "
-                            + "a column named \'" + DESTINATION + "\'.");
-                } else {
+                int sourceIndex = getSourceDestinationIndex(
+                        sourceDestinationTable, SOURCE);
+                int targetIndex = getSourceDestinationIndex(
+                        sourceDestinationTable, DESTINATION);
 
-                    // Prepare the source-destination map from the source-
-                    // destination table.
-                    Map<VWCent, Set<VWCent>> sourceDestinationMap =
-                            prepareSourceDestinationMap(graph,
-                                                        sourceIndex,
-                                                        targetIndex);
-                    if (sourceDestinationMap.isEmpty()) {
-                        LOGGER.error(
-                                "No sources/destinations requested.");
-                    }
+                // Prepare the source-destination map from the source-
+                // destination table.
+                Map<VWCent, Set<VWCent>> sourceDestinationMap =
+                        prepareSourceDestinationMap(graph,
+                                                    sourceDestinationTable,
+                                                    sourceIndex,
+                                                    targetIndex);
+                if (sourceDestinationMap.isEmpty()) {
+                    LOGGER.error(
+                            "No sources/destinations requested.");
+                }
 
-                    // Do One-to-Many many times!
-                    for (Entry<VWCent, Set<VWCent>> e
-                         : sourceDestinationMap.entrySet()) {
-                        Map<VWCent, Double> distances =
-                                dijkstra.oneToMany(e.getKey(), e.getValue());
-                        storeValues(e.getKey().getID(), distances, output);
-                    }
+                // Do One-to-Many many times!
+                for (Entry<VWCent, Set<VWCent>> e
+                     : sourceDestinationMap.entrySet()) {
+                    Map<VWCent, Double> distances =
+                            dijkstra.oneToMany(e.getKey(), e.getValue());
+                    storeValues(e.getKey().getID(), distances, output);
                 }
             }
             // Clean-up
@@ -498,13 +845,191 @@ public class ST_ShortestPathLength extends AbstractTableFunction {
         return output;
     }
 
+    /**
+     * Compute the distances from the source to all nodes. The distances are
+     * read from the vertices after a single Dijkstra search and kept in
+     * primitive arrays; the rows are only created when they are read.
+     *
+     * @param graph  JGraphT graph
+     * @param source Source node id
+     *
+     * @return The distances from the source to all nodes
+     */
+    private LazyDistanceDataSet computeOneToAll(
+            KeyedGraph<VWCent, Edge> graph, int source) {
+        new Dijkstra<VWCent, Edge>(graph).calculate(graph.getVertex(source));
+        final Set<VWCent> vertices = graph.vertexSet();
+        int[] destinations = new int[vertices.size()];
+        double[] distances = new double[vertices.size()];
+        int i = 0;
+        for (VWCent v : vertices) {
+            destinations[i] = v.getID();
+            distances[i] = v.getDistance();
+            i++;
+        }
+        return new LazyDistanceDataSet(md, source, destinations, distances);
+    }
+
+    /**
+     * Compute the distances from the source under the turn restrictions of
+     * the turns table, to the destination or to all nodes.
+     *
+     * @param dsf     Data source factory
+     * @param graph   JGraphT graph
+     * @param request Parsed request
+     *
+     * @return The requested distances
+     *
+     * @throws DriverException
+     */
+    private DataSet computeWithTurns(DataSourceFactory dsf,
+                                     KeyedGraph<VWCent, Edge> graph,
+                                     Request request) throws DriverException {
+        CompactGraph compact = new CompactGraph(graph);
+        TurnGraph turnGraph = TurnGraph.fromTable(compact, request.turns);
+        int source = compact.getIndex(request.source);
+        if (source == -1) {
+            throw new IllegalArgumentException(
+                    "Source " + request.source + " is not in the graph.");
+        }
+        if (request.destination == -1) {
+            TurnGraph.Tree tree = turnGraph.search(source, -1);
+            int[] destinations = new int[compact.getVertexCount()];
+            double[] distances = new double[destinations.length];
+            for (int v = 0; v < destinations.length; v++) {
+                destinations[v] = compact.getId(v);
+                distances[v] = tree.getDistance(v);
+            }
+            return new LazyDistanceDataSet(md, request.source, destinations,
+                                           distances);
+        }
+        DiskBufferDriver output = new DiskBufferDriver(dsf, md);
+        int destination = compact.getIndex(request.destination);
+        storeValue(request.source, request.destination,
+                   destination == -1
+                   ? Double.POSITIVE_INFINITY
+                   : turnGraph.search(source, destination)
+                   .getDistance(destination),
+                   output);
+        output.writingFinished();
+        output.open();
+        return output;
+    }
+
+    /**
+     * Compute the many-to-many distances and write them to a binary matrix
+     * file whose rows are the sources and whose columns are the destinations,
+     * in order of first appearance in the source-destination table.
+     *
+     * @param dsf                    Data source factory
+     * @param graph                  JGraphT graph
+     * @param sourceDestinationTable Table of sources and destinations
+     * @param floatPrecision         Whether to store float32 distances
+     *
+     * @return A lazy table reading the matrix file
+     *
+     * @throws DriverException
+     */
+    private DistanceMatrixDataSet computeMatrix(
+            DataSourceFactory dsf,
+            KeyedGraph<VWCent, Edge> graph,
+            DataSet sourceDestinationTable,
+            boolean floatPrecision) throws DriverException {
+        int sourceIndex = getSourceDestinationIndex(
+                sourceDestinationTable, SOURCE);
+        int destinationIndex = getSourceDestinationIndex(
+                sourceDestinationTable, DESTINATION);
+        Map<VWCent, Set<VWCent>> sourceDestinationMap =
+                prepareSourceDestinationMap(graph, sourceDestinationTable,
+                                            sourceIndex, destinationIndex);
+        if (sourceDestinationMap.isEmpty()) {
+            LOGGER.error("No sources/destinations requested.");
+        }
+        Dijkstra<VWCent, Edge> dijkstra = new Dijkstra<VWCent, Edge>(graph);
+        // Number the sources and destinations.
+        Map<Integer, Integer> rows = new LinkedHashMap<Integer, Integer>();
+        Map<Integer, Integer> columns = new LinkedHashMap<Integer, Integer>();
+        for (int i = 0; i < sourceDestinationTable.getRowCount(); i++) {
+            Value[] row = sourceDestinationTable.getRow(i);
+            int s = row[sourceIndex].getAsInt();
+            int d = row[destinationIndex].getAsInt();
+            if (!rows.containsKey(s)) {
+                rows.put(s, rows.size());
+            }
+            if (!columns.containsKey(d)) {
+                columns.put(d, columns.size());
+            }
+        }
+        File file = dsf.getResultFile("dmx");
+        try {
+            DistanceMatrixFile matrix = DistanceMatrixFile.create(
+                    file, toArray(rows.keySet()), toArray(columns.keySet()),
+                    floatPrecision);
+            for (Entry<VWCent, Set<VWCent>> e
+                 : sourceDestinationMap.entrySet()) {
+                int row = rows.get(e.getKey().getID());
+                for (Entry<VWCent, Double> d
+                     : dijkstra.oneToMany(e.getKey(), e.getValue())
+                        .entrySet()) {
+                    matrix.set(row, columns.get(d.getKey().getID()),
+                               d.getValue());
+                }
+            }
+            matrix.flush();
+            LOGGER.info("Distance matrix written to {}.", file);
+            return new DistanceMatrixDataSet(md, matrix);
+        } catch (IOException ex) {
+            throw new DriverException(
+                    "Cannot write the distance matrix " + file, ex);
+        }
+    }
+
+    /**
+     * Returns the index of the given column of the source-destination table.
+     *
+     * @param sourceDestinationTable Table of sources and destinations
+     * @param column                 {@link #SOURCE} or {@link #DESTINATION}
+     *
+     * @return The column index
+     *
+     * @throws DriverException
+     */
+    private static int getSourceDestinationIndex(
+            DataSet sourceDestinationTable, String column)
+            throws DriverException {
+        int index = sourceDestinationTable.getMetadata().getFieldIndex(column);
+        if (index == -1) {
+            throw new IllegalArgumentException(
+                    "The source-destination table must contain "
+                    + "a column named \'" + column + "\'.");
+        }
+        return index;
+    }
+
+    /**
+     * Copies the given ids into an array, in iteration order.
+     *
+     * @param ids The ids
+     *
+     * @return The array
+     */
+    private static int[] toArray(Set<Integer> ids) {
+        int[] array = new int[ids.size()];
+        int i = 0;
+        for (int id : ids) {
+            array[i++] = id;
+        }
+        return array;
+    }
+
     /**
      * Prepare the source-destination map (to which we will apply Dijkstra) from
      * the source-destination table.
      *
-     * @param graph            JGraphT graph
-     * @param sourceIndex      Index of the source column
-     * @param destinationIndex Index of the destination column.
+     * @param graph                  JGraphT graph
+     * @param sourceDestinationTable Table of sources and destinations
+     * @param sourceIndex            Index of the source column
+     * @param destinationIndex       Index of the destination column.
      *
      * @return The source-destination map
      *
@@ -512,6 +1037,7 @@ public class ST_ShortestPathLength extends AbstractTableFunction {
      */
     private Map<VWCent, Set<VWCent>> prepareSourceDestinationMap(
             KeyedGraph<VWCent, Edge> graph,
+            DataSet sourceDestinationTable,
             int sourceIndex,
             int destinationIndex) throws DriverException {
         // Initialize the map.
@@ -576,4 +1102,63 @@ public class ST_ShortestPathLength extends AbstractTableFunction {
                          ValueFactory.createValue(destination),
                          ValueFactory.createValue(distance));
     }
+
+    /**
+     * The arguments of one evaluation. They are kept out of the fields of the
+     * function so that the single registered instance can serve concurrent
+     * queries.
+     */
+    private static final class Request {
+
+        /**
+         * Source node id, or -1.
+         */
+        private final int source;
+        /**
+         * Destination node id, or -1.
+         */
+        private final int destination;
+        /**
+         * Table of sources and destinations, or {@code null}.
+         */
+        private final DataSet sourceDestinationTable;
+        /**
+         * Table of turn restrictions, or {@code null}.
+         */
+        private final DataSet turns;
+        /**
+         * Weight column name.
+         */
+        private final String weightsColumn;
+        /**
+         * Global orientation string.
+         */
+        private final String globalOrientation;
+        /**
+         * Edge orientation string.
+         */
+        private final String edgeOrientationColumnName;
+        /**
+         * Many-to-many output options, or {@code null} for a table output.
+         */
+        private final Set<String> outputOptions;
+
+        private Request(int source,
+                        int destination,
+                        DataSet sourceDestinationTable,
+                        DataSet turns,
+                        String weightsColumn,
+                        String globalOrientation,
+                        String edgeOrientationColumnName,
+                        Set<String> outputOptions) {
+            this.source = source;
+            this.destination = destination;
+            this.sourceDestinationTable = sourceDestinationTable;
+            this.turns = turns;
+            this.weightsColumn = weightsColumn;
+            this.globalOrientation = globalOrientation;
+            this.edgeOrientationColumnName = edgeOrientationColumnName;
+            this.outputOptions = outputOptions;
+        }
+    }
 }
@@ -45,9 +45,10 @@ import org.gdms.driver.DataSet;
 import org.gdms.driver.DiskBufferDriver;
 import org.gdms.driver.DriverException;
 import org.gdms.gdmstopology.graphcreator.WeightedGraphCreator;
+import org.gdms.gdmstopology.model.CompactGraph;
 import org.gdms.gdmstopology.model.GraphMetadataFactory;
-import org.gdms.gdmstopology.model.GraphSchema;
 import org.gdms.gdmstopology.parse.GraphFunctionParser;
+import org.gdms.gdmstopology.process.BreadthFirstSearcher;
 import org.gdms.sql.function.FunctionException;
 import org.gdms.sql.function.FunctionSignature;
 import org.gdms.sql.function.ScalarArgument;
@@ -75,14 +76,9 @@ import static org.gdms.data.values.ValueFactory.createValue;
  */
 public class ST_ShortestPathTree extends AbstractTableFunction {
 
-    private int source = -1;
-    private String weightsColumn = null;
-    private String globalOrientation = null;
-    private String edgeOrientationColumnName = null;
     private static final org.slf4j.Logger LOGGER =
             LoggerFactory.getLogger(ST_ShortestPathTree.class);
     private static final Metadata METADATA = GraphMetadataFactory.createEdgeMetadataShortestPath();
-    private double radius = Double.POSITIVE_INFINITY;
 
     /**
      * Evaluates the function to calculate the shortest path tree using Dijkstra'
@@ -109,15 +105,18 @@ public class ST_ShortestPathTree extends AbstractTableFunction {
         final DataSet edges = tables[0];
 
         // Recover all other parameters.
-        parseArguments(edges, values);
-
-        // Prepare the graph.
-        KeyedGraph<VWCent, Edge> graph = prepareGraph(edges);
+        final Request request = parseArguments(edges, values);
 
         // Compute and return results.
         DiskBufferDriver results = null;
         try {
-            results = compute(dsf, edges, graph, pm);
+            if (request.weightsColumn == null) {
+                results = computeUnweighted(dsf, edges, request);
+            } else {
+                // Prepare the graph.
+                KeyedGraph<VWCent, Edge> graph = prepareGraph(edges, request);
+                results = compute(dsf, edges, graph, request, pm);
+            }
         } catch (DriverException ex) {
             LOGGER.error(ex.toString());
         }
@@ -129,74 +128,118 @@ public class ST_ShortestPathTree extends AbstractTableFunction {
      *
      * @param edges  Edges input table
      * @param values Arguments
+     * @return The parsed request
      */
-    private void parseArguments(DataSet edges, Value[] values) {
+    private Request parseArguments(DataSet edges, Value[] values) {
         GraphFunctionParser parser = new GraphFunctionParser();
         int valuesIndex = 0;
-        source = parser.parseSource(values[valuesIndex++]);
-        if (values[valuesIndex].getType() == Type.FLOAT) {
-            radius = parser.parseRadius(values[valuesIndex++]);
+        int source = parser.parseSource(values[valuesIndex++]);
+        double radius = Double.POSITIVE_INFINITY;
+        if (valuesIndex < values.length) {
+            if (values[valuesIndex].getType() == Type.FLOAT) {
+                radius = parser.parseRadius(values[valuesIndex++]);
+            } else if (values[valuesIndex].getType() == Type.INT) {
+                // A number of hops, or a distance.
+                radius = values[valuesIndex++].getAsInt();
+            }
         }
         parser.parseOptionalArguments(edges, values, valuesIndex);
-        globalOrientation = parser.getGlobalOrientation();
-        edgeOrientationColumnName = parser.getEdgeOrientationColumnName();
-        weightsColumn = parser.getWeightsColumn();
+        return new Request(source, radius,
+                           parser.getWeightsColumn(),
+                           parser.getGlobalOrientation(),
+                           parser.getEdgeOrientationColumnName());
     }
 
     /**
      * Prepare the JGraphT graph from the given edges table.
      *
-     * @param edges Edges table
+     * @param edges   Edges table
+     * @param request Parsed request
      * @return JGraphT graph
      */
-    private KeyedGraph<VWCent, Edge> prepareGraph(final DataSet edges) {
-        KeyedGraph<VWCent, Edge> graph;
-
-        // Get the graph orientation.
-        int graphType = -1;
-        if (globalOrientation != null) {
-            graphType = globalOrientation.equalsIgnoreCase(ST_ShortestPathLength.DIRECTED)
-                    ? GraphSchema.DIRECT
-                    : globalOrientation.equalsIgnoreCase(ST_ShortestPathLength.REVERSED)
-                    ? GraphSchema.DIRECT_REVERSED
-                    : globalOrientation.equalsIgnoreCase(ST_ShortestPathLength.UNDIRECTED)
-                    ? GraphSchema.UNDIRECT
-                    : -1;
-        } else if (graphType == -1) {
-            LOGGER.warn("Assuming a directed graph.");
-            graphType = GraphSchema.DIRECT;
-        }
+    private KeyedGraph<VWCent, Edge> prepareGraph(final DataSet edges,
+                                                  Request request) {
+        return new WeightedGraphCreator<VWCent, Edge>(
+                edges,
+                ST_ShortestPathLength.getGraphType(request.globalOrientation),
+                request.edgeOrientationColumnName,
+                VWCent.class,
+                Edge.class,
+                request.weightsColumn).prepareGraph();
+    }
 
-        // Create the graph.
-        if (weightsColumn != null) {
-            graph = new WeightedGraphCreator<VWCent, Edge>(
-                    edges,
-                    graphType,
-                    edgeOrientationColumnName,
-                    VWCent.class,
-                    Edge.class,
-                    weightsColumn).prepareGraph();
+    /**
+     * Compute the breadth-first tree of the unweighted graph within the
+     * radius, read as a number of hops, and write its edges to a table in
+     * order of hops. Each edge has weight 1.
+     *
+     * @param dsf     Data source factory
+     * @param dataSet Edges table
+     * @param request Parsed request
+     * @return The shortest path tree
+     * @throws DriverException
+     */
+    private DiskBufferDriver computeUnweighted(DataSourceFactory dsf,
+                                               DataSet dataSet,
+                                               Request request)
+            throws DriverException {
+        BreadthFirstSearcher searcher = new BreadthFirstSearcher(
+                dataSet,
+                ST_ShortestPathLength.getGraphType(request.globalOrientation),
+                request.edgeOrientationColumnName);
+        CompactGraph graph = searcher.getGraph();
+        DiskBufferDriver output = new DiskBufferDriver(dsf, METADATA);
+        int source = graph.getIndex(request.source);
+        if (source != -1) {
+            final int geomIndex = dataSet.getSpatialFieldIndex();
+            if (geomIndex == -1) {
+                throw new IndexOutOfBoundsException("Geometry field not found.");
+            }
+            BreadthFirstSearcher.Search search = searcher.newSearch();
+            search.run(source,
+                       request.radius < Integer.MAX_VALUE
+                       ? (int) Math.floor(request.radius)
+                       : Integer.MAX_VALUE,
+                       null);
+            int newID = 1;
+            // The source comes first and has no parent.
+            for (int i = 1; i < search.getVisitedCount(); i++) {
+                int v = search.getVisited(i);
+                int row = search.getParentRow(v);
+                output.addValues(
+                        createValue(dataSet.getGeometry(row, geomIndex)),
+                        createValue(searcher.getEdgeId(row)),
+                        createValue(newID++),
+                        createValue(graph.getId(search.getParent(v))),
+                        createValue(graph.getId(v)),
+                        createValue(1.0));
+            }
         } else {
-            throw new UnsupportedOperationException(
-                    "ST_ShortestPathTree has not yet been implemented for "
-                            + "unweighted graphs.");
+            LOGGER.error("Source not in the graph. Source: "
+                    + request.source + ".");
         }
-        return graph;
+        output.writingFinished();
+        output.open();
+        return output;
     }
 
     /**
      * Compute the distances and write them to a table.
      *
-     * @param dsf   Data source factory
-     * @param graph JGraphT graph
+     * @param dsf     Data source factory
+     * @param graph   JGraphT graph
+     * @param request Parsed request
      * @return The requested distances
      * @throws DriverException
      */
     private DiskBufferDriver compute(DataSourceFactory dsf,
                                      DataSet dataSet,
                                      KeyedGraph<VWCent, Edge> graph,
+                                     Request request,
                                      ProgressMonitor pm)
             throws DriverException {
+        final int source = request.source;
+        final double radius = request.radius;
 
         // A DiskBufferDriver to store the shortest path tree.
         DiskBufferDriver output =
@@ -270,8 +313,8 @@ public class ST_ShortestPathTree extends AbstractTableFunction {
      */
     @Override
     public String getSqlOrder() {
-        return "SELECT * from  ST_ShortestPathTree(input_table, source_vertex, " +
-                "'weights_column'[, "
+        return "SELECT * from  ST_ShortestPathTree(input_table, source_vertex"
+                + "[, radius][, 'weights_column'][, "
                 + ST_ShortestPathLength.POSSIBLE_ORIENTATIONS + "]);";
     }
 
@@ -300,7 +343,10 @@ public class ST_ShortestPathTree extends AbstractTableFunction {
                 + "<li> '" + ST_ShortestPathLength.UNDIRECTED + "'."
                 + "</ul> The default orientation is " + ST_ShortestPathLength.DIRECTED + " with edge "
                 + "orientations given by the geometries, though edge orientations "
-                + "should most definitely be provided by the user. ";
+                + "should most definitely be provided by the user. "
+                + "If the 'weights_column' is omitted, the tree is found by "
+                + "breadth-first search and the optional radius is a number "
+                + "of edges.";
     }
 
     /**
@@ -321,14 +367,38 @@ public class ST_ShortestPathTree extends AbstractTableFunction {
      * Returns an array of all possible signatures of this function. Multiple
      * signatures arise from some arguments being optional.
      * <p/>
-     * <p> Possible signatures: <OL> <li> {@code (TABLE, INT, INT, STRING)} <li>
-     * {@code (TABLE, INT, INT, STRING, INT)} </OL>
+     * <p> Possible signatures: <OL> <li> {@code (TABLE, INT)} <li>
+     * {@code (TABLE, INT, DOUBLE)} <li> {@code (TABLE, INT, INT)} <li>
+     * {@code (TABLE, INT, INT, STRING)} <li> {@code (TABLE, INT, STRING)}
+     * <li> {@code (TABLE, INT, STRING, STRING)} <li>
+     * {@code (TABLE, INT, DOUBLE, STRING)} <li>
+     * {@code (TABLE, INT, DOUBLE, STRING, STRING)} </OL>
      *
      * @return An array of all possible signatures of this function.
      */
     @Override
     public FunctionSignature[] getFunctionSignatures() {
         return new FunctionSignature[]{
+                new TableFunctionSignature(
+                        TableDefinition.GEOMETRY,
+                        new TableArgument(TableDefinition.GEOMETRY),
+                        ScalarArgument.INT),
+                new TableFunctionSignature(
+                        TableDefinition.GEOMETRY,
+                        new TableArgument(TableDefinition.GEOMETRY),
+                        ScalarArgument.INT,
+                        ScalarArgument.DOUBLE),
+                new TableFunctionSignature(
+                        TableDefinition.GEOMETRY,
+                        new TableArgument(TableDefinition.GEOMETRY),
+                        ScalarArgument.INT,
+                        ScalarArgument.INT),
+                new TableFunctionSignature(
+                        TableDefinition.GEOMETRY,
+                        new TableArgument(TableDefinition.GEOMETRY),
+                        ScalarArgument.INT,
+                        ScalarArgument.INT,
+                        ScalarArgument.STRING),
                 new TableFunctionSignature(
                         TableDefinition.GEOMETRY,
                         new TableArgument(TableDefinition.GEOMETRY),
@@ -355,4 +425,29 @@ public class ST_ShortestPathTree extends AbstractTableFunction {
                         ScalarArgument.STRING)
         };
     }
+
+    /**
+     * The source, search radius, weights and orientations of the tree to
+     * build, as read by {@link #parseArguments}.
+     */
+    private static final class Request {
+
+        private final int source;
+        private final double radius;
+        private final String weightsColumn;
+        private final String globalOrientation;
+        private final String edgeOrientationColumnName;
+
+        private Request(int source,
+                        double radius,
+                        String weightsColumn,
+                        String globalOrientation,
+                        String edgeOrientationColumnName) {
+            this.source = source;
+            this.radius = radius;
+            this.weightsColumn = weightsColumn;
+            this.globalOrientation = globalOrientation;
+            this.edgeOrientationColumnName = edgeOrientationColumnName;
+        }
+    }
 }
@@ -0,0 +1,206 @@
+/**
+ * GDMS-Topology is a library dedicated to graph analysis. It is based on the
+ * JGraphT library available at <http://www.jgrapht.org/>. It enables computing
+ * and processing large graphs using spatial and alphanumeric indexes.
+ *
+ * This version is developed at French IRSTV institut as part of the EvalPDU
+ * project, funded by the French Agence Nationale de la Recherche (ANR) under
+ * contract ANR-08-VILL-0005-01 and GEBD project funded by the French Ministery
+ * of Ecology and Sustainable Development.
+ *
+ * GDMS-Topology is distributed under GPL 3 license. It is produced by the
+ * "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR
+ * 2488.
+ *
+ * Copyright (C) 2009-2012 IRSTV (FR CNRS 2488)
+ *
+ * GDMS-Topology is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * GDMS-Topology is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * GDMS-Topology. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://wwwc.orbisgis.org/> or contact
+ * directly: info_at_ orbisgis.org
+ */
+package org.gdms.gdmstopology.function;
+
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import org.gdms.data.DataSourceFactory;
+import org.gdms.data.schema.DefaultMetadata;
+import org.gdms.data.schema.Metadata;
+import org.gdms.data.schema.MetadataUtilities;
+import org.gdms.data.types.Type;
+import org.gdms.data.types.TypeFactory;
+import org.gdms.data.values.Value;
+import org.gdms.data.values.ValueFactory;
+import org.gdms.driver.DataSet;
+import org.gdms.driver.DiskBufferDriver;
+import org.gdms.driver.DriverException;
+import org.gdms.gdmstopology.model.GraphSchema;
+import org.gdms.gdmstopology.process.EdgeSnapper;
+import org.gdms.gdmstopology.process.TopologyExecutorService;
+import org.gdms.sql.function.FunctionException;
+import org.gdms.sql.function.ScalarArgument;
+import org.gdms.sql.function.table.AbstractTableFunction;
+import org.gdms.sql.function.table.TableArgument;
+import org.gdms.sql.function.table.TableDefinition;
+import org.gdms.sql.function.table.TableFunctionSignature;
+import org.orbisgis.progress.ProgressMonitor;
+
+/**
+ * Snaps points onto the nearest edge of a graph and gives each point a node
+ * id which the routing functions accept once the edges are split by
+ * {@link ST_SnappedGraph}.
+ *
+ * @author Adam Gouge
+ */
+public class ST_SnapToGraph extends AbstractTableFunction {
+
+    /**
+     * The name of this function.
+     */
+    private static final String NAME = "ST_SnapToGraph";
+    /**
+     * Edge id field of the output.
+     */
+    public static final String EDGE_ID = "edge_id";
+    /**
+     * Fraction field of the output.
+     */
+    public static final String FRACTION = "fraction";
+    /**
+     * Node id field of the output.
+     */
+    public static final String NODE_ID = "node_id";
+    /**
+     * Used to create the snapped points.
+     */
+    private static final GeometryFactory GF = new GeometryFactory();
+
+    @Override
+    public DataSet evaluate(DataSourceFactory dsf, DataSet[] tables,
+                            Value[] values, ProgressMonitor pm) throws
+            FunctionException {
+        try {
+            DataSet points = tables[1];
+            int idIndex = points.getMetadata().getFieldIndex(GraphSchema.ID);
+            Geometry[] geometries = readPoints(points);
+
+            EdgeSnapper snapper = new EdgeSnapper(tables[0]);
+            pm.startTask("Snapping points", 100);
+            EdgeSnapper.Snap[] snaps = snapper.snap(
+                    geometries, values[0].getAsDouble(),
+                    TopologyExecutorService.getShared(), pm);
+            pm.endTask();
+            if (snaps == null) {
+                return null;
+            }
+
+            DiskBufferDriver output =
+                    new DiskBufferDriver(dsf, getMetadata(null));
+            for (int i = 0; i < snaps.length; i++) {
+                Value id = ValueFactory.createValue(idIndex == -1
+                        ? i + 1
+                        : points.getFieldValue(i, idIndex).getAsInt());
+                EdgeSnapper.Snap s = snaps[i];
+                if (s == null) {
+                    output.addValues(ValueFactory.createNullValue(), id,
+                                     ValueFactory.createNullValue(),
+                                     ValueFactory.createNullValue(),
+                                     ValueFactory.createNullValue(),
+                                     ValueFactory.createNullValue());
+                } else {
+                    output.addValues(
+                            ValueFactory.createValue(
+                            GF.createPoint(s.getPoint())),
+                            id,
+                            ValueFactory.createValue(
+                            snapper.getEdgeId(s.getRow())),
+                            ValueFactory.createValue(s.getFraction()),
+                            ValueFactory.createValue(s.getDistance()),
+                            ValueFactory.createValue(s.getNode()));
+                }
+            }
+            output.writingFinished();
+            output.open();
+            return output;
+        } catch (DriverException ex) {
+            throw new FunctionException(ex);
+        }
+    }
+
+    /**
+     * Reads the geometries of a points table.
+     *
+     * @param points The points table
+     *
+     * @return The geometries, by row
+     *
+     * @throws DriverException
+     */
+    static Geometry[] readPoints(DataSet points) throws DriverException {
+        int geometryIndex = MetadataUtilities.getSpatialFieldIndex(
+                points.getMetadata());
+        Geometry[] geometries = new Geometry[(int) points.getRowCount()];
+        for (int i = 0; i < geometries.length; i++) {
+            geometries[i] = points.getGeometry(i, geometryIndex);
+        }
+        return geometries;
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public String getSqlOrder() {
+        return "SELECT * FROM " + NAME + "(output.edges, points, 25.0);";
+    }
+
+    @Override
+    public String getDescription() {
+        return "Snaps each point onto the nearest edge within the given "
+                + "distance. The output gives the snapped point, the "
+                + GraphSchema.ID + " of the point (or its row number), the '"
+                + EDGE_ID + "', the '" + FRACTION + "' of the edge length "
+                + "from its start node, the '" + GraphSchema.DISTANCE
+                + "' to the edge and the '" + NODE_ID + "' of the snapped "
+                + "point: an endpoint of the edge, or a new node splitting "
+                + "the edge in the table returned by ST_SnappedGraph with the "
+                + "same arguments. Points too far from every edge have NULL "
+                + "values. The edges are indexed once per table.";
+    }
+
+    @Override
+    public TableFunctionSignature[] getFunctionSignatures() {
+        return new TableFunctionSignature[]{
+            new TableFunctionSignature(TableDefinition.GEOMETRY,
+                                       TableArgument.GEOMETRY,
+                                       TableArgument.GEOMETRY,
+                                       ScalarArgument.DOUBLE)
+        };
+    }
+
+    @Override
+    public Metadata getMetadata(Metadata[] tables) throws DriverException {
+        return new DefaultMetadata(
+                new Type[]{TypeFactory.createType(Type.POINT),
+                           TypeFactory.createType(Type.INT),
+                           TypeFactory.createType(Type.INT),
+                           TypeFactory.createType(Type.DOUBLE),
+                           TypeFactory.createType(Type.DOUBLE),
+                           TypeFactory.createType(Type.INT)},
+                new String[]{"the_geom", GraphSchema.ID, EDGE_ID, FRACTION,
+                             GraphSchema.DISTANCE, NODE_ID});
+    }
+}
@@ -0,0 +1,201 @@
+/**
+ * GDMS-Topology is a library dedicated to graph analysis. It is based on the
+ * JGraphT library available at <http://www.jgrapht.org/>. It enables computing
+ * and processing large graphs using spatial and alphanumeric indexes.
+ *
+ * This version is developed at French IRSTV institut as part of the EvalPDU
+ * project, funded by the French Agence Nationale de la Recherche (ANR) under
+ * contract ANR-08-VILL-0005-01 and GEBD project funded by the French Ministery
+ * of Ecology and Sustainable Development.
+ *
+ * GDMS-Topology is distributed under GPL 3 license. It is produced by the
+ * "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR
+ * 2488.
+ *
+ * Copyright (C) 2009-2012 IRSTV (FR CNRS 2488)
+ *
+ * GDMS-Topology is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * GDMS-Topology is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * GDMS-Topology. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://wwwc.orbisgis.org/> or contact
+ * directly: info_at_ orbisgis.org
+ */
+package org.gdms.gdmstopology.function;
+
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.linearref.LengthIndexedLine;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import org.gdms.data.DataSourceFactory;
+import org.gdms.data.schema.Metadata;
+import org.gdms.data.schema.MetadataUtilities;
+import org.gdms.data.values.Value;
+import org.gdms.data.values.ValueFactory;
+import org.gdms.driver.DataSet;
+import org.gdms.driver.DiskBufferDriver;
+import org.gdms.driver.DriverException;
+import org.gdms.gdmstopology.model.GraphSchema;
+import org.gdms.gdmstopology.process.EdgeSnapper;
+import org.gdms.gdmstopology.process.TopologyExecutorService;
+import org.gdms.sql.function.FunctionException;
+import org.gdms.sql.function.ScalarArgument;
+import org.gdms.sql.function.table.AbstractTableFunction;
+import org.gdms.sql.function.table.TableArgument;
+import org.gdms.sql.function.table.TableDefinition;
+import org.gdms.sql.function.table.TableFunctionSignature;
+import org.orbisgis.progress.ProgressMonitor;
+
+/**
+ * Splits the edges of a graph at the points snapped by
+ * {@link ST_SnapToGraph}, so that the node ids it gives to the points can be
+ * used as sources and destinations by the routing functions.
+ *
+ * <p> The first piece of a split edge keeps its id; the other pieces get new
+ * ids after the largest edge id. The weights are shared between the pieces in
+ * proportion to their length; the other fields are copied.
+ *
+ * @author Adam Gouge
+ */
+public class ST_SnappedGraph extends AbstractTableFunction {
+
+    /**
+     * The name of this function.
+     */
+    private static final String NAME = "ST_SnappedGraph";
+
+    @Override
+    public DataSet evaluate(DataSourceFactory dsf, DataSet[] tables,
+                            Value[] values, ProgressMonitor pm) throws
+            FunctionException {
+        final DataSet edges = tables[0];
+        try {
+            Metadata md = edges.getMetadata();
+            int geometryIndex = MetadataUtilities.getSpatialFieldIndex(md);
+            int idIndex = md.getFieldIndex(GraphSchema.ID);
+            int startNodeIndex = md.getFieldIndex(GraphSchema.START_NODE);
+            int endNodeIndex = md.getFieldIndex(GraphSchema.END_NODE);
+            String weightsColumn = values[1].getAsString().trim();
+            int weightIndex = md.getFieldIndex(weightsColumn);
+            if (weightIndex == -1) {
+                throw new IllegalArgumentException(
+                        "The edges table must contain a field named "
+                        + weightsColumn + ".");
+            }
+
+            EdgeSnapper snapper = new EdgeSnapper(edges);
+            pm.startTask("Snapping points", 100);
+            EdgeSnapper.Snap[] snaps = snapper.snap(
+                    ST_SnapToGraph.readPoints(tables[1]),
+                    values[0].getAsDouble(),
+                    TopologyExecutorService.getShared(), pm);
+            pm.endTask();
+            if (snaps == null) {
+                return null;
+            }
+
+            // The virtual nodes inside each edge, by position.
+            Map<Integer, TreeMap<Double, Integer>> splits =
+                    new HashMap<Integer, TreeMap<Double, Integer>>();
+            for (int i = 0; i < snaps.length; i++) {
+                EdgeSnapper.Snap s = snaps[i];
+                if (s != null && s.getFraction() > 0 && s.getFraction() < 1) {
+                    TreeMap<Double, Integer> nodes = splits.get(s.getRow());
+                    if (nodes == null) {
+                        nodes = new TreeMap<Double, Integer>();
+                        splits.put(s.getRow(), nodes);
+                    }
+                    nodes.put(s.getFraction(), s.getNode());
+                }
+            }
+
+            DiskBufferDriver output = new DiskBufferDriver(dsf, md);
+            int nextEdgeId = snapper.getMaxEdgeId();
+            for (int i = 0; i < edges.getRowCount(); i++) {
+                Value[] row = edges.getRow(i);
+                TreeMap<Double, Integer> nodes = splits.get(i);
+                if (nodes == null) {
+                    output.addValues(row);
+                    continue;
+                }
+                Geometry geometry = snapper.getGeometry(i);
+                LengthIndexedLine line = new LengthIndexedLine(geometry);
+                double length = geometry.getLength();
+                double weight = row[weightIndex].getAsDouble();
+                double from = 0;
+                int fromNode = snapper.getStartNode(i);
+                boolean first = true;
+                nodes.put(1.0, snapper.getEndNode(i));
+                for (Map.Entry<Double, Integer> e : nodes.entrySet()) {
+                    double to = e.getKey();
+                    Value[] piece = row.clone();
+                    piece[geometryIndex] = ValueFactory.createValue(
+                            line.extractLine(from * length, to * length));
+                    if (!first) {
+                        piece[idIndex] = ValueFactory.createValue(
+                                ++nextEdgeId);
+                    }
+                    piece[startNodeIndex] = ValueFactory.createValue(fromNode);
+                    piece[endNodeIndex] = ValueFactory.createValue(
+                            e.getValue());
+                    piece[weightIndex] = ValueFactory.createValue(
+                            weight * (to - from));
+                    output.addValues(piece);
+                    from = to;
+                    fromNode = e.getValue();
+                    first = false;
+                }
+            }
+            output.writingFinished();
+            output.open();
+            return output;
+        } catch (DriverException ex) {
+            throw new FunctionException(ex);
+        }
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public String getSqlOrder() {
+        return "SELECT * FROM " + NAME
+                + "(output.edges, points, 25.0, 'weights_column');";
+    }
+
+    @Override
+    public String getDescription() {
+        return "Returns the edges table split at the points snapped by "
+                + "ST_SnapToGraph with the same edges, points and distance. "
+                + "The weights of the split edges are shared in proportion "
+                + "to the length of the pieces.";
+    }
+
+    @Override
+    public TableFunctionSignature[] getFunctionSignatures() {
+        return new TableFunctionSignature[]{
+            new TableFunctionSignature(TableDefinition.GEOMETRY,
+                                       TableArgument.GEOMETRY,
+                                       TableArgument.GEOMETRY,
+                                       ScalarArgument.DOUBLE,
+                                       ScalarArgument.STRING)
+        };
+    }
+
+    @Override
+    public Metadata getMetadata(Metadata[] tables) throws DriverException {
+        return tables[0];
+    }
+}
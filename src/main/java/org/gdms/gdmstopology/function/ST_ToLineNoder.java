@@ -43,13 +43,17 @@ import org.gdms.data.values.Value;
 import org.gdms.data.values.ValueFactory;
 import org.gdms.driver.DriverException;
 import org.gdms.driver.DataSet;
+import org.gdms.driver.DiskBufferDriver;
 import org.gdms.driver.driverManager.DriverLoadException;
 import org.gdms.driver.memory.MemoryDataSetDriver;
+import org.gdms.gdmstopology.parse.BuildOptionsParser;
 import org.gdms.gdmstopology.process.LineNoder;
+import org.gdms.gdmstopology.process.TiledLineNoder;
 import org.gdms.sql.function.FunctionSignature;
 import org.orbisgis.progress.ProgressMonitor;
 
 import org.gdms.sql.function.FunctionException;
+import org.gdms.sql.function.ScalarArgument;
 import org.gdms.sql.function.table.AbstractTableFunction;
 import org.gdms.sql.function.table.TableArgument;
 import org.gdms.sql.function.table.TableDefinition;
@@ -70,6 +74,22 @@ public class ST_ToLineNoder extends AbstractTableFunction {
                         final LineNoder lineNoder = new LineNoder(inSds);
 
                         final Collection lines = lineNoder.getLines();
+                        boolean parallel = values.length >= 1
+                                && BuildOptionsParser.parseOptions(
+                                values[0].getAsString(), getName(),
+                                ST_Graph.PARALLEL).contains(ST_Graph.PARALLEL);
+                        double scale = 0;
+                        if (values.length == 2) {
+                                scale = values[1].getAsDouble();
+                                if (!(scale >= 0)) {
+                                        throw new IllegalArgumentException(
+                                                "The snap-rounding scale must be "
+                                                + "positive or zero.");
+                                }
+                        }
+                        if (parallel || scale > 0) {
+                                return nodeInParallel(dsf, lineNoder, lines, scale, pm);
+                        }
                         final Geometry nodedGeom = lineNoder.getNodeLines((List) lines);
                         final Collection<Geometry> nodedLines = lineNoder.toLines(nodedGeom);
 
@@ -99,14 +119,55 @@ public class ST_ToLineNoder extends AbstractTableFunction {
                 }
         }
 
+        /**
+         * Nodes the lines tile by tile on several threads and streams the
+         * noded lines into a disk buffer.
+         *
+         * @param dsf
+         * @param lineNoder
+         * @param lines
+         * @param scale snap-rounding scale, or zero
+         * @param pm
+         * @return the noded lines, or null if the noding was cancelled
+         * @throws DriverException
+         */
+        private DataSet nodeInParallel(DataSourceFactory dsf,
+                LineNoder lineNoder, Collection lines, double scale,
+                ProgressMonitor pm) throws DriverException {
+                final DiskBufferDriver driver = new DiskBufferDriver(dsf,
+                        getMetadata(null));
+                boolean done = lineNoder.getNodeLines(lines,
+                        new TiledLineNoder.NodedLineHandler() {
+                                private int k = 0;
+
+                                @Override
+                                public void handle(Geometry line)
+                                        throws DriverException {
+                                        driver.addValues(new Value[]{
+                                                        ValueFactory.createValue(k++),
+                                                        ValueFactory.createValue(line)});
+                                }
+                        }, scale, pm);
+                driver.writingFinished();
+                if (!done) {
+                        return null;
+                }
+                driver.open();
+                return driver;
+        }
+
         @Override
         public String getDescription() {
-                return "Build all intersection and convert the geometries into lines ";
+                return "Build all intersection and convert the geometries into lines. "
+                        + "The option 'parallel' nodes the lines tile by tile on "
+                        + "several threads. A snap-rounding scale may follow the "
+                        + "options: the lines are then noded tile by tile and the "
+                        + "intersections are rounded to a grid of step 1/scale.";
         }
 
         @Override
         public String getSqlOrder() {
-                return "select * from  ST_ToLineNoder(table) from myTable;";
+                return "select * from  ST_ToLineNoder(table[, 'parallel'[, scale]]) from myTable;";
         }
 
         @Override
@@ -124,6 +185,9 @@ public class ST_ToLineNoder extends AbstractTableFunction {
 
         @Override
         public FunctionSignature[] getFunctionSignatures() {
-                return new FunctionSignature[]{new TableFunctionSignature(TableDefinition.GEOMETRY, new TableArgument(TableDefinition.GEOMETRY))};
+                return new FunctionSignature[]{
+                                new TableFunctionSignature(TableDefinition.GEOMETRY, new TableArgument(TableDefinition.GEOMETRY)),
+                                new TableFunctionSignature(TableDefinition.GEOMETRY, new TableArgument(TableDefinition.GEOMETRY), ScalarArgument.STRING),
+                                new TableFunctionSignature(TableDefinition.GEOMETRY, new TableArgument(TableDefinition.GEOMETRY), ScalarArgument.STRING, ScalarArgument.DOUBLE)};
         }
 }
@@ -0,0 +1,240 @@
+/**
+ * GDMS-Topology is a library dedicated to graph analysis. It is based on the
+ * JGraphT library available at <http://www.jgrapht.org/>. It enables computing
+ * and processing large graphs using spatial and alphanumeric indexes.
+ *
+ * This version is developed at French IRSTV institut as part of the EvalPDU
+ * project, funded by the French Agence Nationale de la Recherche (ANR) under
+ * contract ANR-08-VILL-0005-01 and GEBD project funded by the French Ministery
+ * of Ecology and Sustainable Development.
+ *
+ * GDMS-Topology is distributed under GPL 3 license. It is produced by the
+ * "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR
+ * 2488.
+ *
+ * Copyright (C) 2009-2012 IRSTV (FR CNRS 2488)
+ *
+ * GDMS-Topology is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * GDMS-Topology is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * GDMS-Topology. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://wwwc.orbisgis.org/> or contact
+ * directly: info_at_ orbisgis.org
+ */
+package org.gdms.gdmstopology.function;
+
+import java.util.Map;
+import org.gdms.data.DataSourceFactory;
+import org.gdms.data.schema.DefaultMetadata;
+import org.gdms.data.schema.Metadata;
+import org.gdms.data.schema.MetadataUtilities;
+import org.gdms.data.types.Type;
+import org.gdms.data.types.TypeFactory;
+import org.gdms.data.values.Value;
+import org.gdms.data.values.ValueFactory;
+import org.gdms.driver.DataSet;
+import org.gdms.driver.DiskBufferDriver;
+import org.gdms.driver.DriverException;
+import org.gdms.gdmstopology.graphcreator.WeightedGraphCreator;
+import org.gdms.gdmstopology.model.CompactGraph;
+import org.gdms.gdmstopology.model.GraphSchema;
+import org.gdms.gdmstopology.parse.GraphFunctionParser;
+import org.gdms.gdmstopology.process.TopologyExecutorService;
+import org.gdms.gdmstopology.process.TrafficAssigner;
+import org.gdms.sql.function.FunctionException;
+import org.gdms.sql.function.ScalarArgument;
+import org.gdms.sql.function.table.AbstractTableFunction;
+import org.gdms.sql.function.table.TableArgument;
+import org.gdms.sql.function.table.TableDefinition;
+import org.gdms.sql.function.table.TableFunctionSignature;
+import org.javanetworkanalyzer.data.VWCent;
+import org.javanetworkanalyzer.model.Edge;
+import org.orbisgis.progress.ProgressMonitor;
+
+/**
+ * Assigns an origin-destination demand onto the shortest paths of a graph
+ * and returns the volume of each edge (see {@link TrafficAssigner}).
+ *
+ * @author Adam Gouge
+ */
+public class ST_TrafficAssignment extends AbstractTableFunction {
+
+    /**
+     * The name of this function.
+     */
+    private static final String NAME = "ST_TrafficAssignment";
+    /**
+     * Demand field of the OD table.
+     */
+    public static final String DEMAND = "demand";
+    /**
+     * Volume field of the output.
+     */
+    public static final String VOLUME = "volume";
+    /**
+     * The SQL order of this function.
+     */
+    private static final String SQL_ORDER =
+            "SELECT * FROM " + NAME + "("
+            + "output.edges, od_table, 'weights_column'"
+            + "[, " + ST_ShortestPathLength.POSSIBLE_ORIENTATIONS + "]);";
+    /**
+     * Short description of this function.
+     */
+    private static final String SHORT_DESCRIPTION =
+            "Assigns an origin-destination demand onto the shortest paths.";
+    /**
+     * Long description of this function.
+     */
+    private static final String LONG_DESCRIPTION =
+            "<p> Example usage: "
+            + "<center> "
+            + "<code>" + SQL_ORDER + "</code> </center> "
+            + "<p> Required parameters: "
+            + "<ul> "
+            + "<li> <code>output.edges</code> - The <code>output.edges</code> "
+            + "table produced by <code>ST_Graph</code>, with an additional "
+            + "column specifying the weight of each edge. "
+            + "<li> <code>od_table</code> - a table of origin-destination "
+            + "pairs, with fields '" + GraphSchema.SOURCE_NODE + "', '"
+            + ST_ShortestPathLength.DESTINATION + "' and '" + DEMAND + "'. "
+            + "<li> <code>'weights_column'</code> - the name of the weight "
+            + "column. "
+            + "</ul>"
+            + "<p> Optional parameter: "
+            + "<ul> "
+            + "<li> <code>orientation</code> - as in "
+            + "<code>ST_ShortestPathLength</code>. </ul>"
+            + "<p> The whole demand of each pair is assigned to one shortest "
+            + "path. The output contains each edge with its '"
+            + GraphSchema.ID + "' and the '" + VOLUME + "' of demand using "
+            + "it, in either direction.";
+
+    @Override
+    public DataSet evaluate(DataSourceFactory dsf, DataSet[] tables,
+                            Value[] values, ProgressMonitor pm) throws
+            FunctionException {
+        final DataSet edges = tables[0];
+        GraphFunctionParser parser = new GraphFunctionParser();
+        parser.parseOptionalArguments(edges, values, 0);
+        if (parser.getWeightsColumn() == null) {
+            throw new IllegalArgumentException(
+                    NAME + " requires a weights column.");
+        }
+        try {
+            DataSet od = tables[1];
+            Metadata odMetadata = od.getMetadata();
+            int sourceIndex =
+                    odMetadata.getFieldIndex(GraphSchema.SOURCE_NODE);
+            int destinationIndex =
+                    odMetadata.getFieldIndex(ST_ShortestPathLength.DESTINATION);
+            int demandIndex = odMetadata.getFieldIndex(DEMAND);
+            if (sourceIndex == -1 || destinationIndex == -1
+                || demandIndex == -1) {
+                throw new IllegalArgumentException(
+                        "The OD table must contain the fields "
+                        + GraphSchema.SOURCE_NODE + ", "
+                        + ST_ShortestPathLength.DESTINATION + " and "
+                        + DEMAND + ".");
+            }
+            int pairCount = (int) od.getRowCount();
+            int[] sources = new int[pairCount];
+            int[] destinations = new int[pairCount];
+            double[] demands = new double[pairCount];
+            for (int i = 0; i < pairCount; i++) {
+                sources[i] = od.getFieldValue(i, sourceIndex).getAsInt();
+                destinations[i] =
+                        od.getFieldValue(i, destinationIndex).getAsInt();
+                demands[i] = od.getFieldValue(i, demandIndex).getAsDouble();
+            }
+
+            TrafficAssigner assigner = new TrafficAssigner(
+                    new CompactGraph(new WeightedGraphCreator<VWCent, Edge>(
+                    edges,
+                    parser.getGraphType(),
+                    parser.getEdgeOrientationColumnName(),
+                    VWCent.class,
+                    Edge.class,
+                    parser.getWeightsColumn()).prepareGraph()),
+                    TopologyExecutorService.getShared());
+            pm.startTask("Assigning demand", 100);
+            Map<Integer, Double> volumes =
+                    assigner.assign(sources, destinations, demands, pm);
+            pm.endTask();
+            if (volumes == null) {
+                return null;
+            }
+
+            DiskBufferDriver output =
+                    new DiskBufferDriver(dsf, getMetadata(null));
+            Metadata md = edges.getMetadata();
+            int geometryIndex = MetadataUtilities.getSpatialFieldIndex(md);
+            int idIndex = md.getFieldIndex(GraphSchema.ID);
+            for (int i = 0; i < edges.getRowCount(); i++) {
+                int id = edges.getFieldValue(i, idIndex).getAsInt();
+                Double volume = volumes.get(id);
+                output.addValues(
+                        ValueFactory.createValue(
+                        edges.getGeometry(i, geometryIndex)),
+                        ValueFactory.createValue(id),
+                        ValueFactory.createValue(
+                        volume == null ? 0 : volume));
+            }
+            output.writingFinished();
+            output.open();
+            return output;
+        } catch (DriverException ex) {
+            throw new FunctionException(ex);
+        }
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public String getSqlOrder() {
+        return SQL_ORDER;
+    }
+
+    @Override
+    public String getDescription() {
+        return SHORT_DESCRIPTION + LONG_DESCRIPTION;
+    }
+
+    @Override
+    public TableFunctionSignature[] getFunctionSignatures() {
+        return new TableFunctionSignature[]{
+            // (od,w)
+            new TableFunctionSignature(TableDefinition.GEOMETRY,
+                                       TableArgument.GEOMETRY,
+                                       TableArgument.ANY,
+                                       ScalarArgument.STRING),
+            // (od,w,o) OR (od,o,w)
+            new TableFunctionSignature(TableDefinition.GEOMETRY,
+                                       TableArgument.GEOMETRY,
+                                       TableArgument.ANY,
+                                       ScalarArgument.STRING,
+                                       ScalarArgument.STRING)
+        };
+    }
+
+    @Override
+    public Metadata getMetadata(Metadata[] tables) throws DriverException {
+        return new DefaultMetadata(
+                new Type[]{TypeFactory.createType(Type.GEOMETRY),
+                           TypeFactory.createType(Type.INT),
+                           TypeFactory.createType(Type.DOUBLE)},
+                new String[]{"the_geom", GraphSchema.ID, VOLUME});
+    }
+}
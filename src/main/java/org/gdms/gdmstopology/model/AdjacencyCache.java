@@ -0,0 +1,208 @@
+/**
+ * GDMS-Topology is a library dedicated to graph analysis. It is based on the
+ * JGraphT library available at <http://www.jgrapht.org/>. It enables computing
+ * and processing large graphs using spatial and alphanumeric indexes.
+ *
+ * This version is developed at French IRSTV institut as part of the EvalPDU
+ * project, funded by the French Agence Nationale de la Recherche (ANR) under
+ * contract ANR-08-VILL-0005-01 and GEBD project funded by the French Ministery
+ * of Ecology and Sustainable Development.
+ *
+ * GDMS-Topology is distributed under GPL 3 license. It is produced by the
+ * "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR
+ * 2488.
+ *
+ * Copyright (C) 2009-2012 IRSTV (FR CNRS 2488)
+ *
+ * GDMS-Topology is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * GDMS-Topology is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * GDMS-Topology. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://wwwc.orbisgis.org/> or contact
+ * directly: info_at_ orbisgis.org
+ */
+package org.gdms.gdmstopology.model;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded, thread-safe cache of adjacency blocks, indexed by vertex.
+ *
+ * <p> Each {@link Block} holds, in primitive arrays, the row ids, opposite
+ * vertices and weights of the edges leaving (or entering) one vertex. Lookups
+ * go through a {@link ConcurrentHashMap} and never lock; insertions are
+ * serialized and evict blocks following the CLOCK (second chance) policy.
+ *
+ * @author Adam Gouge
+ */
+final class AdjacencyCache {
+
+    /**
+     * The cached blocks.
+     */
+    private final ConcurrentHashMap<Integer, Block> blocks;
+    /**
+     * The CLOCK ring: one slot per cached block.
+     */
+    private final Block[] ring;
+    /**
+     * The CLOCK hand.
+     */
+    private int hand = 0;
+    /**
+     * Number of lookups answered by the cache.
+     */
+    private final AtomicLong hits = new AtomicLong();
+    /**
+     * Number of lookups not answered by the cache.
+     */
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Constructs a new {@link AdjacencyCache}.
+     *
+     * @param capacity The maximum number of cached blocks (at least 1)
+     */
+    AdjacencyCache(int capacity) {
+        ring = new Block[Math.max(1, capacity)];
+        blocks = new ConcurrentHashMap<Integer, Block>(
+                Math.min(ring.length, 1 << 16));
+    }
+
+    /**
+     * Returns the cached block of the given vertex, or {@code null} if it is
+     * not in the cache.
+     *
+     * @param vertex The vertex
+     *
+     * @return The block, or {@code null}
+     */
+    Block get(int vertex) {
+        Block block = blocks.get(vertex);
+        if (block == null) {
+            misses.incrementAndGet();
+        } else {
+            block.referenced = true;
+            hits.incrementAndGet();
+        }
+        return block;
+    }
+
+    /**
+     * Caches the given block, evicting a block if the cache is full. If
+     * another thread cached a block for the same vertex first, that block is
+     * returned instead.
+     *
+     * @param block The block
+     *
+     * @return The cached block for this vertex
+     */
+    synchronized Block put(Block block) {
+        Block previous = blocks.get(block.vertex);
+        if (previous != null) {
+            return previous;
+        }
+        // Give a second chance to referenced blocks.
+        while (ring[hand] != null && ring[hand].referenced) {
+            ring[hand].referenced = false;
+            hand = (hand + 1) % ring.length;
+        }
+        if (ring[hand] != null) {
+            blocks.remove(ring[hand].vertex);
+        }
+        ring[hand] = block;
+        blocks.put(block.vertex, block);
+        hand = (hand + 1) % ring.length;
+        return block;
+    }
+
+    /**
+     * Empties the cache. The counters are kept.
+     */
+    synchronized void clear() {
+        blocks.clear();
+        for (int i = 0; i < ring.length; i++) {
+            ring[i] = null;
+        }
+        hand = 0;
+    }
+
+    /**
+     * Returns the number of lookups answered by the cache.
+     *
+     * @return The number of hits
+     */
+    long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Returns the number of lookups not answered by the cache.
+     *
+     * @return The number of misses
+     */
+    long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * The edges leaving (or entering) a vertex, stored in parallel arrays.
+     */
+    static final class Block {
+
+        /**
+         * The vertex.
+         */
+        final int vertex;
+        /**
+         * Row ids of the edges in the data set.
+         */
+        final int[] rowIds;
+        /**
+         * The opposite vertex of each edge.
+         */
+        final int[] opposites;
+        /**
+         * The weight of each edge.
+         */
+        final double[] weights;
+        /**
+         * CLOCK reference bit.
+         */
+        volatile boolean referenced = true;
+
+        /**
+         * Constructs a new {@link Block}.
+         *
+         * @param vertex    The vertex
+         * @param rowIds    Row ids of the edges
+         * @param opposites The opposite vertex of each edge
+         * @param weights   The weight of each edge
+         */
+        Block(int vertex, int[] rowIds, int[] opposites, double[] weights) {
+            this.vertex = vertex;
+            this.rowIds = rowIds;
+            this.opposites = opposites;
+            this.weights = weights;
+        }
+
+        /**
+         * Returns the number of edges of this block.
+         *
+         * @return The number of edges
+         */
+        int size() {
+            return rowIds.length;
+        }
+    }
+}
@@ -0,0 +1,644 @@
+/**
+ * GDMS-Topology is a library dedicated to graph analysis. It is based on the
+ * JGraphT library available at <http://www.jgrapht.org/>. It enables computing
+ * and processing large graphs using spatial and alphanumeric indexes.
+ *
+ * This version is developed at French IRSTV institut as part of the EvalPDU
+ * project, funded by the French Agence Nationale de la Recherche (ANR) under
+ * contract ANR-08-VILL-0005-01 and GEBD project funded by the French Ministery
+ * of Ecology and Sustainable Development.
+ *
+ * GDMS-Topology is distributed under GPL 3 license. It is produced by the
+ * "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR
+ * 2488.
+ *
+ * Copyright (C) 2009-2012 IRSTV (FR CNRS 2488)
+ *
+ * GDMS-Topology is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * GDMS-Topology is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * GDMS-Topology. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://wwwc.orbisgis.org/> or contact
+ * directly: info_at_ orbisgis.org
+ */
+package org.gdms.gdmstopology.model;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import org.gdms.gdmstopology.utils.VertexOrdering;
+import org.javanetworkanalyzer.data.VId;
+import org.javanetworkanalyzer.model.Edge;
+import org.jgrapht.DirectedGraph;
+import org.jgrapht.Graph;
+import org.jgrapht.Graphs;
+
+/**
+ * A read-only copy of a weighted graph in compressed adjacency arrays.
+ *
+ * <p> Vertices are numbered from 0 in the iteration order of the graph and
+ * the arcs leaving each vertex are stored contiguously, with their head,
+ * weight and edge id. The outgoing edges of a directed graph are followed;
+ * the edges of an undirected graph are followed both ways. Since nothing is
+ * stored in the vertices, {@link #search} may run from several threads at
+ * once.
+ *
+ * @author Adam Gouge
+ */
+public final class CompactGraph {
+
+    /**
+     * For each vertex, the index of its first arc; the last entry is the
+     * number of arcs.
+     */
+    private final int[] offsets;
+    /**
+     * The head of each arc, grouped by tail.
+     */
+    private final int[] heads;
+    /**
+     * The weight of each arc.
+     */
+    private final double[] weights;
+    /**
+     * The id of the edge of each arc.
+     */
+    private final int[] edgeIds;
+    /**
+     * The id of each vertex.
+     */
+    private final int[] ids;
+    /**
+     * The index of each vertex, by id.
+     */
+    private final Map<Integer, Integer> vertexIndex;
+
+    /**
+     * Receives the vertices settled by a search, in order of distance.
+     */
+    public interface SearchVisitor {
+
+        /**
+         * Receives a settled vertex.
+         *
+         * @param vertex   The vertex index
+         * @param distance Its distance from the source
+         *
+         * @return {@code false} to stop the search
+         */
+        boolean visit(int vertex, double distance);
+    }
+
+    /**
+     * Copies the given graph.
+     *
+     * @param graph The graph
+     */
+    public <V extends VId, E extends Edge> CompactGraph(Graph<V, E> graph) {
+        Set<V> vertices = graph.vertexSet();
+        ids = new int[vertices.size()];
+        vertexIndex = new HashMap<Integer, Integer>(2 * vertices.size());
+        for (V v : vertices) {
+            ids[vertexIndex.size()] = v.getID();
+            vertexIndex.put(v.getID(), vertexIndex.size());
+        }
+        DirectedGraph<V, E> directed = graph instanceof DirectedGraph
+                ? (DirectedGraph<V, E>) graph : null;
+        offsets = new int[vertices.size() + 1];
+        int arcCount = 0;
+        for (V v : vertices) {
+            arcCount += directed == null
+                    ? graph.edgesOf(v).size()
+                    : directed.outDegreeOf(v);
+        }
+        heads = new int[arcCount];
+        weights = new double[arcCount];
+        edgeIds = new int[arcCount];
+        int arc = 0;
+        int i = 0;
+        for (V v : vertices) {
+            offsets[i++] = arc;
+            Set<E> edges = directed == null
+                    ? graph.edgesOf(v) : directed.outgoingEdgesOf(v);
+            for (E e : edges) {
+                heads[arc] = vertexIndex.get(
+                        Graphs.getOppositeVertex(graph, e, v).getID());
+                weights[arc] = graph.getEdgeWeight(e);
+                edgeIds[arc] = e.getID();
+                arc++;
+            }
+        }
+        offsets[i] = arc;
+    }
+
+    /**
+     * Builds a graph from arrays of edges. Each edge may be followed forward
+     * (from its start node to its end node), backward, or both ways; the id
+     * of each arc is the index of its edge in the arrays.
+     *
+     * @param startNodes The start node of each edge
+     * @param endNodes   The end node of each edge
+     * @param weights    The weight of each edge
+     * @param forward    Whether each edge may be followed forward
+     * @param backward   Whether each edge may be followed backward
+     */
+    public CompactGraph(int[] startNodes, int[] endNodes, double[] weights,
+                        boolean[] forward, boolean[] backward) {
+        vertexIndex = new HashMap<Integer, Integer>();
+        for (int e = 0; e < startNodes.length; e++) {
+            addVertex(startNodes[e]);
+            addVertex(endNodes[e]);
+        }
+        ids = new int[vertexIndex.size()];
+        for (Map.Entry<Integer, Integer> v : vertexIndex.entrySet()) {
+            ids[v.getValue()] = v.getKey();
+        }
+        // Count the arcs of each tail, then fill them in place.
+        offsets = new int[ids.length + 1];
+        for (int e = 0; e < startNodes.length; e++) {
+            if (forward[e]) {
+                offsets[vertexIndex.get(startNodes[e]) + 1]++;
+            }
+            if (backward[e]) {
+                offsets[vertexIndex.get(endNodes[e]) + 1]++;
+            }
+        }
+        for (int v = 0; v < ids.length; v++) {
+            offsets[v + 1] += offsets[v];
+        }
+        heads = new int[offsets[ids.length]];
+        this.weights = new double[heads.length];
+        edgeIds = new int[heads.length];
+        int[] next = Arrays.copyOf(offsets, ids.length);
+        for (int e = 0; e < startNodes.length; e++) {
+            int start = vertexIndex.get(startNodes[e]);
+            int end = vertexIndex.get(endNodes[e]);
+            if (forward[e]) {
+                int arc = next[start]++;
+                heads[arc] = end;
+                this.weights[arc] = weights[e];
+                edgeIds[arc] = e;
+            }
+            if (backward[e]) {
+                int arc = next[end]++;
+                heads[arc] = start;
+                this.weights[arc] = weights[e];
+                edgeIds[arc] = e;
+            }
+        }
+    }
+
+    /**
+     * Wraps the given arrays.
+     */
+    private CompactGraph(int[] offsets, int[] heads, double[] weights,
+                         int[] edgeIds, int[] ids) {
+        this.offsets = offsets;
+        this.heads = heads;
+        this.weights = weights;
+        this.edgeIds = edgeIds;
+        this.ids = ids;
+        vertexIndex = new HashMap<Integer, Integer>(2 * ids.length);
+        for (int v = 0; v < ids.length; v++) {
+            vertexIndex.put(ids[v], v);
+        }
+    }
+
+    /**
+     * Returns the transpose of this graph: each arc is reversed, keeping its
+     * weight and edge id. Vertices keep their indices, so that the arcs
+     * entering a vertex of this graph are the arcs leaving it in the
+     * transpose.
+     *
+     * @return The transposed graph
+     */
+    public CompactGraph transpose() {
+        int[] newOffsets = new int[ids.length + 1];
+        for (int a = 0; a < heads.length; a++) {
+            newOffsets[heads[a] + 1]++;
+        }
+        for (int v = 0; v < ids.length; v++) {
+            newOffsets[v + 1] += newOffsets[v];
+        }
+        int[] newHeads = new int[heads.length];
+        double[] newWeights = new double[heads.length];
+        int[] newEdgeIds = new int[heads.length];
+        int[] next = Arrays.copyOf(newOffsets, ids.length);
+        for (int v = 0; v < ids.length; v++) {
+            for (int a = offsets[v]; a < offsets[v + 1]; a++) {
+                int arc = next[heads[a]]++;
+                newHeads[arc] = v;
+                newWeights[arc] = weights[a];
+                newEdgeIds[arc] = edgeIds[a];
+            }
+        }
+        return new CompactGraph(newOffsets, newHeads, newWeights, newEdgeIds,
+                                ids);
+    }
+
+    /**
+     * Returns a copy of this graph with its vertices renumbered by the
+     * reverse Cuthill-McKee order, so that the arcs of neighbouring vertices
+     * are stored close together.
+     *
+     * @return The reordered graph
+     */
+    public CompactGraph reorder() {
+        int[] tails = new int[heads.length];
+        for (int v = 0; v < ids.length; v++) {
+            Arrays.fill(tails, offsets[v], offsets[v + 1], v);
+        }
+        return reorder(VertexOrdering.reverseCuthillMcKeeOrder(
+                ids.length, tails, heads));
+    }
+
+    /**
+     * Returns a copy of this graph with its vertices renumbered in the given
+     * order. Vertex ids, edge ids and the order of the arcs of each vertex
+     * are kept.
+     *
+     * @param order The old index of each new vertex (see
+     *              {@link VertexOrdering})
+     *
+     * @return The reordered graph
+     */
+    public CompactGraph reorder(int[] order) {
+        int[] rank = VertexOrdering.inverse(order);
+        int[] newOffsets = new int[ids.length + 1];
+        int[] newHeads = new int[heads.length];
+        double[] newWeights = new double[heads.length];
+        int[] newEdgeIds = new int[heads.length];
+        int[] newIds = new int[ids.length];
+        int arc = 0;
+        for (int v = 0; v < ids.length; v++) {
+            int old = order[v];
+            newIds[v] = ids[old];
+            newOffsets[v] = arc;
+            for (int a = offsets[old]; a < offsets[old + 1]; a++) {
+                newHeads[arc] = rank[heads[a]];
+                newWeights[arc] = weights[a];
+                newEdgeIds[arc] = edgeIds[a];
+                arc++;
+            }
+        }
+        newOffsets[ids.length] = arc;
+        return new CompactGraph(newOffsets, newHeads, newWeights, newEdgeIds,
+                                newIds);
+    }
+
+    private void addVertex(int id) {
+        if (!vertexIndex.containsKey(id)) {
+            vertexIndex.put(id, vertexIndex.size());
+        }
+    }
+
+    /**
+     * Returns the number of vertices.
+     *
+     * @return The number of vertices
+     */
+    public int getVertexCount() {
+        return ids.length;
+    }
+
+    /**
+     * Returns the number of arcs.
+     *
+     * @return The number of arcs
+     */
+    public int getArcCount() {
+        return heads.length;
+    }
+
+    /**
+     * Returns the index of the vertex with the given id.
+     *
+     * @param id The vertex id
+     *
+     * @return Its index, or -1 if it is not in the graph
+     */
+    public int getIndex(int id) {
+        Integer index = vertexIndex.get(id);
+        return index == null ? -1 : index;
+    }
+
+    /**
+     * Returns the id of the given vertex.
+     *
+     * @param vertex The vertex index
+     *
+     * @return Its id
+     */
+    public int getId(int vertex) {
+        return ids[vertex];
+    }
+
+    /**
+     * Returns the first arc of the given vertex.
+     *
+     * @param vertex The vertex index
+     *
+     * @return The index of its first arc
+     */
+    public int getFirstArc(int vertex) {
+        return offsets[vertex];
+    }
+
+    /**
+     * Returns the arc after the last arc of the given vertex.
+     *
+     * @param vertex The vertex index
+     *
+     * @return The index after its last arc
+     */
+    public int getEndArc(int vertex) {
+        return offsets[vertex + 1];
+    }
+
+    /**
+     * Returns the head of the given arc.
+     *
+     * @param arc The arc index
+     *
+     * @return The index of its head
+     */
+    public int getHead(int arc) {
+        return heads[arc];
+    }
+
+    /**
+     * Returns the weight of the given arc.
+     *
+     * @param arc The arc index
+     *
+     * @return Its weight
+     */
+    public double getWeight(int arc) {
+        return weights[arc];
+    }
+
+    /**
+     * Returns the id of the edge of the given arc. In directed graphs, the two
+     * arcs of an undirected edge have ids of opposite signs.
+     *
+     * @param arc The arc index
+     *
+     * @return The edge id
+     */
+    public int getEdgeId(int arc) {
+        return edgeIds[arc];
+    }
+
+    /**
+     * Runs a Dijkstra search from the given source, settling the vertices
+     * within the given radius until the visitor stops the search.
+     *
+     * @param source  The source index
+     * @param radius  The maximal distance
+     * @param visitor Receives the settled vertices, or {@code null}
+     *
+     * @return The distance of each vertex, final for the settled vertices and
+     *         {@code +Infinity} for the vertices not reached
+     */
+    public double[] search(int source, double radius,
+                           SearchVisitor visitor) {
+        double[] distance = new double[ids.length];
+        Arrays.fill(distance, Double.POSITIVE_INFINITY);
+        boolean[] settled = new boolean[ids.length];
+        Heap heap = new Heap();
+        distance[source] = 0;
+        heap.push(0, source);
+        while (!heap.isEmpty()) {
+            double d = heap.peekKey();
+            int v = heap.pop();
+            if (settled[v]) {
+                continue;
+            }
+            if (d > radius) {
+                break;
+            }
+            settled[v] = true;
+            if (visitor != null && !visitor.visit(v, d)) {
+                break;
+            }
+            for (int arc = offsets[v]; arc < offsets[v + 1]; arc++) {
+                int w = heads[arc];
+                double dw = d + weights[arc];
+                if (dw < distance[w]) {
+                    distance[w] = dw;
+                    heap.push(dw, w);
+                }
+            }
+        }
+        return distance;
+    }
+
+    /**
+     * Returns a new {@link Searcher} on this graph.
+     *
+     * @return A new searcher
+     */
+    public Searcher newSearcher() {
+        return new Searcher();
+    }
+
+    /**
+     * Runs Dijkstra searches one after the other, reusing its arrays: a
+     * search only resets the vertices it reached, so that many small bounded
+     * searches cost no more than the vertices they reach. A searcher may only
+     * be used by one thread at a time.
+     */
+    public final class Searcher {
+
+        private final double[] distance = new double[ids.length];
+        private final int[] previousArc = new int[ids.length];
+        private final int[] previous = new int[ids.length];
+        private final int[] stamps = new int[ids.length];
+        private final boolean[] settled = new boolean[ids.length];
+        private final Heap heap = new Heap();
+        private int stamp = 0;
+
+        private Searcher() {
+        }
+
+        /**
+         * Runs a Dijkstra search from the given source, settling the vertices
+         * within the given radius until the visitor stops the search. The
+         * distance and previous arc of the settled vertices may be read until
+         * the next search.
+         *
+         * @param source  The source index
+         * @param radius  The maximal distance
+         * @param visitor Receives the settled vertices, or {@code null}
+         */
+        public void search(int source, double radius,
+                           SearchVisitor visitor) {
+            if (++stamp == 0) {
+                // Wrapped around: forget every previous search.
+                Arrays.fill(stamps, 0);
+                stamp = 1;
+            }
+            heap.clear();
+            reach(source, 0, -1, -1);
+            heap.push(0, source);
+            while (!heap.isEmpty()) {
+                double d = heap.peekKey();
+                int v = heap.pop();
+                if (settled[v]) {
+                    continue;
+                }
+                if (d > radius) {
+                    break;
+                }
+                settled[v] = true;
+                if (visitor != null && !visitor.visit(v, d)) {
+                    break;
+                }
+                for (int arc = offsets[v]; arc < offsets[v + 1]; arc++) {
+                    int w = heads[arc];
+                    double dw = d + weights[arc];
+                    if (stamps[w] != stamp) {
+                        reach(w, dw, arc, v);
+                        heap.push(dw, w);
+                    } else if (dw < distance[w]) {
+                        distance[w] = dw;
+                        previousArc[w] = arc;
+                        previous[w] = v;
+                        heap.push(dw, w);
+                    }
+                }
+            }
+        }
+
+        private void reach(int v, double d, int arc, int tail) {
+            stamps[v] = stamp;
+            settled[v] = false;
+            distance[v] = d;
+            previousArc[v] = arc;
+            previous[v] = tail;
+        }
+
+        /**
+         * Returns whether the given vertex was settled by the last search.
+         *
+         * @param vertex The vertex index
+         *
+         * @return Whether it was settled
+         */
+        public boolean isSettled(int vertex) {
+            return stamps[vertex] == stamp && settled[vertex];
+        }
+
+        /**
+         * Returns the distance of a vertex settled by the last search.
+         *
+         * @param vertex The vertex index
+         *
+         * @return Its distance from the source
+         */
+        public double getDistance(int vertex) {
+            return distance[vertex];
+        }
+
+        /**
+         * Returns the arc by which the last search settled a vertex.
+         *
+         * @param vertex The vertex index
+         *
+         * @return The arc index, or -1 for the source
+         */
+        public int getPreviousArc(int vertex) {
+            return previousArc[vertex];
+        }
+
+        /**
+         * Returns the vertex from which the last search settled a vertex.
+         *
+         * @param vertex The vertex index
+         *
+         * @return The tail of its previous arc, or -1 for the source
+         */
+        public int getPreviousVertex(int vertex) {
+            return previous[vertex];
+        }
+    }
+
+    /**
+     * A binary min-heap of vertices keyed by distance, in primitive arrays.
+     * Decreased keys are pushed again and stale entries skipped on removal.
+     * Also used by {@link TurnGraph}, keyed by arc.
+     */
+    static final class Heap {
+
+        private double[] keys = new double[64];
+        private int[] values = new int[64];
+        private int size = 0;
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        void clear() {
+            size = 0;
+        }
+
+        double peekKey() {
+            return keys[0];
+        }
+
+        void push(double key, int value) {
+            if (size == keys.length) {
+                keys = Arrays.copyOf(keys, 2 * size);
+                values = Arrays.copyOf(values, 2 * size);
+            }
+            int i = size++;
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (keys[parent] <= key) {
+                    break;
+                }
+                keys[i] = keys[parent];
+                values[i] = values[parent];
+                i = parent;
+            }
+            keys[i] = key;
+            values[i] = value;
+        }
+
+        int pop() {
+            int top = values[0];
+            size--;
+            double key = keys[size];
+            int value = values[size];
+            int i = 0;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= size) {
+                    break;
+                }
+                if (child + 1 < size && keys[child + 1] < keys[child]) {
+                    child++;
+                }
+                if (key <= keys[child]) {
+                    break;
+                }
+                keys[i] = keys[child];
+                values[i] = values[child];
+                i = child;
+            }
+            keys[i] = key;
+            values[i] = value;
+            return top;
+        }
+    }
+}
@@ -92,6 +92,17 @@ public class DWMultigraphDataSource
         GDMSGraph.setWeightFieldIndex(fieldName);
     }
 
+    /**
+     * Sets the number of vertices whose adjacent edges are cached in memory.
+     *
+     * @see org.gdms.gdmstopology.model.GDMSGraph#setAdjacencyCacheSize(int)
+     *
+     * @param size The cache size; zero or less disables the cache.
+     */
+    public void setAdjacencyCacheSize(int size) {
+        GDMSGraph.setAdjacencyCacheSize(size);
+    }
+
     /**
      * Returns the {@link Set} of edges that end at a given vertex.
      *
@@ -0,0 +1,120 @@
+/**
+ * GDMS-Topology is a library dedicated to graph analysis. It is based on the
+ * JGraphT library available at <http://www.jgrapht.org/>. It enables computing
+ * and processing large graphs using spatial and alphanumeric indexes.
+ *
+ * This version is developed at French IRSTV institut as part of the EvalPDU
+ * project, funded by the French Agence Nationale de la Recherche (ANR) under
+ * contract ANR-08-VILL-0005-01 and GEBD project funded by the French Ministery
+ * of Ecology and Sustainable Development.
+ *
+ * GDMS-Topology is distributed under GPL 3 license. It is produced by the
+ * "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR
+ * 2488.
+ *
+ * Copyright (C) 2009-2012 IRSTV (FR CNRS 2488)
+ *
+ * GDMS-Topology is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * GDMS-Topology is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * GDMS-Topology. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://wwwc.orbisgis.org/> or contact
+ * directly: info_at_ orbisgis.org
+ */
+package org.gdms.gdmstopology.model;
+
+import org.gdms.data.schema.Metadata;
+import org.gdms.data.values.Value;
+import org.gdms.data.values.ValueFactory;
+import org.gdms.driver.AbstractDataSet;
+import org.gdms.driver.DriverException;
+import org.gdms.gdmstopology.utils.DistanceMatrixFile;
+
+/**
+ * A read-only {@code (source, destination, distance)} view of a
+ * {@link DistanceMatrixFile}, with one row per cell of the matrix in
+ * row-major order. Rows are read from the mapped file on demand; the
+ * distance of a cell that was not computed is {@code NULL}.
+ *
+ * @author Adam Gouge
+ */
+public class DistanceMatrixDataSet extends AbstractDataSet {
+
+    /**
+     * The output metadata.
+     */
+    private final Metadata metadata;
+    /**
+     * The matrix.
+     */
+    private final DistanceMatrixFile matrix;
+
+    /**
+     * Constructs a new {@link DistanceMatrixDataSet}.
+     *
+     * @param metadata The metadata: source (INT), destination (INT),
+     *                 distance (DOUBLE)
+     * @param matrix   The matrix
+     */
+    public DistanceMatrixDataSet(Metadata metadata,
+                                 DistanceMatrixFile matrix) {
+        this.metadata = metadata;
+        this.matrix = matrix;
+    }
+
+    @Override
+    public Value getFieldValue(long rowIndex, int fieldId)
+            throws DriverException {
+        int columns = matrix.getColumnCount();
+        int row = (int) (rowIndex / columns);
+        int column = (int) (rowIndex % columns);
+        switch (fieldId) {
+            case 0:
+                return ValueFactory.createValue(matrix.getSource(row));
+            case 1:
+                return ValueFactory.createValue(
+                        matrix.getDestination(column));
+            case 2:
+                double distance = matrix.get(row, column);
+                return Double.isNaN(distance)
+                        ? ValueFactory.createNullValue()
+                        : ValueFactory.createValue(distance);
+            default:
+                throw new DriverException("No field " + fieldId + ".");
+        }
+    }
+
+    @Override
+    public long getRowCount() throws DriverException {
+        return (long) matrix.getRowCount() * matrix.getColumnCount();
+    }
+
+    @Override
+    public Number[] getScope(int dimension) throws DriverException {
+        // Not a spatial table.
+        return null;
+    }
+
+    @Override
+    public Metadata getMetadata() throws DriverException {
+        return metadata;
+    }
+
+    /**
+     * Returns the underlying matrix.
+     *
+     * @return The matrix
+     */
+    public DistanceMatrixFile getMatrix() {
+        return matrix;
+    }
+}
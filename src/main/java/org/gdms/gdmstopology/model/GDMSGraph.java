@@ -50,6 +50,9 @@ import org.orbisgis.progress.ProgressMonitor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.util.AbstractSet;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Set;
@@ -89,7 +92,12 @@ public final class GDMSGraph
     /**
      * Used to recover the set of vertices.
      */
-    private HashSet<Integer> vertexSet = null;
+    private Set<Integer> vertexSet = null;
+    /**
+     * Sorted index of the vertices with their degrees, or {@code null} if it
+     * could not be built.
+     */
+    private VertexIndex vertexIndex = null;
     /**
      * Used to track the progress of the index initialization.
      */
@@ -110,6 +118,23 @@ public final class GDMSGraph
      * Index used to reference the geometry field.
      */
     public int GEOMETRY_FIELD_INDEX = -1;
+    /**
+     * Default number of vertices whose outgoing (resp. incoming) edges are
+     * cached.
+     */
+    public static final int DEFAULT_ADJACENCY_CACHE_SIZE = 4096;
+    /**
+     * Cache of the edges leaving each vertex, or {@code null} if caching is
+     * disabled.
+     */
+    private volatile AdjacencyCache outgoingCache =
+            new AdjacencyCache(DEFAULT_ADJACENCY_CACHE_SIZE);
+    /**
+     * Cache of the edges entering each vertex, or {@code null} if caching is
+     * disabled.
+     */
+    private volatile AdjacencyCache incomingCache =
+            new AdjacencyCache(DEFAULT_ADJACENCY_CACHE_SIZE);
 
     // CONSTRUCTOR
     /**
@@ -137,7 +162,7 @@ public final class GDMSGraph
     /**
      * After checking if the data source is valid, builds indices on the start
      * and end nodes together, on the start nodes alone, and on the end nodes
-     * alone.
+     * alone, as well as a {@link VertexIndex}.
      *
      * @throws DriverException
      */
@@ -179,7 +204,13 @@ public final class GDMSGraph
                             GraphSchema.END_NODE,
                             pm);
                 }
+                // Build the vertex index.
+                vertexIndex = VertexIndex.build(dsf, dataSet,
+                                                START_NODE_FIELD_INDEX,
+                                                END_NODE_FIELD_INDEX, pm);
             }
+        } catch (IOException ex) {
+            LOGGER.error("Unable to create the vertex index.", ex);
         } catch (DriverException ex) {
             LOGGER.error("Unable to get metadata.", ex);
         } catch (IndexException ex) {
@@ -244,6 +275,63 @@ public final class GDMSGraph
                     "The table must contains a field named " + fieldName);
         }
         this.WEIGHT_FIELD_INDEX = fieldIndex;
+        // Cached weights were read from the previous weight field.
+        clearAdjacencyCache();
+    }
+
+    /**
+     * Sets the maximum number of vertices whose outgoing (resp. incoming)
+     * edges are kept in memory. Cached vertices are evicted following the
+     * CLOCK policy.
+     *
+     * @param size The cache size; zero or less disables the cache.
+     */
+    public void setAdjacencyCacheSize(int size) {
+        if (size > 0) {
+            outgoingCache = new AdjacencyCache(size);
+            incomingCache = new AdjacencyCache(size);
+        } else {
+            outgoingCache = null;
+            incomingCache = null;
+        }
+    }
+
+    /**
+     * Empties the adjacency cache.
+     */
+    public void clearAdjacencyCache() {
+        AdjacencyCache out = outgoingCache;
+        AdjacencyCache in = incomingCache;
+        if (out != null) {
+            out.clear();
+        }
+        if (in != null) {
+            in.clear();
+        }
+    }
+
+    /**
+     * Returns the number of adjacency lookups answered by the cache.
+     *
+     * @return The number of cache hits.
+     */
+    public long getAdjacencyCacheHits() {
+        AdjacencyCache out = outgoingCache;
+        AdjacencyCache in = incomingCache;
+        return (out == null ? 0 : out.getHits())
+                + (in == null ? 0 : in.getHits());
+    }
+
+    /**
+     * Returns the number of adjacency lookups that required an index query.
+     *
+     * @return The number of cache misses.
+     */
+    public long getAdjacencyCacheMisses() {
+        AdjacencyCache out = outgoingCache;
+        AdjacencyCache in = incomingCache;
+        return (out == null ? 0 : out.getMisses())
+                + (in == null ? 0 : in.getMisses());
     }
 
     /**
@@ -456,24 +544,13 @@ public final class GDMSGraph
      */
     @Override
     public boolean containsVertex(Integer vertex) {
+        if (vertexIndex != null) {
+            return vertexIndex.find(vertex) >= 0;
+        }
         try {
-            // Check in the start node column.
-            Iterator<Integer> queryResult = getIndexIterator(
-                    GraphSchema.START_NODE,
-                    vertex);
-            if (queryResult.hasNext()) {
-                return true;
-            } else {
-                // Check in the end node column.
-                queryResult = getIndexIterator(
-                        GraphSchema.END_NODE,
-                        vertex);
-                if (queryResult.hasNext()) {
-                    return true;
-                } else {
-                    return false;
-                }
-            }
+            // Check in the start node column, then in the end node column.
+            return outgoingBlock(vertex).size() > 0
+                    || incomingBlock(vertex).size() > 0;
         } catch (DriverException ex) {
         }
         return false;
@@ -501,41 +578,16 @@ public final class GDMSGraph
      */
     @Override
     public Set<GraphEdge> edgesOf(Integer vertex) {
-        // Create an empty set to store the edges.
-        HashSet<GraphEdge> edgesOf = new HashSet<GraphEdge>();
         try {
-            // Recover the edges that start at the given vertex.
-            for (Iterator<Integer> queryResult = getIndexIterator(
-                    GraphSchema.START_NODE,
-                    vertex);
-                    queryResult.hasNext();) {
-                Integer rowId = queryResult.next();
-                Integer dest = getTargetVertex(rowId);
-                edgesOf.add(
-                        new GraphEdge(
-                        vertex,
-                        dest,
-                        getWeightVertex(rowId),
-                        rowId));
-            }
-
-            // Recover the edges that end at the given vertex.
-            for (Iterator<Integer> queryResult = getIndexIterator(
-                    GraphSchema.END_NODE,
-                    vertex);
-                    queryResult.hasNext();) {
-                Integer rowId = queryResult.next();
-                Integer source = getSourceVertex(rowId);
-                edgesOf.add(
-                        new GraphEdge(
-                        source,
-                        vertex,
-                        getWeightVertex(rowId),
-                        rowId));
-            }
-
+            // Recover the edges that start and end at the given vertex.
+            AdjacencyCache.Block outgoing = outgoingBlock(vertex);
+            AdjacencyCache.Block incoming = incomingBlock(vertex);
+            GraphEdge[] edgesOf =
+                    new GraphEdge[outgoing.size() + incoming.size()];
+            toEdges(outgoing, true, edgesOf, 0);
+            toEdges(incoming, false, edgesOf, outgoing.size());
             // Return the set of edges touching the given vertex.
-            return edgesOf;
+            return new EdgeArraySet(edgesOf);
         } catch (DriverException ex) {
         }
         // If no edges were added, then just return the empty set.
@@ -597,6 +649,10 @@ public final class GDMSGraph
     // Why does this method return Set<Integer> and not HashSet<Integer>?
     @Override
     public Set<Integer> vertexSet() {
+        // Read the vertex set from the vertex index if possible.
+        if (vertexIndex != null) {
+            return vertexIndex.asSet();
+        }
         // Make sure we haven't already done this calculation.
         if (vertexSet == null) {
             // Initialize the vertex set.
@@ -672,31 +728,11 @@ public final class GDMSGraph
      */
     public Set<GraphEdge> incomingEdgesOf(Integer vertex) {
         try {
-            // Get an index iterator on the edges that end at
-            // the given vertex.
-            Iterator<Integer> queryResult = getIndexIterator(
-                    GraphSchema.END_NODE,
-                    vertex);
-            if (queryResult.hasNext()) {
-                // Initialize the set of incoming edges.
-                HashSet<GraphEdge> incomingEdges = new HashSet<GraphEdge>();
-                // Go through the edges that end at the given vertex.
-                while (queryResult.hasNext()) {
-                    // Obtain the source vertex of each edge that ends
-                    // at the given index.
-                    Integer rowId = queryResult.next();
-                    Integer sourceVertex = getSourceVertex(rowId);
-                    // Add a new GraphEdge object corresponding to
-                    // this edge to the set of incoming edges.
-                    incomingEdges.add(
-                            new GraphEdge(
-                            sourceVertex,
-                            vertex,
-                            getWeightVertex(rowId),
-                            rowId));
-                }
-                // Return the set of incoming edges.
-                return incomingEdges;
+            AdjacencyCache.Block incoming = incomingBlock(vertex);
+            if (incoming.size() > 0) {
+                GraphEdge[] incomingEdges = new GraphEdge[incoming.size()];
+                toEdges(incoming, false, incomingEdges, 0);
+                return new EdgeArraySet(incomingEdges);
             }
         } catch (DriverException ex) {
         }
@@ -713,30 +749,11 @@ public final class GDMSGraph
      */
     public Set<GraphEdge> outgoingEdgesOf(Integer vertex) {
         try {
-            // Get an index iterator on the edges that start at
-            // the given vertex.
-            Iterator<Integer> queryResult = getIndexIterator(
-                    GraphSchema.START_NODE,
-                    vertex);
-            if (queryResult.hasNext()) {
-                // Initialize the set of outgoing edges.
-                HashSet<GraphEdge> outgoingEdges = new HashSet<GraphEdge>();
-                // Go through the edges that start at the given vertex.
-                while (queryResult.hasNext()) {
-                    // Obtain the target vertex of each edge that starts
-                    // at the given index.
-                    Integer rowId = queryResult.next();
-                    Integer targetVertex = getTargetVertex(rowId);
-                    // Add a new GraphEdge object corresponding to
-                    // this edge to the set of outgoing edges.
-                    outgoingEdges.add(
-                            new GraphEdge(vertex,
-                                          targetVertex,
-                                          getWeightVertex(rowId),
-                                          rowId));
-                }
-                // Return the set of outgoing edges.
-                return outgoingEdges;
+            AdjacencyCache.Block outgoing = outgoingBlock(vertex);
+            if (outgoing.size() > 0) {
+                GraphEdge[] outgoingEdges = new GraphEdge[outgoing.size()];
+                toEdges(outgoing, true, outgoingEdges, 0);
+                return new EdgeArraySet(outgoingEdges);
             }
         } catch (DriverException ex) {
         }
@@ -744,6 +761,103 @@ public final class GDMSGraph
         return java.util.Collections.EMPTY_SET;
     }
 
+    /**
+     * Returns the edges leaving a given vertex, from the cache if possible.
+     *
+     * @param vertex The vertex.
+     *
+     * @return The adjacency block of the outgoing edges.
+     *
+     * @throws DriverException
+     */
+    private AdjacencyCache.Block outgoingBlock(int vertex)
+            throws DriverException {
+        return adjacencyBlock(outgoingCache, GraphSchema.START_NODE,
+                              END_NODE_FIELD_INDEX, vertex);
+    }
+
+    /**
+     * Returns the edges entering a given vertex, from the cache if possible.
+     *
+     * @param vertex The vertex.
+     *
+     * @return The adjacency block of the incoming edges.
+     *
+     * @throws DriverException
+     */
+    private AdjacencyCache.Block incomingBlock(int vertex)
+            throws DriverException {
+        return adjacencyBlock(incomingCache, GraphSchema.END_NODE,
+                              START_NODE_FIELD_INDEX, vertex);
+    }
+
+    /**
+     * Returns the adjacency block of a vertex from the given cache, querying
+     * the index on a miss.
+     *
+     * @param cache         The cache, or {@code null} if disabled.
+     * @param fieldToQuery  The node field containing the vertex.
+     * @param oppositeIndex The index of the opposite node field.
+     * @param vertex        The vertex.
+     *
+     * @return The adjacency block.
+     *
+     * @throws DriverException
+     */
+    private AdjacencyCache.Block adjacencyBlock(AdjacencyCache cache,
+                                                String fieldToQuery,
+                                                int oppositeIndex,
+                                                int vertex)
+            throws DriverException {
+        if (cache != null) {
+            AdjacencyCache.Block block = cache.get(vertex);
+            if (block != null) {
+                return block;
+            }
+        }
+        int size = 0;
+        int[] rowIds = new int[4];
+        for (Iterator<Integer> queryResult = getIndexIterator(
+                fieldToQuery,
+                vertex);
+                queryResult.hasNext();) {
+            if (size == rowIds.length) {
+                rowIds = Arrays.copyOf(rowIds, 2 * size);
+            }
+            rowIds[size++] = queryResult.next();
+        }
+        rowIds = Arrays.copyOf(rowIds, size);
+        int[] opposites = new int[size];
+        double[] weights = new double[size];
+        for (int i = 0; i < size; i++) {
+            opposites[i] = dataSet.getInt(rowIds[i], oppositeIndex);
+            weights[i] = getWeightVertex(rowIds[i]);
+        }
+        AdjacencyCache.Block block =
+                new AdjacencyCache.Block(vertex, rowIds, opposites, weights);
+        return cache == null ? block : cache.put(block);
+    }
+
+    /**
+     * Creates the {@link GraphEdge}s of an adjacency block.
+     *
+     * @param block    The adjacency block.
+     * @param outgoing {@code true} if the block contains outgoing edges.
+     * @param edges    The array in which the edges are stored.
+     * @param offset   The position of the first edge in the array.
+     */
+    private static void toEdges(AdjacencyCache.Block block, boolean outgoing,
+                                GraphEdge[] edges, int offset) {
+        for (int i = 0; i < block.size(); i++) {
+            Integer opposite = block.opposites[i];
+            edges[offset + i] = outgoing
+                    ? new GraphEdge(block.vertex, opposite,
+                                    block.weights[i], block.rowIds[i])
+                    : new GraphEdge(opposite, block.vertex,
+                                    block.weights[i], block.rowIds[i]);
+        }
+    }
+
     /**
      * Returns an {@link Iterator} on the indices of all values of a given
      * field.
@@ -852,16 +966,11 @@ public final class GDMSGraph
      * @return The indegree of the vertex.
      */
     public int inDegreeOf(Integer vertex) {
+        if (vertexIndex != null) {
+            return vertexIndex.inDegreeOf(vertex);
+        }
         try {
-            int counter = 0;
-            for (Iterator<Integer> queryResult = getIndexIterator(
-                    GraphSchema.END_NODE,
-                    vertex);
-                    queryResult.hasNext();) {
-                queryResult.next();
-                counter++;
-            }
-            return counter;
+            return incomingBlock(vertex).size();
         } catch (DriverException ex) {
         }
         return 0;
@@ -876,16 +985,11 @@ public final class GDMSGraph
      * @return The outdegree of the vertex.
      */
     public int outDegreeOf(Integer vertex) {
+        if (vertexIndex != null) {
+            return vertexIndex.outDegreeOf(vertex);
+        }
         try {
-            int counter = 0;
-            for (Iterator<Integer> queryResult = getIndexIterator(
-                    GraphSchema.START_NODE,
-                    vertex);
-                    queryResult.hasNext();) {
-                queryResult.next();
-                counter++;
-            }
-            return counter;
+            return outgoingBlock(vertex).size();
         } catch (DriverException ex) {
         }
         return 0;
@@ -900,6 +1004,9 @@ public final class GDMSGraph
      * @return The degree of the vertex.
      */
     public int degreeOf(Integer vertex) {
+        if (vertexIndex != null) {
+            return vertexIndex.degreeOf(vertex);
+        }
         return inDegreeOf(vertex) + outDegreeOf(vertex);
     }
 
@@ -938,4 +1045,34 @@ public final class GDMSGraph
                 getWeightVertex(index),
                 index);
     }
-}
\ No newline at end of file
+
+    /**
+     * An unmodifiable set of distinct {@link GraphEdge}s backed by an array.
+     */
+    static final class EdgeArraySet extends AbstractSet<GraphEdge> {
+
+        /**
+         * The edges.
+         */
+        private final GraphEdge[] edges;
+
+        /**
+         * Constructs a new {@link EdgeArraySet}.
+         *
+         * @param edges The edges, all distinct.
+         */
+        EdgeArraySet(GraphEdge[] edges) {
+            this.edges = edges;
+        }
+
+        @Override
+        public Iterator<GraphEdge> iterator() {
+            return Arrays.asList(edges).iterator();
+        }
+
+        @Override
+        public int size() {
+            return edges.length;
+        }
+    }
+}
@@ -154,6 +154,22 @@ public final class GraphSchema {
      */
     public static final String DIST_TO_CLOSEST_DESTINATION =
             "dist_to_" + CLOSEST_DESTINATION;
+    /**
+     * Specifies the edge before a turn.
+     */
+    public static final String FROM_EDGE = "from_edge";
+    /**
+     * Specifies the node of a turn.
+     */
+    public static final String VIA_NODE = "via_node";
+    /**
+     * Specifies the edge after a turn.
+     */
+    public static final String TO_EDGE = "to_edge";
+    /**
+     * Specifies the cost of a turn.
+     */
+    public static final String TURN_COST = "cost";
 
     /**
      * Empty constructor.
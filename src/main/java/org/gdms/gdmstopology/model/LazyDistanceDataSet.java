@@ -0,0 +1,159 @@
+/**
+ * GDMS-Topology is a library dedicated to graph analysis. It is based on the
+ * JGraphT library available at <http://www.jgrapht.org/>. It enables computing
+ * and processing large graphs using spatial and alphanumeric indexes.
+ *
+ * This version is developed at French IRSTV institut as part of the EvalPDU
+ * project, funded by the French Agence Nationale de la Recherche (ANR) under
+ * contract ANR-08-VILL-0005-01 and GEBD project funded by the French Ministery
+ * of Ecology and Sustainable Development.
+ *
+ * GDMS-Topology is distributed under GPL 3 license. It is produced by the
+ * "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR
+ * 2488.
+ *
+ * Copyright (C) 2009-2012 IRSTV (FR CNRS 2488)
+ *
+ * GDMS-Topology is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * GDMS-Topology is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * GDMS-Topology. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://wwwc.orbisgis.org/> or contact
+ * directly: info_at_ orbisgis.org
+ */
+package org.gdms.gdmstopology.model;
+
+import org.gdms.data.schema.Metadata;
+import org.gdms.data.values.Value;
+import org.gdms.data.values.ValueFactory;
+import org.gdms.driver.AbstractDataSet;
+import org.gdms.driver.DriverException;
+
+/**
+ * A read-only {@code (source, destination, distance)} table computed from a
+ * single source, whose rows are created on demand.
+ *
+ * <p> The destinations and their distances are held in primitive arrays, so
+ * nothing is written to disk and no {@link Value} is created until a row is
+ * actually read (e.g., by a {@code WHERE distance < 600} filter).
+ *
+ * @author Adam Gouge
+ */
+public class LazyDistanceDataSet extends AbstractDataSet {
+
+    /**
+     * The output metadata.
+     */
+    private final Metadata metadata;
+    /**
+     * The source.
+     */
+    private final int source;
+    /**
+     * The destination of each row.
+     */
+    private final int[] destinations;
+    /**
+     * The distance of each row.
+     */
+    private final double[] distances;
+    /**
+     * The source value, shared by all rows.
+     */
+    private final Value sourceValue;
+
+    /**
+     * Constructs a new {@link LazyDistanceDataSet}.
+     *
+     * @param metadata     The metadata: source (INT), destination (INT),
+     *                     distance (DOUBLE)
+     * @param source       The source
+     * @param destinations The destination of each row
+     * @param distances    The distance of each row
+     */
+    public LazyDistanceDataSet(Metadata metadata, int source,
+                               int[] destinations, double[] distances) {
+        if (destinations.length != distances.length) {
+            throw new IllegalArgumentException(
+                    "There must be one distance per destination.");
+        }
+        this.metadata = metadata;
+        this.source = source;
+        this.destinations = destinations;
+        this.distances = distances;
+        this.sourceValue = ValueFactory.createValue(source);
+    }
+
+    @Override
+    public Value getFieldValue(long rowIndex, int fieldId)
+            throws DriverException {
+        int row = (int) rowIndex;
+        switch (fieldId) {
+            case 0:
+                return sourceValue;
+            case 1:
+                return ValueFactory.createValue(destinations[row]);
+            case 2:
+                return ValueFactory.createValue(distances[row]);
+            default:
+                throw new DriverException("No field " + fieldId + ".");
+        }
+    }
+
+    @Override
+    public long getRowCount() throws DriverException {
+        return destinations.length;
+    }
+
+    @Override
+    public Number[] getScope(int dimension) throws DriverException {
+        // Not a spatial table.
+        return null;
+    }
+
+    @Override
+    public Metadata getMetadata() throws DriverException {
+        return metadata;
+    }
+
+    /**
+     * Returns the source.
+     *
+     * @return The source
+     */
+    public int getSource() {
+        return source;
+    }
+
+    /**
+     * Returns the destination of the given row.
+     *
+     * @param row The row
+     *
+     * @return The destination
+     */
+    public int getDestination(int row) {
+        return destinations[row];
+    }
+
+    /**
+     * Returns the distance of the given row, without creating a
+     * {@link Value}.
+     *
+     * @param row The row
+     *
+     * @return The distance
+     */
+    public double getDistance(int row) {
+        return distances[row];
+    }
+}
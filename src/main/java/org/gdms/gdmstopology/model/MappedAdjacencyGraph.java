@@ -0,0 +1,750 @@
+/**
+ * GDMS-Topology is a library dedicated to graph analysis. It is based on the
+ * JGraphT library available at <http://www.jgrapht.org/>. It enables computing
+ * and processing large graphs using spatial and alphanumeric indexes.
+ *
+ * This version is developed at French IRSTV institut as part of the EvalPDU
+ * project, funded by the French Agence Nationale de la Recherche (ANR) under
+ * contract ANR-08-VILL-0005-01 and GEBD project funded by the French Ministery
+ * of Ecology and Sustainable Development.
+ *
+ * GDMS-Topology is distributed under GPL 3 license. It is produced by the
+ * "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR
+ * 2488.
+ *
+ * Copyright (C) 2009-2012 IRSTV (FR CNRS 2488)
+ *
+ * GDMS-Topology is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * GDMS-Topology is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * GDMS-Topology. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://wwwc.orbisgis.org/> or contact
+ * directly: info_at_ orbisgis.org
+ */
+package org.gdms.gdmstopology.model;
+
+import com.vividsolutions.jts.geom.Geometry;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import org.gdms.data.DataSourceFactory;
+import org.gdms.data.schema.Metadata;
+import org.gdms.data.schema.MetadataUtilities;
+import org.gdms.data.values.Value;
+import org.gdms.driver.DataSet;
+import org.gdms.driver.DriverException;
+import org.gdms.gdmstopology.process.ExternalRecordSorter;
+import org.jgrapht.DirectedGraph;
+import org.jgrapht.EdgeFactory;
+import org.jgrapht.graph.AbstractGraph;
+import org.jgrapht.graph.ClassBasedEdgeFactory;
+import org.orbisgis.progress.ProgressMonitor;
+
+/**
+ * A read-only directed (JGraphT) graph backed by memory-mapped adjacency
+ * files built once from an edges table.
+ *
+ * <p> The edges table must contain {@code start_node} and {@code end_node}
+ * fields. Building the graph sorts the edges externally by start node and by
+ * end node and writes three files:
+ * <ul> <li> the vertices, sorted by id, with the offsets of their outgoing
+ * and incoming edges; <li> the outgoing edges, grouped by source, as
+ * {@code (target, row id, weight)} records; <li> the incoming edges, grouped
+ * by target, as {@code (source, row id, weight)} records. </ul>
+ *
+ * <p> Neighbour accesses are reads in the mapped files and never go through
+ * the GDMS index manager, so the graph may be larger than the heap. The edges
+ * table itself is only read by {@link #getGeometry} and {@link #getValues}.
+ * Since the files are read-only, the graph may be traversed by several
+ * threads at once. {@link #close()} deletes the files once the graph is no
+ * longer needed.
+ *
+ * @author Adam Gouge
+ */
+public class MappedAdjacencyGraph
+        extends AbstractGraph<Integer, GraphEdge>
+        implements DirectedGraph<Integer, GraphEdge>,
+        GDMSValueGraph<Integer, GraphEdge> {
+
+    /**
+     * Size in bytes of a vertex record: id, first outgoing edge and first
+     * incoming edge.
+     */
+    private static final int VERTEX_RECORD_SIZE = 12;
+    /**
+     * Size in bytes of an edge record: opposite vertex, row id and weight.
+     */
+    private static final int EDGE_RECORD_SIZE = 16;
+    /**
+     * Number of records per mapped segment (files may exceed 2GB).
+     */
+    private static final int SEGMENT_SHIFT = 26;
+    /**
+     * Mask giving the position of a record in its segment.
+     */
+    private static final long SEGMENT_MASK = (1L << SEGMENT_SHIFT) - 1;
+    /**
+     * Size of the stream buffers used to write the files.
+     */
+    private static final int STREAM_BUFFER_SIZE = 1 << 16;
+    /**
+     * The edges table.
+     */
+    private final DataSet dataSet;
+    /**
+     * Index of the geometry field.
+     */
+    private final int geometryFieldIndex;
+    /**
+     * Number of vertices.
+     */
+    private final int vertexCount;
+    /**
+     * Number of edges.
+     */
+    private final int edgeCount;
+    /**
+     * The mapped vertex file, holding {@code vertexCount + 1} records (the
+     * last one only holds the end offsets).
+     */
+    private final MappedByteBuffer[] vertices;
+    /**
+     * The mapped outgoing edge file.
+     */
+    private final MappedByteBuffer[] outgoing;
+    /**
+     * The mapped incoming edge file.
+     */
+    private final MappedByteBuffer[] incoming;
+    /**
+     * The vertex, outgoing edge and incoming edge files.
+     */
+    private final File[] files;
+
+    /**
+     * Builds the adjacency files of the given edges table and maps them.
+     *
+     * @param dsf         Used to create the temporary files.
+     * @param dataSet     The edges table.
+     * @param weightField The name of the weight field, or {@code null} to
+     *                    give every edge a weight of 1.
+     * @param pm          The progress monitor used to track the progress of
+     *                    the construction.
+     *
+     * @throws DriverException If the table could not be read or the files
+     *                         could not be written.
+     */
+    public MappedAdjacencyGraph(DataSourceFactory dsf, DataSet dataSet,
+                                String weightField, ProgressMonitor pm)
+            throws DriverException {
+        this.dataSet = dataSet;
+        Metadata md = dataSet.getMetadata();
+        geometryFieldIndex = MetadataUtilities.getSpatialFieldIndex(md);
+        int startNodeIndex = md.getFieldIndex(GraphSchema.START_NODE);
+        int endNodeIndex = md.getFieldIndex(GraphSchema.END_NODE);
+        if (startNodeIndex == -1) {
+            throw new IllegalArgumentException(
+                    "The table must contain a field named start_node");
+        }
+        if (endNodeIndex == -1) {
+            throw new IllegalArgumentException(
+                    "The table must contain a field named end_node");
+        }
+        int weightIndex = -1;
+        if (weightField != null) {
+            weightIndex = md.getFieldIndex(weightField);
+            if (weightIndex == -1) {
+                throw new IllegalArgumentException(
+                        "The table must contains a field named "
+                        + weightField);
+            }
+        }
+        File vertexFile = new File(dsf.getTempFile());
+        File outgoingFile = new File(dsf.getTempFile());
+        File incomingFile = new File(dsf.getTempFile());
+        files = new File[]{vertexFile, outgoingFile, incomingFile};
+        try {
+            int[] counts = writeFiles(dsf, startNodeIndex, endNodeIndex,
+                                      weightIndex, vertexFile, outgoingFile,
+                                      incomingFile, pm);
+            vertexCount = counts[0];
+            edgeCount = counts[1];
+            vertices = map(vertexFile, VERTEX_RECORD_SIZE);
+            outgoing = map(outgoingFile, EDGE_RECORD_SIZE);
+            incoming = map(incomingFile, EDGE_RECORD_SIZE);
+        } catch (IOException ex) {
+            deleteFiles();
+            throw new DriverException(
+                    "Unable to build the adjacency files.", ex);
+        } catch (DriverException ex) {
+            deleteFiles();
+            throw ex;
+        }
+    }
+
+    /**
+     * Releases the mapped files and deletes them. The graph may not be used
+     * afterwards. The mappings themselves are freed once the searches still
+     * running on the graph, if any, let go of them.
+     */
+    public void close() {
+        Arrays.fill(vertices, null);
+        Arrays.fill(outgoing, null);
+        Arrays.fill(incoming, null);
+        deleteFiles();
+    }
+
+    /**
+     * Deletes the adjacency files, or marks them to be deleted on exit if
+     * they are still mapped and the system does not allow it.
+     */
+    private void deleteFiles() {
+        for (File file : files) {
+            if (file.exists() && !file.delete()) {
+                file.deleteOnExit();
+            }
+        }
+    }
+
+    /**
+     * Sorts the edges by source and by target and writes the vertex, outgoing
+     * and incoming edge files.
+     *
+     * @return The number of vertices and the number of edges.
+     */
+    private int[] writeFiles(DataSourceFactory dsf, int startNodeIndex,
+                             int endNodeIndex, int weightIndex,
+                             File vertexFile, File outgoingFile,
+                             File incomingFile, ProgressMonitor pm)
+            throws DriverException, IOException {
+        // Records (vertex, opposite, row id, weight bits).
+        ExternalRecordSorter bySource = new ExternalRecordSorter(
+                dsf, 4, 3, ExternalRecordSorter.DEFAULT_BUFFER_RECORDS);
+        ExternalRecordSorter byTarget = new ExternalRecordSorter(
+                dsf, 4, 3, ExternalRecordSorter.DEFAULT_BUFFER_RECORDS);
+        long rowCount = dataSet.getRowCount();
+        pm.startTask("Building the adjacency files", 100);
+        try {
+            for (long i = 0; i < rowCount; i++) {
+                if (i % 10000 == 0) {
+                    pm.progressTo((int) (50 * i / rowCount));
+                }
+                long source = dataSet.getInt(i, startNodeIndex);
+                long target = dataSet.getInt(i, endNodeIndex);
+                long weight = Double.doubleToLongBits(weightIndex == -1
+                        ? 1 : dataSet.getDouble(i, weightIndex));
+                bySource.add(source, target, i, weight);
+                byTarget.add(target, source, i, weight);
+            }
+        } catch (IOException ex) {
+            bySource.dispose();
+            byTarget.dispose();
+            throw ex;
+        } catch (DriverException ex) {
+            bySource.dispose();
+            byTarget.dispose();
+            throw ex;
+        }
+        ExternalRecordSorter.RecordIterator out = bySource.sort();
+        ExternalRecordSorter.RecordIterator in = null;
+        DataOutputStream vertexStream = null;
+        DataOutputStream outgoingStream = null;
+        DataOutputStream incomingStream = null;
+        try {
+            in = byTarget.sort();
+            vertexStream = open(vertexFile);
+            outgoingStream = open(outgoingFile);
+            incomingStream = open(incomingFile);
+            long[] outRecord = new long[4];
+            long[] inRecord = new long[4];
+            boolean hasOut = out.next(outRecord);
+            boolean hasIn = in.next(inRecord);
+            int vertexCount = 0;
+            int outCount = 0;
+            int inCount = 0;
+            // Merge the two sorted streams vertex by vertex.
+            while (hasOut || hasIn) {
+                long vertex = !hasIn || (hasOut && outRecord[0] < inRecord[0])
+                        ? outRecord[0] : inRecord[0];
+                vertexStream.writeInt((int) vertex);
+                vertexStream.writeInt(outCount);
+                vertexStream.writeInt(inCount);
+                vertexCount++;
+                while (hasOut && outRecord[0] == vertex) {
+                    writeEdge(outgoingStream, outRecord);
+                    outCount++;
+                    hasOut = out.next(outRecord);
+                }
+                while (hasIn && inRecord[0] == vertex) {
+                    writeEdge(incomingStream, inRecord);
+                    inCount++;
+                    hasIn = in.next(inRecord);
+                }
+            }
+            // End offsets.
+            vertexStream.writeInt(0);
+            vertexStream.writeInt(outCount);
+            vertexStream.writeInt(inCount);
+            pm.progressTo(100);
+            pm.endTask();
+            return new int[]{vertexCount, outCount};
+        } finally {
+            out.close();
+            if (in != null) {
+                in.close();
+            }
+            close(vertexStream);
+            close(outgoingStream);
+            close(incomingStream);
+        }
+    }
+
+    /**
+     * Opens a buffered output stream on the given file.
+     */
+    private static DataOutputStream open(File file) throws IOException {
+        return new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(file), STREAM_BUFFER_SIZE));
+    }
+
+    /**
+     * Closes the given stream if it was opened.
+     */
+    private static void close(DataOutputStream stream) throws IOException {
+        if (stream != null) {
+            stream.close();
+        }
+    }
+
+    /**
+     * Writes an edge record (opposite, row id, weight).
+     */
+    private static void writeEdge(DataOutputStream stream, long[] record)
+            throws IOException {
+        stream.writeInt((int) record[1]);
+        stream.writeInt((int) record[2]);
+        stream.writeDouble(Double.longBitsToDouble(record[3]));
+    }
+
+    /**
+     * Maps the given file in read-only segments of whole records.
+     *
+     * @param file       The file
+     * @param recordSize The size of a record in bytes
+     *
+     * @return The mapped segments
+     *
+     * @throws IOException
+     */
+    private static MappedByteBuffer[] map(File file, int recordSize)
+            throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            long segmentSize = (SEGMENT_MASK + 1) * recordSize;
+            long size = channel.size();
+            int segmentCount = (int) ((size + segmentSize - 1) / segmentSize);
+            MappedByteBuffer[] segments =
+                    new MappedByteBuffer[Math.max(1, segmentCount)];
+            for (int s = 0; s < segments.length; s++) {
+                long position = s * segmentSize;
+                segments[s] = channel.map(FileChannel.MapMode.READ_ONLY,
+                                          position,
+                                          Math.min(segmentSize,
+                                                   size - position));
+            }
+            return segments;
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Reads an int in a record of a segmented file.
+     *
+     * @param segments   The mapped segments
+     * @param recordSize The size of a record in bytes
+     * @param record     The record
+     * @param offset     The offset of the int in the record
+     *
+     * @return The int
+     */
+    private static int getInt(MappedByteBuffer[] segments, int recordSize,
+                              long record, int offset) {
+        return segments[(int) (record >>> SEGMENT_SHIFT)].getInt(
+                (int) (record & SEGMENT_MASK) * recordSize + offset);
+    }
+
+    /**
+     * Returns the id of the vertex at the given position.
+     */
+    private int vertexAt(int position) {
+        return getInt(vertices, VERTEX_RECORD_SIZE, position, 0);
+    }
+
+    /**
+     * Returns the first outgoing edge of the vertex at the given position.
+     */
+    private int firstOutgoing(int position) {
+        return getInt(vertices, VERTEX_RECORD_SIZE, position, 4);
+    }
+
+    /**
+     * Returns the first incoming edge of the vertex at the given position.
+     */
+    private int firstIncoming(int position) {
+        return getInt(vertices, VERTEX_RECORD_SIZE, position, 8);
+    }
+
+    /**
+     * Returns the position of the given vertex, or -1 if it is not in the
+     * graph.
+     */
+    private int positionOf(int vertex) {
+        int lo = 0;
+        int hi = vertexCount - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int id = vertexAt(mid);
+            if (id < vertex) {
+                lo = mid + 1;
+            } else if (id > vertex) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Creates the {@link GraphEdge} of an edge record.
+     *
+     * @param vertex   The vertex whose adjacency contains the record.
+     * @param edge     The record.
+     * @param outgoing {@code true} for an outgoing edge record.
+     *
+     * @return The edge.
+     */
+    private GraphEdge edgeAt(int vertex, long edge, boolean outgoing) {
+        MappedByteBuffer segment = (outgoing ? this.outgoing : incoming)[
+                (int) (edge >>> SEGMENT_SHIFT)];
+        int offset = (int) (edge & SEGMENT_MASK) * EDGE_RECORD_SIZE;
+        int opposite = segment.getInt(offset);
+        int rowId = segment.getInt(offset + 4);
+        double weight = segment.getDouble(offset + 8);
+        return outgoing
+                ? new GraphEdge(vertex, opposite, weight, rowId)
+                : new GraphEdge(opposite, vertex, weight, rowId);
+    }
+
+    /**
+     * Returns the outgoing (or incoming) edges of a vertex.
+     */
+    private Set<GraphEdge> adjacentEdges(int vertex, boolean outgoing) {
+        int position = positionOf(vertex);
+        if (position < 0) {
+            return Collections.emptySet();
+        }
+        int first = outgoing ? firstOutgoing(position)
+                : firstIncoming(position);
+        int last = outgoing ? firstOutgoing(position + 1)
+                : firstIncoming(position + 1);
+        GraphEdge[] edges = new GraphEdge[last - first];
+        for (int e = first; e < last; e++) {
+            edges[e - first] = edgeAt(vertex, e, outgoing);
+        }
+        return new GDMSGraph.EdgeArraySet(edges);
+    }
+
+    @Override
+    public Set<GraphEdge> outgoingEdgesOf(Integer vertex) {
+        return adjacentEdges(vertex, true);
+    }
+
+    @Override
+    public Set<GraphEdge> incomingEdgesOf(Integer vertex) {
+        return adjacentEdges(vertex, false);
+    }
+
+    @Override
+    public int outDegreeOf(Integer vertex) {
+        int position = positionOf(vertex);
+        return position < 0 ? 0
+                : firstOutgoing(position + 1) - firstOutgoing(position);
+    }
+
+    @Override
+    public int inDegreeOf(Integer vertex) {
+        int position = positionOf(vertex);
+        return position < 0 ? 0
+                : firstIncoming(position + 1) - firstIncoming(position);
+    }
+
+    @Override
+    public Set<GraphEdge> edgesOf(Integer vertex) {
+        Set<GraphEdge> edges = new HashSet<GraphEdge>(
+                outgoingEdgesOf(vertex));
+        edges.addAll(incomingEdgesOf(vertex));
+        return edges;
+    }
+
+    @Override
+    public Set<GraphEdge> getAllEdges(Integer startVertex, Integer endVertex) {
+        Set<GraphEdge> edges = new HashSet<GraphEdge>();
+        for (GraphEdge edge : outgoingEdgesOf(startVertex)) {
+            if (edge.getTarget().equals(endVertex)) {
+                edges.add(edge);
+            }
+        }
+        return edges;
+    }
+
+    @Override
+    public GraphEdge getEdge(Integer startVertex, Integer endVertex) {
+        int position = positionOf(startVertex);
+        if (position >= 0) {
+            // Outgoing edges are sorted by target.
+            int lo = firstOutgoing(position);
+            int hi = firstOutgoing(position + 1) - 1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                GraphEdge edge = edgeAt(startVertex, mid, true);
+                int target = edge.getTarget();
+                if (target < endVertex) {
+                    lo = mid + 1;
+                } else if (target > endVertex) {
+                    hi = mid - 1;
+                } else {
+                    return edge;
+                }
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public boolean containsEdge(GraphEdge graphEdge) {
+        return containsEdge(graphEdge.getSource(), graphEdge.getTarget());
+    }
+
+    @Override
+    public boolean containsVertex(Integer vertex) {
+        return vertex != null && positionOf(vertex) >= 0;
+    }
+
+    /**
+     * Returns an unmodifiable view of the vertices, sorted by id.
+     *
+     * @return The vertex set.
+     */
+    @Override
+    public Set<Integer> vertexSet() {
+        return new AbstractSet<Integer>() {
+            @Override
+            public boolean contains(Object o) {
+                return o instanceof Integer && containsVertex((Integer) o);
+            }
+
+            @Override
+            public Iterator<Integer> iterator() {
+                return new Iterator<Integer>() {
+                    private int next = 0;
+
+                    @Override
+                    public boolean hasNext() {
+                        return next < vertexCount;
+                    }
+
+                    @Override
+                    public Integer next() {
+                        if (next >= vertexCount) {
+                            throw new NoSuchElementException();
+                        }
+                        return vertexAt(next++);
+                    }
+
+                    @Override
+                    public void remove() {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return vertexCount;
+            }
+        };
+    }
+
+    /**
+     * Returns an unmodifiable view of the edges, grouped by source.
+     *
+     * @return The edge set.
+     */
+    @Override
+    public Set<GraphEdge> edgeSet() {
+        return new AbstractSet<GraphEdge>() {
+            @Override
+            public Iterator<GraphEdge> iterator() {
+                return new Iterator<GraphEdge>() {
+                    private int position = 0;
+                    private int next = 0;
+
+                    @Override
+                    public boolean hasNext() {
+                        return next < edgeCount;
+                    }
+
+                    @Override
+                    public GraphEdge next() {
+                        if (next >= edgeCount) {
+                            throw new NoSuchElementException();
+                        }
+                        while (firstOutgoing(position + 1) <= next) {
+                            position++;
+                        }
+                        return edgeAt(vertexAt(position), next++, true);
+                    }
+
+                    @Override
+                    public void remove() {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return edgeCount;
+            }
+        };
+    }
+
+    @Override
+    public Integer getEdgeSource(GraphEdge graphEdge) {
+        return graphEdge.getSource();
+    }
+
+    @Override
+    public Integer getEdgeTarget(GraphEdge graphEdge) {
+        return graphEdge.getTarget();
+    }
+
+    @Override
+    public double getEdgeWeight(GraphEdge graphEdge) {
+        return graphEdge.getWeight();
+    }
+
+    @Override
+    public EdgeFactory<Integer, GraphEdge> getEdgeFactory() {
+        return new ClassBasedEdgeFactory<Integer, GraphEdge>(GraphEdge.class);
+    }
+
+    /**
+     * Not supported: the graph is read-only.
+     */
+    @Override
+    public GraphEdge addEdge(Integer startVertex, Integer endVertex) {
+        throw new UnsupportedOperationException("The graph is read-only.");
+    }
+
+    /**
+     * Not supported: the graph is read-only.
+     */
+    @Override
+    public boolean addEdge(Integer startVertex, Integer endVertex,
+                           GraphEdge e) {
+        throw new UnsupportedOperationException("The graph is read-only.");
+    }
+
+    /**
+     * Not supported: the graph is read-only.
+     */
+    @Override
+    public boolean addVertex(Integer vertex) {
+        throw new UnsupportedOperationException("The graph is read-only.");
+    }
+
+    /**
+     * Not supported: the graph is read-only.
+     */
+    @Override
+    public GraphEdge removeEdge(Integer startVertex, Integer endVertex) {
+        throw new UnsupportedOperationException("The graph is read-only.");
+    }
+
+    /**
+     * Not supported: the graph is read-only.
+     */
+    @Override
+    public boolean removeEdge(GraphEdge graphEdge) {
+        throw new UnsupportedOperationException("The graph is read-only.");
+    }
+
+    /**
+     * Not supported: the graph is read-only.
+     */
+    @Override
+    public boolean removeVertex(Integer vertex) {
+        throw new UnsupportedOperationException("The graph is read-only.");
+    }
+
+    /**
+     * @see org.gdms.driver.DataSet#getGeometry(long, int)
+     */
+    // Javadoc will be copied from the GDMSValueGraph interface.
+    @Override
+    public Geometry getGeometry(int rowid) throws DriverException {
+        return dataSet.getGeometry(rowid, geometryFieldIndex);
+    }
+
+    /**
+     * @see org.gdms.driver.DataSet#getGeometry(long, int)
+     */
+    // Javadoc will be copied from the GDMSValueGraph interface.
+    @Override
+    public Geometry getGeometry(GraphEdge graphEdge) throws DriverException {
+        return dataSet.getGeometry(graphEdge.getRowId(), geometryFieldIndex);
+    }
+
+    /**
+     * @see org.gdms.driver.DataSet#getRow(long)
+     */
+    // Javadoc will be copied from the GDMSValueGraph interface.
+    @Override
+    public Value[] getValues(int rowid) throws DriverException {
+        return dataSet.getRow(rowid);
+    }
+
+    /**
+     * @see org.gdms.driver.DataSet#getRowCount()
+     */
+    // Javadoc will be copied from the GDMSValueGraph interface.
+    @Override
+    public long getRowCount() throws DriverException {
+        return dataSet.getRowCount();
+    }
+}
@@ -0,0 +1,382 @@
+/**
+ * GDMS-Topology is a library dedicated to graph analysis. It is based on the
+ * JGraphT library available at <http://www.jgrapht.org/>. It enables computing
+ * and processing large graphs using spatial and alphanumeric indexes.
+ *
+ * This version is developed at French IRSTV institut as part of the EvalPDU
+ * project, funded by the French Agence Nationale de la Recherche (ANR) under
+ * contract ANR-08-VILL-0005-01 and GEBD project funded by the French Ministery
+ * of Ecology and Sustainable Development.
+ *
+ * GDMS-Topology is distributed under GPL 3 license. It is produced by the
+ * "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR
+ * 2488.
+ *
+ * Copyright (C) 2009-2012 IRSTV (FR CNRS 2488)
+ *
+ * GDMS-Topology is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * GDMS-Topology is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * GDMS-Topology. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://wwwc.orbisgis.org/> or contact
+ * directly: info_at_ orbisgis.org
+ */
+package org.gdms.gdmstopology.model;
+
+import java.util.Arrays;
+import org.gdms.data.schema.Metadata;
+import org.gdms.data.values.Value;
+import org.gdms.driver.DataSet;
+import org.gdms.driver.DriverException;
+
+/**
+ * The edge-based expansion of a {@link CompactGraph} under turn restrictions.
+ *
+ * <p> A search state is an arc of the graph, that is an edge followed in one
+ * direction, and moving on to the next arc is a turn at the head of the
+ * first one. Only the restricted turns are stored: for each arc, the arcs it
+ * may not turn into or turns into at a cost, sorted in compressed arrays.
+ * Every other turn is implicit and free, so that the expansion costs a few
+ * arrays over the arcs and the restrictions instead of one entry per pair of
+ * adjacent edges.
+ *
+ * <p> Turns are given by edge ids (of either sign in directed graphs) and
+ * the id of the node between them. U-turns are allowed unless restricted.
+ *
+ * @author Adam Gouge
+ */
+public final class TurnGraph {
+
+    /**
+     * The graph.
+     */
+    private final CompactGraph graph;
+    /**
+     * The tail of each arc.
+     */
+    private final int[] tails;
+    /**
+     * For each arc, the index of its first restriction; the last entry is the
+     * number of restrictions.
+     */
+    private final int[] restrictionOffsets;
+    /**
+     * The arc each restriction turns into, grouped by arc.
+     */
+    private final int[] restrictionTargets;
+    /**
+     * The cost of each restriction, {@code +Infinity} for forbidden turns.
+     */
+    private final double[] restrictionCosts;
+
+    /**
+     * Restricts the turns of the given graph.
+     *
+     * @param graph     The graph
+     * @param fromEdges The edge id before each turn
+     * @param viaNodes  The node id of each turn
+     * @param toEdges   The edge id after each turn
+     * @param costs     The cost of each turn, {@code +Infinity} if it is
+     *                  forbidden
+     */
+    public TurnGraph(CompactGraph graph, int[] fromEdges, int[] viaNodes,
+                     int[] toEdges, double[] costs) {
+        this.graph = graph;
+        int arcCount = graph.getArcCount();
+        tails = new int[arcCount];
+        // Arcs sorted by edge id, packed with their index.
+        long[] byEdge = new long[arcCount];
+        for (int v = 0; v < graph.getVertexCount(); v++) {
+            for (int arc = graph.getFirstArc(v); arc < graph.getEndArc(v);
+                 arc++) {
+                tails[arc] = v;
+                byEdge[arc] = ((long) Math.abs(graph.getEdgeId(arc)) << 32)
+                              | arc;
+            }
+        }
+        Arrays.sort(byEdge);
+
+        // The (from arc, to arc) pairs of each turn.
+        int[] from = new int[fromEdges.length];
+        int[] to = new int[fromEdges.length];
+        double[] cost = new double[fromEdges.length];
+        int count = 0;
+        for (int r = 0; r < fromEdges.length; r++) {
+            int via = graph.getIndex(viaNodes[r]);
+            if (via == -1) {
+                continue;
+            }
+            int firstFrom = first(byEdge, Math.abs(fromEdges[r]));
+            int firstTo = first(byEdge, Math.abs(toEdges[r]));
+            for (int i = firstFrom; i < byEdge.length
+                                    && (int) (byEdge[i] >>> 32)
+                                       == Math.abs(fromEdges[r]); i++) {
+                int a = (int) byEdge[i];
+                if (graph.getHead(a) != via) {
+                    continue;
+                }
+                for (int j = firstTo; j < byEdge.length
+                                      && (int) (byEdge[j] >>> 32)
+                                         == Math.abs(toEdges[r]); j++) {
+                    int b = (int) byEdge[j];
+                    if (tails[b] != via) {
+                        continue;
+                    }
+                    if (count == from.length) {
+                        from = Arrays.copyOf(from, 2 * count);
+                        to = Arrays.copyOf(to, 2 * count);
+                        cost = Arrays.copyOf(cost, 2 * count);
+                    }
+                    from[count] = a;
+                    to[count] = b;
+                    cost[count] = costs[r];
+                    count++;
+                }
+            }
+        }
+        restrictionOffsets = new int[arcCount + 1];
+        for (int r = 0; r < count; r++) {
+            restrictionOffsets[from[r] + 1]++;
+        }
+        for (int a = 0; a < arcCount; a++) {
+            restrictionOffsets[a + 1] += restrictionOffsets[a];
+        }
+        restrictionTargets = new int[count];
+        restrictionCosts = new double[count];
+        int[] next = Arrays.copyOf(restrictionOffsets, arcCount);
+        for (int r = 0; r < count; r++) {
+            int slot = next[from[r]]++;
+            restrictionTargets[slot] = to[r];
+            restrictionCosts[slot] = cost[r];
+        }
+    }
+
+    /**
+     * Restricts the turns of the given graph to those of a turns table, with
+     * fields {@link GraphSchema#FROM_EDGE}, {@link GraphSchema#VIA_NODE},
+     * {@link GraphSchema#TO_EDGE} and optionally
+     * {@link GraphSchema#TURN_COST}. A turn without a cost is forbidden.
+     *
+     * @param graph The graph
+     * @param turns The turns table
+     *
+     * @return The restricted graph
+     *
+     * @throws DriverException If the table could not be read.
+     */
+    public static TurnGraph fromTable(CompactGraph graph, DataSet turns)
+            throws DriverException {
+        Metadata md = turns.getMetadata();
+        int fromIndex = md.getFieldIndex(GraphSchema.FROM_EDGE);
+        int viaIndex = md.getFieldIndex(GraphSchema.VIA_NODE);
+        int toIndex = md.getFieldIndex(GraphSchema.TO_EDGE);
+        int costIndex = md.getFieldIndex(GraphSchema.TURN_COST);
+        if (fromIndex == -1 || viaIndex == -1 || toIndex == -1) {
+            throw new IllegalArgumentException(
+                    "The turns table must contain the fields "
+                    + GraphSchema.FROM_EDGE + ", " + GraphSchema.VIA_NODE
+                    + " and " + GraphSchema.TO_EDGE + ".");
+        }
+        int rowCount = (int) turns.getRowCount();
+        int[] fromEdges = new int[rowCount];
+        int[] viaNodes = new int[rowCount];
+        int[] toEdges = new int[rowCount];
+        double[] costs = new double[rowCount];
+        for (int i = 0; i < rowCount; i++) {
+            fromEdges[i] = turns.getFieldValue(i, fromIndex).getAsInt();
+            viaNodes[i] = turns.getFieldValue(i, viaIndex).getAsInt();
+            toEdges[i] = turns.getFieldValue(i, toIndex).getAsInt();
+            Value cost = costIndex == -1
+                    ? null : turns.getFieldValue(i, costIndex);
+            costs[i] = cost == null || cost.isNull()
+                    ? Double.POSITIVE_INFINITY : cost.getAsDouble();
+            if (costs[i] < 0) {
+                throw new IllegalArgumentException(
+                        "Turn costs must not be negative.");
+            }
+        }
+        return new TurnGraph(graph, fromEdges, viaNodes, toEdges, costs);
+    }
+
+    /**
+     * Returns the first position of the given edge id in the packed arcs, or
+     * the position where it would be.
+     */
+    private static int first(long[] byEdge, int edgeId) {
+        int i = Arrays.binarySearch(byEdge, (long) edgeId << 32);
+        return i >= 0 ? i : -i - 1;
+    }
+
+    /**
+     * Returns the graph.
+     *
+     * @return The graph
+     */
+    public CompactGraph getGraph() {
+        return graph;
+    }
+
+    /**
+     * Returns the tail of the given arc.
+     *
+     * @param arc The arc index
+     *
+     * @return The index of its tail
+     */
+    public int getTail(int arc) {
+        return tails[arc];
+    }
+
+    /**
+     * Returns the number of stored restrictions.
+     *
+     * @return The number of restricted (from arc, to arc) pairs
+     */
+    public int getRestrictionCount() {
+        return restrictionTargets.length;
+    }
+
+    /**
+     * Returns the cost of turning from one arc into another.
+     *
+     * @param from The arc before the turn
+     * @param to   An arc leaving the head of {@code from}
+     *
+     * @return The cost of the turn, 0 if it is not restricted and
+     *         {@code +Infinity} if it is forbidden
+     */
+    public double getTurnCost(int from, int to) {
+        for (int r = restrictionOffsets[from]; r < restrictionOffsets[from + 1];
+             r++) {
+            if (restrictionTargets[r] == to) {
+                return restrictionCosts[r];
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Runs a Dijkstra search on the arcs from the given source until the
+     * target is settled, or over the whole graph. A vertex is reached by the
+     * first arc to be settled among those entering it.
+     *
+     * @param source The source index
+     * @param target The target index, or -1
+     *
+     * @return The shortest path tree
+     */
+    public Tree search(int source, int target) {
+        Tree tree = new Tree(source);
+        double[] distance = new double[tails.length];
+        Arrays.fill(distance, Double.POSITIVE_INFINITY);
+        boolean[] settled = new boolean[tails.length];
+        CompactGraph.Heap heap = new CompactGraph.Heap();
+        for (int b = graph.getFirstArc(source); b < graph.getEndArc(source);
+             b++) {
+            if (graph.getWeight(b) < distance[b]) {
+                distance[b] = graph.getWeight(b);
+                heap.push(distance[b], b);
+            }
+        }
+        if (source == target) {
+            return tree;
+        }
+        while (!heap.isEmpty()) {
+            double d = heap.peekKey();
+            int a = heap.pop();
+            if (settled[a]) {
+                continue;
+            }
+            settled[a] = true;
+            int v = graph.getHead(a);
+            if (tree.arcs[v] == -1 && v != source) {
+                tree.distances[v] = d;
+                tree.arcs[v] = a;
+                if (v == target) {
+                    break;
+                }
+            }
+            for (int b = graph.getFirstArc(v); b < graph.getEndArc(v); b++) {
+                double db = d + getTurnCost(a, b) + graph.getWeight(b);
+                if (db < distance[b]) {
+                    distance[b] = db;
+                    tree.previousArcs[b] = a;
+                    heap.push(db, b);
+                }
+            }
+        }
+        return tree;
+    }
+
+    /**
+     * The result of a {@link TurnGraph#search}.
+     */
+    public final class Tree {
+
+        private final int source;
+        private final double[] distances;
+        private final int[] arcs;
+        private final int[] previousArcs;
+
+        private Tree(int source) {
+            this.source = source;
+            distances = new double[graph.getVertexCount()];
+            Arrays.fill(distances, Double.POSITIVE_INFINITY);
+            distances[source] = 0;
+            arcs = new int[graph.getVertexCount()];
+            Arrays.fill(arcs, -1);
+            previousArcs = new int[tails.length];
+            Arrays.fill(previousArcs, -1);
+        }
+
+        /**
+         * Returns the distance of the given vertex.
+         *
+         * @param vertex The vertex index
+         *
+         * @return Its distance, {@code +Infinity} if it was not reached
+         */
+        public double getDistance(int vertex) {
+            return distances[vertex];
+        }
+
+        /**
+         * Returns the arcs of the shortest path to the given vertex, from the
+         * vertex back to the source.
+         *
+         * @param vertex The vertex index
+         *
+         * @return The arcs, empty for the source or a vertex not reached
+         */
+        public int[] getPath(int vertex) {
+            int length = 0;
+            for (int a = arcs[vertex]; a != -1; a = previousArcs[a]) {
+                length++;
+            }
+            int[] path = new int[length];
+            int i = 0;
+            for (int a = arcs[vertex]; a != -1; a = previousArcs[a]) {
+                path[i++] = a;
+            }
+            return path;
+        }
+
+        /**
+         * Returns the source of the search.
+         *
+         * @return The source index
+         */
+        public int getSource() {
+            return source;
+        }
+    }
+}
@@ -0,0 +1,347 @@
+/**
+ * GDMS-Topology is a library dedicated to graph analysis. It is based on the
+ * JGraphT library available at <http://www.jgrapht.org/>. It enables computing
+ * and processing large graphs using spatial and alphanumeric indexes.
+ *
+ * This version is developed at French IRSTV institut as part of the EvalPDU
+ * project, funded by the French Agence Nationale de la Recherche (ANR) under
+ * contract ANR-08-VILL-0005-01 and GEBD project funded by the French Ministery
+ * of Ecology and Sustainable Development.
+ *
+ * GDMS-Topology is distributed under GPL 3 license. It is produced by the
+ * "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR
+ * 2488.
+ *
+ * Copyright (C) 2009-2012 IRSTV (FR CNRS 2488)
+ *
+ * GDMS-Topology is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * GDMS-Topology is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * GDMS-Topology. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://wwwc.orbisgis.org/> or contact
+ * directly: info_at_ orbisgis.org
+ */
+package org.gdms.gdmstopology.model;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import org.gdms.data.DataSourceFactory;
+import org.gdms.driver.DataSet;
+import org.gdms.driver.DriverException;
+import org.gdms.gdmstopology.process.ExternalRecordSorter;
+import org.orbisgis.progress.ProgressMonitor;
+
+/**
+ * A sorted, memory-mapped index of the distinct vertices of an edges table,
+ * with their indegree and outdegree.
+ *
+ * <p> The index file contains one fixed-width record {@code (id, indegree,
+ * outdegree)} per vertex, in increasing order of id. It is built in a single
+ * pass over the table followed by an external sort, so lookups are binary
+ * searches in the mapped file.
+ *
+ * <p> Each graph builds its own index. The index file is deleted as soon as
+ * it is mapped; the mapping is released once no graph refers to it.
+ *
+ * @author Adam Gouge
+ */
+public final class VertexIndex {
+
+    /**
+     * Size in bytes of a record: id, indegree and outdegree.
+     */
+    private static final int RECORD_SIZE = 12;
+    /**
+     * Size of the stream buffer used to write the index file.
+     */
+    private static final int STREAM_BUFFER_SIZE = 1 << 16;
+    /**
+     * The index file.
+     */
+    private final File file;
+    /**
+     * The mapped index file.
+     */
+    private final MappedByteBuffer buffer;
+    /**
+     * Number of vertices.
+     */
+    private final int size;
+
+    /**
+     * Maps the given index file, then deletes it.
+     *
+     * @param file The index file
+     *
+     * @throws IOException
+     */
+    private VertexIndex(File file) throws IOException {
+        this.file = file;
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY,
+                                 0, channel.size());
+        } finally {
+            raf.close();
+        }
+        size = buffer.capacity() / RECORD_SIZE;
+        deleteFile();
+    }
+
+    /**
+     * Deletes the index file. The mapping stays readable until it is
+     * released, so graphs still using it are not affected.
+     */
+    private void deleteFile() {
+        if (!file.delete()) {
+            file.deleteOnExit();
+        }
+    }
+
+    /**
+     * Builds the vertex index of an edges table in a temporary file.
+     *
+     * @param dsf            Used to create the temporary files
+     * @param dataSet        The edges table
+     * @param startNodeIndex Index of the start node field
+     * @param endNodeIndex   Index of the end node field
+     * @param pm             Progress monitor
+     *
+     * @return The vertex index
+     *
+     * @throws DriverException If the table could not be read
+     * @throws IOException     If the index could not be written
+     */
+    public static VertexIndex build(DataSourceFactory dsf, DataSet dataSet,
+                                    int startNodeIndex, int endNodeIndex,
+                                    ProgressMonitor pm)
+            throws DriverException, IOException {
+        // Records (vertex, 1) for a tail and (vertex, 0) for a head.
+        ExternalRecordSorter endpoints = new ExternalRecordSorter(
+                dsf, 2, 1, ExternalRecordSorter.DEFAULT_BUFFER_RECORDS);
+        long rowCount = dataSet.getRowCount();
+        pm.startTask("Building the vertex index", 100);
+        try {
+            for (long i = 0; i < rowCount; i++) {
+                if (i % 10000 == 0) {
+                    pm.progressTo((int) (50 * i / rowCount));
+                }
+                endpoints.add(dataSet.getInt(i, startNodeIndex), 1);
+                endpoints.add(dataSet.getInt(i, endNodeIndex), 0);
+            }
+        } catch (IOException ex) {
+            endpoints.dispose();
+            throw ex;
+        } catch (DriverException ex) {
+            endpoints.dispose();
+            throw ex;
+        }
+        File file = new File(dsf.getTempFile());
+        ExternalRecordSorter.RecordIterator sorted = endpoints.sort();
+        try {
+            DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(file),
+                                             STREAM_BUFFER_SIZE));
+            try {
+                long[] record = new long[2];
+                boolean hasVertex = false;
+                long vertex = 0;
+                int inDegree = 0;
+                int outDegree = 0;
+                while (sorted.next(record)) {
+                    if (hasVertex && record[0] != vertex) {
+                        writeRecord(out, vertex, inDegree, outDegree);
+                        inDegree = 0;
+                        outDegree = 0;
+                    }
+                    hasVertex = true;
+                    vertex = record[0];
+                    if (record[1] == 1) {
+                        outDegree++;
+                    } else {
+                        inDegree++;
+                    }
+                }
+                if (hasVertex) {
+                    writeRecord(out, vertex, inDegree, outDegree);
+                }
+            } finally {
+                out.close();
+            }
+        } finally {
+            sorted.close();
+        }
+        pm.progressTo(100);
+        pm.endTask();
+        return new VertexIndex(file);
+    }
+
+    /**
+     * Writes a record of the index file.
+     */
+    private static void writeRecord(DataOutputStream out, long vertex,
+                                    int inDegree, int outDegree)
+            throws IOException {
+        out.writeInt((int) vertex);
+        out.writeInt(inDegree);
+        out.writeInt(outDegree);
+    }
+
+    /**
+     * Returns the number of vertices.
+     *
+     * @return The number of vertices
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the id of the vertex at the given position.
+     *
+     * @param position The position, between 0 and {@link #size()} - 1
+     *
+     * @return The vertex id
+     */
+    public int getVertex(int position) {
+        return buffer.getInt(position * RECORD_SIZE);
+    }
+
+    /**
+     * Returns the position of the given vertex in the index.
+     *
+     * @param vertex The vertex id
+     *
+     * @return Its position, or -1 if the vertex is not in the table
+     */
+    public int find(int vertex) {
+        int lo = 0;
+        int hi = size - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int id = getVertex(mid);
+            if (id < vertex) {
+                lo = mid + 1;
+            } else if (id > vertex) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the indegree of the given vertex.
+     *
+     * @param vertex The vertex id
+     *
+     * @return Its indegree, or 0 if the vertex is not in the table
+     */
+    public int inDegreeOf(int vertex) {
+        int position = find(vertex);
+        return position < 0 ? 0
+                : buffer.getInt(position * RECORD_SIZE + 4);
+    }
+
+    /**
+     * Returns the outdegree of the given vertex.
+     *
+     * @param vertex The vertex id
+     *
+     * @return Its outdegree, or 0 if the vertex is not in the table
+     */
+    public int outDegreeOf(int vertex) {
+        int position = find(vertex);
+        return position < 0 ? 0
+                : buffer.getInt(position * RECORD_SIZE + 8);
+    }
+
+    /**
+     * Returns the degree (indegree plus outdegree) of the given vertex.
+     *
+     * @param vertex The vertex id
+     *
+     * @return Its degree, or 0 if the vertex is not in the table
+     */
+    public int degreeOf(int vertex) {
+        int position = find(vertex);
+        return position < 0 ? 0
+                : buffer.getInt(position * RECORD_SIZE + 4)
+                + buffer.getInt(position * RECORD_SIZE + 8);
+    }
+
+    /**
+     * Returns an unmodifiable view of the vertices as a set.
+     *
+     * @return The vertex set
+     */
+    public Set<Integer> asSet() {
+        return new AbstractSet<Integer>() {
+            @Override
+            public boolean contains(Object o) {
+                return o instanceof Integer && find((Integer) o) >= 0;
+            }
+
+            @Override
+            public Iterator<Integer> iterator() {
+                return new Iterator<Integer>() {
+                    private int next = 0;
+
+                    @Override
+                    public boolean hasNext() {
+                        return next < size;
+                    }
+
+                    @Override
+                    public Integer next() {
+                        if (next >= size) {
+                            throw new NoSuchElementException();
+                        }
+                        return getVertex(next++);
+                    }
+
+                    @Override
+                    public void remove() {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    /**
+     * Returns the index file, which no longer exists once the index is
+     * mapped.
+     *
+     * @return The index file
+     */
+    public File getFile() {
+        return file;
+    }
+}
@@ -0,0 +1,81 @@
+/**
+ * GDMS-Topology is a library dedicated to graph analysis. It is based on the
+ * JGraphT library available at <http://www.jgrapht.org/>. It enables computing
+ * and processing large graphs using spatial and alphanumeric indexes.
+ *
+ * This version is developed at French IRSTV institut as part of the EvalPDU
+ * project, funded by the French Agence Nationale de la Recherche (ANR) under
+ * contract ANR-08-VILL-0005-01 and GEBD project funded by the French Ministery
+ * of Ecology and Sustainable Development.
+ *
+ * GDMS-Topology is distributed under GPL 3 license. It is produced by the
+ * "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR
+ * 2488.
+ *
+ * Copyright (C) 2009-2012 IRSTV (FR CNRS 2488)
+ *
+ * GDMS-Topology is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * GDMS-Topology is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * GDMS-Topology. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://wwwc.orbisgis.org/> or contact
+ * directly: info_at_ orbisgis.org
+ */
+package org.gdms.gdmstopology.parse;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A helper class to parse the comma-separated build options accepted by the
+ * graph construction functions, such as {@code 'parallel, external'}.
+ *
+ * @author Adam Gouge
+ */
+public final class BuildOptionsParser {
+
+    /**
+     * Empty constructor.
+     */
+    private BuildOptionsParser() {
+    }
+
+    /**
+     * Parses the given comma-separated options, ignoring case and blanks.
+     *
+     * @param options  The options string
+     * @param function The name of the function, for error messages
+     * @param allowed  The recognized options, in lower case
+     *
+     * @return The set of options found, in lower case
+     *
+     * @throws IllegalArgumentException If an option is not recognized.
+     */
+    public static Set<String> parseOptions(String options, String function,
+                                           String... allowed) {
+        List<String> recognized = Arrays.asList(allowed);
+        Set<String> found = new HashSet<String>();
+        for (String option : options.split(",")) {
+            String o = option.trim().toLowerCase();
+            if (recognized.contains(o)) {
+                found.add(o);
+            } else if (!o.isEmpty()) {
+                throw new IllegalArgumentException(
+                        "Unrecognized " + function + " option '" + o
+                        + "'. Possible options: " + recognized + ".");
+            }
+        }
+        return found;
+    }
+}
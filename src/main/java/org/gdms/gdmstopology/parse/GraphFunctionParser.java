@@ -40,6 +40,7 @@ import org.gdms.data.values.Value;
 import org.gdms.driver.DataSet;
 import org.gdms.driver.DriverException;
 import org.gdms.gdmstopology.function.ST_ShortestPathLength;
+import org.gdms.gdmstopology.model.GraphSchema;
 import static org.gdms.gdmstopology.function.ST_ShortestPathLength.DIRECTED;
 import static org.gdms.gdmstopology.function.ST_ShortestPathLength.REVERSED;
 import static org.gdms.gdmstopology.function.ST_ShortestPathLength.SEPARATOR;
@@ -101,6 +102,22 @@ public class GraphFunctionParser {
         return edgeOrientationColumnName;
     }
 
+    /**
+     * Returns the graph type given by the global orientation, directed by
+     * default.
+     *
+     * @return {@link GraphSchema#DIRECT}, {@link GraphSchema#DIRECT_REVERSED}
+     *         or {@link GraphSchema#UNDIRECT}
+     */
+    public int getGraphType() {
+        if (UNDIRECTED.equals(globalOrientation)) {
+            return GraphSchema.UNDIRECT;
+        } else if (REVERSED.equals(globalOrientation)) {
+            return GraphSchema.DIRECT_REVERSED;
+        }
+        return GraphSchema.DIRECT;
+    }
+
     /**
      * Parse the optional arguments.
      *
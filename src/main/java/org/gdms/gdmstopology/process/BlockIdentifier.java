@@ -0,0 +1,182 @@
+/**
+ * GDMS-Topology is a library dedicated to graph analysis. It is based on the
+ * JGraphT library available at <http://www.jgrapht.org/>. It enables computing
+ * and processing large graphs using spatial and alphanumeric indexes.
+ *
+ * This version is developed at French IRSTV institut as part of the EvalPDU
+ * project, funded by the French Agence Nationale de la Recherche (ANR) under
+ * contract ANR-08-VILL-0005-01 and GEBD project funded by the French Ministery
+ * of Ecology and Sustainable Development.
+ *
+ * GDMS-Topology is distributed under GPL 3 license. It is produced by the
+ * "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR
+ * 2488.
+ *
+ * Copyright (C) 2009-2012 IRSTV (FR CNRS 2488)
+ *
+ * GDMS-Topology is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * GDMS-Topology is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * GDMS-Topology. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://wwwc.orbisgis.org/> or contact
+ * directly: info_at_ orbisgis.org
+ */
+package org.gdms.gdmstopology.process;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.prep.PreparedGeometry;
+import com.vividsolutions.jts.geom.prep.PreparedGeometryFactory;
+import com.vividsolutions.jts.index.strtree.STRtree;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import org.gdms.driver.DriverException;
+import org.gdms.gdmstopology.utils.UnionFind;
+import org.orbisgis.progress.ProgressMonitor;
+
+/**
+ * Groups geometries into blocks of connected (touching or intersecting)
+ * geometries.
+ *
+ * <p> All envelopes are packed into an in-memory STR-tree. The geometries are
+ * split into chunks tested on several threads: each geometry is prepared and
+ * tested against the candidates of higher index returned by the tree. The
+ * touching pairs are then merged in a primitive union-find.
+ *
+ * @author Adam Gouge
+ */
+public class BlockIdentifier {
+
+    /**
+     * Number of geometries tested by a task.
+     */
+    private static final int CHUNK_SIZE = 1024;
+    /**
+     * Executor testing the candidate pairs.
+     */
+    private final TopologyExecutorService executor;
+
+    /**
+     * Constructs a new {@link BlockIdentifier}.
+     *
+     * @param executor The executor testing the candidate pairs
+     */
+    public BlockIdentifier(TopologyExecutorService executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Returns the block of each geometry. Blocks are numbered from 1 in order
+     * of their first geometry.
+     *
+     * @param geometries The geometries
+     * @param pm         Progress monitor
+     *
+     * @return The block id of each geometry, or null if the task was
+     *         cancelled
+     *
+     * @throws DriverException If a chunk could not be tested.
+     */
+    public int[] identifyBlocks(final Geometry[] geometries,
+                                ProgressMonitor pm) throws DriverException {
+        final int n = geometries.length;
+        final STRtree index = new STRtree();
+        for (int i = 0; i < n; i++) {
+            index.insert(geometries[i].getEnvelopeInternal(), i);
+        }
+        index.build();
+
+        UnionFind blocks = new UnionFind(n);
+        TopologyExecutorService.TaskGroup tasks = executor.newTaskGroup(pm);
+        try {
+            List<Future<int[]>> futures = new ArrayList<Future<int[]>>();
+            for (int from = 0; from < n; from += CHUNK_SIZE) {
+                final int start = from;
+                final int end = Math.min(n, from + CHUNK_SIZE);
+                futures.add(tasks.submit(new Callable<int[]>() {
+                    @Override
+                    public int[] call() {
+                        return touchingPairs(geometries, index, start, end);
+                    }
+                }));
+            }
+            int done = 0;
+            for (Future<int[]> f : futures) {
+                int[] pairs = tasks.get(f);
+                for (int k = 0; k < pairs.length; k += 2) {
+                    blocks.union(pairs[k], pairs[k + 1]);
+                }
+                pm.progressTo(100 * ++done / futures.size());
+                if (tasks.isCancelled()) {
+                    return null;
+                }
+            }
+        } catch (CancellationException ex) {
+            return null;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new DriverException("Interrupted while finding blocks.", ex);
+        } catch (ExecutionException ex) {
+            throw new DriverException("Could not test the geometries.",
+                                      ex.getCause());
+        } finally {
+            tasks.cancel();
+        }
+        return blocks.numberSets();
+    }
+
+    /**
+     * Returns the pairs (i, j), i in [start, end), j > i, of geometries at
+     * distance zero, flattened in an array.
+     *
+     * @param geometries The geometries
+     * @param index      Index of the geometry envelopes
+     * @param start      First geometry (inclusive)
+     * @param end        Last geometry (exclusive)
+     *
+     * @return The pairs
+     */
+    private static int[] touchingPairs(Geometry[] geometries, STRtree index,
+                                       int start, int end) {
+        int[] pairs = new int[64];
+        int size = 0;
+        for (int i = start; i < end; i++) {
+            Envelope env = geometries[i].getEnvelopeInternal();
+            PreparedGeometry prepared = null;
+            for (Object o : index.query(env)) {
+                int j = (Integer) o;
+                if (j > i) {
+                    if (prepared == null) {
+                        prepared = PreparedGeometryFactory.prepare(
+                                geometries[i]);
+                    }
+                    if (prepared.intersects(geometries[j])) {
+                        if (size + 2 > pairs.length) {
+                            int[] larger = new int[2 * pairs.length];
+                            System.arraycopy(pairs, 0, larger, 0, size);
+                            pairs = larger;
+                        }
+                        pairs[size++] = i;
+                        pairs[size++] = j;
+                    }
+                }
+            }
+        }
+        int[] result = new int[size];
+        System.arraycopy(pairs, 0, result, 0, size);
+        return result;
+    }
+}
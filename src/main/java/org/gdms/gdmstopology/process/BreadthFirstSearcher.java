@@ -0,0 +1,578 @@
+/**
+ * GDMS-Topology is a library dedicated to graph analysis. It is based on the
+ * JGraphT library available at <http://www.jgrapht.org/>. It enables computing
+ * and processing large graphs using spatial and alphanumeric indexes.
+ *
+ * This version is developed at French IRSTV institut as part of the EvalPDU
+ * project, funded by the French Agence Nationale de la Recherche (ANR) under
+ * contract ANR-08-VILL-0005-01 and GEBD project funded by the French Ministery
+ * of Ecology and Sustainable Development.
+ *
+ * GDMS-Topology is distributed under GPL 3 license. It is produced by the
+ * "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR
+ * 2488.
+ *
+ * Copyright (C) 2009-2012 IRSTV (FR CNRS 2488)
+ *
+ * GDMS-Topology is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * GDMS-Topology is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * GDMS-Topology. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://wwwc.orbisgis.org/> or contact
+ * directly: info_at_ orbisgis.org
+ */
+package org.gdms.gdmstopology.process;
+
+import java.util.Arrays;
+import org.gdms.data.schema.Metadata;
+import org.gdms.driver.DataSet;
+import org.gdms.driver.DriverException;
+import org.gdms.gdmstopology.graphcreator.GraphCreator;
+import org.gdms.gdmstopology.model.CompactGraph;
+import org.gdms.gdmstopology.model.GraphSchema;
+
+/**
+ * Breadth-first searches on the unweighted graph of an edges table, counting
+ * the hops from a source.
+ *
+ * <p> The searches are direction-optimizing: a level is expanded top-down,
+ * from the arcs leaving the frontier, while the frontier is small, and
+ * bottom-up, by looking for a parent in the frontier among the arcs
+ * entering each unvisited vertex, once the arcs leaving the frontier
+ * outnumber a fraction of the unexplored arcs. The frontier is kept both as
+ * a list and as a bitset, so that either step can follow the other. Both
+ * directions are stored in {@link CompactGraph}s.
+ *
+ * <p> A {@link MultiSearch} runs the searches of up to {@link #BATCH_SIZE}
+ * sources together, one bit of a {@code long} per source: each vertex of
+ * the shared frontier is expanded once for all the sources that reached it
+ * at this level.
+ *
+ * @author Adam Gouge
+ */
+public class BreadthFirstSearcher {
+
+    /**
+     * Switch to bottom-up steps when the arcs leaving the frontier exceed the
+     * unexplored arcs divided by this factor.
+     */
+    private static final int ALPHA = 14;
+    /**
+     * Switch back to top-down steps when the frontier holds fewer vertices
+     * than the vertex count divided by this factor.
+     */
+    private static final int BETA = 24;
+    /**
+     * The maximal number of sources of a {@link MultiSearch}.
+     */
+    public static final int BATCH_SIZE = 64;
+    /**
+     * The arcs leaving each vertex; the arc ids are row indices.
+     */
+    private final CompactGraph graph;
+    /**
+     * The arcs entering each vertex.
+     */
+    private final CompactGraph transpose;
+    /**
+     * The id of the edge of each row.
+     */
+    private final int[] edgeIds;
+
+    /**
+     * Receives the vertices reached by a {@link MultiSearch}, in order of
+     * hops.
+     */
+    public interface MultiSearchVisitor {
+
+        /**
+         * Receives a vertex reached from some sources.
+         *
+         * @param sources The sources that reached it, one bit per source in
+         *                the order given to the search
+         * @param vertex  The vertex index
+         * @param row     The row of the edge by which it was reached, or -1
+         *                for the sources themselves
+         * @param hops    The number of hops
+         *
+         * @return {@code false} to stop the search
+         */
+        boolean visit(long sources, int vertex, int row, int hops);
+    }
+
+    /**
+     * Reads the graph of the given edges table.
+     *
+     * @param edges             The edges table
+     * @param graphType         {@link GraphSchema#DIRECT},
+     *                          {@link GraphSchema#DIRECT_REVERSED} or
+     *                          {@link GraphSchema#UNDIRECT}
+     * @param orientationColumn The edge orientation column, or {@code null}
+     *
+     * @throws DriverException If the table could not be read.
+     */
+    public BreadthFirstSearcher(DataSet edges, int graphType,
+                                String orientationColumn)
+            throws DriverException {
+        Metadata md = edges.getMetadata();
+        int idIndex = md.getFieldIndex(GraphSchema.ID);
+        int startIndex = md.getFieldIndex(GraphSchema.START_NODE);
+        int endIndex = md.getFieldIndex(GraphSchema.END_NODE);
+        int orientationIndex = orientationColumn == null
+                ? -1 : md.getFieldIndex(orientationColumn);
+        int rowCount = (int) edges.getRowCount();
+        int[] startNodes = new int[rowCount];
+        int[] endNodes = new int[rowCount];
+        boolean[] forward = new boolean[rowCount];
+        boolean[] backward = new boolean[rowCount];
+        edgeIds = new int[rowCount];
+        for (int i = 0; i < rowCount; i++) {
+            edgeIds[i] = edges.getFieldValue(i, idIndex).getAsInt();
+            startNodes[i] = edges.getFieldValue(i, startIndex).getAsInt();
+            endNodes[i] = edges.getFieldValue(i, endIndex).getAsInt();
+            orient(graphType, orientationIndex == -1
+                    ? GraphCreator.DIRECTED_EDGE
+                    : edges.getFieldValue(i, orientationIndex).getAsInt(),
+                   i, forward, backward);
+        }
+        graph = new CompactGraph(startNodes, endNodes, new double[rowCount],
+                                 forward, backward);
+        transpose = graph.transpose();
+    }
+
+    /**
+     * Sets the directions in which an edge may be followed.
+     *
+     * @param graphType   The graph type
+     * @param orientation The orientation of the edge, as in
+     *                    {@link GraphCreator}
+     * @param row         The row of the edge
+     * @param forward     Whether each edge may be followed forward
+     * @param backward    Whether each edge may be followed backward
+     */
+    static void orient(int graphType, int orientation, int row,
+                       boolean[] forward, boolean[] backward) {
+        if (graphType == GraphSchema.UNDIRECT
+            || orientation == GraphCreator.UNDIRECTED_EDGE) {
+            forward[row] = true;
+            backward[row] = true;
+        } else if (orientation == GraphCreator.DIRECTED_EDGE) {
+            forward[row] = graphType != GraphSchema.DIRECT_REVERSED;
+            backward[row] = !forward[row];
+        } else if (orientation == GraphCreator.REVERSED_EDGE) {
+            backward[row] = graphType != GraphSchema.DIRECT_REVERSED;
+            forward[row] = !backward[row];
+        }
+    }
+
+    /**
+     * Returns the graph searched, whose arc ids are row indices.
+     *
+     * @return The graph
+     */
+    public CompactGraph getGraph() {
+        return graph;
+    }
+
+    /**
+     * Returns the id of the edge of the given row.
+     *
+     * @param row The row
+     *
+     * @return The edge id
+     */
+    public int getEdgeId(int row) {
+        return edgeIds[row];
+    }
+
+    /**
+     * Returns a new search, whose arrays are reused from one run to the next.
+     * A search may only be used by one thread at a time.
+     *
+     * @return The search
+     */
+    public Search newSearch() {
+        return new Search();
+    }
+
+    /**
+     * Returns a new multi-source search, whose arrays are reused from one run
+     * to the next. A search may only be used by one thread at a time.
+     *
+     * @return The search
+     */
+    public MultiSearch newMultiSearch() {
+        return new MultiSearch();
+    }
+
+    /**
+     * A breadth-first search and its result.
+     */
+    public final class Search {
+
+        private final int vertexCount = graph.getVertexCount();
+        private final int[] hops = new int[vertexCount];
+        private final int[] parent = new int[vertexCount];
+        private final int[] parentRow = new int[vertexCount];
+        private final long[] visited = new long[(vertexCount + 63) >>> 6];
+        private long[] frontier = new long[visited.length];
+        private long[] next = new long[visited.length];
+        /**
+         * The visited vertices in order; each level is a slice of it.
+         */
+        private final int[] order = new int[vertexCount];
+        private int visitedCount = 0;
+
+        private Search() {
+            Arrays.fill(hops, -1);
+        }
+
+        /**
+         * Runs a search from the given source.
+         *
+         * @param source  The source index
+         * @param maxHops The maximal number of hops
+         * @param targets The vertices after which the search may stop, or
+         *                {@code null} to visit every reachable vertex
+         */
+        public void run(int source, int maxHops, int[] targets) {
+            clear();
+            visit(source, 0, -1, -1);
+            clearBit(next, source);
+            setBit(frontier, source);
+            // Targets still to reach are marked by -2 hops.
+            int remaining = 0;
+            if (targets != null) {
+                for (int t : targets) {
+                    if (t != -1 && hops[t] == -1) {
+                        hops[t] = -2;
+                        remaining++;
+                    }
+                }
+            }
+            int levelStart = 0;
+            int levelEnd = visitedCount;
+            long unexplored = graph.getArcCount();
+            boolean bottomUp = false;
+            for (int level = 1; level <= maxHops && levelStart < levelEnd
+                                && (targets == null || remaining > 0);
+                 level++) {
+                long scout = 0;
+                for (int i = levelStart; i < levelEnd; i++) {
+                    int u = order[i];
+                    scout += graph.getEndArc(u) - graph.getFirstArc(u);
+                }
+                if (!bottomUp && scout > unexplored / ALPHA) {
+                    bottomUp = true;
+                } else if (bottomUp
+                           && levelEnd - levelStart < vertexCount / BETA) {
+                    bottomUp = false;
+                }
+                unexplored -= scout;
+                int found = bottomUp
+                        ? stepBottomUp(level)
+                        : stepTopDown(level, levelStart, levelEnd);
+                if (targets != null) {
+                    remaining -= found;
+                }
+                for (int i = levelStart; i < levelEnd; i++) {
+                    clearBit(frontier, order[i]);
+                }
+                long[] swap = frontier;
+                frontier = next;
+                next = swap;
+                levelStart = levelEnd;
+                levelEnd = visitedCount;
+            }
+            for (int i = levelStart; i < levelEnd; i++) {
+                clearBit(frontier, order[i]);
+            }
+            if (targets != null) {
+                for (int t : targets) {
+                    if (t != -1 && hops[t] == -2) {
+                        hops[t] = -1;
+                    }
+                }
+            }
+        }
+
+        /**
+         * Expands the frontier from the arcs leaving it.
+         *
+         * @return The number of targets found
+         */
+        private int stepTopDown(int level, int levelStart, int levelEnd) {
+            int found = 0;
+            for (int i = levelStart; i < levelEnd; i++) {
+                int u = order[i];
+                for (int a = graph.getFirstArc(u); a < graph.getEndArc(u);
+                     a++) {
+                    int v = graph.getHead(a);
+                    if (!getBit(visited, v)) {
+                        if (hops[v] == -2) {
+                            found++;
+                        }
+                        visit(v, level, u, graph.getEdgeId(a));
+                    }
+                }
+            }
+            return found;
+        }
+
+        /**
+         * Looks for a parent in the frontier for each unvisited vertex.
+         *
+         * @return The number of targets found
+         */
+        private int stepBottomUp(int level) {
+            int found = 0;
+            for (int w = 0; w < visited.length; w++) {
+                long unvisited = ~visited[w];
+                while (unvisited != 0) {
+                    int v = (w << 6) + Long.numberOfTrailingZeros(unvisited);
+                    unvisited &= unvisited - 1;
+                    if (v >= vertexCount) {
+                        break;
+                    }
+                    for (int r = transpose.getFirstArc(v);
+                         r < transpose.getEndArc(v); r++) {
+                        int u = transpose.getHead(r);
+                        if (getBit(frontier, u)) {
+                            if (hops[v] == -2) {
+                                found++;
+                            }
+                            visit(v, level, u, transpose.getEdgeId(r));
+                            break;
+                        }
+                    }
+                }
+            }
+            return found;
+        }
+
+        private void visit(int v, int level, int from, int row) {
+            setBit(visited, v);
+            setBit(next, v);
+            hops[v] = level;
+            parent[v] = from;
+            parentRow[v] = row;
+            order[visitedCount++] = v;
+        }
+
+        /**
+         * Forgets the previous run, in time proportional to its size.
+         */
+        private void clear() {
+            for (int i = 0; i < visitedCount; i++) {
+                int v = order[i];
+                hops[v] = -1;
+                clearBit(visited, v);
+                clearBit(next, v);
+            }
+            visitedCount = 0;
+        }
+
+        /**
+         * Returns the number of hops from the source to the given vertex.
+         *
+         * @param vertex The vertex index
+         *
+         * @return The number of hops, or -1 if it was not reached
+         */
+        public int getHops(int vertex) {
+            return hops[vertex];
+        }
+
+        /**
+         * Returns the vertex from which the given vertex was reached.
+         *
+         * @param vertex The vertex index
+         *
+         * @return The parent index, or -1 for the source
+         */
+        public int getParent(int vertex) {
+            return parent[vertex];
+        }
+
+        /**
+         * Returns the row of the edge by which the given vertex was reached.
+         *
+         * @param vertex The vertex index
+         *
+         * @return The row, or -1 for the source
+         */
+        public int getParentRow(int vertex) {
+            return parentRow[vertex];
+        }
+
+        /**
+         * Returns the rows of the edges of the path from the source to the
+         * given vertex, from the vertex back to the source.
+         *
+         * @param vertex The vertex index
+         *
+         * @return The rows, empty if the vertex was not reached
+         */
+        public int[] getPath(int vertex) {
+            int[] rows = new int[Math.max(0, hops[vertex])];
+            int v = vertex;
+            for (int i = 0; i < rows.length; i++) {
+                rows[i] = parentRow[v];
+                v = parent[v];
+            }
+            return rows;
+        }
+
+        /**
+         * Returns the number of vertices visited by the last run.
+         *
+         * @return The number of vertices visited
+         */
+        public int getVisitedCount() {
+            return visitedCount;
+        }
+
+        /**
+         * Returns a vertex visited by the last run, in order of hops.
+         *
+         * @param i The rank of the vertex, from 0 (the source)
+         *
+         * @return The vertex index
+         */
+        public int getVisited(int i) {
+            return order[i];
+        }
+    }
+
+    /**
+     * A breadth-first search from several sources at once.
+     */
+    public final class MultiSearch {
+
+        private final int vertexCount = graph.getVertexCount();
+        /**
+         * The sources that reached each vertex.
+         */
+        private final long[] seen = new long[vertexCount];
+        /**
+         * The sources that reached each vertex of the frontier at this level.
+         */
+        private long[] visit = new long[vertexCount];
+        private long[] visitNext = new long[vertexCount];
+        private int[] frontier = new int[vertexCount];
+        private int[] nextFrontier = new int[vertexCount];
+        /**
+         * The vertices reached by the last run.
+         */
+        private final int[] touched = new int[vertexCount];
+        private int touchedCount = 0;
+
+        private MultiSearch() {
+        }
+
+        /**
+         * Runs the searches of the given sources, giving each vertex to the
+         * visitor once per level for the sources that reached it first.
+         *
+         * @param sources The source indices, at most {@link #BATCH_SIZE};
+         *                -1 is ignored
+         * @param maxHops The maximal number of hops
+         * @param visitor Receives the vertices reached
+         */
+        public void run(int[] sources, int maxHops,
+                        MultiSearchVisitor visitor) {
+            if (sources.length > BATCH_SIZE) {
+                throw new IllegalArgumentException(
+                        "At most " + BATCH_SIZE + " sources per search.");
+            }
+            clear();
+            int frontierSize = 0;
+            for (int i = 0; i < sources.length; i++) {
+                int s = sources[i];
+                if (s != -1) {
+                    if (seen[s] == 0) {
+                        touched[touchedCount++] = s;
+                        frontier[frontierSize++] = s;
+                    }
+                    seen[s] |= 1L << i;
+                }
+            }
+            for (int i = 0; i < frontierSize; i++) {
+                int s = frontier[i];
+                visit[s] = seen[s];
+                if (!visitor.visit(seen[s], s, -1, 0)) {
+                    return;
+                }
+            }
+            for (int level = 1; level <= maxHops && frontierSize > 0;
+                 level++) {
+                int nextSize = 0;
+                for (int i = 0; i < frontierSize; i++) {
+                    int u = frontier[i];
+                    long mask = visit[u];
+                    visit[u] = 0;
+                    for (int a = graph.getFirstArc(u); a < graph.getEndArc(u);
+                         a++) {
+                        int v = graph.getHead(a);
+                        long reached = mask & ~seen[v];
+                        if (reached != 0) {
+                            if (seen[v] == 0) {
+                                touched[touchedCount++] = v;
+                            }
+                            if (visitNext[v] == 0) {
+                                nextFrontier[nextSize++] = v;
+                            }
+                            seen[v] |= reached;
+                            visitNext[v] |= reached;
+                            if (!visitor.visit(reached, v, graph.getEdgeId(a),
+                                               level)) {
+                                return;
+                            }
+                        }
+                    }
+                }
+                long[] swapMasks = visit;
+                visit = visitNext;
+                visitNext = swapMasks;
+                int[] swapVertices = frontier;
+                frontier = nextFrontier;
+                nextFrontier = swapVertices;
+                frontierSize = nextSize;
+            }
+        }
+
+        /**
+         * Forgets the previous run, in time proportional to its size.
+         */
+        private void clear() {
+            for (int i = 0; i < touchedCount; i++) {
+                int v = touched[i];
+                seen[v] = 0;
+                visit[v] = 0;
+                visitNext[v] = 0;
+            }
+            touchedCount = 0;
+        }
+    }
+
+    private static boolean getBit(long[] bits, int i) {
+        return (bits[i >>> 6] & (1L << i)) != 0;
+    }
+
+    private static void setBit(long[] bits, int i) {
+        bits[i >>> 6] |= 1L << i;
+    }
+
+    private static void clearBit(long[] bits, int i) {
+        bits[i >>> 6] &= ~(1L << i);
+    }
+}
@@ -0,0 +1,197 @@
+/**
+ * GDMS-Topology is a library dedicated to graph analysis. It is based on the
+ * JGraphT library available at <http://www.jgrapht.org/>. It enables computing
+ * and processing large graphs using spatial and alphanumeric indexes.
+ *
+ * This version is developed at French IRSTV institut as part of the EvalPDU
+ * project, funded by the French Agence Nationale de la Recherche (ANR) under
+ * contract ANR-08-VILL-0005-01 and GEBD project funded by the French Ministery
+ * of Ecology and Sustainable Development.
+ *
+ * GDMS-Topology is distributed under GPL 3 license. It is produced by the
+ * "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR
+ * 2488.
+ *
+ * Copyright (C) 2009-2012 IRSTV (FR CNRS 2488)
+ *
+ * GDMS-Topology is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * GDMS-Topology is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * GDMS-Topology. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://wwwc.orbisgis.org/> or contact
+ * directly: info_at_ orbisgis.org
+ */
+package org.gdms.gdmstopology.process;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import org.gdms.driver.DriverException;
+import org.gdms.gdmstopology.model.CompactGraph;
+import org.gdms.gdmstopology.utils.DistanceMatrixFile;
+import org.orbisgis.progress.ProgressMonitor;
+
+/**
+ * Computes the distances between every pair of a set of nodes.
+ *
+ * <p> The searches of several sources run concurrently on a
+ * {@link CompactGraph} through the {@link TopologyExecutorService}. Each
+ * search stops as soon as all its targets are settled. On a symmetric
+ * (undirected) graph, the search of the i-th node only targets the nodes
+ * after it and its distances are mirrored, so that every pair is computed
+ * once.
+ *
+ * @author Adam Gouge
+ */
+public class DistanceMatrixSearcher {
+
+    /**
+     * The graph.
+     */
+    private final CompactGraph graph;
+    /**
+     * Executor running the searches.
+     */
+    private final TopologyExecutorService executor;
+
+    /**
+     * Constructs a new {@link DistanceMatrixSearcher}.
+     *
+     * @param graph    The graph
+     * @param executor The executor running the searches
+     */
+    public DistanceMatrixSearcher(CompactGraph graph,
+                                  TopologyExecutorService executor) {
+        this.graph = graph;
+        this.executor = executor;
+    }
+
+    /**
+     * Computes the distance between every pair of the given nodes and stores
+     * it in the given matrix, whose rows and columns are the nodes in this
+     * order. The rows are written by the calling thread. Nodes not in the
+     * graph keep {@code NaN} distances.
+     *
+     * @param nodes     The node ids, without duplicates
+     * @param symmetric Whether the graph is symmetric (undirected)
+     * @param matrix    The matrix
+     * @param pm        Progress monitor
+     *
+     * @return {@code false} if the task was cancelled
+     *
+     * @throws DriverException If a search failed.
+     */
+    public boolean compute(final int[] nodes, final boolean symmetric,
+                           DistanceMatrixFile matrix, ProgressMonitor pm)
+            throws DriverException {
+        // The column of each vertex, or -1.
+        final int[] columns = new int[graph.getVertexCount()];
+        Arrays.fill(columns, -1);
+        for (int j = 0; j < nodes.length; j++) {
+            int v = graph.getIndex(nodes[j]);
+            if (v != -1) {
+                columns[v] = j;
+            }
+        }
+        final int window = 2 * executor.getParallelism();
+        TopologyExecutorService.TaskGroup tasks = executor.newTaskGroup(pm);
+        try {
+            ArrayDeque<Future<double[]>> pending =
+                    new ArrayDeque<Future<double[]>>();
+            int submitted = 0;
+            for (int i = 0; i < nodes.length; i++) {
+                while (submitted < nodes.length && pending.size() < window) {
+                    final int row = submitted++;
+                    pending.add(tasks.submit(new Callable<double[]>() {
+                        @Override
+                        public double[] call() {
+                            return search(nodes, row, columns, symmetric);
+                        }
+                    }));
+                }
+                double[] distances = tasks.get(pending.poll());
+                if (distances == null) {
+                    continue;
+                }
+                int first = symmetric ? i : 0;
+                for (int j = first; j < nodes.length; j++) {
+                    matrix.set(i, j, distances[j]);
+                    if (symmetric) {
+                        matrix.set(j, i, distances[j]);
+                    }
+                }
+                pm.progressTo(100 * (i + 1) / nodes.length);
+                if (tasks.isCancelled()) {
+                    return false;
+                }
+            }
+        } catch (CancellationException ex) {
+            return false;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new DriverException("Interrupted while searching.", ex);
+        } catch (ExecutionException ex) {
+            throw new DriverException("Could not search the graph.",
+                                      ex.getCause());
+        } finally {
+            tasks.cancel();
+        }
+        return true;
+    }
+
+    /**
+     * Searches from the node of the given row until all its targets are
+     * settled.
+     *
+     * @param nodes     The node ids
+     * @param row       The row of the source
+     * @param columns   The column of each vertex, or -1
+     * @param symmetric Whether only the columns after the row are targets
+     *
+     * @return The distance to each column (only those after the row if
+     *         symmetric), or {@code null} if the source is not in the graph
+     */
+    private double[] search(int[] nodes, final int row, final int[] columns,
+                            final boolean symmetric) {
+        int source = graph.getIndex(nodes[row]);
+        if (source == -1) {
+            return null;
+        }
+        final double[] result = new double[nodes.length];
+        Arrays.fill(result, Double.POSITIVE_INFINITY);
+        int targets = 0;
+        for (int j = symmetric ? row : 0; j < nodes.length; j++) {
+            if (graph.getIndex(nodes[j]) != -1) {
+                targets++;
+            } else {
+                result[j] = Double.NaN;
+            }
+        }
+        final int[] remaining = new int[]{targets};
+        graph.search(source, Double.POSITIVE_INFINITY,
+                     new CompactGraph.SearchVisitor() {
+            @Override
+            public boolean visit(int vertex, double distance) {
+                int column = columns[vertex];
+                if (column >= 0 && (!symmetric || column >= row)) {
+                    result[column] = distance;
+                    remaining[0]--;
+                }
+                return remaining[0] > 0;
+            }
+        });
+        return result;
+    }
+}
@@ -0,0 +1,432 @@
+/**
+ * GDMS-Topology is a library dedicated to graph analysis. It is based on the
+ * JGraphT library available at <http://www.jgrapht.org/>. It enables computing
+ * and processing large graphs using spatial and alphanumeric indexes.
+ *
+ * This version is developed at French IRSTV institut as part of the EvalPDU
+ * project, funded by the French Agence Nationale de la Recherche (ANR) under
+ * contract ANR-08-VILL-0005-01 and GEBD project funded by the French Ministery
+ * of Ecology and Sustainable Development.
+ *
+ * GDMS-Topology is distributed under GPL 3 license. It is produced by the
+ * "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR
+ * 2488.
+ *
+ * Copyright (C) 2009-2012 IRSTV (FR CNRS 2488)
+ *
+ * GDMS-Topology is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * GDMS-Topology is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * GDMS-Topology. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://wwwc.orbisgis.org/> or contact
+ * directly: info_at_ orbisgis.org
+ */
+package org.gdms.gdmstopology.process;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.index.strtree.STRtree;
+import com.vividsolutions.jts.linearref.LengthIndexedLine;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import org.gdms.data.schema.Metadata;
+import org.gdms.data.schema.MetadataUtilities;
+import org.gdms.driver.DataSet;
+import org.gdms.driver.DriverException;
+import org.gdms.gdmstopology.model.GraphSchema;
+import org.orbisgis.progress.ProgressMonitor;
+
+/**
+ * Snaps points onto the nearest edge of an edges table.
+ *
+ * <p> The edge geometries are read once and packed into an STR-tree, which
+ * can be reused to snap several sets of points onto the same edges. The points
+ * are snapped in chunks on several threads.
+ *
+ * <p> A point snapped strictly inside an edge becomes a virtual node which
+ * splits the edge; its id, {@code maxNodeId + 1 + point}, cannot clash with
+ * the nodes of the table. Points snapped at the same place of an edge share
+ * the id of the first one, and points snapped onto an endpoint take the id of
+ * that node.
+ *
+ * @author Adam Gouge
+ */
+public final class EdgeSnapper {
+
+    /**
+     * Number of points snapped by a task.
+     */
+    private static final int CHUNK_SIZE = 1024;
+    /**
+     * Index of the edge envelopes.
+     */
+    private final STRtree index = new STRtree();
+    /**
+     * The geometry of each edge, by row.
+     */
+    private final Geometry[] geometries;
+    /**
+     * The id of each edge, by row.
+     */
+    private final int[] edgeIds;
+    /**
+     * The start node of each edge, by row.
+     */
+    private final int[] startNodes;
+    /**
+     * The end node of each edge, by row.
+     */
+    private final int[] endNodes;
+    /**
+     * The largest node id.
+     */
+    private final int maxNodeId;
+    /**
+     * The largest edge id.
+     */
+    private final int maxEdgeId;
+
+    /**
+     * Reads and indexes the given edges table.
+     *
+     * @param edges The edges table
+     *
+     * @throws DriverException If the table could not be read.
+     */
+    public EdgeSnapper(DataSet edges) throws DriverException {
+        Metadata md = edges.getMetadata();
+        int geometryIndex = MetadataUtilities.getSpatialFieldIndex(md);
+        int idIndex = md.getFieldIndex(GraphSchema.ID);
+        int startNodeIndex = md.getFieldIndex(GraphSchema.START_NODE);
+        int endNodeIndex = md.getFieldIndex(GraphSchema.END_NODE);
+        if (idIndex == -1 || startNodeIndex == -1 || endNodeIndex == -1) {
+            throw new IllegalArgumentException(
+                    "The edges table must contain the fields "
+                    + GraphSchema.ID + ", " + GraphSchema.START_NODE
+                    + " and " + GraphSchema.END_NODE + ".");
+        }
+        int rowCount = (int) edges.getRowCount();
+        geometries = new Geometry[rowCount];
+        edgeIds = new int[rowCount];
+        startNodes = new int[rowCount];
+        endNodes = new int[rowCount];
+        int maxNode = 0;
+        int maxEdge = 0;
+        for (int i = 0; i < rowCount; i++) {
+            geometries[i] = edges.getGeometry(i, geometryIndex);
+            edgeIds[i] = edges.getFieldValue(i, idIndex).getAsInt();
+            startNodes[i] = edges.getFieldValue(i, startNodeIndex).getAsInt();
+            endNodes[i] = edges.getFieldValue(i, endNodeIndex).getAsInt();
+            maxNode = Math.max(maxNode,
+                               Math.max(startNodes[i], endNodes[i]));
+            maxEdge = Math.max(maxEdge, edgeIds[i]);
+            index.insert(geometries[i].getEnvelopeInternal(), i);
+        }
+        index.build();
+        maxNodeId = maxNode;
+        maxEdgeId = maxEdge;
+    }
+
+    /**
+     * Snaps each point onto the nearest edge within the given distance.
+     *
+     * @param points      The points
+     * @param maxDistance The maximal snapping distance
+     * @param executor    The executor snapping the chunks
+     * @param pm          Progress monitor
+     *
+     * @return The snap of each point, {@code null} for the points farther
+     *         than the maximal distance from every edge, or {@code null} if
+     *         the task was cancelled
+     *
+     * @throws DriverException If a chunk could not be snapped.
+     */
+    public Snap[] snap(final Geometry[] points, final double maxDistance,
+                       TopologyExecutorService executor, ProgressMonitor pm)
+            throws DriverException {
+        final Snap[] snaps = new Snap[points.length];
+        TopologyExecutorService.TaskGroup tasks = executor.newTaskGroup(pm);
+        try {
+            List<Future<Void>> futures = new ArrayList<Future<Void>>();
+            for (int from = 0; from < points.length; from += CHUNK_SIZE) {
+                final int start = from;
+                final int end = Math.min(points.length, from + CHUNK_SIZE);
+                futures.add(tasks.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        for (int i = start; i < end; i++) {
+                            snaps[i] = snap(points[i], maxDistance);
+                        }
+                        return null;
+                    }
+                }));
+            }
+            int done = 0;
+            for (Future<Void> f : futures) {
+                tasks.get(f);
+                pm.progressTo(100 * ++done / futures.size());
+                if (tasks.isCancelled()) {
+                    return null;
+                }
+            }
+        } catch (CancellationException ex) {
+            return null;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new DriverException("Interrupted while snapping.", ex);
+        } catch (ExecutionException ex) {
+            throw new DriverException("Could not snap the points.",
+                                      ex.getCause());
+        } finally {
+            tasks.cancel();
+        }
+        assignNodes(snaps);
+        return snaps;
+    }
+
+    /**
+     * Snaps a point onto the nearest edge within the given distance.
+     *
+     * @param point       The point
+     * @param maxDistance The maximal distance
+     *
+     * @return The snap, or {@code null}
+     */
+    private Snap snap(Geometry point, double maxDistance) {
+        if (point == null || point.isEmpty()) {
+            return null;
+        }
+        List<Snap> nearest = candidates(point.getCoordinate(), maxDistance, 1);
+        return nearest.isEmpty() ? null : nearest.get(0);
+    }
+
+    /**
+     * Snaps a coordinate onto each of the nearest edges within the given
+     * distance. The snaps have no node id.
+     *
+     * @param c           The coordinate
+     * @param maxDistance The maximal distance
+     * @param maxCount    The maximal number of edges
+     *
+     * @return The snaps, nearest first; at equal distances, by row
+     */
+    public List<Snap> candidates(Coordinate c, double maxDistance,
+                                 int maxCount) {
+        Envelope env = new Envelope(c);
+        env.expandBy(maxDistance);
+        List<Snap> snaps = new ArrayList<Snap>();
+        for (Object o : index.query(env)) {
+            int row = (Integer) o;
+            LengthIndexedLine line = new LengthIndexedLine(geometries[row]);
+            double position = line.project(c);
+            Coordinate p = line.extractPoint(position);
+            double d = p.distance(c);
+            if (d <= maxDistance) {
+                double length = geometries[row].getLength();
+                snaps.add(new Snap(row, length > 0 ? position / length : 0,
+                                   d, p));
+            }
+        }
+        Collections.sort(snaps, new Comparator<Snap>() {
+            @Override
+            public int compare(Snap a, Snap b) {
+                int byDistance = Double.compare(a.distance, b.distance);
+                if (byDistance != 0) {
+                    return byDistance;
+                }
+                return a.row < b.row ? -1 : a.row > b.row ? 1 : 0;
+            }
+        });
+        return snaps.size() > maxCount
+                ? new ArrayList<Snap>(snaps.subList(0, maxCount)) : snaps;
+    }
+
+    /**
+     * Gives each snap its node id.
+     *
+     * @param snaps The snaps, by point
+     */
+    private void assignNodes(final Snap[] snaps) {
+        List<Integer> order = new ArrayList<Integer>();
+        for (int i = 0; i < snaps.length; i++) {
+            if (snaps[i] != null) {
+                order.add(i);
+            }
+        }
+        // By edge, then position, then point.
+        Integer[] sorted = order.toArray(new Integer[order.size()]);
+        Arrays.sort(sorted, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                Snap sa = snaps[a];
+                Snap sb = snaps[b];
+                if (sa.row != sb.row) {
+                    return sa.row < sb.row ? -1 : 1;
+                }
+                int c = Double.compare(sa.fraction, sb.fraction);
+                return c != 0 ? c : a.compareTo(b);
+            }
+        });
+        Snap previous = null;
+        for (int i : sorted) {
+            Snap s = snaps[i];
+            if (s.fraction <= 0) {
+                s.node = startNodes[s.row];
+            } else if (s.fraction >= 1) {
+                s.node = endNodes[s.row];
+            } else if (previous != null && previous.row == s.row
+                       && previous.fraction == s.fraction) {
+                s.node = previous.node;
+            } else {
+                s.node = maxNodeId + 1 + i;
+            }
+            previous = s;
+        }
+    }
+
+    /**
+     * Returns the geometry of the edge of the given row.
+     *
+     * @param row The row
+     *
+     * @return The geometry
+     */
+    public Geometry getGeometry(int row) {
+        return geometries[row];
+    }
+
+    /**
+     * Returns the id of the edge of the given row.
+     *
+     * @param row The row
+     *
+     * @return The edge id
+     */
+    public int getEdgeId(int row) {
+        return edgeIds[row];
+    }
+
+    /**
+     * Returns the start node of the edge of the given row.
+     *
+     * @param row The row
+     *
+     * @return The start node id
+     */
+    public int getStartNode(int row) {
+        return startNodes[row];
+    }
+
+    /**
+     * Returns the end node of the edge of the given row.
+     *
+     * @param row The row
+     *
+     * @return The end node id
+     */
+    public int getEndNode(int row) {
+        return endNodes[row];
+    }
+
+    /**
+     * Returns the number of edges of the table.
+     *
+     * @return The number of rows
+     */
+    public int getRowCount() {
+        return geometries.length;
+    }
+
+    /**
+     * Returns the largest edge id of the table.
+     *
+     * @return The largest edge id
+     */
+    public int getMaxEdgeId() {
+        return maxEdgeId;
+    }
+
+    /**
+     * The snap of a point onto an edge.
+     */
+    public static final class Snap {
+
+        private final int row;
+        private final double fraction;
+        private final double distance;
+        private final Coordinate point;
+        private int node;
+
+        private Snap(int row, double fraction, double distance,
+                     Coordinate point) {
+            this.row = row;
+            this.fraction = fraction;
+            this.distance = distance;
+            this.point = point;
+        }
+
+        /**
+         * Returns the row of the edge in the edges table.
+         *
+         * @return The row
+         */
+        public int getRow() {
+            return row;
+        }
+
+        /**
+         * Returns the position of the snapped point along the edge, as a
+         * fraction of its length from its start.
+         *
+         * @return The fraction, in [0, 1]
+         */
+        public double getFraction() {
+            return fraction;
+        }
+
+        /**
+         * Returns the distance from the point to the edge.
+         *
+         * @return The distance
+         */
+        public double getDistance() {
+            return distance;
+        }
+
+        /**
+         * Returns the snapped point.
+         *
+         * @return The snapped point
+         */
+        public Coordinate getPoint() {
+            return point;
+        }
+
+        /**
+         * Returns the id of the node of the snapped point: an endpoint of the
+         * edge or a virtual node splitting it.
+         *
+         * @return The node id
+         */
+        public int getNode() {
+            return node;
+        }
+    }
+}
@@ -0,0 +1,482 @@
+/**
+ * GDMS-Topology is a library dedicated to graph analysis. It is based on the
+ * JGraphT library available at <http://www.jgrapht.org/>. It enables computing
+ * and processing large graphs using spatial and alphanumeric indexes.
+ *
+ * This version is developed at French IRSTV institut as part of the EvalPDU
+ * project, funded by the French Agence Nationale de la Recherche (ANR) under
+ * contract ANR-08-VILL-0005-01 and GEBD project funded by the French Ministery
+ * of Ecology and Sustainable Development.
+ *
+ * GDMS-Topology is distributed under GPL 3 license. It is produced by the
+ * "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR
+ * 2488.
+ *
+ * Copyright (C) 2009-2012 IRSTV (FR CNRS 2488)
+ *
+ * GDMS-Topology is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * GDMS-Topology is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * GDMS-Topology. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://wwwc.orbisgis.org/> or contact
+ * directly: info_at_ orbisgis.org
+ */
+package org.gdms.gdmstopology.process;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import org.gdms.data.DataSourceFactory;
+
+/**
+ * Sorts fixed-width records of {@code long}s that may not fit in memory.
+ *
+ * <p> Records are buffered in memory and, whenever the buffer is full, sorted
+ * and written to a run file. {@link #sort} then merges the runs, at most
+ * {@link #MAX_FAN_IN} at a time: while there are more runs, groups of them
+ * are merged into longer runs, so that the number of open files and of
+ * stream buffers stays bounded. All disk accesses are sequential.
+ *
+ * <p> Records are compared field by field on their first {@code keyWidth}
+ * fields.
+ *
+ * @author Adam Gouge
+ */
+public class ExternalRecordSorter {
+
+    /**
+     * Default number of records held in memory before a run is written.
+     */
+    public static final int DEFAULT_BUFFER_RECORDS = 1 << 20;
+    /**
+     * Maximal number of runs merged at once.
+     */
+    public static final int MAX_FAN_IN = 64;
+    /**
+     * Size of the stream buffers used to read and write the runs.
+     */
+    private static final int STREAM_BUFFER_SIZE = 1 << 16;
+    /**
+     * Under this size, ranges are sorted by insertion.
+     */
+    private static final int INSERTION_SORT_THRESHOLD = 16;
+    /**
+     * Used to create the temporary run files.
+     */
+    private final DataSourceFactory dsf;
+    /**
+     * Number of fields in a record.
+     */
+    private final int width;
+    /**
+     * Number of fields used as the sort key.
+     */
+    private final int keyWidth;
+    /**
+     * In-memory buffer of records.
+     */
+    private final long[] buffer;
+    /**
+     * Maximal number of records in the buffer.
+     */
+    private final int capacity;
+    /**
+     * Number of records in the buffer.
+     */
+    private int size = 0;
+    /**
+     * The run files written so far.
+     */
+    private final List<File> runs = new ArrayList<File>();
+
+    /**
+     * Constructs a new {@link ExternalRecordSorter}.
+     *
+     * @param dsf       Used to create the temporary run files
+     * @param width     Number of fields in a record
+     * @param keyWidth  Number of fields used as the sort key
+     * @param capacity  Number of records held in memory before a run is
+     *                  written
+     */
+    public ExternalRecordSorter(DataSourceFactory dsf, int width,
+                                int keyWidth, int capacity) {
+        if (keyWidth < 1 || keyWidth > width) {
+            throw new IllegalArgumentException(
+                    "The key must contain between 1 and " + width
+                    + " fields.");
+        }
+        this.dsf = dsf;
+        this.width = width;
+        this.keyWidth = keyWidth;
+        this.capacity = Math.max(1, capacity);
+        this.buffer = new long[this.capacity * width];
+    }
+
+    /**
+     * Adds a record. The array may be reused by the caller.
+     *
+     * @param record The record, of length {@code width}
+     *
+     * @throws IOException If a run could not be written
+     */
+    public void add(long... record) throws IOException {
+        if (size == capacity) {
+            writeRun();
+        }
+        System.arraycopy(record, 0, buffer, size * width, width);
+        size++;
+    }
+
+    /**
+     * Adds a record of two fields.
+     *
+     * @param a The first field
+     * @param b The second field
+     *
+     * @throws IOException If a run could not be written
+     */
+    public void add(long a, long b) throws IOException {
+        if (size == capacity) {
+            writeRun();
+        }
+        int offset = size * width;
+        buffer[offset] = a;
+        buffer[offset + 1] = b;
+        size++;
+    }
+
+    /**
+     * Adds a record of four fields.
+     *
+     * @param a The first field
+     * @param b The second field
+     * @param c The third field
+     * @param d The fourth field
+     *
+     * @throws IOException If a run could not be written
+     */
+    public void add(long a, long b, long c, long d) throws IOException {
+        if (size == capacity) {
+            writeRun();
+        }
+        int offset = size * width;
+        buffer[offset] = a;
+        buffer[offset + 1] = b;
+        buffer[offset + 2] = c;
+        buffer[offset + 3] = d;
+        size++;
+    }
+
+    /**
+     * Sorts all the records added so far and returns an iterator over them.
+     * The sorter may not be used afterwards; the iterator must be closed in
+     * order to delete the run files.
+     *
+     * @return An iterator over the sorted records
+     *
+     * @throws IOException If the runs could not be written or read
+     */
+    public RecordIterator sort() throws IOException {
+        if (size > 0) {
+            writeRun();
+        }
+        while (runs.size() > MAX_FAN_IN) {
+            mergePass();
+        }
+        return new MergeIterator(new ArrayList<File>(runs));
+    }
+
+    /**
+     * Merges the runs by groups of {@link #MAX_FAN_IN} into longer runs.
+     *
+     * @throws IOException If the runs could not be read or written
+     */
+    private void mergePass() throws IOException {
+        List<File> inputs = new ArrayList<File>(runs);
+        List<File> merged = new ArrayList<File>();
+        try {
+            for (int from = 0; from < inputs.size(); from += MAX_FAN_IN) {
+                List<File> group = new ArrayList<File>(inputs.subList(
+                        from, Math.min(from + MAX_FAN_IN, inputs.size())));
+                File run = new File(dsf.getTempFile());
+                merged.add(run);
+                MergeIterator it = new MergeIterator(group);
+                try {
+                    DataOutputStream out = new DataOutputStream(
+                            new BufferedOutputStream(new FileOutputStream(run),
+                                                     STREAM_BUFFER_SIZE));
+                    try {
+                        long[] record = new long[width];
+                        while (it.next(record)) {
+                            for (int f = 0; f < width; f++) {
+                                out.writeLong(record[f]);
+                            }
+                        }
+                    } finally {
+                        out.close();
+                    }
+                } finally {
+                    it.close();
+                }
+            }
+        } catch (IOException ex) {
+            for (File run : merged) {
+                run.delete();
+            }
+            throw ex;
+        }
+        runs.clear();
+        runs.addAll(merged);
+    }
+
+    /**
+     * Deletes the run files written so far without sorting them.
+     */
+    public void dispose() {
+        for (File run : runs) {
+            run.delete();
+        }
+        runs.clear();
+        size = 0;
+    }
+
+    /**
+     * Sorts the buffer and writes it to a new run file.
+     *
+     * @throws IOException
+     */
+    private void writeRun() throws IOException {
+        int[] order = new int[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        sort(order, 0, size - 1);
+        File run = new File(dsf.getTempFile());
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(run), STREAM_BUFFER_SIZE));
+        try {
+            for (int i = 0; i < size; i++) {
+                int offset = order[i] * width;
+                for (int f = 0; f < width; f++) {
+                    out.writeLong(buffer[offset + f]);
+                }
+            }
+        } finally {
+            out.close();
+        }
+        runs.add(run);
+        size = 0;
+    }
+
+    /**
+     * Compares the buffered records a and b on their key.
+     */
+    private int compareBuffered(int a, int b) {
+        return compare(buffer, a * width, buffer, b * width);
+    }
+
+    /**
+     * Compares two records on their key.
+     *
+     * @param r1 Array holding the first record
+     * @param o1 Offset of the first record
+     * @param r2 Array holding the second record
+     * @param o2 Offset of the second record
+     *
+     * @return A negative integer, zero or a positive integer as the first
+     *         record is less than, equal to, or greater than the second.
+     */
+    private int compare(long[] r1, int o1, long[] r2, int o2) {
+        for (int f = 0; f < keyWidth; f++) {
+            long a = r1[o1 + f];
+            long b = r2[o2 + f];
+            if (a != b) {
+                return a < b ? -1 : 1;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Sorts the given range of buffered record indices by quicksort, recursing
+     * on the smaller part to keep the stack shallow.
+     *
+     * @param order Record indices
+     * @param lo    First position (inclusive)
+     * @param hi    Last position (inclusive)
+     */
+    private void sort(int[] order, int lo, int hi) {
+        while (hi - lo > INSERTION_SORT_THRESHOLD) {
+            int pivot = order[lo + (hi - lo) / 2];
+            int i = lo;
+            int j = hi;
+            while (i <= j) {
+                while (compareBuffered(order[i], pivot) < 0) {
+                    i++;
+                }
+                while (compareBuffered(order[j], pivot) > 0) {
+                    j--;
+                }
+                if (i <= j) {
+                    int tmp = order[i];
+                    order[i++] = order[j];
+                    order[j--] = tmp;
+                }
+            }
+            if (j - lo < hi - i) {
+                sort(order, lo, j);
+                lo = i;
+            } else {
+                sort(order, i, hi);
+                hi = j;
+            }
+        }
+        for (int i = lo + 1; i <= hi; i++) {
+            int r = order[i];
+            int j = i - 1;
+            while (j >= lo && compareBuffered(order[j], r) > 0) {
+                order[j + 1] = order[j];
+                j--;
+            }
+            order[j + 1] = r;
+        }
+    }
+
+    /**
+     * Iterates over sorted records.
+     */
+    public interface RecordIterator {
+
+        /**
+         * Reads the next record into the given array.
+         *
+         * @param record Array of length {@code width} receiving the record
+         *
+         * @return False iff there are no more records
+         *
+         * @throws IOException
+         */
+        boolean next(long[] record) throws IOException;
+
+        /**
+         * Closes the iterator and deletes the run files.
+         */
+        void close();
+    }
+
+    /**
+     * Sequential reader of a single run file.
+     */
+    private final class RunReader {
+
+        private final DataInputStream in;
+        private final long[] current = new long[width];
+
+        RunReader(File run) throws IOException {
+            in = new DataInputStream(new BufferedInputStream(
+                    new FileInputStream(run), STREAM_BUFFER_SIZE));
+        }
+
+        /**
+         * Advances to the next record of the run.
+         *
+         * @return False iff the run is exhausted
+         */
+        boolean advance() throws IOException {
+            try {
+                for (int f = 0; f < width; f++) {
+                    current[f] = in.readLong();
+                }
+                return true;
+            } catch (EOFException ex) {
+                return false;
+            }
+        }
+
+        void close() {
+            try {
+                in.close();
+            } catch (IOException ex) {
+                // Nothing left to read.
+            }
+        }
+    }
+
+    /**
+     * K-way merge of run files, which are deleted when it is closed.
+     */
+    private final class MergeIterator implements RecordIterator {
+
+        private final PriorityQueue<RunReader> queue;
+        private final List<RunReader> readers = new ArrayList<RunReader>();
+        private final List<File> merged;
+
+        MergeIterator(List<File> merged) throws IOException {
+            this.merged = merged;
+            queue = new PriorityQueue<RunReader>(
+                    Math.max(1, merged.size()),
+                    new Comparator<RunReader>() {
+                @Override
+                public int compare(RunReader a, RunReader b) {
+                    return ExternalRecordSorter.this.compare(
+                            a.current, 0, b.current, 0);
+                }
+            });
+            try {
+                for (File run : merged) {
+                    RunReader reader = new RunReader(run);
+                    readers.add(reader);
+                    if (reader.advance()) {
+                        queue.add(reader);
+                    }
+                }
+            } catch (IOException ex) {
+                close();
+                throw ex;
+            }
+        }
+
+        @Override
+        public boolean next(long[] record) throws IOException {
+            RunReader reader = queue.poll();
+            if (reader == null) {
+                return false;
+            }
+            System.arraycopy(reader.current, 0, record, 0, width);
+            if (reader.advance()) {
+                queue.add(reader);
+            }
+            return true;
+        }
+
+        @Override
+        public void close() {
+            for (RunReader reader : readers) {
+                reader.close();
+            }
+            for (File run : merged) {
+                run.delete();
+            }
+            runs.removeAll(merged);
+        }
+    }
+}
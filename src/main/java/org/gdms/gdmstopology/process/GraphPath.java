@@ -332,6 +332,10 @@ public class GraphPath extends GraphAnalysis {
             count++;
 
             if (!visitedSources.contains(source)) {
+                if (!graph.containsVertex(source)) {
+                    throw new GraphException(
+                            "The graph must contain the source vertex");
+                }
                 cl = new ClosestFirstIterator<Integer, GraphEdge>(graph, source);
                 targets = getTargets(dsf, nodes, source);
                 int targetsNumber = targets.size();
@@ -515,7 +519,42 @@ public class GraphPath extends GraphAnalysis {
      * @throws DriverException
      */
     public static DiskBufferDriver getMShortestPath(DataSourceFactory dsf, DataSet dataSet, DataSet nodes, String costField, int graphType, ProgressMonitor pm) throws GraphException, DriverException {
+        return getMShortestPath(dsf, dataSet, nodes, costField, graphType, false, pm);
+    }
+
+    /**
+     * Return all shortest paths from a set of start and target nodes. The
+     * dataset that contains all nodes must following the schema : id (int or
+     * long), source (int or long) ,target(int or long)
+     *
+     * In parallel mode, the graph is read into a {@link MappedAdjacencyGraph}
+     * and the requests are grouped by source and searched concurrently (see
+     * {@link MultiSourceSearcher}).
+     *
+     * @param dsf
+     * @param dataSet
+     * @param nodes
+     * @param costField
+     * @param graphType
+     * @param parallel
+     * @param pm
+     * @return
+     * @throws GraphException
+     * @throws DriverException
+     */
+    public static DiskBufferDriver getMShortestPath(DataSourceFactory dsf, DataSet dataSet, DataSet nodes, String costField, int graphType, boolean parallel, ProgressMonitor pm) throws GraphException, DriverException {
         if (checkMetadata(nodes)) {
+            if (parallel) {
+                MappedAdjacencyGraph graph = new MappedAdjacencyGraph(dsf, dataSet, costField, pm);
+                try {
+                    MultiSourceSearcher searcher = new MultiSourceSearcher(
+                            graph, graphType, TopologyExecutorService.getShared());
+                    return searcher.findPaths(dsf, MultiSourceSearcher.groupBySource(
+                            nodes, ID_FIELD_INDEX, SOURCE_FIELD_INDEX, TARGET_FIELD_INDEX), pm);
+                } finally {
+                    graph.close();
+                }
+            }
             if (graphType == GraphSchema.DIRECT) {
                 DWMultigraphDataSource dwMultigraphDataSource = new DWMultigraphDataSource(dsf, dataSet, pm);
                 dwMultigraphDataSource.setWeightFieldIndex(costField);
@@ -31,6 +31,7 @@
 package org.gdms.gdmstopology.process;
 
 import com.vividsolutions.jts.geom.Geometry;
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
@@ -40,6 +41,7 @@ import org.gdms.data.values.ValueFactory;
 import org.gdms.driver.DataSet;
 import org.gdms.driver.DiskBufferDriver;
 import org.gdms.driver.DriverException;
+import org.gdms.gdmstopology.model.CompactGraph;
 import org.gdms.gdmstopology.model.DWMultigraphDataSource;
 import org.gdms.gdmstopology.model.EdgeReversedGraphDataSource;
 import org.gdms.gdmstopology.model.GDMSValueGraph;
@@ -47,6 +49,7 @@ import org.gdms.gdmstopology.model.GraphEdge;
 import org.gdms.gdmstopology.model.GraphException;
 import org.gdms.gdmstopology.model.GraphMetadataFactory;
 import org.gdms.gdmstopology.model.GraphSchema;
+import org.gdms.gdmstopology.model.MappedAdjacencyGraph;
 import org.gdms.gdmstopology.model.WMultigraphDataSource;
 import org.jgrapht.alg.ConnectivityInspector;
 import org.jgrapht.graph.Subgraph;
@@ -162,6 +165,45 @@ public class GraphUtilities extends GraphAnalysis {
          * @throws DriverException 
          */
         public static DiskBufferDriver getMReachableEdges(DataSourceFactory dsf, DataSet dataSet, DataSet nodes, String costField, double radius, int graphType, ProgressMonitor pm) throws GraphException, DriverException {
+                return getMReachableEdges(dsf, dataSet, nodes, costField, radius, graphType, false, pm);
+        }
+
+        /**
+         * Return all reachable edges from several nodes.
+         * A radius can be used to limit the area.
+         * 
+         * In parallel mode, the graph is read into a {@link MappedAdjacencyGraph}
+         * and the sources are searched concurrently (see
+         * {@link MultiSourceSearcher}). The result is the same as in
+         * sequential mode, or {@code null} if the task was cancelled.
+         * 
+         * @param dsf
+         * @param dataSet
+         * @param nodes
+         * @param costField
+         * @param radius
+         * @param graphType
+         * @param parallel
+         * @param pm
+         * @return
+         * @throws GraphException
+         * @throws DriverException 
+         */
+        public static DiskBufferDriver getMReachableEdges(DataSourceFactory dsf, DataSet dataSet, DataSet nodes, String costField, double radius, int graphType, boolean parallel, ProgressMonitor pm) throws GraphException, DriverException {
+                if (parallel && checkSourceColumn(nodes)) {
+                        MappedAdjacencyGraph graph = new MappedAdjacencyGraph(dsf, dataSet, costField, pm);
+                        try {
+                                MultiSourceSearcher searcher = new MultiSourceSearcher(
+                                        graph, graphType, TopologyExecutorService.getShared());
+                                List<Integer> sources = new ArrayList<Integer>();
+                                for (Value[] row : nodes) {
+                                        sources.add(row[SOURCE_FIELD_INDEX].getAsInt());
+                                }
+                                return searcher.findReachableEdges(dsf, sources, Double.POSITIVE_INFINITY, pm);
+                        } finally {
+                                graph.close();
+                        }
+                }
                 if (graphType == GraphSchema.DIRECT) {
                         DWMultigraphDataSource dwMultigraphDataSource = new DWMultigraphDataSource(dsf, dataSet, pm);
                         dwMultigraphDataSource.setWeightFieldIndex(costField);
@@ -240,6 +282,97 @@ public class GraphUtilities extends GraphAnalysis {
                 }
         }
 
+        /**
+         * Return all reachable edges from several nodes, counting the hops
+         * instead of the costs.
+         *
+         * The edges are read into a {@link BreadthFirstSearcher} and the sources
+         * are searched {@link BreadthFirstSearcher#BATCH_SIZE} at a time by a
+         * bit-parallel breadth-first search. The rows of a batch of sources are
+         * written in order of hops; each edge has weight 1.
+         *
+         * @param dsf
+         * @param dataSet
+         * @param nodes
+         * @param graphType
+         * @param pm
+         * @return the reachable edges, or null if the search was cancelled
+         * @throws GraphException
+         * @throws DriverException
+         */
+        public static DiskBufferDriver findMReachableEdgesByHops(DataSourceFactory dsf, final DataSet dataSet, DataSet nodes, int graphType, ProgressMonitor pm) throws GraphException, DriverException {
+                if (graphType != GraphSchema.DIRECT && graphType != GraphSchema.DIRECT_REVERSED
+                        && graphType != GraphSchema.UNDIRECT) {
+                        throw new GraphException("Only 3 type of graphs are allowed."
+                                + "1 if the path is computing using a directed graph.\n"
+                                + "2 if the path is computing using a directed graph and edges are reversed\n"
+                                + "3 if the path is computing using a undirected.");
+                }
+                if (!checkSourceColumn(nodes)) {
+                        throw new GraphException("The table nodes must contains the column source");
+                }
+                BreadthFirstSearcher searcher = new BreadthFirstSearcher(dataSet, graphType, null);
+                CompactGraph graph = searcher.getGraph();
+                List<Integer> sources = new ArrayList<Integer>();
+                for (Value[] row : nodes) {
+                        int source = row[SOURCE_FIELD_INDEX].getAsInt();
+                        if (graph.getIndex(source) == -1) {
+                                throw new GraphException(
+                                        "The graph must contain the source vertex");
+                        }
+                        sources.add(source);
+                }
+                final DiskBufferDriver diskBufferDriver = new DiskBufferDriver(dsf, GraphMetadataFactory.createMReachableEdgesMetadata());
+                final int geomIndex = dataSet.getSpatialFieldIndex();
+                final Value one = ValueFactory.createValue(1.0);
+                BreadthFirstSearcher.MultiSearch search = searcher.newMultiSearch();
+                final int batchSize = BreadthFirstSearcher.BATCH_SIZE;
+                pm.startTask("Find reachable edges", 100);
+                for (int start = 0; start < sources.size(); start += batchSize) {
+                        if (pm.isCancelled()) {
+                                pm.endTask();
+                                return null;
+                        }
+                        final List<Integer> batch = sources.subList(start, Math.min(start + batchSize, sources.size()));
+                        int[] indices = new int[batch.size()];
+                        for (int i = 0; i < indices.length; i++) {
+                                indices[i] = graph.getIndex(batch.get(i));
+                        }
+                        final DriverException[] error = new DriverException[1];
+                        search.run(indices, Integer.MAX_VALUE, new BreadthFirstSearcher.MultiSearchVisitor() {
+                                @Override
+                                public boolean visit(long reached, int vertex, int row, int hops) {
+                                        if (hops == 0) {
+                                                return true;
+                                        }
+                                        try {
+                                                Value geom = ValueFactory.createValue(dataSet.getGeometry(row, geomIndex));
+                                                Value id = ValueFactory.createValue(row);
+                                                Value distance = ValueFactory.createValue((double) hops);
+                                                while (reached != 0) {
+                                                        int i = Long.numberOfTrailingZeros(reached);
+                                                        reached &= reached - 1;
+                                                        diskBufferDriver.addValues(new Value[]{geom, id,
+                                                                        ValueFactory.createValue(batch.get(i)), one, distance});
+                                                }
+                                                return true;
+                                        } catch (DriverException ex) {
+                                                error[0] = ex;
+                                                return false;
+                                        }
+                                }
+                        });
+                        if (error[0] != null) {
+                                throw error[0];
+                        }
+                        pm.progressTo(100 * (start + batch.size()) / sources.size());
+                }
+                diskBufferDriver.writingFinished();
+                diskBufferDriver.close();
+                pm.endTask();
+                return diskBufferDriver;
+        }
+
         public List findConnectedNodeSets(DWMultigraphDataSource dWMultigraphDataSource) {
                 ConnectivityInspector connectivityInspector = new ConnectivityInspector(dWMultigraphDataSource);
                 return connectivityInspector.connectedSets();
@@ -0,0 +1,491 @@
+/**
+ * GDMS-Topology is a library dedicated to graph analysis. It is based on the
+ * JGraphT library available at <http://www.jgrapht.org/>. It enables computing
+ * and processing large graphs using spatial and alphanumeric indexes.
+ *
+ * This version is developed at French IRSTV institut as part of the EvalPDU
+ * project, funded by the French Agence Nationale de la Recherche (ANR) under
+ * contract ANR-08-VILL-0005-01 and GEBD project funded by the French Ministery
+ * of Ecology and Sustainable Development.
+ *
+ * GDMS-Topology is distributed under GPL 3 license. It is produced by the
+ * "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR
+ * 2488.
+ *
+ * Copyright (C) 2009-2012 IRSTV (FR CNRS 2488)
+ *
+ * GDMS-Topology is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * GDMS-Topology is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * GDMS-Topology. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://wwwc.orbisgis.org/> or contact
+ * directly: info_at_ orbisgis.org
+ */
+package org.gdms.gdmstopology.process;
+
+import com.vividsolutions.jts.algorithm.CGAlgorithms;
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LinearRing;
+import com.vividsolutions.jts.geom.Polygon;
+import com.vividsolutions.jts.index.strtree.STRtree;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.gdms.gdmstopology.utils.UnionFind;
+
+/**
+ * Derives the faces of a planar graph and the left and right face of each
+ * edge from a half-edge (doubly connected edge list) traversal.
+ *
+ * <p> Every edge {@code e} gives two half-edges: {@code 2e} follows the edge
+ * geometry from its start node and {@code 2e + 1} goes back from its end
+ * node. Around each node the outgoing half-edges are sorted by angle; the
+ * half-edge following {@code h} is the one leaving the destination of
+ * {@code h} just clockwise of the twin of {@code h}. Following these links
+ * walks every face boundary with the face on the left, so counter-clockwise
+ * cycles are face shells and clockwise cycles are holes or the outer boundary
+ * of the graph.
+ *
+ * <p> As the JTS polygonizer does, dangling edges and cut edges (whose two
+ * half-edges lie on the same cycle) are left out of the polygons; they get
+ * the face they lie in on both sides. The traversal is linear in the number
+ * of edges, apart from sorting the edges around each node and locating the
+ * face containing each hole.
+ *
+ * @author Adam Gouge
+ */
+public class HalfEdgeTopologyBuilder {
+
+    /**
+     * Face id given to the outside of every polygon.
+     */
+    public static final int NO_FACE = -1;
+    /**
+     * Used to create the polygons.
+     */
+    private static final GeometryFactory GF = new GeometryFactory();
+    /**
+     * The edge geometries.
+     */
+    private final List<Geometry> edges;
+    /**
+     * Start node of each edge.
+     */
+    private final int[] startNodes;
+    /**
+     * End node of each edge.
+     */
+    private final int[] endNodes;
+    /**
+     * Coordinates of each edge.
+     */
+    private final Coordinate[][] coordinates;
+    /**
+     * Angle of each half-edge at its origin.
+     */
+    private final double[] angles;
+    /**
+     * Next half-edge of each half-edge along its face.
+     */
+    private final int[] next;
+    /**
+     * Cycle of each half-edge.
+     */
+    private final int[] cycles;
+    /**
+     * Left face of each edge.
+     */
+    private final int[] leftFaces;
+    /**
+     * Right face of each edge.
+     */
+    private final int[] rightFaces;
+    /**
+     * The faces, in order of their ids.
+     */
+    private final List<Polygon> faces = new ArrayList<Polygon>();
+
+    /**
+     * Constructs a new {@link HalfEdgeTopologyBuilder}. The edges must be
+     * noded, that is, they may only meet at their end points.
+     *
+     * @param edges      The edge geometries
+     * @param startNodes Start node of each edge
+     * @param endNodes   End node of each edge
+     */
+    public HalfEdgeTopologyBuilder(List<Geometry> edges, int[] startNodes,
+                                   int[] endNodes) {
+        this.edges = edges;
+        this.startNodes = startNodes;
+        this.endNodes = endNodes;
+        final int edgeCount = edges.size();
+        this.coordinates = new Coordinate[edgeCount][];
+        this.angles = new double[2 * edgeCount];
+        this.next = new int[2 * edgeCount];
+        this.cycles = new int[2 * edgeCount];
+        this.leftFaces = new int[edgeCount];
+        this.rightFaces = new int[edgeCount];
+    }
+
+    /**
+     * Builds the faces and assigns them to the edges.
+     */
+    public void build() {
+        final int edgeCount = edges.size();
+        boolean[] kept = new boolean[edgeCount];
+        for (int e = 0; e < edgeCount; e++) {
+            coordinates[e] = edges.get(e).getCoordinates();
+            Coordinate[] cc = coordinates[e];
+            angles[2 * e] = angle(cc[0], cc, 1, 1);
+            angles[2 * e + 1] = angle(cc[cc.length - 1], cc, cc.length - 2,
+                                      -1);
+            kept[e] = cc.length >= 2;
+        }
+
+        // First traversal: find the dangles and cut edges, whose two
+        // half-edges lie on the same cycle.
+        linkHalfEdges(kept);
+        int firstCycleCount = traceCycles(kept);
+        int[] firstCycles = cycles.clone();
+        boolean[] removed = new boolean[edgeCount];
+        for (int e = 0; e < edgeCount; e++) {
+            if (kept[e] && cycles[2 * e] == cycles[2 * e + 1]) {
+                removed[e] = true;
+                kept[e] = false;
+            }
+        }
+        // For each cycle of the first traversal, a half-edge which is kept.
+        int[] keptHalfEdge = new int[firstCycleCount];
+        Arrays.fill(keptHalfEdge, -1);
+        for (int e = 0; e < edgeCount; e++) {
+            if (kept[e]) {
+                keptHalfEdge[firstCycles[2 * e]] = 2 * e;
+                keptHalfEdge[firstCycles[2 * e + 1]] = 2 * e + 1;
+            }
+        }
+
+        // Second traversal: every cycle is now a simple ring.
+        linkHalfEdges(kept);
+        int cycleCount = traceCycles(kept);
+        int[] cycleStart = new int[cycleCount];
+        for (int h = 2 * edgeCount - 1; h >= 0; h--) {
+            if (kept[h / 2]) {
+                cycleStart[cycles[h]] = h;
+            }
+        }
+        // The connected component of each node of the kept edges: a cycle
+        // never lies in a shell of its own component.
+        int maxNode = 0;
+        for (int e = 0; e < edgeCount; e++) {
+            maxNode = Math.max(maxNode,
+                               Math.max(startNodes[e], endNodes[e]));
+        }
+        UnionFind components = new UnionFind(maxNode + 1);
+        for (int e = 0; e < edgeCount; e++) {
+            if (kept[e]) {
+                components.union(startNodes[e], endNodes[e]);
+            }
+        }
+        // Shells become faces.
+        int[] cycleFaces = new int[cycleCount];
+        List<LinearRing> shells = new ArrayList<LinearRing>();
+        List<Integer> shellComponents = new ArrayList<Integer>();
+        List<List<LinearRing>> holes = new ArrayList<List<LinearRing>>();
+        STRtree shellIndex = new STRtree();
+        List<Integer> holeCycles = new ArrayList<Integer>();
+        List<LinearRing> holeRings = new ArrayList<LinearRing>();
+        for (int c = 0; c < cycleCount; c++) {
+            Coordinate[] ring = ringCoordinates(cycleStart[c]);
+            // JTS signed areas are negative for counter-clockwise rings.
+            if (ring.length >= 4 && CGAlgorithms.signedArea(ring) < 0) {
+                LinearRing shell = GF.createLinearRing(ring);
+                shells.add(shell);
+                shellComponents.add(
+                        components.find(origin(cycleStart[c])));
+                holes.add(new ArrayList<LinearRing>());
+                cycleFaces[c] = shells.size();
+                shellIndex.insert(shell.getEnvelopeInternal(), shells.size());
+            } else if (ring.length >= 4) {
+                holeCycles.add(c);
+                holeRings.add(GF.createLinearRing(ring));
+            } else {
+                // A degenerate cycle between two overlapping edges.
+                holeCycles.add(c);
+                holeRings.add(null);
+            }
+        }
+        // Holes and outer boundaries belong to the smallest shell of another
+        // component containing them, if any. The point tested lies on the
+        // shells of the own component, which are skipped.
+        for (int k = 0; k < holeCycles.size(); k++) {
+            LinearRing hole = holeRings.get(k);
+            int first = cycleStart[holeCycles.get(k)];
+            Coordinate[] cc = hole == null
+                    ? coordinates[first / 2]
+                    : hole.getCoordinates();
+            int face = locate(midpoint(cc[0], cc[1]), shells, shellIndex,
+                              shellComponents,
+                              components.find(origin(first)));
+            cycleFaces[holeCycles.get(k)] = face;
+            if (face != NO_FACE && hole != null) {
+                holes.get(face - 1).add(hole);
+            }
+        }
+        for (int f = 0; f < shells.size(); f++) {
+            List<LinearRing> h = holes.get(f);
+            Polygon face = GF.createPolygon(shells.get(f),
+                                            h.toArray(new LinearRing[h.size()]));
+            face.normalize();
+            faces.add(face);
+        }
+
+        // Assign the faces to the edges.
+        for (int e = 0; e < edgeCount; e++) {
+            if (kept[e]) {
+                leftFaces[e] = cycleFaces[cycles[2 * e]];
+                rightFaces[e] = cycleFaces[cycles[2 * e + 1]];
+            } else if (removed[e]) {
+                int h = keptHalfEdge[firstCycles[2 * e]];
+                int face;
+                if (h != -1) {
+                    // The edge lies in the face on the left of h.
+                    face = cycleFaces[cycles[h]];
+                } else {
+                    // An isolated tree of dangles.
+                    Coordinate[] cc = coordinates[e];
+                    face = locate(midpoint(cc[0], cc[1]), shells, shellIndex,
+                                  shellComponents, -1);
+                }
+                leftFaces[e] = face;
+                rightFaces[e] = face;
+            } else {
+                leftFaces[e] = NO_FACE;
+                rightFaces[e] = NO_FACE;
+            }
+        }
+    }
+
+    /**
+     * Returns the angle of the first segment leaving the given origin.
+     *
+     * @param origin The origin
+     * @param cc     The edge coordinates
+     * @param from   Index of the first coordinate to look at
+     * @param step   1 to walk forward, -1 to walk backward
+     *
+     * @return The angle
+     */
+    private static double angle(Coordinate origin, Coordinate[] cc,
+                                int from, int step) {
+        for (int i = from; i >= 0 && i < cc.length; i += step) {
+            if (!cc[i].equals2D(origin)) {
+                return Math.atan2(cc[i].y - origin.y, cc[i].x - origin.x);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Returns the origin node of the given half-edge.
+     */
+    private int origin(int h) {
+        return (h & 1) == 0 ? startNodes[h / 2] : endNodes[h / 2];
+    }
+
+    /**
+     * Sorts the half-edges of the kept edges around their origins and links
+     * each half-edge to the next one along its face.
+     *
+     * @param kept The edges to link
+     */
+    private void linkHalfEdges(boolean[] kept) {
+        final int halfEdgeCount = 2 * edges.size();
+        int maxNode = 0;
+        for (int h = 0; h < halfEdgeCount; h++) {
+            maxNode = Math.max(maxNode, origin(h));
+        }
+        // Bucket the half-edges by origin.
+        int[] start = new int[maxNode + 2];
+        for (int h = 0; h < halfEdgeCount; h++) {
+            if (kept[h / 2]) {
+                start[origin(h) + 1]++;
+            }
+        }
+        for (int v = 0; v <= maxNode; v++) {
+            start[v + 1] += start[v];
+        }
+        int[] around = new int[start[maxNode + 1]];
+        int[] fill = start.clone();
+        for (int h = 0; h < halfEdgeCount; h++) {
+            if (kept[h / 2]) {
+                around[fill[origin(h)]++] = h;
+            }
+        }
+        // Sort each bucket by angle (nodes have a small degree) and record
+        // the position of each half-edge.
+        int[] position = new int[halfEdgeCount];
+        for (int v = 0; v <= maxNode; v++) {
+            for (int i = start[v] + 1; i < start[v + 1]; i++) {
+                int h = around[i];
+                int j = i - 1;
+                while (j >= start[v] && angles[around[j]] > angles[h]) {
+                    around[j + 1] = around[j];
+                    j--;
+                }
+                around[j + 1] = h;
+            }
+            for (int i = start[v]; i < start[v + 1]; i++) {
+                position[around[i]] = i;
+            }
+        }
+        // next(h) is the half-edge leaving the destination of h just
+        // clockwise of the twin of h.
+        for (int h = 0; h < halfEdgeCount; h++) {
+            if (kept[h / 2]) {
+                int twin = h ^ 1;
+                int v = origin(twin);
+                int i = position[twin] - 1;
+                if (i < start[v]) {
+                    i = start[v + 1] - 1;
+                }
+                next[h] = around[i];
+            }
+        }
+    }
+
+    /**
+     * Numbers the cycles formed by the next links of the kept edges.
+     *
+     * @param kept The kept edges
+     *
+     * @return The number of cycles
+     */
+    private int traceCycles(boolean[] kept) {
+        Arrays.fill(cycles, -1);
+        int cycleCount = 0;
+        for (int h = 0; h < cycles.length; h++) {
+            if (kept[h / 2] && cycles[h] == -1) {
+                int g = h;
+                do {
+                    cycles[g] = cycleCount;
+                    g = next[g];
+                } while (g != h);
+                cycleCount++;
+            }
+        }
+        return cycleCount;
+    }
+
+    /**
+     * Returns the closed ring of coordinates of the cycle of the given
+     * half-edge.
+     *
+     * @param first A half-edge of the cycle
+     *
+     * @return The ring coordinates
+     */
+    private Coordinate[] ringCoordinates(int first) {
+        List<Coordinate> ring = new ArrayList<Coordinate>();
+        int h = first;
+        do {
+            Coordinate[] cc = coordinates[h / 2];
+            if ((h & 1) == 0) {
+                for (int i = ring.isEmpty() ? 0 : 1; i < cc.length; i++) {
+                    ring.add(cc[i]);
+                }
+            } else {
+                for (int i = cc.length - (ring.isEmpty() ? 1 : 2); i >= 0;
+                     i--) {
+                    ring.add(cc[i]);
+                }
+            }
+            h = next[h];
+        } while (h != first);
+        return ring.toArray(new Coordinate[ring.size()]);
+    }
+
+    /**
+     * Returns the smallest shell containing the given point, outside the
+     * given component.
+     *
+     * @param p               The point
+     * @param shells          The shells
+     * @param shellIndex      Index of the shell envelopes, holding face ids
+     * @param shellComponents The component of each shell
+     * @param component       The component whose shells are skipped, or -1
+     *
+     * @return The face id of the shell, or {@link #NO_FACE}
+     */
+    private static int locate(Coordinate p, List<LinearRing> shells,
+                              STRtree shellIndex,
+                              List<Integer> shellComponents, int component) {
+        int face = NO_FACE;
+        double faceArea = Double.POSITIVE_INFINITY;
+        for (Object o : shellIndex.query(new Envelope(p))) {
+            int candidate = (Integer) o;
+            if (shellComponents.get(candidate - 1) == component) {
+                continue;
+            }
+            Coordinate[] ring = shells.get(candidate - 1).getCoordinates();
+            if (CGAlgorithms.isPointInRing(p, ring)) {
+                double area = Math.abs(CGAlgorithms.signedArea(ring));
+                if (area < faceArea) {
+                    face = candidate;
+                    faceArea = area;
+                }
+            }
+        }
+        return face;
+    }
+
+    /**
+     * Returns the midpoint of the given coordinates.
+     */
+    private static Coordinate midpoint(Coordinate a, Coordinate b) {
+        return new Coordinate((a.x + b.x) / 2, (a.y + b.y) / 2);
+    }
+
+    /**
+     * Returns the faces, in order of their ids (starting from 1).
+     *
+     * @return The faces
+     */
+    public List<Polygon> getFaces() {
+        return faces;
+    }
+
+    /**
+     * Returns the face on the left of the given edge, following its geometry.
+     *
+     * @param edge Edge index (zero-based)
+     *
+     * @return The face id, or {@link #NO_FACE}
+     */
+    public int getLeftFace(int edge) {
+        return leftFaces[edge];
+    }
+
+    /**
+     * Returns the face on the right of the given edge, following its
+     * geometry.
+     *
+     * @param edge Edge index (zero-based)
+     *
+     * @return The face id, or {@link #NO_FACE}
+     */
+    public int getRightFace(int edge) {
+        return rightFaces[edge];
+    }
+}
@@ -0,0 +1,302 @@
+/**
+ * GDMS-Topology is a library dedicated to graph analysis. It is based on the
+ * JGraphT library available at <http://www.jgrapht.org/>. It enables computing
+ * and processing large graphs using spatial and alphanumeric indexes.
+ *
+ * This version is developed at French IRSTV institut as part of the EvalPDU
+ * project, funded by the French Agence Nationale de la Recherche (ANR) under
+ * contract ANR-08-VILL-0005-01 and GEBD project funded by the French Ministery
+ * of Ecology and Sustainable Development.
+ *
+ * GDMS-Topology is distributed under GPL 3 license. It is produced by the
+ * "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR
+ * 2488.
+ *
+ * Copyright (C) 2009-2012 IRSTV (FR CNRS 2488)
+ *
+ * GDMS-Topology is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * GDMS-Topology is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * GDMS-Topology. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://wwwc.orbisgis.org/> or contact
+ * directly: info_at_ orbisgis.org
+ */
+package org.gdms.gdmstopology.process;
+
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.linearref.LengthIndexedLine;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import org.gdms.data.schema.Metadata;
+import org.gdms.data.schema.MetadataUtilities;
+import org.gdms.driver.DataSet;
+import org.gdms.driver.DriverException;
+import org.gdms.gdmstopology.model.CompactGraph;
+import org.gdms.gdmstopology.model.GraphSchema;
+import org.orbisgis.progress.ProgressMonitor;
+
+/**
+ * Builds the service areas of facilities for several cost breaks.
+ *
+ * <p> Each facility is searched once, up to the largest break, on a
+ * {@link CompactGraph}; the facilities are searched concurrently through the
+ * {@link TopologyExecutorService}. For each break, an edge is reached from
+ * each endpoint settled below the break, up to the fraction of its weight
+ * left; partially reached edges are cut at that fraction of their length.
+ * The service area of a break is the union of the reached pieces buffered by
+ * a given distance, which follows the shape of the network.
+ *
+ * <p> The edge geometries are read once and kept in memory.
+ *
+ * @author Adam Gouge
+ */
+public class IsochroneBuilder {
+
+    /**
+     * Used to gather the reached pieces.
+     */
+    private static final GeometryFactory GF = new GeometryFactory();
+    /**
+     * The graph.
+     */
+    private final CompactGraph graph;
+    /**
+     * Executor running the searches.
+     */
+    private final TopologyExecutorService executor;
+    /**
+     * The geometry of each edge, by row.
+     */
+    private final Geometry[] geometries;
+    /**
+     * The start node of each edge, by row.
+     */
+    private final int[] startNodes;
+    /**
+     * The row of each edge, by id.
+     */
+    private final Map<Integer, Integer> rows;
+    /**
+     * The mean length of the edges.
+     */
+    private final double meanLength;
+
+    /**
+     * Reads the geometries of the given edges table, which holds the edges of
+     * the graph.
+     *
+     * @param graph    The graph
+     * @param edges    The edges table
+     * @param executor The executor running the searches
+     *
+     * @throws DriverException If the table could not be read.
+     */
+    public IsochroneBuilder(CompactGraph graph, DataSet edges,
+                            TopologyExecutorService executor)
+            throws DriverException {
+        this.graph = graph;
+        this.executor = executor;
+        Metadata md = edges.getMetadata();
+        int geometryIndex = MetadataUtilities.getSpatialFieldIndex(md);
+        int idIndex = md.getFieldIndex(GraphSchema.ID);
+        int startNodeIndex = md.getFieldIndex(GraphSchema.START_NODE);
+        if (idIndex == -1 || startNodeIndex == -1) {
+            throw new IllegalArgumentException(
+                    "The edges table must contain the fields "
+                    + GraphSchema.ID + " and " + GraphSchema.START_NODE + ".");
+        }
+        int rowCount = (int) edges.getRowCount();
+        geometries = new Geometry[rowCount];
+        startNodes = new int[rowCount];
+        rows = new HashMap<Integer, Integer>(2 * rowCount);
+        double totalLength = 0;
+        for (int i = 0; i < rowCount; i++) {
+            geometries[i] = edges.getGeometry(i, geometryIndex);
+            startNodes[i] = edges.getFieldValue(i, startNodeIndex).getAsInt();
+            rows.put(edges.getFieldValue(i, idIndex).getAsInt(), i);
+            totalLength += geometries[i].getLength();
+        }
+        meanLength = rowCount == 0 ? 0 : totalLength / rowCount;
+    }
+
+    /**
+     * Returns the mean length of the edges, from which a buffer distance may
+     * be chosen.
+     *
+     * @return The mean length of the edges
+     */
+    public double getMeanLength() {
+        return meanLength;
+    }
+
+    /**
+     * Receives the service areas.
+     */
+    public interface ServiceAreaHandler {
+
+        /**
+         * Receives the service area of a facility for a break.
+         *
+         * @param facility The facility id
+         * @param cost     The break
+         * @param area     The service area
+         *
+         * @throws DriverException
+         */
+        void handle(int facility, double cost, Geometry area)
+                throws DriverException;
+    }
+
+    /**
+     * Builds the service areas of the given facilities. The areas are handed
+     * to the handler on the calling thread, by facility and by increasing
+     * break; facilities not in the graph are skipped.
+     *
+     * @param facilities The facility node ids
+     * @param breaks     The breaks, in increasing order
+     * @param buffer     The buffer distance of the reached pieces
+     * @param handler    Receives the service areas
+     * @param pm         Progress monitor
+     *
+     * @return {@code false} if the task was cancelled
+     *
+     * @throws DriverException If a search failed.
+     */
+    public boolean build(int[] facilities, final double[] breaks,
+                         final double buffer, ServiceAreaHandler handler,
+                         ProgressMonitor pm) throws DriverException {
+        final int window = 2 * executor.getParallelism();
+        TopologyExecutorService.TaskGroup tasks = executor.newTaskGroup(pm);
+        try {
+            ArrayDeque<Future<Geometry[]>> pending =
+                    new ArrayDeque<Future<Geometry[]>>();
+            int submitted = 0;
+            for (int i = 0; i < facilities.length; i++) {
+                while (submitted < facilities.length
+                       && pending.size() < window) {
+                    final int source = graph.getIndex(facilities[submitted++]);
+                    pending.add(tasks.submit(new Callable<Geometry[]>() {
+                        @Override
+                        public Geometry[] call() {
+                            return source == -1
+                                    ? null
+                                    : serviceAreas(source, breaks, buffer);
+                        }
+                    }));
+                }
+                Geometry[] areas = tasks.get(pending.poll());
+                if (areas != null) {
+                    for (int k = 0; k < breaks.length; k++) {
+                        handler.handle(facilities[i], breaks[k], areas[k]);
+                    }
+                }
+                pm.progressTo(100 * (i + 1) / facilities.length);
+                if (tasks.isCancelled()) {
+                    return false;
+                }
+            }
+        } catch (CancellationException ex) {
+            return false;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new DriverException("Interrupted while searching.", ex);
+        } catch (ExecutionException ex) {
+            throw new DriverException("Could not build a service area.",
+                                      ex.getCause());
+        } finally {
+            tasks.cancel();
+        }
+        return true;
+    }
+
+    /**
+     * Searches from the given source up to the largest break and returns the
+     * service area of each break.
+     *
+     * @param source The source index
+     * @param breaks The breaks, in increasing order
+     * @param buffer The buffer distance
+     *
+     * @return The service area of each break
+     */
+    private Geometry[] serviceAreas(int source, final double[] breaks,
+                                    double buffer) {
+        // For each break, the fraction of each edge reached from its start
+        // and from its end.
+        final List<Map<Integer, double[]>> reached =
+                new ArrayList<Map<Integer, double[]>>(breaks.length);
+        for (int k = 0; k < breaks.length; k++) {
+            reached.add(new HashMap<Integer, double[]>());
+        }
+        graph.search(source, breaks[breaks.length - 1],
+                     new CompactGraph.SearchVisitor() {
+            @Override
+            public boolean visit(int vertex, double distance) {
+                int id = graph.getId(vertex);
+                for (int arc = graph.getFirstArc(vertex);
+                     arc < graph.getEndArc(vertex); arc++) {
+                    Integer row = rows.get(Math.abs(graph.getEdgeId(arc)));
+                    if (row == null) {
+                        continue;
+                    }
+                    int end = startNodes[row] == id ? 0 : 1;
+                    double weight = graph.getWeight(arc);
+                    for (int k = breaks.length - 1;
+                         k >= 0 && distance < breaks[k]; k--) {
+                        double fraction = weight > 0
+                                ? Math.min(1, (breaks[k] - distance) / weight)
+                                : 1;
+                        double[] fractions = reached.get(k).get(row);
+                        if (fractions == null) {
+                            fractions = new double[2];
+                            reached.get(k).put(row, fractions);
+                        }
+                        fractions[end] = Math.max(fractions[end], fraction);
+                    }
+                }
+                return true;
+            }
+        });
+        Geometry[] areas = new Geometry[breaks.length];
+        for (int k = 0; k < breaks.length; k++) {
+            List<Geometry> pieces = new ArrayList<Geometry>();
+            for (Map.Entry<Integer, double[]> e : reached.get(k).entrySet()) {
+                Geometry edge = geometries[e.getKey()];
+                double fromStart = e.getValue()[0];
+                double fromEnd = e.getValue()[1];
+                if (fromStart + fromEnd >= 1) {
+                    pieces.add(edge);
+                } else {
+                    LengthIndexedLine line = new LengthIndexedLine(edge);
+                    double length = edge.getLength();
+                    if (fromStart > 0) {
+                        pieces.add(line.extractLine(0, fromStart * length));
+                    }
+                    if (fromEnd > 0) {
+                        pieces.add(line.extractLine(
+                                (1 - fromEnd) * length, length));
+                    }
+                }
+            }
+            areas[k] = GF.buildGeometry(pieces).buffer(buffer);
+        }
+        return areas;
+    }
+}
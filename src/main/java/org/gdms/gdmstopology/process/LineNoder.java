@@ -43,6 +43,7 @@ import com.vividsolutions.jts.geom.GeometryFactory;
 import com.vividsolutions.jts.geom.util.LinearComponentExtracter;
 import org.gdms.data.schema.MetadataUtilities;
 import org.gdms.driver.DataSet;
+import org.orbisgis.progress.ProgressMonitor;
 
 /**
  *
@@ -95,6 +96,53 @@ public class LineNoder {
                 return noded;
         }
 
+        /**
+         * Nodes a collection of linestrings tile by tile on several threads
+         * and hands the noded lines to the given handler as soon as each tile
+         * is done, without building a single geometry.
+         *
+         * @param lines
+         *            the linear geometries to node
+         * @param handler
+         *            receives the noded lines
+         * @param pm
+         *            progress monitor
+         * @return false if the noding was cancelled
+         * @throws DriverException
+         * @see TiledLineNoder
+         */
+        public boolean getNodeLines(Collection lines,
+                TiledLineNoder.NodedLineHandler handler, ProgressMonitor pm)
+                throws DriverException {
+                return getNodeLines(lines, handler, 0, pm);
+        }
+
+        /**
+         * Nodes a collection of linestrings tile by tile on several threads,
+         * snap-rounding the intersections to the given precision model scale.
+         *
+         * @param lines
+         *            the linear geometries to node
+         * @param handler
+         *            receives the noded lines
+         * @param scale
+         *            the precision model scale, or zero to node in floating
+         *            precision
+         * @param pm
+         *            progress monitor
+         * @return false if the noding was cancelled
+         * @throws DriverException
+         * @see TiledLineNoder#setSnapRoundingScale(double)
+         */
+        public boolean getNodeLines(Collection lines,
+                TiledLineNoder.NodedLineHandler handler, double scale,
+                ProgressMonitor pm) throws DriverException {
+                TiledLineNoder noder =
+                        new TiledLineNoder(TopologyExecutorService.getShared());
+                noder.setSnapRoundingScale(scale);
+                return noder.node(new ArrayList<Geometry>(lines), handler, pm);
+        }
+
         public static List toLines(Geometry geom) {
                 List linesList = new ArrayList();
                 LinearComponentExtracter lineFilter = new LinearComponentExtracter(
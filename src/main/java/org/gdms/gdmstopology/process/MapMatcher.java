@@ -0,0 +1,585 @@
+/**
+ * GDMS-Topology is a library dedicated to graph analysis. It is based on the
+ * JGraphT library available at <http://www.jgrapht.org/>. It enables computing
+ * and processing large graphs using spatial and alphanumeric indexes.
+ *
+ * This version is developed at French IRSTV institut as part of the EvalPDU
+ * project, funded by the French Agence Nationale de la Recherche (ANR) under
+ * contract ANR-08-VILL-0005-01 and GEBD project funded by the French Ministery
+ * of Ecology and Sustainable Development.
+ *
+ * GDMS-Topology is distributed under GPL 3 license. It is produced by the
+ * "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR
+ * 2488.
+ *
+ * Copyright (C) 2009-2012 IRSTV (FR CNRS 2488)
+ *
+ * GDMS-Topology is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * GDMS-Topology is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * GDMS-Topology. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://wwwc.orbisgis.org/> or contact
+ * directly: info_at_ orbisgis.org
+ */
+package org.gdms.gdmstopology.process;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import org.gdms.data.schema.Metadata;
+import org.gdms.data.schema.MetadataUtilities;
+import org.gdms.driver.DataSet;
+import org.gdms.driver.DriverException;
+import org.gdms.gdmstopology.graphcreator.GraphCreator;
+import org.gdms.gdmstopology.model.CompactGraph;
+import org.gdms.gdmstopology.model.GraphSchema;
+import org.orbisgis.progress.ProgressMonitor;
+
+/**
+ * Matches GPS traces onto the edges of a network with a hidden Markov model,
+ * after Newson and Krumm.
+ *
+ * <p> The hidden states of a fix are its snaps onto the nearest edges (found
+ * by an {@link EdgeSnapper}). A snap at distance {@code d} from its fix has
+ * log-probability {@code -(d / sigma)^2 / 2}; a move between the snaps of two
+ * fixes has log-probability {@code -|route - distance| / beta}, where
+ * {@code route} is the network distance between the snaps and
+ * {@code distance} the distance between the fixes. The most likely sequence
+ * of snaps is decoded by the Viterbi algorithm and the routes between them
+ * give the matched edges.
+ *
+ * <p> Routes are measured along the edge geometries by Dijkstra searches
+ * bounded by the distance between the fixes, on a {@link CompactGraph}; the
+ * search from each node is kept for the rest of the trace, so that the
+ * snaps of consecutive fixes share their searches. Fixes closer than
+ * {@code 2 * sigma} to the previous fix are skipped. When no route joins two
+ * fixes, the trace is broken into parts matched separately. The traces are
+ * matched in parallel through the {@link TopologyExecutorService}.
+ *
+ * @author Adam Gouge
+ */
+public class MapMatcher {
+
+    /**
+     * Radius of the candidate lookup, in multiples of sigma.
+     */
+    private static final double CANDIDATE_RADIUS = 5;
+    /**
+     * The maximal number of candidate snaps of a fix.
+     */
+    private static final int MAX_CANDIDATES = 8;
+    /**
+     * The longest route considered between two fixes, in multiples of their
+     * distance (plus twice the candidate radius).
+     */
+    private static final double MAX_ROUTE_FACTOR = 2;
+    /**
+     * The edges.
+     */
+    private final EdgeSnapper snapper;
+    /**
+     * The edges of the network weighted by length; arcs are identified by
+     * row.
+     */
+    private final CompactGraph graph;
+    /**
+     * Whether each edge may be followed from its start, by row.
+     */
+    private final boolean[] forward;
+    /**
+     * Whether each edge may be followed from its end, by row.
+     */
+    private final boolean[] backward;
+    /**
+     * The length of each edge, by row.
+     */
+    private final double[] lengths;
+    /**
+     * Executor matching the traces.
+     */
+    private final TopologyExecutorService executor;
+    /**
+     * The standard deviation of the GPS error.
+     */
+    private final double sigma;
+    /**
+     * The scale of the difference between route and fix distances.
+     */
+    private final double beta;
+
+    /**
+     * Reads the given edges table.
+     *
+     * @param edges             The edges table
+     * @param graphType         {@link GraphSchema#DIRECT},
+     *                          {@link GraphSchema#DIRECT_REVERSED} or
+     *                          {@link GraphSchema#UNDIRECT}
+     * @param orientationColumn The edge orientation column, or {@code null}
+     * @param sigma             The standard deviation of the GPS error
+     * @param beta              The scale of the difference between route and
+     *                          fix distances
+     * @param executor          The executor matching the traces
+     *
+     * @throws DriverException If the table could not be read.
+     */
+    public MapMatcher(DataSet edges, int graphType, String orientationColumn,
+                      double sigma, double beta,
+                      TopologyExecutorService executor)
+            throws DriverException {
+        if (!(sigma > 0) || !(beta > 0)) {
+            throw new IllegalArgumentException(
+                    "Sigma and beta must be positive.");
+        }
+        this.sigma = sigma;
+        this.beta = beta;
+        this.executor = executor;
+        snapper = new EdgeSnapper(edges);
+        int rowCount = snapper.getRowCount();
+        int orientationIndex = orientationColumn == null
+                ? -1 : edges.getMetadata().getFieldIndex(orientationColumn);
+        int[] startNodes = new int[rowCount];
+        int[] endNodes = new int[rowCount];
+        lengths = new double[rowCount];
+        forward = new boolean[rowCount];
+        backward = new boolean[rowCount];
+        for (int i = 0; i < rowCount; i++) {
+            startNodes[i] = snapper.getStartNode(i);
+            endNodes[i] = snapper.getEndNode(i);
+            lengths[i] = snapper.getGeometry(i).getLength();
+            BreadthFirstSearcher.orient(
+                    graphType, orientationIndex == -1
+                    ? GraphCreator.DIRECTED_EDGE
+                    : edges.getFieldValue(i, orientationIndex).getAsInt(),
+                    i, forward, backward);
+        }
+        graph = new CompactGraph(startNodes, endNodes, lengths,
+                                 forward, backward);
+    }
+
+    /**
+     * Receives the matched edges.
+     */
+    public interface MatchHandler {
+
+        /**
+         * Receives the edges of a part of a trace.
+         *
+         * @param trace The trace id
+         * @param part  The part of the trace, from 1
+         * @param rows  The rows of the matched edges, in order of travel
+         *
+         * @throws DriverException
+         */
+        void handle(int trace, int part, int[] rows) throws DriverException;
+    }
+
+    /**
+     * Returns the edges snapper, which gives the geometry and id of the
+     * matched rows.
+     *
+     * @return The edges snapper
+     */
+    public EdgeSnapper getSnapper() {
+        return snapper;
+    }
+
+    /**
+     * Matches the traces of the given table: each row holds a trace id
+     * (under {@link GraphSchema#ID}) and a geometry whose coordinates are the
+     * fixes, in order. The matched edges are handed to the handler on the
+     * calling thread, in the order of the table.
+     *
+     * @param traces  The traces table
+     * @param handler Receives the matched edges
+     * @param pm      Progress monitor
+     *
+     * @return {@code false} if the task was cancelled
+     *
+     * @throws DriverException If a trace could not be read or matched.
+     */
+    public boolean match(DataSet traces, MatchHandler handler,
+                         ProgressMonitor pm) throws DriverException {
+        Metadata md = traces.getMetadata();
+        int geometryIndex = MetadataUtilities.getSpatialFieldIndex(md);
+        int idIndex = md.getFieldIndex(GraphSchema.ID);
+        if (geometryIndex == -1 || idIndex == -1) {
+            throw new IllegalArgumentException(
+                    "The traces table must contain a geometry and the field "
+                    + GraphSchema.ID + ".");
+        }
+        int rowCount = (int) traces.getRowCount();
+        // The searchers are borrowed by the tasks, at most one per thread.
+        final BlockingQueue<CompactGraph.Searcher> idle =
+                new ArrayBlockingQueue<CompactGraph.Searcher>(
+                executor.getParallelism());
+        final int window = 2 * executor.getParallelism();
+        TopologyExecutorService.TaskGroup tasks = executor.newTaskGroup(pm);
+        try {
+            ArrayDeque<Future<List<int[]>>> pending =
+                    new ArrayDeque<Future<List<int[]>>>();
+            int submitted = 0;
+            for (int i = 0; i < rowCount; i++) {
+                while (submitted < rowCount && pending.size() < window) {
+                    Geometry trace = traces.getGeometry(submitted,
+                                                        geometryIndex);
+                    final Coordinate[] fixes = trace == null
+                            ? new Coordinate[0] : trace.getCoordinates();
+                    submitted++;
+                    pending.add(tasks.submit(new Callable<List<int[]>>() {
+                        @Override
+                        public List<int[]> call() {
+                            CompactGraph.Searcher searcher = idle.poll();
+                            if (searcher == null) {
+                                searcher = graph.newSearcher();
+                            }
+                            try {
+                                return new TraceMatcher(searcher).match(fixes);
+                            } finally {
+                                idle.offer(searcher);
+                            }
+                        }
+                    }));
+                }
+                List<int[]> parts = tasks.get(pending.poll());
+                int trace = traces.getFieldValue(i, idIndex).getAsInt();
+                for (int p = 0; p < parts.size(); p++) {
+                    handler.handle(trace, p + 1, parts.get(p));
+                }
+                pm.progressTo(100 * (i + 1) / rowCount);
+                if (tasks.isCancelled()) {
+                    return false;
+                }
+            }
+        } catch (CancellationException ex) {
+            return false;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new DriverException("Interrupted while matching.", ex);
+        } catch (ExecutionException ex) {
+            throw new DriverException("Could not match a trace.",
+                                      ex.getCause());
+        } finally {
+            tasks.cancel();
+        }
+        return true;
+    }
+
+    /**
+     * Matches one trace, keeping the searches from its nodes.
+     */
+    private final class TraceMatcher {
+
+        /**
+         * The search from each node, by node index.
+         */
+        private final Map<Integer, Tree> trees = new HashMap<Integer, Tree>();
+        /**
+         * The searcher of this trace.
+         */
+        private final CompactGraph.Searcher searcher;
+
+        TraceMatcher(CompactGraph.Searcher searcher) {
+            this.searcher = searcher;
+        }
+
+        /**
+         * Matches the given fixes.
+         *
+         * @param fixes The fixes, in order
+         *
+         * @return The rows of the matched edges of each part of the trace
+         */
+        List<int[]> match(Coordinate[] fixes) {
+            List<int[]> parts = new ArrayList<int[]>();
+            double radius = CANDIDATE_RADIUS * sigma;
+            // The candidates of the fixes of the current part, and for each
+            // candidate the index of its best predecessor and the route from
+            // it.
+            List<List<EdgeSnapper.Snap>> layers =
+                    new ArrayList<List<EdgeSnapper.Snap>>();
+            List<int[]> previous = new ArrayList<int[]>();
+            List<Route[]> routes = new ArrayList<Route[]>();
+            double[] scores = null;
+            Coordinate last = null;
+            for (Coordinate fix : fixes) {
+                if (last != null && fix.distance(last) < 2 * sigma) {
+                    continue;
+                }
+                List<EdgeSnapper.Snap> candidates =
+                        snapper.candidates(fix, radius, MAX_CANDIDATES);
+                if (candidates.isEmpty()) {
+                    continue;
+                }
+                double[] next = new double[candidates.size()];
+                int[] best = new int[candidates.size()];
+                Route[] bestRoutes = new Route[candidates.size()];
+                boolean reached = false;
+                if (scores != null) {
+                    List<EdgeSnapper.Snap> from =
+                            layers.get(layers.size() - 1);
+                    double distance = fix.distance(last);
+                    double limit = MAX_ROUTE_FACTOR * distance + 2 * radius;
+                    for (int j = 0; j < candidates.size(); j++) {
+                        next[j] = Double.NEGATIVE_INFINITY;
+                        best[j] = -1;
+                        for (int i = 0; i < from.size(); i++) {
+                            Route r = route(from.get(i), candidates.get(j),
+                                            limit);
+                            if (r == null) {
+                                continue;
+                            }
+                            double score = scores[i]
+                                           - Math.abs(r.length - distance)
+                                             / beta;
+                            if (score > next[j]) {
+                                next[j] = score;
+                                best[j] = i;
+                                bestRoutes[j] = r;
+                            }
+                        }
+                        reached |= best[j] != -1;
+                    }
+                }
+                if (!reached) {
+                    // Start a new part.
+                    if (!layers.isEmpty()) {
+                        parts.add(decode(layers, previous, routes, scores));
+                        layers.clear();
+                        previous.clear();
+                        routes.clear();
+                    }
+                    Arrays.fill(next, 0);
+                    Arrays.fill(best, -1);
+                }
+                for (int j = 0; j < candidates.size(); j++) {
+                    double d = candidates.get(j).getDistance() / sigma;
+                    next[j] -= d * d / 2;
+                }
+                layers.add(candidates);
+                previous.add(best);
+                routes.add(bestRoutes);
+                scores = next;
+                last = fix;
+            }
+            if (!layers.isEmpty()) {
+                parts.add(decode(layers, previous, routes, scores));
+            }
+            return parts;
+        }
+
+        /**
+         * Follows the best predecessors back from the best last candidate
+         * and returns the matched edges.
+         *
+         * @param layers   The candidates of each fix
+         * @param previous The best predecessor of each candidate
+         * @param routes   The route from the best predecessor of each
+         *                 candidate
+         * @param scores   The scores of the last candidates
+         *
+         * @return The rows of the matched edges
+         */
+        private int[] decode(List<List<EdgeSnapper.Snap>> layers,
+                             List<int[]> previous, List<Route[]> routes,
+                             double[] scores) {
+            int j = 0;
+            for (int k = 1; k < scores.length; k++) {
+                if (scores[k] > scores[j]) {
+                    j = k;
+                }
+            }
+            EdgeSnapper.Snap[] path = new EdgeSnapper.Snap[layers.size()];
+            Route[] steps = new Route[layers.size()];
+            for (int t = layers.size() - 1; t >= 0; t--) {
+                path[t] = layers.get(t).get(j);
+                steps[t] = routes.get(t)[j];
+                j = previous.get(t)[j];
+            }
+            List<Integer> rows = new ArrayList<Integer>();
+            rows.add(path[0].getRow());
+            for (int t = 1; t < path.length; t++) {
+                Route r = steps[t];
+                if (r.exit != -1) {
+                    Tree tree = trees.get(r.exit);
+                    List<Integer> between = new ArrayList<Integer>();
+                    for (int v = r.entry; v != r.exit;) {
+                        int row = tree.previousRow(v);
+                        between.add(row);
+                        v = graph.getIndex(
+                                graph.getId(v) == snapper.getEndNode(row)
+                                ? snapper.getStartNode(row)
+                                : snapper.getEndNode(row));
+                    }
+                    for (int k = between.size() - 1; k >= 0; k--) {
+                        add(rows, between.get(k));
+                    }
+                }
+                add(rows, path[t].getRow());
+            }
+            int[] array = new int[rows.size()];
+            for (int k = 0; k < array.length; k++) {
+                array[k] = rows.get(k);
+            }
+            return array;
+        }
+
+        /**
+         * Appends a row unless it repeats the last one.
+         */
+        private void add(List<Integer> rows, int row) {
+            if (rows.get(rows.size() - 1) != row) {
+                rows.add(row);
+            }
+        }
+
+        /**
+         * Returns the shortest route between two snaps no longer than the
+         * given limit.
+         *
+         * @param a     The first snap
+         * @param b     The second snap
+         * @param limit The maximal length of the route
+         *
+         * @return The route, or {@code null}
+         */
+        private Route route(EdgeSnapper.Snap a, EdgeSnapper.Snap b,
+                            double limit) {
+            Route best = null;
+            int ra = a.getRow();
+            int rb = b.getRow();
+            if (ra == rb) {
+                double along = (b.getFraction() - a.getFraction())
+                               * lengths[ra];
+                if (along >= 0 ? forward[ra] : backward[ra]) {
+                    best = new Route(Math.abs(along), -1, -1);
+                }
+            }
+            for (int x = 0; x < 2; x++) {
+                // Leave a by its end (x = 0) or by its start (x = 1).
+                if (!(x == 0 ? forward[ra] : backward[ra])) {
+                    continue;
+                }
+                double exitCost = (x == 0 ? 1 - a.getFraction()
+                                   : a.getFraction()) * lengths[ra];
+                if (exitCost > limit) {
+                    continue;
+                }
+                int exit = graph.getIndex(x == 0 ? snapper.getEndNode(ra)
+                                          : snapper.getStartNode(ra));
+                Tree tree = tree(exit, limit - exitCost);
+                for (int y = 0; y < 2; y++) {
+                    // Enter b by its start (y = 0) or by its end (y = 1).
+                    if (!(y == 0 ? forward[rb] : backward[rb])) {
+                        continue;
+                    }
+                    int entry = graph.getIndex(
+                            y == 0 ? snapper.getStartNode(rb)
+                            : snapper.getEndNode(rb));
+                    double length = exitCost + tree.distance(entry)
+                                    + (y == 0 ? b.getFraction()
+                                       : 1 - b.getFraction()) * lengths[rb];
+                    if (length <= limit
+                        && (best == null || length < best.length)) {
+                        best = new Route(length, exit, entry);
+                    }
+                }
+            }
+            return best;
+        }
+
+        /**
+         * Returns the search from the given node, searching again if the
+         * kept search stopped short of the given radius.
+         */
+        private Tree tree(int source, double radius) {
+            Tree tree = trees.get(source);
+            if (tree == null || tree.radius < radius) {
+                tree = new Tree(source, radius);
+                trees.put(source, tree);
+            }
+            return tree;
+        }
+
+        /**
+         * The nodes settled by a bounded search, with their distance and the
+         * edge by which they were reached.
+         */
+        private final class Tree {
+
+            private final double radius;
+            private final Map<Integer, Integer> slots =
+                    new HashMap<Integer, Integer>();
+            private double[] distances = new double[16];
+            private int[] previousRows = new int[16];
+
+            Tree(int source, double radius) {
+                this.radius = radius;
+                searcher.search(source, radius,
+                                new CompactGraph.SearchVisitor() {
+                    @Override
+                    public boolean visit(int vertex, double distance) {
+                        int slot = slots.size();
+                        if (slot == distances.length) {
+                            distances = Arrays.copyOf(distances, 2 * slot);
+                            previousRows = Arrays.copyOf(previousRows,
+                                                         2 * slot);
+                        }
+                        int arc = searcher.getPreviousArc(vertex);
+                        slots.put(vertex, slot);
+                        distances[slot] = distance;
+                        previousRows[slot] = arc == -1
+                                ? -1 : graph.getEdgeId(arc);
+                        return true;
+                    }
+                });
+            }
+
+            double distance(int vertex) {
+                Integer slot = slots.get(vertex);
+                return slot == null
+                        ? Double.POSITIVE_INFINITY : distances[slot];
+            }
+
+            int previousRow(int vertex) {
+                return previousRows[slots.get(vertex)];
+            }
+        }
+    }
+
+    /**
+     * A route between two snaps: along one edge, or from a node leaving the
+     * first snap to a node entering the second one.
+     */
+    private static final class Route {
+
+        private final double length;
+        private final int exit;
+        private final int entry;
+
+        Route(double length, int exit, int entry) {
+            this.length = length;
+            this.exit = exit;
+            this.entry = entry;
+        }
+    }
+}
@@ -0,0 +1,457 @@
+/**
+ * GDMS-Topology is a library dedicated to graph analysis. It is based on the
+ * JGraphT library available at <http://www.jgrapht.org/>. It enables computing
+ * and processing large graphs using spatial and alphanumeric indexes.
+ *
+ * This version is developed at French IRSTV institut as part of the EvalPDU
+ * project, funded by the French Agence Nationale de la Recherche (ANR) under
+ * contract ANR-08-VILL-0005-01 and GEBD project funded by the French Ministery
+ * of Ecology and Sustainable Development.
+ *
+ * GDMS-Topology is distributed under GPL 3 license. It is produced by the
+ * "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR
+ * 2488.
+ *
+ * Copyright (C) 2009-2012 IRSTV (FR CNRS 2488)
+ *
+ * GDMS-Topology is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * GDMS-Topology is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * GDMS-Topology. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://wwwc.orbisgis.org/> or contact
+ * directly: info_at_ orbisgis.org
+ */
+package org.gdms.gdmstopology.process;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.gdms.data.DataSourceFactory;
+import org.gdms.data.values.Value;
+import org.gdms.data.values.ValueFactory;
+import org.gdms.driver.DiskBufferDriver;
+import org.gdms.driver.DriverException;
+import org.gdms.gdmstopology.model.GraphEdge;
+import org.gdms.gdmstopology.model.GraphException;
+import org.gdms.gdmstopology.model.GraphMetadataFactory;
+import org.gdms.gdmstopology.model.GraphSchema;
+import org.gdms.gdmstopology.model.MappedAdjacencyGraph;
+import org.jgrapht.Graph;
+import org.jgrapht.Graphs;
+import org.jgrapht.graph.AsUndirectedGraph;
+import org.jgrapht.graph.EdgeReversedGraph;
+import org.jgrapht.traverse.ClosestFirstIterator;
+import org.orbisgis.progress.ProgressMonitor;
+
+/**
+ * Runs the closest-first searches of several sources concurrently.
+ *
+ * <p> The searches run on a {@link MappedAdjacencyGraph}, which is read-only
+ * and may be traversed by several threads. The paths of a source are found
+ * by a single search, however many targets it has. The rows of each search are written on
+ * the I/O pool of the {@link TopologyExecutorService}, one search after the
+ * other in the order of the sources, which is also where the edge geometries
+ * are read: the edges table is never accessed concurrently, while the next
+ * searches keep running.
+ *
+ * @author Adam Gouge
+ */
+public class MultiSourceSearcher {
+
+    /**
+     * The graph holding the geometries.
+     */
+    private final MappedAdjacencyGraph graph;
+    /**
+     * The graph to search, with the requested orientation.
+     */
+    private final Graph<Integer, GraphEdge> searchGraph;
+    /**
+     * Executor running the searches and writing their rows.
+     */
+    private final TopologyExecutorService executor;
+
+    /**
+     * Constructs a new {@link MultiSourceSearcher}.
+     *
+     * @param graph       The graph
+     * @param graphType   The orientation: {@link GraphSchema#DIRECT},
+     *                    {@link GraphSchema#DIRECT_REVERSED} or
+     *                    {@link GraphSchema#UNDIRECT}
+     * @param executor    The executor running the searches
+     *
+     * @throws GraphException If the orientation is unknown.
+     */
+    public MultiSourceSearcher(MappedAdjacencyGraph graph, int graphType,
+                               TopologyExecutorService executor)
+            throws GraphException {
+        this.graph = graph;
+        this.executor = executor;
+        if (graphType == GraphSchema.DIRECT) {
+            searchGraph = graph;
+        } else if (graphType == GraphSchema.DIRECT_REVERSED) {
+            searchGraph = new EdgeReversedGraph<Integer, GraphEdge>(graph);
+        } else if (graphType == GraphSchema.UNDIRECT) {
+            searchGraph = new AsUndirectedGraph<Integer, GraphEdge>(graph);
+        } else {
+            throw new GraphException("Only 3 type of graphs are allowed."
+                    + "1 if the path is computing using a directed graph.\n"
+                    + "2 if the path is computing using a directed graph and edges are reversed\n"
+                    + "3 if the path is computing using a undirected.");
+        }
+    }
+
+    /**
+     * Returns all edges reachable from each source, in the
+     * {@link GraphMetadataFactory#createMReachableEdgesMetadata()} format.
+     *
+     * @param dsf     Used to create the result
+     * @param sources The sources, searched in this order, a repeated source
+     *                as many times as it appears
+     * @param radius  The maximal distance
+     * @param pm      Progress monitor
+     *
+     * @return The reachable edges, or {@code null} if the task was cancelled
+     *
+     * @throws DriverException
+     * @throws GraphException  If a source is not in the graph.
+     */
+    public DiskBufferDriver findReachableEdges(DataSourceFactory dsf,
+                                               List<Integer> sources,
+                                               final double radius,
+                                               ProgressMonitor pm)
+            throws DriverException, GraphException {
+        List<Search> searches = new ArrayList<Search>();
+        for (final Integer source : sources) {
+            checkSource(source);
+            searches.add(new Search() {
+                @Override
+                public List<Value[]> call() {
+                    List<Value[]> rows = new ArrayList<Value[]>();
+                    ClosestFirstIterator<Integer, GraphEdge> cl =
+                            new ClosestFirstIterator<Integer, GraphEdge>(
+                            searchGraph, source, radius);
+                    while (cl.hasNext()) {
+                        Integer node = cl.next();
+                        if (!node.equals(source)) {
+                            GraphEdge edge = cl.getSpanningTreeEdge(node);
+                            rows.add(new Value[]{
+                                ValueFactory.createValue(edge.getRowId()),
+                                ValueFactory.createValue(edge.getRowId()),
+                                ValueFactory.createValue(source),
+                                ValueFactory.createValue(edge.getWeight()),
+                                ValueFactory.createValue(
+                                cl.getShortestPathLength(node))});
+                        }
+                    }
+                    return rows;
+                }
+            });
+        }
+        return run(new DiskBufferDriver(
+                dsf, GraphMetadataFactory.createMReachableEdgesMetadata()),
+                   searches, true, "Find reachable edges", pm);
+    }
+
+    /**
+     * Returns the shortest path between each source and its targets, in the
+     * {@link GraphMetadataFactory#createEdgeMetadataShortestPath()} format.
+     *
+     * @param dsf      Used to create the result
+     * @param requests For each source, the path id of each target
+     * @param pm       Progress monitor
+     *
+     * @return The shortest paths, or {@code null} if the task was cancelled
+     *
+     * @throws DriverException
+     * @throws GraphException  If a source is not in the graph.
+     */
+    public DiskBufferDriver findPaths(
+            DataSourceFactory dsf,
+            Map<Integer, ? extends Map<Integer, Integer>> requests,
+            ProgressMonitor pm) throws DriverException, GraphException {
+        List<Search> searches = new ArrayList<Search>();
+        for (final Map.Entry<Integer, ? extends Map<Integer, Integer>> request
+                : requests.entrySet()) {
+            checkSource(request.getKey());
+            searches.add(new Search() {
+                @Override
+                public List<Value[]> call() {
+                    final List<Value[]> rows = new ArrayList<Value[]>();
+                    searchTargets(request.getKey(), request.getValue(),
+                                  new TargetVisitor() {
+                        @Override
+                        public void visit(int id, List<GraphEdge> path) {
+                            for (int k = 0; k < path.size(); k++) {
+                                GraphEdge edge = path.get(k);
+                                rows.add(new Value[]{
+                                    ValueFactory.createValue(edge.getRowId()),
+                                    ValueFactory.createValue(id),
+                                    ValueFactory.createValue(k),
+                                    ValueFactory.createValue(edge.getSource()),
+                                    ValueFactory.createValue(edge.getTarget()),
+                                    ValueFactory.createValue(
+                                    edge.getWeight())});
+                            }
+                        }
+                    });
+                    return rows;
+                }
+            });
+        }
+        return run(new DiskBufferDriver(
+                dsf, GraphMetadataFactory.createEdgeMetadataShortestPath()),
+                   searches, true, "Processing input nodes", pm);
+    }
+
+    /**
+     * Groups the (id, source, target) rows of a nodes table by source. For a
+     * given source, a repeated target keeps the id of its last row.
+     *
+     * @param nodes       The rows of the nodes table
+     * @param idIndex     Index of the id field
+     * @param sourceIndex Index of the source field
+     * @param targetIndex Index of the target field
+     *
+     * @return For each source, in order of first appearance, the id of each
+     *         target
+     */
+    public static LinkedHashMap<Integer, LinkedHashMap<Integer, Integer>>
+            groupBySource(Iterable<Value[]> nodes, int idIndex,
+                          int sourceIndex, int targetIndex) {
+        LinkedHashMap<Integer, LinkedHashMap<Integer, Integer>> requests =
+                new LinkedHashMap<Integer, LinkedHashMap<Integer, Integer>>();
+        for (Value[] row : nodes) {
+            int source = row[sourceIndex].getAsInt();
+            LinkedHashMap<Integer, Integer> targets = requests.get(source);
+            if (targets == null) {
+                targets = new LinkedHashMap<Integer, Integer>();
+                requests.put(source, targets);
+            }
+            targets.put(row[targetIndex].getAsInt(), row[idIndex].getAsInt());
+        }
+        return requests;
+    }
+
+    /**
+     * Throws a {@link GraphException} if the source is not in the graph.
+     */
+    private void checkSource(int source) throws GraphException {
+        if (!searchGraph.containsVertex(source)) {
+            throw new GraphException(
+                    "The graph must contain the source vertex");
+        }
+    }
+
+    /**
+     * Searches from a source until all its targets are reached, and gives the
+     * path to each target, from the target back to the source.
+     *
+     * @param source  The source
+     * @param targets The path id of each target
+     * @param visitor Receives the paths
+     */
+    private void searchTargets(Integer source, Map<Integer, Integer> targets,
+                               TargetVisitor visitor) {
+        int remaining = targets.size();
+        ClosestFirstIterator<Integer, GraphEdge> cl =
+                new ClosestFirstIterator<Integer, GraphEdge>(
+                searchGraph, source);
+        while (cl.hasNext() && remaining > 0) {
+            Integer vertex = cl.next();
+            Integer id = targets.get(vertex);
+            if (id != null) {
+                remaining--;
+                List<GraphEdge> path = new ArrayList<GraphEdge>();
+                int v = vertex;
+                GraphEdge edge = cl.getSpanningTreeEdge(v);
+                while (edge != null) {
+                    path.add(edge);
+                    v = Graphs.getOppositeVertex(searchGraph, edge, v);
+                    edge = cl.getSpanningTreeEdge(v);
+                }
+                visitor.visit(id, path);
+            }
+        }
+    }
+
+    /**
+     * Runs the searches on the CPU pool, keeping a bounded number of
+     * searches ahead of the writer, and writes their rows in order on the I/O
+     * pool, each write starting once the previous one is done.
+     *
+     * @param driver       The result driver
+     * @param searches     The searches
+     * @param withGeometry If {@code true}, the first value of each row is the
+     *                     row id of an edge, replaced by its geometry when
+     *                     the row is written
+     * @param task         Name of the task
+     * @param pm           Progress monitor
+     *
+     * @return The result driver, closed, or {@code null} if the task was
+     *         cancelled
+     *
+     * @throws DriverException
+     */
+    private DiskBufferDriver run(DiskBufferDriver driver,
+                                 List<Search> searches,
+                                 boolean withGeometry,
+                                 String task, ProgressMonitor pm)
+            throws DriverException {
+        pm.startTask(task, 100);
+        final int window = 2 * executor.getParallelism();
+        TopologyExecutorService.TaskGroup tasks = executor.newTaskGroup(pm);
+        Write lastWrite = null;
+        boolean cancelled = false;
+        try {
+            ArrayDeque<Future<List<Value[]>>> pending =
+                    new ArrayDeque<Future<List<Value[]>>>();
+            Future<Void> lastFuture = null;
+            int submitted = 0;
+            int searched = 0;
+            while (searched < searches.size()) {
+                while (submitted < searches.size()
+                        && pending.size() < window) {
+                    pending.add(tasks.submit(searches.get(submitted++)));
+                }
+                List<Value[]> rows = tasks.get(pending.poll());
+                searched++;
+                if (lastFuture != null) {
+                    tasks.get(lastFuture);
+                }
+                lastWrite = new Write(driver, rows, withGeometry);
+                lastFuture = tasks.submitIo(lastWrite);
+                pm.progressTo(100 * searched / searches.size());
+                if (tasks.isCancelled()) {
+                    cancelled = true;
+                    break;
+                }
+            }
+            if (lastFuture != null && !cancelled) {
+                tasks.get(lastFuture);
+            }
+        } catch (CancellationException ex) {
+            cancelled = true;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new DriverException("Interrupted while searching.", ex);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof DriverException) {
+                throw (DriverException) ex.getCause();
+            }
+            throw new DriverException("Could not search the graph.",
+                                      ex.getCause());
+        } finally {
+            tasks.cancel();
+            // A cancelled future does not stop a write already running, and
+            // the driver must not be used by two threads at once.
+            if (lastWrite != null) {
+                lastWrite.stop();
+            }
+        }
+        pm.endTask();
+        if (cancelled) {
+            return null;
+        }
+        driver.writingFinished();
+        driver.close();
+        return driver;
+    }
+
+    /**
+     * Writes the rows of a search. A write is either never started or waited
+     * for by {@link #stop()}.
+     */
+    private final class Write implements Callable<Void> {
+
+        private static final int PENDING = 0;
+        private static final int RUNNING = 1;
+        private static final int DONE = 2;
+        private final DiskBufferDriver driver;
+        private final List<Value[]> rows;
+        private final boolean withGeometry;
+        private final AtomicInteger state = new AtomicInteger(PENDING);
+        private final CountDownLatch done = new CountDownLatch(1);
+
+        Write(DiskBufferDriver driver, List<Value[]> rows,
+              boolean withGeometry) {
+            this.driver = driver;
+            this.rows = rows;
+            this.withGeometry = withGeometry;
+        }
+
+        @Override
+        public Void call() throws DriverException {
+            if (!state.compareAndSet(PENDING, RUNNING)) {
+                return null;
+            }
+            try {
+                for (Value[] row : rows) {
+                    if (withGeometry) {
+                        row[0] = ValueFactory.createValue(
+                                graph.getGeometry(row[0].getAsInt()));
+                    }
+                    driver.addValues(row);
+                }
+            } finally {
+                state.set(DONE);
+                done.countDown();
+            }
+            return null;
+        }
+
+        /**
+         * Prevents the write from starting, or waits for it to end.
+         */
+        void stop() {
+            if (state.compareAndSet(PENDING, DONE)) {
+                return;
+            }
+            try {
+                done.await();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * The search of a single source, giving the rows to write.
+     */
+    private interface Search extends Callable<List<Value[]>> {
+
+        @Override
+        List<Value[]> call();
+    }
+
+    /**
+     * Receives the path to each target of a search.
+     */
+    private interface TargetVisitor {
+
+        /**
+         * Receives the path to a target.
+         *
+         * @param id   The path id
+         * @param path The edges of the path, from the target to the source
+         */
+        void visit(int id, List<GraphEdge> path);
+    }
+}
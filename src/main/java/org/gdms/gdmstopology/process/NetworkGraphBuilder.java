@@ -38,6 +38,8 @@ import com.vividsolutions.jts.geom.Geometry;
 import com.vividsolutions.jts.geom.GeometryFactory;
 import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.BitSet;
 import org.gdms.data.DataSourceFactory;
 import org.gdms.data.NonEditableDataSourceException;
 import org.gdms.data.indexes.rtree.DiskRTree;
@@ -51,6 +53,7 @@ import org.gdms.driver.DiskBufferDriver;
 import org.gdms.driver.DriverException;
 import org.gdms.gdmstopology.model.GraphMetadataFactory;
 import org.gdms.gdmstopology.model.GraphSchema;
+import org.gdms.gdmstopology.utils.VertexOrdering;
 import org.orbisgis.progress.ProgressMonitor;
 
 /**
@@ -97,6 +100,34 @@ public class NetworkGraphBuilder {
      * The output name to prefix ".nodes" and ".edges".
      */
     private String output_name;
+    /**
+     * Boolean indicating whether the nodes should be snapped tile by tile on
+     * several threads.
+     */
+    private boolean parallel = false;
+    /**
+     * Executor running the parallel build.
+     */
+    private TopologyExecutorService executor =
+            TopologyExecutorService.getShared();
+    /**
+     * Boolean indicating whether the nodes should be identified by sorting
+     * the endpoints on disk rather than by querying an R-tree.
+     */
+    private boolean external = false;
+    /**
+     * Number of records held in memory by the external sorts.
+     */
+    private int sortBufferRecords = ExternalRecordSorter.DEFAULT_BUFFER_RECORDS;
+    /**
+     * Reused record of an endpoint written to the external sort.
+     */
+    private final long[] endpointRecord = new long[6];
+    /**
+     * Boolean indicating whether the nodes and edges should be renumbered so
+     * that neighbouring nodes have close ids.
+     */
+    private boolean reorder = false;
 
     /**
      * This class is used to order edges and create required nodes to build a
@@ -139,6 +170,65 @@ public class NetworkGraphBuilder {
         this.output_name = output_name;
     }
 
+    /**
+     * Sets whether the nodes should be snapped tile by tile on several
+     * threads. The resulting tables are the same as those of a sequential
+     * build.
+     *
+     * @param parallel True iff the graph should be built in parallel.
+     */
+    public void setParallel(boolean parallel) {
+        this.parallel = parallel;
+    }
+
+    /**
+     * Sets the executor running the parallel build (by default the shared
+     * one).
+     *
+     * @param executor The executor.
+     */
+    public void setExecutor(TopologyExecutorService executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Sets whether the nodes should be identified by an external merge sort
+     * of the line endpoints, for inputs that do not fit in memory. Nodes are
+     * then numbered in coordinate order and, for a positive tolerance,
+     * endpoints are snapped to a grid whose cells measure the tolerance.
+     * This mode takes precedence over the parallel mode.
+     *
+     * @param external True iff the graph should be built with external
+     *                 sorts.
+     */
+    public void setExternal(boolean external) {
+        this.external = external;
+    }
+
+    /**
+     * Sets the number of records held in memory by each run of the external
+     * sorts.
+     *
+     * @param sortBufferRecords The number of records.
+     */
+    public void setSortBufferRecords(int sortBufferRecords) {
+        this.sortBufferRecords = sortBufferRecords;
+    }
+
+    /**
+     * Sets whether the nodes should be renumbered along a Hilbert curve
+     * through their coordinates (or in reverse Cuthill-McKee order if some
+     * node has no geometry), and the edges renumbered by start node. The
+     * rows of both tables are written in the new order, so that the tables
+     * and the graphs built from them are spatially clustered. This applies
+     * to every build mode.
+     *
+     * @param reorder True iff the graph should be reordered.
+     */
+    public void setReorder(boolean reorder) {
+        this.reorder = reorder;
+    }
+
     /**
      * Create the two data structure nodes and edges using a RTree disk. This
      * method limits the overhead when the all nodes are ordered.
@@ -162,6 +252,10 @@ public class NetworkGraphBuilder {
         if (geomFieldIndex == -1) {
             throw new DriverException(
                     "The table must contain a geometry field");
+        } else if (external) {
+            buildGraphExternally(dataSet, geomFieldIndex);
+        } else if (parallel) {
+            buildGraphInParallel(dataSet, geomFieldIndex);
         } else {
 
             // Start the task.
@@ -253,6 +347,264 @@ public class NetworkGraphBuilder {
         }
     }
 
+    /**
+     * Creates the nodes and edges tables by snapping the nodes of each spatial
+     * tile on a separate thread.
+     *
+     * <p> The input is read twice: once to collect the line endpoints and
+     * once to write the edges with their start and end nodes.
+     *
+     * @param dataSet        Original dataset from which to build the graph.
+     * @param geomFieldIndex Index of the geometry field
+     *
+     * @throws DriverException
+     */
+    private void buildGraphInParallel(DataSet dataSet, int geomFieldIndex)
+            throws DriverException {
+        pm.startTask("Creating the graph", 100);
+
+        // Collect the endpoints in the order in which they are numbered.
+        final int rowCount = (int) dataSet.getRowCount();
+        TiledNodeSnapper snapper =
+                new TiledNodeSnapper(rowCount, tolerance, executor);
+        BitSet reversed = new BitSet(rowCount);
+        for (int i = 0; i < rowCount; i++) {
+            if (i >= 100 && i % 100 == 0) {
+                if (pm.isCancelled()) {
+                    pm.endTask();
+                    return;
+                }
+            }
+            Geometry geom = dataSet.getGeometry(i, geomFieldIndex);
+            Coordinate[] cc = geom.getCoordinates();
+            Coordinate firstPoint = cc[0];
+            Coordinate lastPoint = cc[cc.length - 1];
+            if (tolerance > 0 && geom.getLength() >= tolerance) {
+                expandByTolerance = true;
+            }
+            if (orientBySlope && firstPoint.z < lastPoint.z) {
+                reversed.set(i);
+            }
+            snapper.addEdge(firstPoint, lastPoint, expandByTolerance);
+        }
+        if (!snapper.identifyNodes(pm)) {
+            pm.endTask();
+            return;
+        }
+
+        // Write the nodes.
+        DiskBufferDriver nodesDriver =
+                new DiskBufferDriver(
+                dsf.getResultFile("gdms"),
+                GraphMetadataFactory.createNodesMetadata());
+        for (int node = 1; node <= snapper.getNodeCount(); node++) {
+            writeNode(nodesDriver, snapper.getNodeCoordinate(node), node);
+        }
+
+        // Write the edges.
+        DefaultMetadata edgeMedata = GraphMetadataFactory
+                .createEdgeMetadata(dataSet.getMetadata());
+        DiskBufferDriver edgesDriver =
+                new DiskBufferDriver(dsf.getResultFile("gdms"),
+                                     edgeMedata);
+        int idIndex = edgeMedata.getFieldIndex(GraphSchema.ID);
+        int startIndex = edgeMedata.getFieldIndex(GraphSchema.START_NODE);
+        int endIndex = edgeMedata.getFieldIndex(GraphSchema.END_NODE);
+        for (int i = 0; i < rowCount; i++) {
+            Value[] edgesRow = initializeEdgeRow(dataSet.getRow(i),
+                                                 edgeMedata.getFieldCount());
+            edgesRow[idIndex] = ValueFactory.createValue(i + 1);
+            int first = snapper.getFirstNode(i);
+            int last = snapper.getLastNode(i);
+            edgesRow[startIndex] = ValueFactory.createValue(
+                    reversed.get(i) ? last : first);
+            edgesRow[endIndex] = ValueFactory.createValue(
+                    reversed.get(i) ? first : last);
+            edgesDriver.addValues(edgesRow);
+        }
+        cleanUp(nodesDriver, edgesDriver, null);
+    }
+
+    /**
+     * Creates the nodes and edges tables without any random-access index.
+     *
+     * <p> Every endpoint is written with its endpoint number ({@code 2 * row}
+     * for the start node, {@code 2 * row + 1} for the end node) to run files
+     * sorted on its quantized coordinates. A sequential sweep over the merged
+     * runs assigns the node ids and writes the nodes table. The (endpoint,
+     * node id) pairs are then sorted by endpoint number so that a second
+     * sequential pass over the input can write the edges.
+     *
+     * @param dataSet        Original dataset from which to build the graph.
+     * @param geomFieldIndex Index of the geometry field
+     *
+     * @throws DriverException
+     * @throws IOException
+     */
+    private void buildGraphExternally(DataSet dataSet, int geomFieldIndex)
+            throws DriverException, IOException {
+        pm.startTask("Creating the graph", 100);
+        final long rowCount = dataSet.getRowCount();
+
+        // Write the endpoints: [qx, qy, endpoint, x, y, z].
+        ExternalRecordSorter endpoints =
+                new ExternalRecordSorter(dsf, 6, 2, sortBufferRecords);
+        for (long i = 0; i < rowCount; i++) {
+            if (i >= 100 && i % 100 == 0) {
+                if (pm.isCancelled()) {
+                    endpoints.dispose();
+                    pm.endTask();
+                    return;
+                }
+            }
+            Geometry geom = dataSet.getGeometry(i, geomFieldIndex);
+            Coordinate[] cc = geom.getCoordinates();
+            Coordinate firstPoint = cc[0];
+            Coordinate lastPoint = cc[cc.length - 1];
+            if (orientBySlope && firstPoint.z < lastPoint.z) {
+                addEndpoint(endpoints, 2 * i, lastPoint);
+                addEndpoint(endpoints, 2 * i + 1, firstPoint);
+            } else {
+                addEndpoint(endpoints, 2 * i, firstPoint);
+                addEndpoint(endpoints, 2 * i + 1, lastPoint);
+            }
+        }
+
+        // Assign the node ids in one sweep: [endpoint, node id].
+        DiskBufferDriver nodesDriver =
+                new DiskBufferDriver(
+                dsf.getResultFile("gdms"),
+                GraphMetadataFactory.createNodesMetadata());
+        ExternalRecordSorter nodeIds =
+                new ExternalRecordSorter(dsf, 2, 1, sortBufferRecords);
+        ExternalRecordSorter.RecordIterator sortedEndpoints = endpoints.sort();
+        try {
+            long[] record = new long[6];
+            int nodesGID = 0;
+            long qx = 0;
+            long qy = 0;
+            long firstEndpoint = -1;
+            Coordinate nodeCoord = null;
+            while (sortedEndpoints.next(record)) {
+                if (nodeCoord == null || record[0] != qx || record[1] != qy) {
+                    if (nodeCoord != null) {
+                        writeNode(nodesDriver, nodeCoord, nodesGID);
+                    }
+                    nodesGID++;
+                    qx = record[0];
+                    qy = record[1];
+                    firstEndpoint = record[2];
+                    nodeCoord = toCoordinate(record);
+                } else if (record[2] < firstEndpoint) {
+                    // Keep the coordinate of the first endpoint found in
+                    // the input, as the sequential build does.
+                    firstEndpoint = record[2];
+                    nodeCoord = toCoordinate(record);
+                }
+                nodeIds.add(record[2], nodesGID);
+            }
+            if (nodeCoord != null) {
+                writeNode(nodesDriver, nodeCoord, nodesGID);
+            }
+        } finally {
+            sortedEndpoints.close();
+        }
+
+        // Patch the node ids onto the edges.
+        DefaultMetadata edgeMedata = GraphMetadataFactory
+                .createEdgeMetadata(dataSet.getMetadata());
+        DiskBufferDriver edgesDriver =
+                new DiskBufferDriver(dsf.getResultFile("gdms"),
+                                     edgeMedata);
+        int idIndex = edgeMedata.getFieldIndex(GraphSchema.ID);
+        int startIndex = edgeMedata.getFieldIndex(GraphSchema.START_NODE);
+        int endIndex = edgeMedata.getFieldIndex(GraphSchema.END_NODE);
+        ExternalRecordSorter.RecordIterator sortedNodeIds = nodeIds.sort();
+        try {
+            long[] start = new long[2];
+            long[] end = new long[2];
+            for (long i = 0; i < rowCount; i++) {
+                sortedNodeIds.next(start);
+                sortedNodeIds.next(end);
+                Value[] edgesRow = initializeEdgeRow(
+                        dataSet.getRow(i), edgeMedata.getFieldCount());
+                edgesRow[idIndex] = ValueFactory.createValue((int) i + 1);
+                edgesRow[startIndex] = ValueFactory.createValue((int) start[1]);
+                edgesRow[endIndex] = ValueFactory.createValue((int) end[1]);
+                edgesDriver.addValues(edgesRow);
+            }
+        } finally {
+            sortedNodeIds.close();
+        }
+        cleanUp(nodesDriver, edgesDriver, null);
+    }
+
+    /**
+     * Writes an endpoint record for the external build.
+     *
+     * @param sorter   The endpoint sorter
+     * @param endpoint The endpoint number
+     * @param c        The endpoint coordinate
+     *
+     * @throws IOException
+     */
+    private void addEndpoint(ExternalRecordSorter sorter, long endpoint,
+                             Coordinate c) throws IOException {
+        endpointRecord[0] = quantize(c.x);
+        endpointRecord[1] = quantize(c.y);
+        endpointRecord[2] = endpoint;
+        endpointRecord[3] = Double.doubleToLongBits(c.x);
+        endpointRecord[4] = Double.doubleToLongBits(c.y);
+        endpointRecord[5] = Double.doubleToLongBits(c.z);
+        sorter.add(endpointRecord);
+    }
+
+    /**
+     * Quantizes an ordinate so that endpoints belonging to the same node have
+     * the same key. With a zero tolerance, the key is the exact ordinate.
+     *
+     * @param ordinate The ordinate
+     *
+     * @return The key
+     */
+    private long quantize(double ordinate) {
+        if (tolerance > 0) {
+            return (long) Math.floor(ordinate / tolerance + 0.5);
+        }
+        // Adding 0.0 turns -0.0 into 0.0.
+        return Double.doubleToLongBits(ordinate + 0.0);
+    }
+
+    /**
+     * Recovers the coordinate stored in an endpoint record.
+     *
+     * @param record The endpoint record
+     *
+     * @return The coordinate
+     */
+    private static Coordinate toCoordinate(long[] record) {
+        return new Coordinate(Double.longBitsToDouble(record[3]),
+                              Double.longBitsToDouble(record[4]),
+                              Double.longBitsToDouble(record[5]));
+    }
+
+    /**
+     * Adds a node to the nodes table.
+     *
+     * @param nodesDriver The nodes table
+     * @param nodeCoord   The node's coordinate
+     * @param nodeId      The node's id
+     *
+     * @throws DriverException
+     */
+    private static void writeNode(DiskBufferDriver nodesDriver,
+                                  Coordinate nodeCoord, int nodeId)
+            throws DriverException {
+        nodesDriver.addValues(new Value[]{
+            ValueFactory.createValue(GF.createPoint(nodeCoord)),
+            ValueFactory.createValue(nodeId)});
+    }
+
     /**
      * Initiates a new edge row as a copy of the given original row with space
      * for new values.
@@ -342,9 +694,14 @@ public class NetworkGraphBuilder {
         // stick together into a single node.
         int[] nearbyNodeIds = diskRTree.query(envelope);
         // If there is one, then add the previously found node to the edges row
-        // since we are sticking this node to the one found before.
+        // since we are sticking this node to the one found before. Among
+        // several, the first node created is kept.
         if (nearbyNodeIds.length > 0) {
-            edgesRow[nodeIndex] = ValueFactory.createValue(nearbyNodeIds[0]);
+            int nearest = nearbyNodeIds[0];
+            for (int id : nearbyNodeIds) {
+                nearest = Math.min(nearest, id);
+            }
+            edgesRow[nodeIndex] = ValueFactory.createValue(nearest);
         } // Otherwise, just add this node.
         else {
             // Add this node's id to the edge row at the node's index.
@@ -362,13 +719,99 @@ public class NetworkGraphBuilder {
         return nodesGID;
     }
 
+    /**
+     * Writes the nodes and edges tables again in the order set by
+     * {@link #setReorder} and deletes the given ones.
+     *
+     * @param nodesDriver Nodes driver, whose ids run from 1 to its row count
+     * @param edgesDriver Edges driver
+     *
+     * @return The reordered nodes and edges drivers
+     *
+     * @throws DriverException
+     */
+    private DiskBufferDriver[] reorder(DiskBufferDriver nodesDriver,
+                                       DiskBufferDriver edgesDriver)
+            throws DriverException {
+        nodesDriver.open();
+        edgesDriver.open();
+        Metadata nodesMetadata = nodesDriver.getMetadata();
+        int nodeGeomIndex =
+                MetadataUtilities.getSpatialFieldIndex(nodesMetadata);
+        int nodeIdIndex = nodesMetadata.getFieldIndex(GraphSchema.ID);
+        int nodeCount = (int) nodesDriver.getRowCount();
+        int[] rowOfId = new int[nodeCount + 1];
+        double[] x = new double[nodeCount];
+        double[] y = new double[nodeCount];
+        boolean located = true;
+        for (int i = 0; i < nodeCount; i++) {
+            rowOfId[nodesDriver.getFieldValue(i, nodeIdIndex).getAsInt()] = i;
+            Geometry geom = nodesDriver.getGeometry(i, nodeGeomIndex);
+            if (geom == null || geom.isEmpty()) {
+                located = false;
+            } else {
+                x[i] = geom.getCoordinate().x;
+                y[i] = geom.getCoordinate().y;
+            }
+        }
+        Metadata edgesMetadata = edgesDriver.getMetadata();
+        int idIndex = edgesMetadata.getFieldIndex(GraphSchema.ID);
+        int startIndex = edgesMetadata.getFieldIndex(GraphSchema.START_NODE);
+        int endIndex = edgesMetadata.getFieldIndex(GraphSchema.END_NODE);
+        int edgeCount = (int) edgesDriver.getRowCount();
+        int[] starts = new int[edgeCount];
+        int[] ends = new int[edgeCount];
+        for (int i = 0; i < edgeCount; i++) {
+            starts[i] = rowOfId[
+                    edgesDriver.getFieldValue(i, startIndex).getAsInt()];
+            ends[i] = rowOfId[
+                    edgesDriver.getFieldValue(i, endIndex).getAsInt()];
+        }
+        int[] order = located
+                ? VertexOrdering.hilbertOrder(x, y)
+                : VertexOrdering.reverseCuthillMcKeeOrder(
+                nodeCount, starts, ends);
+        int[] rank = VertexOrdering.inverse(order);
+
+        DiskBufferDriver nodes = new DiskBufferDriver(
+                dsf.getResultFile("gdms"), nodesMetadata);
+        for (int i = 0; i < nodeCount; i++) {
+            Value[] row = nodesDriver.getRow(order[i]);
+            row[nodeIdIndex] = ValueFactory.createValue(i + 1);
+            nodes.addValues(row);
+        }
+        // Group the edges by start node, keeping the input order otherwise.
+        long[] keys = new long[edgeCount];
+        for (int i = 0; i < edgeCount; i++) {
+            keys[i] = (long) rank[starts[i]] << 32 | i;
+        }
+        Arrays.sort(keys);
+        DiskBufferDriver edges = new DiskBufferDriver(
+                dsf.getResultFile("gdms"), edgesMetadata);
+        for (int i = 0; i < edgeCount; i++) {
+            int edge = (int) keys[i];
+            Value[] row = edgesDriver.getRow(edge);
+            row[idIndex] = ValueFactory.createValue(i + 1);
+            row[startIndex] = ValueFactory.createValue(rank[starts[edge]] + 1);
+            row[endIndex] = ValueFactory.createValue(rank[ends[edge]] + 1);
+            edges.addValues(row);
+        }
+        nodes.writingFinished();
+        edges.writingFinished();
+        nodesDriver.close();
+        edgesDriver.close();
+        nodesDriver.getFile().delete();
+        edgesDriver.getFile().delete();
+        return new DiskBufferDriver[]{nodes, edges};
+    }
+
     /**
      * Clean up: register the nodes and edges tables, delete the RTree and end
      * the task.
      *
      * @param nodesDriver   Nodes driver
      * @param edgesDriver   Edges driver
-     * @param diskRTreeFile RTree file to be deleted
+     * @param diskRTreeFile RTree file to be deleted, or null if there is none
      *
      * @throws DriverException
      */
@@ -379,6 +822,11 @@ public class NetworkGraphBuilder {
         // Finished writing.
         nodesDriver.writingFinished();
         edgesDriver.writingFinished();
+        if (reorder) {
+            DiskBufferDriver[] reordered = reorder(nodesDriver, edgesDriver);
+            nodesDriver = reordered[0];
+            edgesDriver = reordered[1];
+        }
 
         // The datasources will be registered as a schema
         String ds_nodes_name = dsf.getSourceManager().getUniqueName(
@@ -392,7 +840,9 @@ public class NetworkGraphBuilder {
                 register(ds_edges_name, edgesDriver.getFile());
 
         //Remove the Rtree on disk
-        diskRTreeFile.delete();
+        if (diskRTreeFile != null) {
+            diskRTreeFile.delete();
+        }
 
         // End the task.
         pm.endTask();
@@ -31,8 +31,8 @@
 package org.gdms.gdmstopology.process;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Iterator;
 import java.util.List;
 import org.gdms.data.DataSourceCreationException;
 
@@ -54,12 +54,8 @@ import com.vividsolutions.jts.geom.Coordinate;
 import com.vividsolutions.jts.geom.Envelope;
 import com.vividsolutions.jts.geom.Geometry;
 import com.vividsolutions.jts.geom.GeometryFactory;
-import com.vividsolutions.jts.geom.IntersectionMatrix;
 import com.vividsolutions.jts.operation.linemerge.LineMerger;
-import com.vividsolutions.jts.operation.polygonize.Polygonizer;
 import java.io.File;
-import org.gdms.data.DataSource;
-import org.gdms.data.indexes.DefaultSpatialIndexQuery;
 import org.gdms.data.indexes.rtree.DiskRTree;
 import org.gdms.data.types.GeometryDimensionConstraint;
 import org.gdms.driver.DataSet;
@@ -81,6 +77,25 @@ public class PlanarGraphBuilder {
         private String ds_nodes_name = ".nodes";
         private String ds_polygons_name = ".polygons";
         private String output_name;
+        /**
+         * True iff the lines should be noded tile by tile on several threads.
+         */
+        private boolean parallel = false;
+        /**
+         * Snap-rounding scale of the tiled noder, or zero for floating
+         * precision.
+         */
+        private double scale = 0;
+        /**
+         * Start and end node of each edge, in edge order.
+         */
+        private int[] startNodes;
+        private int[] endNodes;
+        /**
+         * File of the edges table written by {@link #buildGraph(DataSet)},
+         * replaced when the faces are added.
+         */
+        private File edgesFile;
 
         /**
          * This class is used to computed a planar graph where spatial entities are represented in 3 datasources
@@ -99,23 +114,62 @@ public class PlanarGraphBuilder {
                 this.output_name = output_name;
         }
 
+        /**
+         * Sets whether the lines should be noded tile by tile on several
+         * threads instead of by a single union.
+         *
+         * @param parallel
+         */
+        public void setParallel(boolean parallel) {
+                this.parallel = parallel;
+        }
+
+        /**
+         * Sets the scale of the precision model used to snap-round the
+         * intersections. A positive scale nodes the lines tile by tile, as in
+         * parallel mode.
+         *
+         * @param scale the precision model scale, or zero
+         */
+        public void setSnapRoundingScale(double scale) {
+                if (!(scale >= 0)) {
+                        throw new IllegalArgumentException(
+                                "The snap-rounding scale must be positive or zero.");
+                }
+                this.scale = scale;
+        }
+
+        /**
+         * Creates the metadata of the edges table.
+         *
+         * @return the edges metadata
+         */
+        private DefaultMetadata createEdgeMetadata() {
+                return new DefaultMetadata(new Type[]{
+                                TypeFactory.createType(Type.GEOMETRY,
+                                new Constraint[]{new GeometryDimensionConstraint(1)}),
+                                TypeFactory.createType(Type.INT), TypeFactory.createType(Type.INT), TypeFactory.createType(Type.INT), TypeFactory.createType(Type.INT), TypeFactory.createType(Type.INT)}, new String[]{
+                                "the_geom", GraphSchema.ID, GraphSchema.START_NODE, GraphSchema.END_NODE, GraphSchema.RIGHT_FACE, GraphSchema.LEFT_FACE});
+        }
+
         /**
          * Create the datasources that contains edges without self-intersection and
          * all nodes of the graph with a primary ID
          * @param sds
+         * @return false if the noding of the lines was cancelled, in which case
+         * nothing is registered
          * @throws DriverException, IOException
          */
-        public void buildGraph(DataSet dataSet) throws DriverException, IOException {
+        public boolean buildGraph(DataSet dataSet) throws DriverException, IOException {
                 pm.startTask("Create edges graph", 100);
 
-                DefaultMetadata edgeMedata = new DefaultMetadata(new Type[]{
-                                TypeFactory.createType(Type.GEOMETRY,
-                                new Constraint[]{new GeometryDimensionConstraint(1)}),
-                                TypeFactory.createType(Type.INT), TypeFactory.createType(Type.INT), TypeFactory.createType(Type.INT), TypeFactory.createType(Type.INT), TypeFactory.createType(Type.INT)}, new String[]{
-                                "the_geom", GraphSchema.ID, GraphSchema.START_NODE, GraphSchema.END_NODE, GraphSchema.RIGHT_FACE, GraphSchema.LEFT_FACE});
+                DefaultMetadata edgeMedata = createEdgeMetadata();
                 int edgesFieldsCount = edgeMedata.getFieldCount();
                 // Get linear elements from all geometries in the layer
                 Collection<Geometry> geomColl = getLines(dataSet);
+                if (geomColl == null) {
+                        return false;
+                }
 
                 // Create the edge layer by merging lines between 3+ order nodes
                 // (Merged lines are multilines)
@@ -141,6 +195,8 @@ public class PlanarGraphBuilder {
 
                 int gidNode = 1;
                 int i = 1;
+                startNodes = new int[edges.size()];
+                endNodes = new int[edges.size()];
 
                 Value[] values = new Value[edgesFieldsCount];
                 for (Geometry geom : (Collection<Geometry>) edges) {
@@ -173,6 +229,8 @@ public class PlanarGraphBuilder {
                         values[4] = ValueFactory.createValue(-1);
                         values[5] = ValueFactory.createValue(-1);
                         edgesDriver.addValues(values);
+                        startNodes[i - 2] = values[2].getAsInt();
+                        endNodes[i - 2] = values[3].getAsInt();
 
                 }
 
@@ -182,15 +240,18 @@ public class PlanarGraphBuilder {
                 ds_nodes_name = dsf.getSourceManager().getUniqueName(output_name + ds_nodes_name);
                 dsf.getSourceManager().register(ds_nodes_name, nodeDriver.getFile());
                 ds_edges_name = dsf.getSourceManager().getUniqueName(output_name + ds_edges_name);
-                dsf.getSourceManager().register(ds_edges_name, edgesDriver.getFile());
+                edgesFile = edgesDriver.getFile();
+                dsf.getSourceManager().register(ds_edges_name, edgesFile);
+                return true;
         }
 
         /**
          * Extract all lines as a set of connected and splitted lines.
          * Self-intersection is not allowed.
-         * This method uses the union operator. It must be changed in the futur to limit memory overhead.
+         * This method uses the union operator, or the tiled noder in parallel
+         * mode or with a snap-rounding scale to limit memory overhead.
          * @param dataSet
-         * @return
+         * @return the noded lines, or null if the tiled noding was cancelled
          * @throws DriverException
          */
         public Collection<Geometry> getLines(DataSet dataSet)
@@ -198,6 +259,18 @@ public class PlanarGraphBuilder {
                 LineNoder linenoder = new LineNoder(dataSet);
                 Collection lines = linenoder.getLines();
 
+                if (parallel || scale > 0) {
+                        final List<Geometry> nodedLines = new ArrayList<Geometry>();
+                        boolean done = linenoder.getNodeLines(lines,
+                                new TiledLineNoder.NodedLineHandler() {
+                                        @Override
+                                        public void handle(Geometry line) {
+                                                nodedLines.add(line);
+                                        }
+                                }, scale, pm);
+                        return done ? nodedLines : null;
+                }
+
                 final Geometry nodedGeom = linenoder.getNodeLines((List) lines);
 
                 return linenoder.toLines(nodedGeom);
@@ -205,9 +278,14 @@ public class PlanarGraphBuilder {
         }
 
         /**
-         * Create the datasource that contains polygons.
-         * @param inputSDS
-         * @param omEdges
+         * Create the datasource that contains polygons and fill in the left
+         * and right faces of the edges.
+         *
+         * The faces are derived from a half-edge traversal of the planar graph
+         * (see {@link HalfEdgeTopologyBuilder}), so no spatial predicate is
+         * evaluated. The edges table is then rewritten with its faces.
+         * Edges which are not on the border of a face are coded with -1.
+         *
          * @throws DriverException
          * @throws NonEditableDataSourceException
          * @throws NoSuchTableException
@@ -219,130 +297,46 @@ public class PlanarGraphBuilder {
                 IOException,
                 DriverLoadException,
                 DataSourceCreationException {
-                // Create the face layer
+                List<Geometry> edgeList = new ArrayList<Geometry>(
+                        (Collection<Geometry>) edges);
+                HalfEdgeTopologyBuilder topology = new HalfEdgeTopologyBuilder(
+                        edgeList, startNodes, endNodes);
+                topology.build();
 
+                // Create the face layer
                 DefaultMetadata faceMedata = new DefaultMetadata(new Type[]{
                                 TypeFactory.createType(Type.POLYGON),
                                 TypeFactory.createType(Type.INT)}, new String[]{"the_geom",
                                 GraphSchema.ID});
 
                 DiskBufferDriver faceDriver = new DiskBufferDriver(dsf.getResultFile("gdms"), faceMedata);
-
-                Polygonizer polygonizer = new Polygonizer();
-                polygonizer.add(edges);
-                Collection polygons = polygonizer.getPolygons();
-
-
                 int no = 1;
-                for (Geometry face : (Collection<Geometry>) polygons) {
-                        face.normalize(); // add on 2007-08-11
+                for (Geometry face : topology.getFaces()) {
                         faceDriver.addValues(new Value[]{ValueFactory.createValue(face),
-                                        ValueFactory.createValue(new Integer(no++))});
-
+                                        ValueFactory.createValue(no++)});
                 }
-
                 faceDriver.writingFinished();
 
                 ds_polygons_name = dsf.getSourceManager().getUniqueName(output_name + ds_polygons_name);
                 dsf.getSourceManager().register(ds_polygons_name, faceDriver);
 
-                DataSource sdsFaces = dsf.getDataSource(ds_polygons_name);
-
-                DataSource sdsEdges = dsf.getDataSource(ds_edges_name);
-
-                sdsFaces.open();
-                sdsEdges.open();
-
-                // inscrit les numéros de face dans les arcs
-                // Les arcs qui sont en bords de face sont codés à -1.
-
-                int leftFaceIndex = sdsEdges.getFieldIndexByName(GraphSchema.LEFT_FACE);
-                int rigthFaceIndex = sdsEdges.getFieldIndexByName(GraphSchema.RIGHT_FACE);
-
-
-                long rowCount = sdsEdges.getRowCount();
-                for (int i = 0; i < rowCount; i++) {
-
-                        Geometry g1 = sdsEdges.getGeometry(i);
-
-                        sdsEdges.setInt(i, leftFaceIndex,
-                                MINUS_ONE);
-                        sdsEdges.setInt(i, rigthFaceIndex,
-                                MINUS_ONE);
-                        for (Iterator<Integer> iterator =
-                                query(sdsFaces, g1.getEnvelopeInternal());
-                                iterator.hasNext();) {
-
-                                Integer index = iterator.next();
-                                Geometry g = sdsFaces.getGeometry(index);
-                                Value val = ValueFactory.createValue(index + 1);
-                                IntersectionMatrix im = g1.relate(g);
-                                // intersection between boundaries has dimension 1
-                                if (im.matches("*1*******")) {
-                                        int edgeC0 = getIndex(g1.getCoordinates()[0], g);
-                                        int edgeC1 = getIndex(g1.getCoordinates()[1], g);
-
-                                        // The Math.abs(edgeC1-edgeC0) test inverse the rule when
-                                        // the two
-                                        // consecutive
-                                        // points are the last point and the first point of a
-                                        // ring...
-
-                                        if ((edgeC1 > edgeC0 && Math.abs(edgeC1 - edgeC0) == 1)
-                                                || (edgeC1 < edgeC0 && Math.abs(edgeC1 - edgeC0) > 1)) {
-                                                sdsEdges.setFieldValue(i, rigthFaceIndex, val);
-                                        } else {
-                                                sdsEdges.setFieldValue(i, leftFaceIndex, val);
-                                        }
-                                } // intersection between the line and the polygon interior has
-                                // dimension
-                                // 1
-                                else if (im.matches("1********")) {
-                                        sdsEdges.setFieldValue(i, rigthFaceIndex, val);
-                                        sdsEdges.setFieldValue(i, leftFaceIndex, val);
-
-                                } // intersection between the line and the polygon exterior has
-                                // dimension
-                                // 1
-                                // else if (im.matches("F********")) {}
-                                else;
-
-                        }
-
-                }
-                sdsEdges.commit();
-                sdsEdges.close();
-                sdsFaces.close();
-
-        }
-
-        // Returns the index of c in the geometry g or -1 if c is not a vertex of g
-        private int getIndex(Coordinate c, Geometry g) {
-                Coordinate[] cc = g.getCoordinates();
-                for (int i = 0; i < cc.length; i++) {
-                        if (cc[i].equals(c)) {
-                                return i;
-                        }
+                // Rewrite the edges with their faces.
+                DiskBufferDriver edgesDriver = new DiskBufferDriver(dsf.getResultFile("gdms"), createEdgeMetadata());
+                for (int i = 0; i < edgeList.size(); i++) {
+                        edgesDriver.addValues(new Value[]{
+                                        ValueFactory.createValue(edgeList.get(i)),
+                                        ValueFactory.createValue(i + 1),
+                                        ValueFactory.createValue(startNodes[i]),
+                                        ValueFactory.createValue(endNodes[i]),
+                                        ValueFactory.createValue(topology.getRightFace(i)),
+                                        ValueFactory.createValue(topology.getLeftFace(i))});
                 }
-                return -1;
-        }
-
-        /**
-         * A quick search for geometries, using an envelope comparison.
-         *
-         * @param envelope
-         *            the envelope to query against
-         * @return geometries whose envelopes intersect the given envelope
-         */
-        public Iterator<Integer> query(DataSource sdsFaces, Envelope envelope)
-                throws DriverException, NoSuchTableException, IndexException {
-
-                if (!dsf.getIndexManager().isIndexed(ds_polygons_name, "the_geom")) {
-                        dsf.getIndexManager().buildIndex(ds_polygons_name, "the_geom", pm);
+                edgesDriver.writingFinished();
+                dsf.getSourceManager().remove(ds_edges_name);
+                if (edgesFile != null && !edgesFile.delete()) {
+                        edgesFile.deleteOnExit();
                 }
-
-                DefaultSpatialIndexQuery query = new DefaultSpatialIndexQuery("the_geom", envelope);
-                Iterator<Integer> it = sdsFaces.queryIndex(query);
-                return it;
+                edgesFile = edgesDriver.getFile();
+                dsf.getSourceManager().register(ds_edges_name, edgesFile);
         }
 }
@@ -0,0 +1,220 @@
+/**
+ * GDMS-Topology is a library dedicated to graph analysis. It is based on the
+ * JGraphT library available at <http://www.jgrapht.org/>. It enables computing
+ * and processing large graphs using spatial and alphanumeric indexes.
+ *
+ * This version is developed at French IRSTV institut as part of the EvalPDU
+ * project, funded by the French Agence Nationale de la Recherche (ANR) under
+ * contract ANR-08-VILL-0005-01 and GEBD project funded by the French Ministery
+ * of Ecology and Sustainable Development.
+ *
+ * GDMS-Topology is distributed under GPL 3 license. It is produced by the
+ * "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR
+ * 2488.
+ *
+ * Copyright (C) 2009-2012 IRSTV (FR CNRS 2488)
+ *
+ * GDMS-Topology is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * GDMS-Topology is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * GDMS-Topology. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://wwwc.orbisgis.org/> or contact
+ * directly: info_at_ orbisgis.org
+ */
+package org.gdms.gdmstopology.process;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import org.gdms.driver.DriverException;
+import org.gdms.gdmstopology.utils.UnionFind;
+import org.orbisgis.progress.ProgressMonitor;
+
+/**
+ * Builds the minimum spanning forest of an undirected weighted graph given
+ * as primitive edge arrays, with Boruvka's algorithm.
+ *
+ * <p> Each round labels the vertices by component, then scans the edges
+ * left in chunks on the {@link TopologyExecutorService}: edges inside a
+ * component are dropped, and the lightest edge leaving each component is
+ * kept in an {@link AtomicIntegerArray}. The kept edges then join their
+ * components in a {@link UnionFind}. Ties are broken by edge index, so that
+ * the forest is unique. Every round at least halves the number of
+ * components that still have edges leaving them.
+ *
+ * @author Adam Gouge
+ */
+public class SpanningForestBuilder {
+
+    /**
+     * Number of edges scanned by a task.
+     */
+    private static final int CHUNK_SIZE = 1 << 16;
+    /**
+     * Executor scanning the edges.
+     */
+    private final TopologyExecutorService executor;
+
+    /**
+     * Constructor.
+     *
+     * @param executor The executor scanning the edges
+     */
+    public SpanningForestBuilder(TopologyExecutorService executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Builds the minimum spanning forest of the given edges.
+     *
+     * @param vertexCount The number of vertices
+     * @param starts      The first vertex of each edge, in
+     *                    {@code 0..vertexCount-1}
+     * @param ends        The second vertex of each edge
+     * @param weights     The weight of each edge
+     * @param pm          Progress monitor
+     *
+     * @return For each edge, the number (from 1) of its tree in the forest,
+     *         or 0 if it is not in the forest; {@code null} if the task was
+     *         cancelled
+     *
+     * @throws DriverException If a chunk could not be scanned.
+     */
+    public int[] build(int vertexCount, final int[] starts, final int[] ends,
+                       final double[] weights, ProgressMonitor pm)
+            throws DriverException {
+        UnionFind components = new UnionFind(vertexCount);
+        final int[] labels = new int[vertexCount];
+        final AtomicIntegerArray lightest = new AtomicIntegerArray(vertexCount);
+        boolean[] inForest = new boolean[starts.length];
+        int[] active = new int[starts.length];
+        int activeCount = 0;
+        for (int e = 0; e < starts.length; e++) {
+            if (starts[e] != ends[e]) {
+                active[activeCount++] = e;
+            }
+        }
+        int initialCount = vertexCount;
+        TopologyExecutorService.TaskGroup tasks = executor.newTaskGroup(pm);
+        try {
+            while (activeCount > 0) {
+                for (int v = 0; v < vertexCount; v++) {
+                    labels[v] = components.find(v);
+                    lightest.set(v, -1);
+                }
+                final int[] edges = active;
+                List<Future<int[]>> futures = new ArrayList<Future<int[]>>();
+                for (int from = 0; from < activeCount; from += CHUNK_SIZE) {
+                    final int start = from;
+                    final int end = Math.min(activeCount, from + CHUNK_SIZE);
+                    futures.add(tasks.submit(new Callable<int[]>() {
+                        @Override
+                        public int[] call() {
+                            return scan(edges, start, end, starts, ends,
+                                        weights, labels, lightest);
+                        }
+                    }));
+                }
+                // The edges between components, for the next round.
+                int[] next = new int[activeCount];
+                int nextCount = 0;
+                for (Future<int[]> f : futures) {
+                    int[] kept = tasks.get(f);
+                    System.arraycopy(kept, 0, next, nextCount, kept.length);
+                    nextCount += kept.length;
+                }
+                if (tasks.isCancelled()) {
+                    return null;
+                }
+                for (int v = 0; v < vertexCount; v++) {
+                    int e = lightest.get(v);
+                    if (e != -1 && components.union(starts[e], ends[e])) {
+                        inForest[e] = true;
+                    }
+                }
+                active = next;
+                activeCount = nextCount;
+                if (initialCount > 1) {
+                    pm.progressTo(100 * (initialCount
+                                         - components.getSetCount())
+                                  / (initialCount - 1));
+                }
+            }
+        } catch (CancellationException ex) {
+            return null;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new DriverException("Interrupted while spanning.", ex);
+        } catch (ExecutionException ex) {
+            throw new DriverException("Could not scan the edges.",
+                                      ex.getCause());
+        } finally {
+            tasks.cancel();
+        }
+        int[] trees = components.numberSets();
+        int[] forest = new int[starts.length];
+        for (int e = 0; e < starts.length; e++) {
+            if (inForest[e]) {
+                forest[e] = trees[starts[e]];
+            }
+        }
+        return forest;
+    }
+
+    /**
+     * Drops the edges inside a component and offers the others as the
+     * lightest edge leaving each of their two components.
+     *
+     * @return The edges between components
+     */
+    private static int[] scan(int[] edges, int start, int end, int[] starts,
+                              int[] ends, double[] weights, int[] labels,
+                              AtomicIntegerArray lightest) {
+        int[] kept = new int[end - start];
+        int count = 0;
+        for (int i = start; i < end; i++) {
+            int e = edges[i];
+            int a = labels[starts[e]];
+            int b = labels[ends[e]];
+            if (a != b) {
+                kept[count++] = e;
+                offer(lightest, a, e, weights);
+                offer(lightest, b, e, weights);
+            }
+        }
+        return Arrays.copyOf(kept, count);
+    }
+
+    /**
+     * Keeps the given edge as the lightest edge leaving a component if it is
+     * lighter than the current one.
+     */
+    private static void offer(AtomicIntegerArray lightest, int component,
+                              int e, double[] weights) {
+        while (true) {
+            int current = lightest.get(component);
+            if (current != -1
+                && (weights[current] < weights[e]
+                    || weights[current] == weights[e] && current < e)) {
+                return;
+            }
+            if (lightest.compareAndSet(component, current, e)) {
+                return;
+            }
+        }
+    }
+}
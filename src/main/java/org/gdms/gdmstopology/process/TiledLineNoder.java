@@ -0,0 +1,353 @@
+/**
+ * GDMS-Topology is a library dedicated to graph analysis. It is based on the
+ * JGraphT library available at <http://www.jgrapht.org/>. It enables computing
+ * and processing large graphs using spatial and alphanumeric indexes.
+ *
+ * This version is developed at French IRSTV institut as part of the EvalPDU
+ * project, funded by the French Agence Nationale de la Recherche (ANR) under
+ * contract ANR-08-VILL-0005-01 and GEBD project funded by the French Ministery
+ * of Ecology and Sustainable Development.
+ *
+ * GDMS-Topology is distributed under GPL 3 license. It is produced by the
+ * "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR
+ * 2488.
+ *
+ * Copyright (C) 2009-2012 IRSTV (FR CNRS 2488)
+ *
+ * GDMS-Topology is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * GDMS-Topology is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * GDMS-Topology. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://wwwc.orbisgis.org/> or contact
+ * directly: info_at_ orbisgis.org
+ */
+package org.gdms.gdmstopology.process;
+
+import com.vividsolutions.jts.algorithm.RobustLineIntersector;
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.CoordinateArrays;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.PrecisionModel;
+import com.vividsolutions.jts.index.strtree.STRtree;
+import com.vividsolutions.jts.noding.IntersectionAdder;
+import com.vividsolutions.jts.noding.MCIndexNoder;
+import com.vividsolutions.jts.noding.NodedSegmentString;
+import com.vividsolutions.jts.noding.Noder;
+import com.vividsolutions.jts.noding.SegmentString;
+import com.vividsolutions.jts.noding.snapround.MCIndexSnapRounder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import org.gdms.driver.DriverException;
+import org.orbisgis.progress.ProgressMonitor;
+
+/**
+ * Nodes a collection of lines tile by tile on several threads, as an
+ * alternative to the single JTS union used by {@link LineNoder#getNodeLines}.
+ *
+ * <p> Each line is assigned to the tile containing the centre of its
+ * envelope. A tile nodes its own lines together with every line whose
+ * envelope intersects theirs, so that lines crossing tile edges are noded
+ * against all the lines they may intersect, and only keeps the pieces of its
+ * own lines. Pieces shared by overlapping lines are kept once, for the line
+ * added first, as the union does.
+ *
+ * <p> The noded pieces are handed to a {@link NodedLineHandler} tile by tile,
+ * in tile order, so that they can be written out without being gathered in a
+ * single geometry.
+ *
+ * @author Adam Gouge
+ */
+public class TiledLineNoder {
+
+    /**
+     * Number of tiles created per thread.
+     */
+    private static final int TILES_PER_THREAD = 4;
+    /**
+     * Used to create the noded lines.
+     */
+    private static final GeometryFactory GF = new GeometryFactory();
+    /**
+     * Executor noding the tiles.
+     */
+    private final TopologyExecutorService executor;
+    /**
+     * Snap-rounding scale, or zero for floating precision noding.
+     */
+    private double scale = 0;
+
+    /**
+     * Receives the noded lines.
+     */
+    public interface NodedLineHandler {
+
+        /**
+         * Handles a noded line.
+         *
+         * @param line The noded line
+         *
+         * @throws DriverException
+         */
+        void handle(Geometry line) throws DriverException;
+    }
+
+    /**
+     * Constructs a new {@link TiledLineNoder}.
+     *
+     * @param executor The executor noding the tiles
+     */
+    public TiledLineNoder(TopologyExecutorService executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Sets the scale of the precision model used to snap-round the
+     * intersections. A scale of zero (the default) nodes in floating
+     * precision.
+     *
+     * @param scale The precision model scale
+     */
+    public void setSnapRoundingScale(double scale) {
+        this.scale = scale;
+    }
+
+    /**
+     * Nodes the given lines and hands the noded lines to the given handler.
+     *
+     * @param lines   The lines to node
+     * @param handler The handler receiving the noded lines
+     * @param pm      Progress monitor
+     *
+     * @return {@code false} if the noding was cancelled, in which case the
+     *         handler has only received the lines of some of the tiles
+     *
+     * @throws DriverException If a tile could not be noded or the handler
+     *                         failed.
+     */
+    public boolean node(List<Geometry> lines, NodedLineHandler handler,
+                        ProgressMonitor pm) throws DriverException {
+        final int lineCount = lines.size();
+        if (lineCount == 0) {
+            return true;
+        }
+        final Coordinate[][] coordinates = new Coordinate[lineCount][];
+        final Envelope[] envelopes = new Envelope[lineCount];
+        final STRtree index = new STRtree();
+        Envelope extent = new Envelope();
+        for (int i = 0; i < lineCount; i++) {
+            Geometry line = lines.get(i);
+            coordinates[i] = line.getCoordinates();
+            envelopes[i] = line.getEnvelopeInternal();
+            extent.expandToInclude(envelopes[i]);
+            index.insert(envelopes[i], i);
+        }
+        index.build();
+
+        // Assign each line to the tile containing the centre of its envelope.
+        final int threadCount = executor.getParallelism();
+        final int tilesPerAxis = (int) Math.ceil(
+                Math.sqrt(threadCount * TILES_PER_THREAD));
+        final List<List<Integer>> tiles = new ArrayList<List<Integer>>();
+        for (int t = 0; t < tilesPerAxis * tilesPerAxis; t++) {
+            tiles.add(new ArrayList<Integer>());
+        }
+        for (int i = 0; i < lineCount; i++) {
+            Coordinate centre = envelopes[i].centre();
+            int col = cell(centre.x, extent.getMinX(), extent.getWidth(),
+                           tilesPerAxis);
+            int row = cell(centre.y, extent.getMinY(), extent.getHeight(),
+                           tilesPerAxis);
+            tiles.get(col + tilesPerAxis * row).add(i);
+        }
+
+        // Node the tiles, keeping a bounded window of tiles in flight so
+        // that the noded lines are handed out as soon as possible.
+        TopologyExecutorService.TaskGroup tasks = executor.newTaskGroup(pm);
+        try {
+            LinkedList<Future<List<Geometry>>> pending =
+                    new LinkedList<Future<List<Geometry>>>();
+            int tileIndex = 0;
+            int done = 0;
+            while (tileIndex < tiles.size() || !pending.isEmpty()) {
+                while (tileIndex < tiles.size()
+                       && pending.size() < 2 * threadCount) {
+                    final List<Integer> homeLines = tiles.get(tileIndex++);
+                    pending.add(tasks.submit(
+                            new Callable<List<Geometry>>() {
+                        @Override
+                        public List<Geometry> call() {
+                            return nodeTile(homeLines, coordinates,
+                                            envelopes, index);
+                        }
+                    }));
+                }
+                for (Geometry line : tasks.get(pending.removeFirst())) {
+                    handler.handle(line);
+                }
+                pm.progressTo(100 * ++done / tiles.size());
+                if (tasks.isCancelled()) {
+                    return false;
+                }
+            }
+            return true;
+        } catch (CancellationException ex) {
+            return false;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new DriverException("Interrupted while noding lines.", ex);
+        } catch (ExecutionException ex) {
+            throw new DriverException("Could not node the lines of a tile.",
+                                      ex.getCause());
+        } finally {
+            tasks.cancel();
+        }
+    }
+
+    /**
+     * Returns the grid cell containing the given ordinate.
+     */
+    private static int cell(double ordinate, double min, double extent,
+                            int cells) {
+        if (extent <= 0) {
+            return 0;
+        }
+        return Math.min(cells - 1, (int) ((ordinate - min) / extent * cells));
+    }
+
+    /**
+     * Nodes the given home lines against all the lines they may intersect and
+     * returns the noded pieces of the home lines.
+     *
+     * @param homeLines   Indices of the lines assigned to the tile
+     * @param coordinates Coordinates of every line
+     * @param envelopes   Envelopes of every line
+     * @param index       Index of the line envelopes
+     *
+     * @return The noded pieces of the home lines
+     */
+    private List<Geometry> nodeTile(List<Integer> homeLines,
+                                    Coordinate[][] coordinates,
+                                    Envelope[] envelopes,
+                                    STRtree index) {
+        List<Geometry> result = new ArrayList<Geometry>();
+        if (homeLines.isEmpty()) {
+            return result;
+        }
+        // Gather the lines which may intersect a home line.
+        Map<Integer, NodedSegmentString> working =
+                new HashMap<Integer, NodedSegmentString>();
+        for (Integer home : homeLines) {
+            for (Object o : index.query(envelopes[home])) {
+                Integer i = (Integer) o;
+                if (!working.containsKey(i)) {
+                    working.put(i, new NodedSegmentString(coordinates[i], i));
+                }
+            }
+        }
+        Noder noder = createNoder();
+        noder.computeNodes(new ArrayList<NodedSegmentString>(working.values()));
+        Collection substrings = noder.getNodedSubstrings();
+
+        // Keep each piece once, for the first line it belongs to.
+        Map<CoordinateKey, Integer> owners =
+                new HashMap<CoordinateKey, Integer>();
+        List<CoordinateKey> keys = new ArrayList<CoordinateKey>();
+        List<Integer> keyLines = new ArrayList<Integer>();
+        for (Object o : substrings) {
+            SegmentString piece = (SegmentString) o;
+            Coordinate[] cc = CoordinateArrays.removeRepeatedPoints(
+                    piece.getCoordinates());
+            if (cc.length < 2) {
+                continue;
+            }
+            CoordinateKey key = new CoordinateKey(cc);
+            Integer line = (Integer) piece.getData();
+            Integer owner = owners.get(key);
+            if (owner == null || line < owner) {
+                owners.put(key, line);
+            }
+            keys.add(key);
+            keyLines.add(line);
+        }
+        Set<Integer> home = new HashSet<Integer>(homeLines);
+        for (int k = 0; k < keys.size(); k++) {
+            Integer line = keyLines.get(k);
+            CoordinateKey key = keys.get(k);
+            if (home.contains(line) && line.equals(owners.get(key))) {
+                result.add(GF.createLineString(key.original));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Creates the noder used in a tile. Noders are not thread-safe, so every
+     * tile gets its own.
+     *
+     * @return A new noder
+     */
+    private Noder createNoder() {
+        if (scale > 0) {
+            return new MCIndexSnapRounder(new PrecisionModel(scale));
+        }
+        MCIndexNoder noder = new MCIndexNoder();
+        noder.setSegmentIntersector(
+                new IntersectionAdder(new RobustLineIntersector()));
+        return noder;
+    }
+
+    /**
+     * Identifies a piece by its coordinates, regardless of its direction.
+     */
+    private static final class CoordinateKey {
+
+        private final Coordinate[] original;
+        private final Coordinate[] coordinates;
+        private final int hash;
+
+        CoordinateKey(Coordinate[] cc) {
+            this.original = cc;
+            // Normalize the direction so that reversed pieces are equal.
+            if (cc[0].compareTo(cc[cc.length - 1]) > 0) {
+                cc = cc.clone();
+                CoordinateArrays.reverse(cc);
+            }
+            this.coordinates = cc;
+            this.hash = Arrays.hashCode(cc);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof CoordinateKey
+                   && Arrays.equals(coordinates,
+                                    ((CoordinateKey) obj).coordinates);
+        }
+    }
+}
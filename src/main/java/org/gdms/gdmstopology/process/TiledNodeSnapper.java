@@ -0,0 +1,570 @@
+/**
+ * GDMS-Topology is a library dedicated to graph analysis. It is based on the
+ * JGraphT library available at <http://www.jgrapht.org/>. It enables computing
+ * and processing large graphs using spatial and alphanumeric indexes.
+ *
+ * This version is developed at French IRSTV institut as part of the EvalPDU
+ * project, funded by the French Agence Nationale de la Recherche (ANR) under
+ * contract ANR-08-VILL-0005-01 and GEBD project funded by the French Ministery
+ * of Ecology and Sustainable Development.
+ *
+ * GDMS-Topology is distributed under GPL 3 license. It is produced by the
+ * "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR
+ * 2488.
+ *
+ * Copyright (C) 2009-2012 IRSTV (FR CNRS 2488)
+ *
+ * GDMS-Topology is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * GDMS-Topology is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * GDMS-Topology. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://wwwc.orbisgis.org/> or contact
+ * directly: info_at_ orbisgis.org
+ */
+package org.gdms.gdmstopology.process;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.index.quadtree.Quadtree;
+import com.vividsolutions.jts.index.strtree.STRtree;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import org.gdms.driver.DriverException;
+import org.orbisgis.progress.ProgressMonitor;
+
+/**
+ * Assigns node ids to the endpoints of a set of edges by snapping the
+ * endpoints of each spatial tile on a separate thread.
+ *
+ * <p> The endpoints are partitioned into a regular grid of tiles. Inside a
+ * tile, endpoints are processed in the order in which they were added and are
+ * snapped to the first node found within the tolerance, exactly as
+ * {@link NetworkGraphBuilder} does with its disk R-tree. The endpoints lying
+ * within twice the tolerance of a tile boundary are then snapped again, in
+ * order and against the nodes of every tile, and so are the endpoints whose
+ * snap depended on a node that appeared or disappeared meanwhile.
+ *
+ * <p> Node ids are assigned in order of first appearance, so that the nodes
+ * and their numbering are the same as those of a sequential build.
+ *
+ * @author Adam Gouge
+ */
+public class TiledNodeSnapper {
+
+    /**
+     * Number of tiles created per thread, so that dense tiles do not leave the
+     * other threads idle.
+     */
+    private static final int TILES_PER_THREAD = 4;
+    /**
+     * Nodes within a radius r=tolerance of each other will be considered a
+     * single node.
+     */
+    private final double tolerance;
+    /**
+     * Executor snapping the tiles.
+     */
+    private final TopologyExecutorService executor;
+    /**
+     * Endpoint coordinates. Endpoint {@code 2 * e} is the first endpoint
+     * numbered for edge {@code e} and endpoint {@code 2 * e + 1} the second.
+     */
+    private final double[] x;
+    private final double[] y;
+    private final double[] z;
+    /**
+     * Index of the first edge from which the envelopes are expanded by the
+     * tolerance.
+     */
+    private int firstExpandedEdge = Integer.MAX_VALUE;
+    /**
+     * Number of edges added so far.
+     */
+    private int edgeCount = 0;
+    /**
+     * The node of each endpoint, which is the endpoint itself for the
+     * endpoint giving the coordinate of a node.
+     */
+    private int[] parent;
+    /**
+     * Endpoints sorted by tile, and the position of the first endpoint of each
+     * tile in that order.
+     */
+    private int[] order;
+    private int[] tileStart;
+    /**
+     * The nodes of each tile, indexed by their envelope.
+     */
+    private Quadtree[] tileNodes;
+    /**
+     * The endpoints of each tile, indexed when first needed by the merge.
+     */
+    private STRtree[] tileEndpoints;
+    /**
+     * Node id of each endpoint, available once the nodes are identified.
+     */
+    private int[] nodeIds;
+    /**
+     * For each node id, the endpoint giving its coordinate.
+     */
+    private int[] nodeEndpoints;
+    /**
+     * Number of nodes found.
+     */
+    private int nodeCount = 0;
+    // Tile grid.
+    private double minX;
+    private double minY;
+    private double tileWidth;
+    private double tileHeight;
+    private int tilesX;
+    private int tilesY;
+
+    /**
+     * Constructs a new {@link TiledNodeSnapper}.
+     *
+     * @param edgeCount   The number of edges that will be added
+     * @param tolerance   The snapping tolerance
+     * @param executor    The executor snapping the tiles
+     */
+    public TiledNodeSnapper(int edgeCount, double tolerance,
+                            TopologyExecutorService executor) {
+        this.tolerance = tolerance;
+        this.executor = executor;
+        this.x = new double[2 * edgeCount];
+        this.y = new double[2 * edgeCount];
+        this.z = new double[2 * edgeCount];
+    }
+
+    /**
+     * Adds the endpoints of the next edge, in the order in which they should
+     * be numbered.
+     *
+     * @param first  The endpoint numbered first
+     * @param last   The endpoint numbered second
+     * @param expand True iff the envelopes around these endpoints should be
+     *               expanded by the tolerance
+     */
+    public void addEdge(Coordinate first, Coordinate last, boolean expand) {
+        if (expand && firstExpandedEdge == Integer.MAX_VALUE) {
+            firstExpandedEdge = edgeCount;
+        }
+        set(2 * edgeCount, first);
+        set(2 * edgeCount + 1, last);
+        edgeCount++;
+    }
+
+    /**
+     * Stores the given coordinate at the given endpoint index.
+     *
+     * @param endpoint Endpoint index
+     * @param c        Coordinate
+     */
+    private void set(int endpoint, Coordinate c) {
+        x[endpoint] = c.x;
+        y[endpoint] = c.y;
+        z[endpoint] = c.z;
+    }
+
+    /**
+     * Snaps the endpoints of every tile in parallel, merges the nodes lying
+     * along the tile boundaries and numbers the resulting nodes.
+     *
+     * @param pm Progress monitor
+     *
+     * @return False iff the task was cancelled.
+     *
+     * @throws DriverException If a tile could not be processed.
+     */
+    public boolean identifyNodes(ProgressMonitor pm) throws DriverException {
+        final int endpointCount = 2 * edgeCount;
+        parent = new int[endpointCount];
+        if (endpointCount == 0) {
+            nodeIds = new int[0];
+            nodeEndpoints = new int[1];
+            return true;
+        }
+        initializeTiles(endpointCount);
+
+        // Bucket the endpoints by tile, keeping them in ascending order
+        // inside each tile.
+        final int tileCount = tilesX * tilesY;
+        tileStart = new int[tileCount + 1];
+        for (int i = 0; i < endpointCount; i++) {
+            tileStart[tileOf(x[i], y[i]) + 1]++;
+        }
+        for (int t = 0; t < tileCount; t++) {
+            tileStart[t + 1] += tileStart[t];
+        }
+        order = new int[endpointCount];
+        int[] next = tileStart.clone();
+        tileNodes = new Quadtree[tileCount];
+        for (int i = 0; i < endpointCount; i++) {
+            order[next[tileOf(x[i], y[i])]++] = i;
+        }
+
+        // Snap each tile on its own thread. Tiles write to disjoint parts of
+        // the parent array.
+        TopologyExecutorService.TaskGroup tasks = executor.newTaskGroup(pm);
+        try {
+            List<Future<Void>> futures = new ArrayList<Future<Void>>();
+            for (int t = 0; t < tileCount; t++) {
+                final int tile = t;
+                final int from = tileStart[t];
+                final int to = tileStart[t + 1];
+                if (from < to) {
+                    futures.add(tasks.submit(new Callable<Void>() {
+                        @Override
+                        public Void call() {
+                            snapTile(tile, from, to);
+                            return null;
+                        }
+                    }));
+                }
+            }
+            for (Future<Void> f : futures) {
+                tasks.get(f);
+            }
+        } catch (CancellationException ex) {
+            return false;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new DriverException("Interrupted while snapping nodes.", ex);
+        } catch (ExecutionException ex) {
+            throw new DriverException("Could not snap the nodes of a tile.",
+                                      ex.getCause());
+        } finally {
+            tasks.cancel();
+        }
+
+        if (tolerance > 0 && firstExpandedEdge != Integer.MAX_VALUE) {
+            mergeTileBoundaries(endpointCount);
+        }
+        numberNodes(endpointCount);
+        order = null;
+        tileStart = null;
+        tileNodes = null;
+        tileEndpoints = null;
+        return true;
+    }
+
+    /**
+     * Computes the tile grid from the envelope of all endpoints.
+     *
+     * @param endpointCount Number of endpoints
+     */
+    private void initializeTiles(int endpointCount) {
+        Envelope env = new Envelope();
+        for (int i = 0; i < endpointCount; i++) {
+            env.expandToInclude(x[i], y[i]);
+        }
+        int tilesPerAxis = (int) Math.ceil(
+                Math.sqrt(executor.getParallelism() * TILES_PER_THREAD));
+        minX = env.getMinX();
+        minY = env.getMinY();
+        tilesX = env.getWidth() > 0 ? tilesPerAxis : 1;
+        tilesY = env.getHeight() > 0 ? tilesPerAxis : 1;
+        tileWidth = env.getWidth() / tilesX;
+        tileHeight = env.getHeight() / tilesY;
+    }
+
+    /**
+     * Returns the tile containing the given point.
+     *
+     * @param px x-coordinate
+     * @param py y-coordinate
+     *
+     * @return The tile index
+     */
+    private int tileOf(double px, double py) {
+        return tileColumn(px) + tilesX * tileRow(py);
+    }
+
+    private int tileColumn(double px) {
+        return tilesX == 1 ? 0
+                : Math.min(tilesX - 1, (int) ((px - minX) / tileWidth));
+    }
+
+    private int tileRow(double py) {
+        return tilesY == 1 ? 0
+                : Math.min(tilesY - 1, (int) ((py - minY) / tileHeight));
+    }
+
+    /**
+     * Returns the radius of the envelope around the given endpoint.
+     *
+     * @param endpoint Endpoint index
+     *
+     * @return The tolerance if the envelope is expanded, zero otherwise
+     */
+    private double radius(int endpoint) {
+        return endpoint / 2 >= firstExpandedEdge ? tolerance : 0;
+    }
+
+    /**
+     * Returns true iff the envelopes around the two given endpoints intersect,
+     * which is the condition used by the disk R-tree of the sequential build.
+     *
+     * @param a First endpoint
+     * @param b Second endpoint
+     *
+     * @return True iff the two endpoints should be the same node
+     */
+    private boolean snaps(int a, int b) {
+        double r = radius(a) + radius(b);
+        return Math.abs(x[a] - x[b]) <= r && Math.abs(y[a] - y[b]) <= r;
+    }
+
+    /**
+     * Snaps the endpoints {@code order[from..to)} of a single tile. Each
+     * endpoint either becomes a new node or points to the first node it
+     * snaps to.
+     *
+     * @param tile The tile
+     * @param from First position (inclusive)
+     * @param to   Last position (exclusive)
+     */
+    private void snapTile(int tile, int from, int to) {
+        if (tolerance <= 0 || firstExpandedEdge == Integer.MAX_VALUE) {
+            // Exact matching.
+            Map<Coordinate, Integer> nodes = new HashMap<Coordinate, Integer>();
+            for (int k = from; k < to; k++) {
+                int e = order[k];
+                Coordinate c = new Coordinate(x[e], y[e]);
+                Integer node = nodes.get(c);
+                if (node == null) {
+                    nodes.put(c, e);
+                    parent[e] = e;
+                } else {
+                    parent[e] = node;
+                }
+            }
+        } else {
+            Quadtree nodes = new Quadtree();
+            for (int k = from; k < to; k++) {
+                int e = order[k];
+                Envelope query = new Envelope(x[e], x[e], y[e], y[e]);
+                query.expandBy(radius(e) + tolerance);
+                int found = Integer.MAX_VALUE;
+                for (Object o : nodes.query(query)) {
+                    int candidate = (Integer) o;
+                    if (candidate < found && snaps(e, candidate)) {
+                        found = candidate;
+                    }
+                }
+                if (found == Integer.MAX_VALUE) {
+                    Envelope env = new Envelope(x[e], x[e], y[e], y[e]);
+                    env.expandBy(radius(e));
+                    nodes.insert(env, e);
+                    parent[e] = e;
+                } else {
+                    parent[e] = found;
+                }
+            }
+            tileNodes[tile] = nodes;
+        }
+    }
+
+    /**
+     * Snaps again, in ascending order, the endpoints that may snap to a node
+     * of another tile, that is those within twice the tolerance of a tile
+     * boundary. When an endpoint becomes a node or stops being one, the
+     * following endpoints that may snap to it are snapped again too. The
+     * other endpoints only see the nodes of their tile, which are the same as
+     * in a sequential build, so that the result is that of a sequential
+     * build.
+     *
+     * @param endpointCount Number of endpoints
+     */
+    private void mergeTileBoundaries(int endpointCount) {
+        tileEndpoints = new STRtree[tileNodes.length];
+        final double margin = 2 * tolerance;
+        PriorityQueue<Integer> queue = new PriorityQueue<Integer>();
+        BitSet queued = new BitSet(endpointCount);
+        for (int e = 0; e < endpointCount; e++) {
+            if (isNearTileBoundary(e, margin)) {
+                queue.add(e);
+                queued.set(e);
+            }
+        }
+        while (!queue.isEmpty()) {
+            int e = queue.poll();
+            Envelope query = new Envelope(x[e], x[e], y[e], y[e]);
+            query.expandBy(radius(e) + tolerance);
+            int found = Integer.MAX_VALUE;
+            for (int t : tilesOf(query)) {
+                for (Object o : tileNodes[t].query(query)) {
+                    int candidate = (Integer) o;
+                    if (candidate < found && candidate < e
+                        && snaps(e, candidate)) {
+                        found = candidate;
+                    }
+                }
+            }
+            boolean wasNode = parent[e] == e;
+            boolean isNode = found == Integer.MAX_VALUE;
+            parent[e] = isNode ? e : found;
+            if (wasNode != isNode) {
+                Envelope env = new Envelope(x[e], x[e], y[e], y[e]);
+                env.expandBy(radius(e));
+                Quadtree nodes = tileNodes[tileOf(x[e], y[e])];
+                if (isNode) {
+                    nodes.insert(env, e);
+                } else {
+                    nodes.remove(env, e);
+                }
+                for (int t : tilesOf(query)) {
+                    for (Object o : endpointsOf(t).query(query)) {
+                        int other = (Integer) o;
+                        if (other > e && !queued.get(other)) {
+                            queue.add(other);
+                            queued.set(other);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the tiles intersecting the given envelope.
+     *
+     * @param env Envelope
+     *
+     * @return The tile indices
+     */
+    private List<Integer> tilesOf(Envelope env) {
+        List<Integer> tiles = new ArrayList<Integer>(4);
+        for (int row = tileRow(env.getMinY()); row <= tileRow(env.getMaxY());
+                row++) {
+            for (int col = tileColumn(env.getMinX());
+                    col <= tileColumn(env.getMaxX()); col++) {
+                tiles.add(col + tilesX * row);
+            }
+        }
+        return tiles;
+    }
+
+    /**
+     * Returns the index of the endpoints of the given tile, building it if
+     * needed.
+     *
+     * @param tile Tile
+     *
+     * @return The endpoints of the tile, by coordinate
+     */
+    private STRtree endpointsOf(int tile) {
+        if (tileEndpoints[tile] == null) {
+            STRtree endpoints = new STRtree();
+            for (int k = tileStart[tile]; k < tileStart[tile + 1]; k++) {
+                int e = order[k];
+                endpoints.insert(new Envelope(x[e], x[e], y[e], y[e]), e);
+            }
+            tileEndpoints[tile] = endpoints;
+        }
+        return tileEndpoints[tile];
+    }
+
+    /**
+     * Returns true iff the given endpoint lies within the given margin of an
+     * inner tile boundary.
+     *
+     * @param e      Endpoint
+     * @param margin Margin
+     *
+     * @return True iff the endpoint is close to a neighbouring tile
+     */
+    private boolean isNearTileBoundary(int e, double margin) {
+        int col = tileColumn(x[e]);
+        int row = tileRow(y[e]);
+        double left = minX + col * tileWidth;
+        double bottom = minY + row * tileHeight;
+        return (col > 0 && x[e] - left <= margin)
+               || (col < tilesX - 1 && left + tileWidth - x[e] <= margin)
+               || (row > 0 && y[e] - bottom <= margin)
+               || (row < tilesY - 1 && bottom + tileHeight - y[e] <= margin);
+    }
+
+    /**
+     * Numbers the nodes in order of first appearance.
+     *
+     * @param endpointCount Number of endpoints
+     */
+    private void numberNodes(int endpointCount) {
+        nodeIds = new int[endpointCount];
+        int[] endpoints = new int[endpointCount + 1];
+        for (int e = 0; e < endpointCount; e++) {
+            int node = parent[e];
+            if (node == e) {
+                endpoints[++nodeCount] = e;
+                nodeIds[e] = nodeCount;
+            } else {
+                // The node has a smaller index so it is already numbered.
+                nodeIds[e] = nodeIds[node];
+            }
+        }
+        nodeEndpoints = endpoints;
+        parent = null;
+    }
+
+    /**
+     * Returns the id of the node numbered first for the given edge.
+     *
+     * @param edge Edge index (zero-based, in insertion order)
+     *
+     * @return Node id
+     */
+    public int getFirstNode(int edge) {
+        return nodeIds[2 * edge];
+    }
+
+    /**
+     * Returns the id of the node numbered second for the given edge.
+     *
+     * @param edge Edge index (zero-based, in insertion order)
+     *
+     * @return Node id
+     */
+    public int getLastNode(int edge) {
+        return nodeIds[2 * edge + 1];
+    }
+
+    /**
+     * Returns the number of nodes found.
+     *
+     * @return The number of nodes
+     */
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    /**
+     * Returns the coordinate of the given node, that is, the coordinate of the
+     * first endpoint snapped to it.
+     *
+     * @param nodeId Node id (one-based)
+     *
+     * @return The coordinate
+     */
+    public Coordinate getNodeCoordinate(int nodeId) {
+        int e = nodeEndpoints[nodeId];
+        return new Coordinate(x[e], y[e], z[e]);
+    }
+}
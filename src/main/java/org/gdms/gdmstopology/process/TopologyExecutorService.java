@@ -0,0 +1,343 @@
+/**
+ * GDMS-Topology is a library dedicated to graph analysis. It is based on the
+ * JGraphT library available at <http://www.jgrapht.org/>. It enables computing
+ * and processing large graphs using spatial and alphanumeric indexes.
+ *
+ * This version is developed at French IRSTV institut as part of the EvalPDU
+ * project, funded by the French Agence Nationale de la Recherche (ANR) under
+ * contract ANR-08-VILL-0005-01 and GEBD project funded by the French Ministery
+ * of Ecology and Sustainable Development.
+ *
+ * GDMS-Topology is distributed under GPL 3 license. It is produced by the
+ * "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR
+ * 2488.
+ *
+ * Copyright (C) 2009-2012 IRSTV (FR CNRS 2488)
+ *
+ * GDMS-Topology is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * GDMS-Topology is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * GDMS-Topology. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://wwwc.orbisgis.org/> or contact
+ * directly: info_at_ orbisgis.org
+ */
+package org.gdms.gdmstopology.process;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.orbisgis.progress.ProgressMonitor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The thread pools shared by every parallel algorithm of the bundle: a bounded
+ * pool for CPU-bound graph work and a small pool for I/O-bound writes. The
+ * {@link org.gdms.gdmstopology.Activator} creates the shared instance from
+ * the framework (or system) properties {@link #CPU_THREADS} and
+ * {@link #IO_THREADS}, so that the topology workload of a server can be capped
+ * while batch nodes use every core.
+ *
+ * <p> An algorithm submits its tasks through a {@link TaskGroup} bound to the
+ * progress monitor of its query: cancelling the query cancels the tasks of
+ * that query only.
+ *
+ * @author Adam Gouge
+ */
+public final class TopologyExecutorService {
+
+    /**
+     * Property giving the number of CPU threads (default: the number of
+     * processors).
+     */
+    public static final String CPU_THREADS =
+            "org.gdms.gdmstopology.cpu.threads";
+    /**
+     * Property giving the number of I/O threads (default: 2).
+     */
+    public static final String IO_THREADS = "org.gdms.gdmstopology.io.threads";
+    /**
+     * Default number of I/O threads.
+     */
+    private static final int DEFAULT_IO_THREADS = 2;
+    /**
+     * How often a waiting query checks its progress monitor, in ms.
+     */
+    private static final long CANCELLATION_POLL_MS = 100;
+    /**
+     * The shared instance.
+     */
+    private static TopologyExecutorService shared;
+    /**
+     * Pool for CPU-bound work.
+     */
+    private final ThreadPoolExecutor cpuPool;
+    /**
+     * Pool for I/O-bound work.
+     */
+    private final ThreadPoolExecutor ioPool;
+    /**
+     * A logger.
+     */
+    private static final Logger LOGGER =
+            LoggerFactory.getLogger(TopologyExecutorService.class);
+
+    /**
+     * Constructs a new {@link TopologyExecutorService}.
+     *
+     * @param cpuThreads Number of CPU threads
+     * @param ioThreads  Number of I/O threads
+     */
+    public TopologyExecutorService(int cpuThreads, int ioThreads) {
+        cpuPool = newPool("topology-cpu", Math.max(1, cpuThreads));
+        ioPool = newPool("topology-io", Math.max(1, ioThreads));
+    }
+
+    /**
+     * Creates a {@link TopologyExecutorService} from the given property
+     * values, either of which may be {@code null}.
+     *
+     * @param cpuThreads Value of {@link #CPU_THREADS}
+     * @param ioThreads  Value of {@link #IO_THREADS}
+     *
+     * @return A new executor service
+     */
+    public static TopologyExecutorService fromProperties(String cpuThreads,
+                                                         String ioThreads) {
+        return new TopologyExecutorService(
+                parseThreads(CPU_THREADS, cpuThreads,
+                             Runtime.getRuntime().availableProcessors()),
+                parseThreads(IO_THREADS, ioThreads, DEFAULT_IO_THREADS));
+    }
+
+    /**
+     * Returns the shared instance, created from the system properties if the
+     * bundle has not been started (e.g. in unit tests).
+     *
+     * @return The shared executor service
+     */
+    public static synchronized TopologyExecutorService getShared() {
+        if (shared == null) {
+            shared = fromProperties(System.getProperty(CPU_THREADS),
+                                    System.getProperty(IO_THREADS));
+        }
+        return shared;
+    }
+
+    /**
+     * Replaces the shared instance, shutting the previous one down.
+     *
+     * @param service The new shared instance, or {@code null}
+     */
+    public static synchronized void setShared(TopologyExecutorService service) {
+        if (shared != null && shared != service) {
+            shared.shutdown();
+        }
+        shared = service;
+    }
+
+    /**
+     * Returns the number of CPU threads.
+     *
+     * @return The parallelism
+     */
+    public int getParallelism() {
+        return cpuPool.getMaximumPoolSize();
+    }
+
+    /**
+     * Returns the number of I/O threads.
+     *
+     * @return The number of I/O threads
+     */
+    public int getIoThreads() {
+        return ioPool.getMaximumPoolSize();
+    }
+
+    /**
+     * Starts a group of tasks for one query.
+     *
+     * @param pm Progress monitor of the query
+     *
+     * @return A new task group
+     */
+    public TaskGroup newTaskGroup(ProgressMonitor pm) {
+        return new TaskGroup(pm);
+    }
+
+    /**
+     * Stops the pools, interrupting the running tasks.
+     */
+    public void shutdown() {
+        cpuPool.shutdownNow();
+        ioPool.shutdownNow();
+    }
+
+    /**
+     * The tasks of one query. A task group is used by the thread that runs the
+     * query; it is not thread-safe.
+     */
+    public final class TaskGroup {
+
+        /**
+         * Progress monitor of the query.
+         */
+        private final ProgressMonitor pm;
+        /**
+         * The tasks submitted and maybe not done.
+         */
+        private final List<Future<?>> futures = new ArrayList<Future<?>>();
+
+        private TaskGroup(ProgressMonitor pm) {
+            this.pm = pm;
+        }
+
+        /**
+         * Submits a CPU-bound task.
+         *
+         * @param task The task
+         *
+         * @return Its future
+         */
+        public <T> Future<T> submit(Callable<T> task) {
+            return track(cpuPool.submit(task));
+        }
+
+        /**
+         * Submits an I/O-bound task, such as writing rows to a driver.
+         *
+         * @param task The task
+         *
+         * @return Its future
+         */
+        public <T> Future<T> submitIo(Callable<T> task) {
+            return track(ioPool.submit(task));
+        }
+
+        /**
+         * Waits for a task of this group, checking the progress monitor
+         * meanwhile.
+         *
+         * @param future The future of the task
+         *
+         * @return Its result
+         *
+         * @throws CancellationException If the query was cancelled
+         * @throws InterruptedException
+         * @throws ExecutionException    If the task failed
+         */
+        public <T> T get(Future<T> future) throws InterruptedException,
+                ExecutionException {
+            while (true) {
+                try {
+                    return future.get(CANCELLATION_POLL_MS,
+                                      TimeUnit.MILLISECONDS);
+                } catch (TimeoutException ex) {
+                    if (isCancelled()) {
+                        throw new CancellationException();
+                    }
+                }
+            }
+        }
+
+        /**
+         * Returns {@code true} if the query was cancelled, in which case the
+         * remaining tasks of the group are cancelled.
+         *
+         * @return Whether the query was cancelled
+         */
+        public boolean isCancelled() {
+            if (pm.isCancelled()) {
+                cancel();
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * Cancels the tasks of the group that are not done. To be called in a
+         * {@code finally} block once the group is no longer used.
+         */
+        public void cancel() {
+            for (Future<?> f : futures) {
+                f.cancel(true);
+            }
+            futures.clear();
+        }
+
+        private <T> Future<T> track(Future<T> future) {
+            // Forget the finished tasks from time to time.
+            if (futures.size() >= 1024) {
+                Iterator<Future<?>> it = futures.iterator();
+                while (it.hasNext()) {
+                    if (it.next().isDone()) {
+                        it.remove();
+                    }
+                }
+            }
+            futures.add(future);
+            return future;
+        }
+    }
+
+    /**
+     * Creates a pool of daemon threads whose idle threads end after a minute.
+     */
+    private static ThreadPoolExecutor newPool(final String name, int threads) {
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(
+                threads, threads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(
+                        r, name + "-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    /**
+     * Parses a number of threads, falling back to the default value.
+     */
+    private static int parseThreads(String property, String value,
+                                    int defaultValue) {
+        if (value != null) {
+            try {
+                int threads = Integer.parseInt(value.trim());
+                if (threads > 0) {
+                    return threads;
+                }
+            } catch (NumberFormatException ex) {
+                // Warn below.
+            }
+            LOGGER.warn("Ignoring {} = '{}', using {}.",
+                        new Object[]{property, value, defaultValue});
+        }
+        return defaultValue;
+    }
+}
@@ -0,0 +1,268 @@
+/**
+ * GDMS-Topology is a library dedicated to graph analysis. It is based on the
+ * JGraphT library available at <http://www.jgrapht.org/>. It enables computing
+ * and processing large graphs using spatial and alphanumeric indexes.
+ *
+ * This version is developed at French IRSTV institut as part of the EvalPDU
+ * project, funded by the French Agence Nationale de la Recherche (ANR) under
+ * contract ANR-08-VILL-0005-01 and GEBD project funded by the French Ministery
+ * of Ecology and Sustainable Development.
+ *
+ * GDMS-Topology is distributed under GPL 3 license. It is produced by the
+ * "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR
+ * 2488.
+ *
+ * Copyright (C) 2009-2012 IRSTV (FR CNRS 2488)
+ *
+ * GDMS-Topology is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * GDMS-Topology is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * GDMS-Topology. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://wwwc.orbisgis.org/> or contact
+ * directly: info_at_ orbisgis.org
+ */
+package org.gdms.gdmstopology.process;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import org.gdms.driver.DriverException;
+import org.gdms.gdmstopology.model.CompactGraph;
+import org.orbisgis.progress.ProgressMonitor;
+
+/**
+ * Assigns an origin-destination demand onto the shortest paths of a graph
+ * (all-or-nothing assignment).
+ *
+ * <p> The demand is grouped by origin and each origin is searched once, until
+ * all its destinations are settled. The demand of the destinations is then
+ * carried back to the origin along the shortest path tree, visiting the
+ * settled vertices in reverse order, so that each arc of the tree is visited
+ * once however many destinations lie behind it. The origins are searched in
+ * parallel through the {@link TopologyExecutorService}. Each task borrows a
+ * worker, holding its own flows and search arrays, from a pool of at most one
+ * worker per thread; the flows of the workers are summed at the end and the
+ * pool is dropped with them.
+ *
+ * @author Adam Gouge
+ */
+public class TrafficAssigner {
+
+    /**
+     * The graph.
+     */
+    private final CompactGraph graph;
+    /**
+     * Executor running the searches.
+     */
+    private final TopologyExecutorService executor;
+
+    /**
+     * Constructor.
+     *
+     * @param graph    The graph
+     * @param executor The executor running the searches
+     */
+    public TrafficAssigner(CompactGraph graph,
+                           TopologyExecutorService executor) {
+        this.graph = graph;
+        this.executor = executor;
+    }
+
+    /**
+     * Assigns the given demand. Pairs with a node not in the graph or a
+     * demand which is not positive are ignored, as is the demand of
+     * unreachable destinations.
+     *
+     * @param sources      The origin of each pair
+     * @param destinations The destination of each pair
+     * @param demands      The demand of each pair
+     * @param pm           Progress monitor
+     *
+     * @return The volume of each edge id (of both arcs of an undirected edge
+     *         in a directed graph), or {@code null} if the task was cancelled
+     *
+     * @throws DriverException If a search failed.
+     */
+    public Map<Integer, Double> assign(int[] sources, int[] destinations,
+                                       double[] demands, ProgressMonitor pm)
+            throws DriverException {
+        // Group the pairs by origin with a counting sort on vertex indices.
+        int n = graph.getVertexCount();
+        int[] first = new int[n + 1];
+        int[] origins = new int[sources.length];
+        int[] targets = new int[sources.length];
+        for (int p = 0; p < sources.length; p++) {
+            origins[p] = graph.getIndex(sources[p]);
+            targets[p] = graph.getIndex(destinations[p]);
+            if (origins[p] != -1 && targets[p] != -1 && demands[p] > 0) {
+                first[origins[p] + 1]++;
+            } else {
+                origins[p] = -1;
+            }
+        }
+        for (int v = 0; v < n; v++) {
+            first[v + 1] += first[v];
+        }
+        final int[] pairTargets = new int[first[n]];
+        final double[] pairDemands = new double[first[n]];
+        int[] next = Arrays.copyOf(first, n);
+        for (int p = 0; p < sources.length; p++) {
+            if (origins[p] != -1) {
+                int slot = next[origins[p]]++;
+                pairTargets[slot] = targets[p];
+                pairDemands[slot] = demands[p];
+            }
+        }
+        List<Integer> originList = new ArrayList<Integer>();
+        for (int v = 0; v < n; v++) {
+            if (first[v + 1] > first[v]) {
+                originList.add(v);
+            }
+        }
+
+        final List<Worker> workers = new ArrayList<Worker>();
+        final BlockingQueue<Worker> idle =
+                new ArrayBlockingQueue<Worker>(executor.getParallelism());
+        final int window = 2 * executor.getParallelism();
+        TopologyExecutorService.TaskGroup tasks = executor.newTaskGroup(pm);
+        try {
+            ArrayDeque<Future<Void>> pending = new ArrayDeque<Future<Void>>();
+            int submitted = 0;
+            for (int i = 0; i < originList.size(); i++) {
+                while (submitted < originList.size()
+                       && pending.size() < window) {
+                    final int origin = originList.get(submitted++);
+                    final int from = first[origin];
+                    final int to = first[origin + 1];
+                    pending.add(tasks.submit(new Callable<Void>() {
+                        @Override
+                        public Void call() {
+                            Worker w = idle.poll();
+                            if (w == null) {
+                                w = new Worker();
+                                synchronized (workers) {
+                                    workers.add(w);
+                                }
+                            }
+                            try {
+                                w.assign(origin, pairTargets, pairDemands,
+                                         from, to);
+                            } finally {
+                                idle.offer(w);
+                            }
+                            return null;
+                        }
+                    }));
+                }
+                tasks.get(pending.poll());
+                pm.progressTo(100 * (i + 1) / originList.size());
+                if (tasks.isCancelled()) {
+                    return null;
+                }
+            }
+        } catch (CancellationException ex) {
+            return null;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new DriverException("Interrupted while assigning.", ex);
+        } catch (ExecutionException ex) {
+            throw new DriverException("Could not assign the demand.",
+                                      ex.getCause());
+        } finally {
+            tasks.cancel();
+        }
+
+        Map<Integer, Double> volumes = new HashMap<Integer, Double>();
+        for (int arc = 0; arc < graph.getArcCount(); arc++) {
+            double flow = 0;
+            for (Worker w : workers) {
+                flow += w.flows[arc];
+            }
+            if (flow > 0) {
+                int id = Math.abs(graph.getEdgeId(arc));
+                Double volume = volumes.get(id);
+                volumes.put(id, volume == null ? flow : volume + flow);
+            }
+        }
+        return volumes;
+    }
+
+    /**
+     * The flows and search arrays used by one task at a time.
+     */
+    private final class Worker {
+
+        private final CompactGraph.Searcher searcher = graph.newSearcher();
+        private final double[] flows = new double[graph.getArcCount()];
+        private final double[] pending = new double[graph.getVertexCount()];
+        private int[] order = new int[64];
+        private int settled;
+        private int remaining;
+
+        /**
+         * Searches from an origin and adds its demand to the flows.
+         *
+         * @param origin  The origin index
+         * @param targets The destination of each pair
+         * @param demands The demand of each pair
+         * @param from    The first pair of the origin
+         * @param to      The pair after the last pair of the origin
+         */
+        void assign(int origin, int[] targets, double[] demands,
+                    int from, int to) {
+            remaining = 0;
+            for (int p = from; p < to; p++) {
+                if (pending[targets[p]] == 0) {
+                    remaining++;
+                }
+                pending[targets[p]] += demands[p];
+            }
+            settled = 0;
+            searcher.search(origin, Double.POSITIVE_INFINITY,
+                            new CompactGraph.SearchVisitor() {
+                @Override
+                public boolean visit(int vertex, double distance) {
+                    if (settled == order.length) {
+                        order = Arrays.copyOf(order, 2 * settled);
+                    }
+                    order[settled++] = vertex;
+                    return pending[vertex] == 0 || --remaining > 0;
+                }
+            });
+            // Children are settled after their parent.
+            for (int k = settled - 1; k > 0; k--) {
+                int v = order[k];
+                double flow = pending[v];
+                if (flow > 0) {
+                    flows[searcher.getPreviousArc(v)] += flow;
+                    pending[searcher.getPreviousVertex(v)] += flow;
+                    pending[v] = 0;
+                }
+            }
+            // The demand to the origin itself and to unreached vertices.
+            pending[origin] = 0;
+            for (int p = from; p < to; p++) {
+                pending[targets[p]] = 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,338 @@
+/**
+ * GDMS-Topology is a library dedicated to graph analysis. It is based on the
+ * JGraphT library available at <http://www.jgrapht.org/>. It enables computing
+ * and processing large graphs using spatial and alphanumeric indexes.
+ *
+ * This version is developed at French IRSTV institut as part of the EvalPDU
+ * project, funded by the French Agence Nationale de la Recherche (ANR) under
+ * contract ANR-08-VILL-0005-01 and GEBD project funded by the French Ministery
+ * of Ecology and Sustainable Development.
+ *
+ * GDMS-Topology is distributed under GPL 3 license. It is produced by the
+ * "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR
+ * 2488.
+ *
+ * Copyright (C) 2009-2012 IRSTV (FR CNRS 2488)
+ *
+ * GDMS-Topology is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * GDMS-Topology is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * GDMS-Topology. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://wwwc.orbisgis.org/> or contact
+ * directly: info_at_ orbisgis.org
+ */
+package org.gdms.gdmstopology.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A dense distance matrix stored in a memory-mapped binary file.
+ *
+ * <p> File layout (big-endian):
+ * <ul> <li> header: magic number, version, bytes per distance (4 for float32
+ * or 8 for float64), number of sources, number of destinations; <li> the
+ * source ids, then the destination ids; <li> padding to a multiple of 8
+ * bytes; <li> the distances, row-major (one row per source). </ul>
+ *
+ * <p> Distances not computed are stored as {@code NaN}; unreachable
+ * destinations are stored as {@code +Infinity}.
+ *
+ * @author Adam Gouge
+ */
+public final class DistanceMatrixFile {
+
+    /**
+     * Magic number ("DSMX").
+     */
+    private static final int MAGIC = 0x44534D58;
+    /**
+     * Format version.
+     */
+    private static final int VERSION = 1;
+    /**
+     * Size of the header in bytes.
+     */
+    private static final int HEADER_SIZE = 20;
+    /**
+     * Log2 of the size of a mapped segment (1GB).
+     */
+    private static final int SEGMENT_SHIFT = 30;
+    /**
+     * Mask giving the position in a segment.
+     */
+    private static final long SEGMENT_MASK = (1L << SEGMENT_SHIFT) - 1;
+    /**
+     * The file.
+     */
+    private final File file;
+    /**
+     * The mapped segments.
+     */
+    private final MappedByteBuffer[] segments;
+    /**
+     * Bytes per distance: 4 or 8.
+     */
+    private final int precision;
+    /**
+     * The source of each row.
+     */
+    private final int[] sources;
+    /**
+     * The destination of each column.
+     */
+    private final int[] destinations;
+    /**
+     * Position of the first distance.
+     */
+    private final long valuesOffset;
+
+    /**
+     * Maps the given file.
+     */
+    private DistanceMatrixFile(File file, FileChannel.MapMode mode,
+                               long size, int precision, int[] sources,
+                               int[] destinations) throws IOException {
+        this.file = file;
+        this.precision = precision;
+        this.sources = sources;
+        this.destinations = destinations;
+        this.valuesOffset = valuesOffset(sources.length, destinations.length);
+        RandomAccessFile raf = new RandomAccessFile(
+                file, mode == FileChannel.MapMode.READ_ONLY ? "r" : "rw");
+        try {
+            FileChannel channel = raf.getChannel();
+            if (mode != FileChannel.MapMode.READ_ONLY) {
+                raf.setLength(size);
+            }
+            int count = (int) ((size + SEGMENT_MASK) >>> SEGMENT_SHIFT);
+            segments = new MappedByteBuffer[Math.max(1, count)];
+            for (int s = 0; s < segments.length; s++) {
+                long position = (long) s << SEGMENT_SHIFT;
+                segments[s] = channel.map(
+                        mode, position,
+                        Math.min(SEGMENT_MASK + 1, size - position));
+            }
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Creates a matrix file for the given sources and destinations, with all
+     * distances set to {@code NaN}.
+     *
+     * @param file           The file
+     * @param sources        The source of each row
+     * @param destinations   The destination of each column
+     * @param floatPrecision {@code true} to store float32 distances,
+     *                       {@code false} for float64
+     *
+     * @return The matrix, open for writing
+     *
+     * @throws IOException
+     */
+    public static DistanceMatrixFile create(File file, int[] sources,
+                                            int[] destinations,
+                                            boolean floatPrecision)
+            throws IOException {
+        int precision = floatPrecision ? 4 : 8;
+        long size = valuesOffset(sources.length, destinations.length)
+                + (long) sources.length * destinations.length * precision;
+        DistanceMatrixFile matrix = new DistanceMatrixFile(
+                file, FileChannel.MapMode.READ_WRITE, size, precision,
+                sources, destinations);
+        MappedByteBuffer header = matrix.segments[0];
+        header.putInt(0, MAGIC);
+        header.putInt(4, VERSION);
+        header.putInt(8, precision);
+        header.putInt(12, sources.length);
+        header.putInt(16, destinations.length);
+        int position = HEADER_SIZE;
+        for (int s : sources) {
+            header.putInt(position, s);
+            position += 4;
+        }
+        for (int d : destinations) {
+            header.putInt(position, d);
+            position += 4;
+        }
+        for (int row = 0; row < sources.length; row++) {
+            for (int column = 0; column < destinations.length; column++) {
+                matrix.set(row, column, Double.NaN);
+            }
+        }
+        return matrix;
+    }
+
+    /**
+     * Opens an existing matrix file for reading.
+     *
+     * @param file The file
+     *
+     * @return The matrix
+     *
+     * @throws IOException If the file is not a distance matrix.
+     */
+    public static DistanceMatrixFile open(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        int precision;
+        int[] sources;
+        int[] destinations;
+        try {
+            if (raf.length() < HEADER_SIZE || raf.readInt() != MAGIC) {
+                throw new IOException(file + " is not a distance matrix.");
+            }
+            if (raf.readInt() != VERSION) {
+                throw new IOException("Unsupported distance matrix version.");
+            }
+            precision = raf.readInt();
+            sources = new int[raf.readInt()];
+            destinations = new int[raf.readInt()];
+        } finally {
+            raf.close();
+        }
+        long size = valuesOffset(sources.length, destinations.length)
+                + (long) sources.length * destinations.length * precision;
+        if (file.length() != size) {
+            throw new IOException("Truncated distance matrix " + file + ".");
+        }
+        DistanceMatrixFile matrix = new DistanceMatrixFile(
+                file, FileChannel.MapMode.READ_ONLY, size, precision,
+                sources, destinations);
+        MappedByteBuffer header = matrix.segments[0];
+        int position = HEADER_SIZE;
+        for (int i = 0; i < sources.length; i++) {
+            sources[i] = header.getInt(position);
+            position += 4;
+        }
+        for (int i = 0; i < destinations.length; i++) {
+            destinations[i] = header.getInt(position);
+            position += 4;
+        }
+        return matrix;
+    }
+
+    /**
+     * Returns the position of the first distance.
+     */
+    private static long valuesOffset(int rows, int columns) {
+        long ids = HEADER_SIZE + 4L * (rows + columns);
+        return (ids + 7) & ~7L;
+    }
+
+    /**
+     * Returns the position of a distance in the file.
+     */
+    private long position(int row, int column) {
+        return valuesOffset
+                + ((long) row * destinations.length + column) * precision;
+    }
+
+    /**
+     * Sets a distance.
+     *
+     * @param row      The row (source index)
+     * @param column   The column (destination index)
+     * @param distance The distance
+     */
+    public void set(int row, int column, double distance) {
+        long position = position(row, column);
+        MappedByteBuffer segment =
+                segments[(int) (position >>> SEGMENT_SHIFT)];
+        int offset = (int) (position & SEGMENT_MASK);
+        if (precision == 4) {
+            segment.putFloat(offset, (float) distance);
+        } else {
+            segment.putDouble(offset, distance);
+        }
+    }
+
+    /**
+     * Returns a distance.
+     *
+     * @param row    The row (source index)
+     * @param column The column (destination index)
+     *
+     * @return The distance, or {@code NaN} if it was not computed
+     */
+    public double get(int row, int column) {
+        long position = position(row, column);
+        MappedByteBuffer segment =
+                segments[(int) (position >>> SEGMENT_SHIFT)];
+        int offset = (int) (position & SEGMENT_MASK);
+        return precision == 4
+                ? segment.getFloat(offset)
+                : segment.getDouble(offset);
+    }
+
+    /**
+     * Flushes the distances written so far to the file.
+     */
+    public void flush() {
+        for (MappedByteBuffer segment : segments) {
+            segment.force();
+        }
+    }
+
+    /**
+     * Returns the number of rows (sources).
+     *
+     * @return The number of rows
+     */
+    public int getRowCount() {
+        return sources.length;
+    }
+
+    /**
+     * Returns the number of columns (destinations).
+     *
+     * @return The number of columns
+     */
+    public int getColumnCount() {
+        return destinations.length;
+    }
+
+    /**
+     * Returns the source of a row.
+     *
+     * @param row The row
+     *
+     * @return The source id
+     */
+    public int getSource(int row) {
+        return sources[row];
+    }
+
+    /**
+     * Returns the destination of a column.
+     *
+     * @param column The column
+     *
+     * @return The destination id
+     */
+    public int getDestination(int column) {
+        return destinations[column];
+    }
+
+    /**
+     * Returns the file.
+     *
+     * @return The file
+     */
+    public File getFile() {
+        return file;
+    }
+}
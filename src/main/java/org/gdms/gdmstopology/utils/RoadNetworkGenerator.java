@@ -0,0 +1,406 @@
+/**
+ * GDMS-Topology is a library dedicated to graph analysis. It is based on the
+ * JGraphT library available at <http://www.jgrapht.org/>. It enables computing
+ * and processing large graphs using spatial and alphanumeric indexes.
+ *
+ * This version is developed at French IRSTV institut as part of the EvalPDU
+ * project, funded by the French Agence Nationale de la Recherche (ANR) under
+ * contract ANR-08-VILL-0005-01 and GEBD project funded by the French Ministery
+ * of Ecology and Sustainable Development.
+ *
+ * GDMS-Topology is distributed under GPL 3 license. It is produced by the
+ * "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR
+ * 2488.
+ *
+ * Copyright (C) 2009-2012 IRSTV (FR CNRS 2488)
+ *
+ * GDMS-Topology is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * GDMS-Topology is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * GDMS-Topology. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://wwwc.orbisgis.org/> or contact
+ * directly: info_at_ orbisgis.org
+ */
+package org.gdms.gdmstopology.utils;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import java.io.File;
+import org.gdms.data.schema.DefaultMetadata;
+import org.gdms.data.schema.Metadata;
+import org.gdms.data.types.Constraint;
+import org.gdms.data.types.GeometryDimensionConstraint;
+import org.gdms.data.types.Type;
+import org.gdms.data.types.TypeFactory;
+import org.gdms.data.values.ValueFactory;
+import org.gdms.driver.DiskBufferDriver;
+import org.gdms.driver.DriverException;
+import org.gdms.gdmstopology.graphcreator.GraphCreator;
+import org.gdms.gdmstopology.model.GraphMetadataFactory;
+import org.gdms.gdmstopology.model.GraphSchema;
+import org.orbisgis.progress.ProgressMonitor;
+
+/**
+ * Generates planar road-like networks for scale testing and writes them
+ * directly to the nodes and edges tables produced by
+ * {@link org.gdms.gdmstopology.function.ST_Graph}.
+ *
+ * <p> The base is a perturbed grid of {@code columns x rows} intersections.
+ * Every streets line has a road class: every {@code arterialSpacing}-th line
+ * is an arterial, every {@code motorwaySpacing}-th line a motorway, the others
+ * are local streets. Local horizontal streets are dropped with the drop ratio,
+ * which turns four-way crossings into T-junctions and bends; vertical streets
+ * and the first row are always kept, so the network stays connected. Local
+ * streets are one-way with the one-way ratio. Each street is a three-point
+ * line string bent at its middle.
+ *
+ * <p> Every random draw is a hash of the seed and of the position in the grid,
+ * so the streets are written in a single pass with constant memory (up to
+ * tens of millions of edges) and the same seed always gives the same network.
+ *
+ * <p> Edges table: {@code [the_geom (CONSTRAINED GEOMETRY), road_class (INT), weight
+ * (DOUBLE), edge_orientation (INT), id (INT), start_node (INT), end_node
+ * (INT)]}, where the weight is the travel time in seconds. Nodes table:
+ * {@code [the_geom (POINT), id (INT)]}.
+ *
+ * @author Adam Gouge
+ */
+public class RoadNetworkGenerator {
+
+    /**
+     * Road class column name.
+     */
+    public static final String ROAD_CLASS = "road_class";
+    /**
+     * Road class of motorways.
+     */
+    public static final int MOTORWAY = 1;
+    /**
+     * Road class of arterials.
+     */
+    public static final int ARTERIAL = 2;
+    /**
+     * Road class of local streets.
+     */
+    public static final int LOCAL = 3;
+    /**
+     * Speed of each road class in km/h, indexed by road class.
+     */
+    private static final double[] SPEEDS = new double[]{0, 110, 50, 30};
+    /**
+     * Salts separating the random draws.
+     */
+    private static final int JITTER_X = 1;
+    private static final int JITTER_Y = 2;
+    private static final int DROP = 3;
+    private static final int ONE_WAY = 4;
+    private static final int BEND = 5;
+    /**
+     * Number of intersections on each row.
+     */
+    private final int columns;
+    /**
+     * Number of rows.
+     */
+    private final int rows;
+    /**
+     * Seed of the random draws.
+     */
+    private final long seed;
+    /**
+     * Distance between two intersections, in meters.
+     */
+    private double cellSize = 100;
+    /**
+     * Maximum displacement of an intersection, in cells.
+     */
+    private double jitter = 0.25;
+    /**
+     * Maximum displacement of the middle of a street, in cells.
+     */
+    private double bend = 0.1;
+    /**
+     * Spacing of the arterials, in lines.
+     */
+    private int arterialSpacing = 8;
+    /**
+     * Spacing of the motorways, in lines.
+     */
+    private int motorwaySpacing = 64;
+    /**
+     * Share of the local horizontal streets that are dropped.
+     */
+    private double dropRatio = 0.3;
+    /**
+     * Share of the local streets that are one-way.
+     */
+    private double oneWayRatio = 0.2;
+
+    /**
+     * Constructs a new {@link RoadNetworkGenerator}.
+     *
+     * @param columns Number of intersections on each row
+     * @param rows    Number of rows
+     * @param seed    Seed of the random draws
+     */
+    public RoadNetworkGenerator(int columns, int rows, long seed) {
+        if (columns < 2 || rows < 2) {
+            throw new IllegalArgumentException(
+                    "The grid must have at least two rows and two columns.");
+        }
+        this.columns = columns;
+        this.rows = rows;
+        this.seed = seed;
+        // There are at least as many streets as intersections.
+        if (getMaxEdgeCount() > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException(
+                    "Too many streets for integer ids.");
+        }
+    }
+
+    /**
+     * Sets the distance between two intersections, in meters.
+     *
+     * @param cellSize Cell size
+     */
+    public void setCellSize(double cellSize) {
+        this.cellSize = cellSize;
+    }
+
+    /**
+     * Sets the maximum displacement of an intersection, in cells.
+     *
+     * @param jitter Jitter, less than 0.5 to keep the network planar
+     */
+    public void setJitter(double jitter) {
+        this.jitter = jitter;
+    }
+
+    /**
+     * Sets the maximum displacement of the middle of a street, in cells.
+     *
+     * @param bend Bend
+     */
+    public void setBend(double bend) {
+        this.bend = bend;
+    }
+
+    /**
+     * Sets the spacing of the arterials and of the motorways, in lines.
+     *
+     * @param arterialSpacing Arterial spacing
+     * @param motorwaySpacing Motorway spacing, a multiple of the arterial
+     *                        spacing
+     */
+    public void setSpacing(int arterialSpacing, int motorwaySpacing) {
+        this.arterialSpacing = arterialSpacing;
+        this.motorwaySpacing = motorwaySpacing;
+    }
+
+    /**
+     * Sets the share of the local horizontal streets that are dropped.
+     *
+     * @param dropRatio Drop ratio
+     */
+    public void setDropRatio(double dropRatio) {
+        this.dropRatio = dropRatio;
+    }
+
+    /**
+     * Sets the share of the local streets that are one-way.
+     *
+     * @param oneWayRatio One-way ratio
+     */
+    public void setOneWayRatio(double oneWayRatio) {
+        this.oneWayRatio = oneWayRatio;
+    }
+
+    /**
+     * Returns the number of intersections, i.e. of nodes.
+     *
+     * @return The number of nodes
+     */
+    public int getNodeCount() {
+        return columns * rows;
+    }
+
+    /**
+     * Returns the number of streets before any is dropped, an upper bound of
+     * the number of edges.
+     *
+     * @return The maximum number of edges
+     */
+    public long getMaxEdgeCount() {
+        return (long) (columns - 1) * rows + (long) columns * (rows - 1);
+    }
+
+    /**
+     * Returns the metadata of the generated edges table.
+     *
+     * @return The edges metadata
+     *
+     * @throws DriverException
+     */
+    public static Metadata createEdgeMetadata() throws DriverException {
+        return GraphMetadataFactory.createEdgeMetadata(new DefaultMetadata(
+                new Type[]{TypeFactory.createType(
+                    Type.GEOMETRY,
+                    new Constraint[]{new GeometryDimensionConstraint(
+                        GeometryDimensionConstraint.DIMENSION_CURVE)}),
+                           TypeFactory.createType(Type.INT),
+                           TypeFactory.createType(Type.DOUBLE),
+                           TypeFactory.createType(Type.INT)},
+                new String[]{"the_geom",
+                             ROAD_CLASS,
+                             GraphSchema.WEIGHT,
+                             GraphSchema.EDGE_ORIENTATION}));
+    }
+
+    /**
+     * Writes the network.
+     *
+     * @param nodesFile The nodes file (.gdms), or {@code null} to only write
+     *                  the edges
+     * @param edgesFile The edges file (.gdms)
+     * @param pm        Progress monitor
+     *
+     * @return The number of edges written, or -1 if cancelled
+     *
+     * @throws DriverException
+     */
+    public long generate(File nodesFile, File edgesFile, ProgressMonitor pm)
+            throws DriverException {
+        GeometryFactory factory = new GeometryFactory();
+        pm.startTask("Generating the road network", 100);
+        if (nodesFile != null) {
+            DiskBufferDriver nodes = new DiskBufferDriver(
+                    nodesFile, GraphMetadataFactory.createNodesMetadata());
+            for (int j = 0; j < rows; j++) {
+                for (int i = 0; i < columns; i++) {
+                    nodes.addValues(
+                            ValueFactory.createValue(
+                            factory.createPoint(getNode(i, j))),
+                            ValueFactory.createValue(getNodeId(i, j)));
+                }
+            }
+            nodes.writingFinished();
+        }
+
+        DiskBufferDriver edges =
+                new DiskBufferDriver(edgesFile, createEdgeMetadata());
+        int id = 1;
+        for (int j = 0; j < rows; j++) {
+            if (j % 100 == 0) {
+                if (pm.isCancelled()) {
+                    edges.writingFinished();
+                    pm.endTask();
+                    return -1;
+                }
+                pm.progressTo((int) (100L * j / rows));
+            }
+            int rowClass = getRoadClass(j);
+            for (int i = 0; i < columns; i++) {
+                // Horizontal street to (i + 1, j).
+                if (i + 1 < columns
+                    && (rowClass != LOCAL || j == 0
+                        || uniform(i, j, DROP) >= dropRatio)) {
+                    addStreet(edges, factory, id++, i, j, i + 1, j, rowClass);
+                }
+                // Vertical street to (i, j + 1).
+                if (j + 1 < rows) {
+                    addStreet(edges, factory, id++, i, j, i, j + 1,
+                              getRoadClass(i));
+                }
+            }
+        }
+        edges.writingFinished();
+        pm.endTask();
+        return id - 1;
+    }
+
+    /**
+     * Writes a street from (i1, j1) to (i2, j2).
+     */
+    private void addStreet(DiskBufferDriver edges, GeometryFactory factory,
+                           int id, int i1, int j1, int i2, int j2,
+                           int roadClass) throws DriverException {
+        Coordinate start = getNode(i1, j1);
+        Coordinate end = getNode(i2, j2);
+        // Bend the middle of the street across it.
+        double offset = bend * cellSize
+                        * (2 * uniform(i1 + i2, j1 + j2, BEND) - 1);
+        Coordinate middle = new Coordinate(
+                (start.x + end.x) / 2 + (j2 - j1) * offset,
+                (start.y + end.y) / 2 + (i2 - i1) * offset);
+        Coordinate[] coordinates = new Coordinate[]{start, middle, end};
+        double length = start.distance(middle) + middle.distance(end);
+
+        int orientation = GraphCreator.UNDIRECTED_EDGE;
+        if (roadClass == LOCAL) {
+            double draw = uniform(i1 + i2, j1 + j2, ONE_WAY);
+            if (draw < oneWayRatio / 2) {
+                orientation = GraphCreator.DIRECTED_EDGE;
+            } else if (draw < oneWayRatio) {
+                orientation = GraphCreator.REVERSED_EDGE;
+            }
+        }
+        edges.addValues(
+                ValueFactory.createValue(factory.createLineString(coordinates)),
+                ValueFactory.createValue(roadClass),
+                ValueFactory.createValue(length / (SPEEDS[roadClass] / 3.6)),
+                ValueFactory.createValue(orientation),
+                ValueFactory.createValue(id),
+                ValueFactory.createValue(getNodeId(i1, j1)),
+                ValueFactory.createValue(getNodeId(i2, j2)));
+    }
+
+    /**
+     * Returns the road class of a line of the grid.
+     *
+     * @param line Row or column index
+     *
+     * @return The road class
+     */
+    private int getRoadClass(int line) {
+        return line % motorwaySpacing == 0 ? MOTORWAY
+                : line % arterialSpacing == 0 ? ARTERIAL
+                : LOCAL;
+    }
+
+    /**
+     * Returns the id of the intersection (i, j), numbered row by row from 1.
+     */
+    private int getNodeId(int i, int j) {
+        return j * columns + i + 1;
+    }
+
+    /**
+     * Returns the jittered position of the intersection (i, j).
+     */
+    private Coordinate getNode(int i, int j) {
+        return new Coordinate(
+                cellSize * (i + jitter * (2 * uniform(i, j, JITTER_X) - 1)),
+                cellSize * (j + jitter * (2 * uniform(i, j, JITTER_Y) - 1)));
+    }
+
+    /**
+     * Returns a uniform draw in [0, 1) that only depends on the seed, the
+     * position and the salt (SplitMix64 finalizer).
+     */
+    private double uniform(int i, int j, int salt) {
+        long z = seed + 0x9E3779B97F4A7C15L * (((long) i << 32 | j) * 8 + salt);
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        z = z ^ (z >>> 31);
+        return (z >>> 11) * 0x1.0p-53;
+    }
+}
@@ -0,0 +1,138 @@
+/**
+ * GDMS-Topology is a library dedicated to graph analysis. It is based on the
+ * JGraphT library available at <http://www.jgrapht.org/>. It enables computing
+ * and processing large graphs using spatial and alphanumeric indexes.
+ *
+ * This version is developed at French IRSTV institut as part of the EvalPDU
+ * project, funded by the French Agence Nationale de la Recherche (ANR) under
+ * contract ANR-08-VILL-0005-01 and GEBD project funded by the French Ministery
+ * of Ecology and Sustainable Development.
+ *
+ * GDMS-Topology is distributed under GPL 3 license. It is produced by the
+ * "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR
+ * 2488.
+ *
+ * Copyright (C) 2009-2012 IRSTV (FR CNRS 2488)
+ *
+ * GDMS-Topology is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * GDMS-Topology is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * GDMS-Topology. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://wwwc.orbisgis.org/> or contact
+ * directly: info_at_ orbisgis.org
+ */
+package org.gdms.gdmstopology.utils;
+
+/**
+ * Disjoint-set forest over the integers {@code 0..n-1}, stored in primitive
+ * arrays, with union by size and path halving.
+ *
+ * @author Adam Gouge
+ */
+public class UnionFind {
+
+    /**
+     * Parent of each element.
+     */
+    private final int[] parent;
+    /**
+     * Size of the set of each root.
+     */
+    private final int[] size;
+    /**
+     * Number of disjoint sets.
+     */
+    private int setCount;
+
+    /**
+     * Creates {@code n} singleton sets.
+     *
+     * @param n The number of elements
+     */
+    public UnionFind(int n) {
+        parent = new int[n];
+        size = new int[n];
+        for (int i = 0; i < n; i++) {
+            parent[i] = i;
+            size[i] = 1;
+        }
+        setCount = n;
+    }
+
+    /**
+     * Returns the representative of the set containing the given element.
+     *
+     * @param i The element
+     *
+     * @return The representative
+     */
+    public int find(int i) {
+        while (parent[i] != i) {
+            parent[i] = parent[parent[i]];
+            i = parent[i];
+        }
+        return i;
+    }
+
+    /**
+     * Merges the sets containing the two given elements.
+     *
+     * @param a First element
+     * @param b Second element
+     *
+     * @return True iff the two elements were in different sets
+     */
+    public boolean union(int a, int b) {
+        int ra = find(a);
+        int rb = find(b);
+        if (ra == rb) {
+            return false;
+        }
+        if (size[ra] < size[rb]) {
+            int tmp = ra;
+            ra = rb;
+            rb = tmp;
+        }
+        parent[rb] = ra;
+        size[ra] += size[rb];
+        setCount--;
+        return true;
+    }
+
+    /**
+     * Returns the number of disjoint sets.
+     *
+     * @return The number of sets
+     */
+    public int getSetCount() {
+        return setCount;
+    }
+
+    /**
+     * Numbers the sets from 1 in order of their smallest element.
+     *
+     * @return The set number of each element
+     */
+    public int[] numberSets() {
+        int[] numbers = new int[parent.length];
+        int[] rootNumbers = new int[parent.length];
+        int count = 0;
+        for (int i = 0; i < parent.length; i++) {
+            int root = find(i);
+            if (rootNumbers[root] == 0) {
+                rootNumbers[root] = ++count;
+            }
+            numbers[i] = rootNumbers[root];
+        }
+        return numbers;
+    }
+}
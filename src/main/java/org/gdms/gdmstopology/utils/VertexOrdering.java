@@ -0,0 +1,213 @@
+/**
+ * GDMS-Topology is a library dedicated to graph analysis. It is based on the
+ * JGraphT library available at <http://www.jgrapht.org/>. It enables computing
+ * and processing large graphs using spatial and alphanumeric indexes.
+ *
+ * This version is developed at French IRSTV institut as part of the EvalPDU
+ * project, funded by the French Agence Nationale de la Recherche (ANR) under
+ * contract ANR-08-VILL-0005-01 and GEBD project funded by the French Ministery
+ * of Ecology and Sustainable Development.
+ *
+ * GDMS-Topology is distributed under GPL 3 license. It is produced by the
+ * "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR
+ * 2488.
+ *
+ * Copyright (C) 2009-2012 IRSTV (FR CNRS 2488)
+ *
+ * GDMS-Topology is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * GDMS-Topology is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * GDMS-Topology. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://wwwc.orbisgis.org/> or contact
+ * directly: info_at_ orbisgis.org
+ */
+package org.gdms.gdmstopology.utils;
+
+import java.util.Arrays;
+
+/**
+ * Vertex orderings that place neighbouring vertices close together, so that
+ * graph searches touch fewer cache lines.
+ *
+ * <p> Each ordering is returned as an array {@code order} such that
+ * {@code order[i]} is the (old) index of the {@code i}th vertex;
+ * {@link #inverse} gives the new index of each old vertex.
+ *
+ * @author Adam Gouge
+ */
+public final class VertexOrdering {
+
+    /**
+     * Number of bits of each quantized coordinate of the Hilbert curve.
+     */
+    private static final int HILBERT_ORDER = 16;
+
+    private VertexOrdering() {
+    }
+
+    /**
+     * Orders the vertices along a Hilbert curve covering their bounding box.
+     * Vertices in the same cell keep their relative order.
+     *
+     * @param x The x-coordinate of each vertex
+     * @param y The y-coordinate of each vertex
+     *
+     * @return The order
+     */
+    public static int[] hilbertOrder(double[] x, double[] y) {
+        double minX = Double.POSITIVE_INFINITY;
+        double minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY;
+        double maxY = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < x.length; i++) {
+            minX = Math.min(minX, x[i]);
+            minY = Math.min(minY, y[i]);
+            maxX = Math.max(maxX, x[i]);
+            maxY = Math.max(maxY, y[i]);
+        }
+        // The same scale on both axes keeps the cells square.
+        double extent = Math.max(maxX - minX, maxY - minY);
+        int cells = (1 << HILBERT_ORDER) - 1;
+        double scale = extent > 0 ? cells / extent : 0;
+        long[] keys = new long[x.length];
+        for (int i = 0; i < x.length; i++) {
+            long h = hilbertIndex((int) ((x[i] - minX) * scale),
+                                  (int) ((y[i] - minY) * scale));
+            keys[i] = h << 31 | i;
+        }
+        Arrays.sort(keys);
+        int[] order = new int[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            order[i] = (int) (keys[i] & Integer.MAX_VALUE);
+        }
+        return order;
+    }
+
+    /**
+     * Returns the distance along the Hilbert curve of the given cell.
+     *
+     * @param x The column of the cell, in {@code 0..2^16-1}
+     * @param y The row of the cell
+     *
+     * @return The distance
+     */
+    static long hilbertIndex(int x, int y) {
+        int n = 1 << HILBERT_ORDER;
+        long d = 0;
+        for (int s = n >> 1; s > 0; s >>= 1) {
+            int rx = (x & s) > 0 ? 1 : 0;
+            int ry = (y & s) > 0 ? 1 : 0;
+            d += (long) s * s * ((3 * rx) ^ ry);
+            // Rotate the quadrant.
+            if (ry == 0) {
+                if (rx == 1) {
+                    x = n - 1 - x;
+                    y = n - 1 - y;
+                }
+                int t = x;
+                x = y;
+                y = t;
+            }
+        }
+        return d;
+    }
+
+    /**
+     * Orders the vertices by the reverse Cuthill-McKee algorithm: a
+     * breadth-first search of each connected component from a vertex of
+     * minimum degree, visiting neighbours by increasing degree, reversed.
+     * Edges are considered undirected.
+     *
+     * @param vertexCount The number of vertices
+     * @param starts      The first vertex of each edge
+     * @param ends        The second vertex of each edge
+     *
+     * @return The order
+     */
+    public static int[] reverseCuthillMcKeeOrder(int vertexCount,
+                                                 int[] starts, int[] ends) {
+        int[] offsets = new int[vertexCount + 1];
+        for (int e = 0; e < starts.length; e++) {
+            if (starts[e] != ends[e]) {
+                offsets[starts[e] + 1]++;
+                offsets[ends[e] + 1]++;
+            }
+        }
+        for (int v = 0; v < vertexCount; v++) {
+            offsets[v + 1] += offsets[v];
+        }
+        // Neighbours are packed with their degree so as to sort them by it.
+        long[] neighbours = new long[offsets[vertexCount]];
+        int[] next = Arrays.copyOf(offsets, vertexCount);
+        for (int e = 0; e < starts.length; e++) {
+            int a = starts[e];
+            int b = ends[e];
+            if (a != b) {
+                neighbours[next[a]++] = (long) degree(offsets, b) << 32 | b;
+                neighbours[next[b]++] = (long) degree(offsets, a) << 32 | a;
+            }
+        }
+        long[] roots = new long[vertexCount];
+        for (int v = 0; v < vertexCount; v++) {
+            Arrays.sort(neighbours, offsets[v], offsets[v + 1]);
+            roots[v] = (long) degree(offsets, v) << 32 | v;
+        }
+        Arrays.sort(roots);
+
+        int[] order = new int[vertexCount];
+        boolean[] visited = new boolean[vertexCount];
+        int count = 0;
+        for (int r = 0; r < vertexCount; r++) {
+            int root = (int) roots[r];
+            if (visited[root]) {
+                continue;
+            }
+            visited[root] = true;
+            order[count++] = root;
+            for (int head = count - 1; head < count; head++) {
+                int v = order[head];
+                for (int a = offsets[v]; a < offsets[v + 1]; a++) {
+                    int w = (int) neighbours[a];
+                    if (!visited[w]) {
+                        visited[w] = true;
+                        order[count++] = w;
+                    }
+                }
+            }
+        }
+        for (int i = 0, j = vertexCount - 1; i < j; i++, j--) {
+            int t = order[i];
+            order[i] = order[j];
+            order[j] = t;
+        }
+        return order;
+    }
+
+    private static int degree(int[] offsets, int v) {
+        return offsets[v + 1] - offsets[v];
+    }
+
+    /**
+     * Inverts an order.
+     *
+     * @param order The order
+     *
+     * @return The new index of each old vertex
+     */
+    public static int[] inverse(int[] order) {
+        int[] rank = new int[order.length];
+        for (int i = 0; i < order.length; i++) {
+            rank[order[i]] = i;
+        }
+        return rank;
+    }
+}
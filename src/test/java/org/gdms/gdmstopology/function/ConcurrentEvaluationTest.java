@@ -0,0 +1,254 @@
+/**
+ * GDMS-Topology is a library dedicated to graph analysis. It is based on the
+ * JGraphT library available at <http://www.jgrapht.org/>. It enables computing
+ * and processing large graphs using spatial and alphanumeric indexes.
+ *
+ * This version is developed at French IRSTV institut as part of the EvalPDU
+ * project, funded by the French Agence Nationale de la Recherche (ANR) under
+ * contract ANR-08-VILL-0005-01 and GEBD project funded by the French Ministery
+ * of Ecology and Sustainable Development.
+ *
+ * GDMS-Topology is distributed under GPL 3 license. It is produced by the
+ * "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR
+ * 2488.
+ *
+ * Copyright (C) 2009-2012 IRSTV (FR CNRS 2488)
+ *
+ * GDMS-Topology is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * GDMS-Topology is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * GDMS-Topology. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://wwwc.orbisgis.org/> or contact
+ * directly: info_at_ orbisgis.org
+ */
+package org.gdms.gdmstopology.function;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.gdms.data.DataSource;
+import org.gdms.data.schema.Metadata;
+import org.gdms.data.values.Value;
+import org.gdms.data.values.ValueFactory;
+import org.gdms.driver.DataSet;
+import org.gdms.gdmstopology.TopologySetupTest;
+import org.gdms.gdmstopology.centrality.ST_Accessibility;
+import org.gdms.gdmstopology.centrality.ST_GraphAnalysis;
+import org.gdms.gdmstopology.model.GraphSchema;
+import org.gdms.gdmstopology.utils.RoadNetworkGenerator;
+import org.gdms.sql.function.executor.ExecutorFunction;
+import org.gdms.sql.function.table.TableFunction;
+import org.junit.Test;
+import org.orbisgis.progress.NullProgressMonitor;
+import static org.junit.Assert.*;
+
+/**
+ * Evaluates single instances of the graph functions from several threads at
+ * once, as the registered OSGi services are, and checks that every query gets
+ * the result it gets alone.
+ *
+ * @author Adam Gouge
+ */
+public class ConcurrentEvaluationTest extends TopologySetupTest {
+
+    private static final String EDGES = "road_edges";
+    private static final int SIDE = 12;
+    private static final int THREADS = 8;
+    private static final int ROUNDS = 4;
+    private static final String[] ORIENTATIONS = new String[]{
+        ST_ShortestPathLength.UNDIRECTED,
+        ST_ShortestPathLength.DIRECTED + ST_ShortestPathLength.SEPARATOR
+        + GraphSchema.EDGE_ORIENTATION,
+        ST_ShortestPathLength.REVERSED + ST_ShortestPathLength.SEPARATOR
+        + GraphSchema.EDGE_ORIENTATION};
+
+    @Test
+    public void testConcurrentEvaluations() throws Exception {
+        File file = new File(tmpFolder, "roads.gdms");
+        new RoadNetworkGenerator(SIDE, SIDE, 3L).generate(
+                null, file, new NullProgressMonitor());
+        dsf.getSourceManager().register(EDGES, file);
+        final int nodeCount = SIDE * SIDE;
+
+        // One shared instance of each function.
+        final ST_ShortestPathLength length = new ST_ShortestPathLength();
+        final ST_ShortestPath path = new ST_ShortestPath();
+        final ST_ShortestPathTree tree = new ST_ShortestPathTree();
+        final ST_Accessibility accessibility = new ST_Accessibility();
+        final ST_GraphAnalysis analysis = new ST_GraphAnalysis();
+
+        List<Query> queries = new ArrayList<Query>();
+        for (int i = 0; i < 6; i++) {
+            Value weight = ValueFactory.createValue(GraphSchema.WEIGHT);
+            Value orientation =
+                    ValueFactory.createValue(ORIENTATIONS[i % 3]);
+            queries.add(new Query(length,
+                                  ValueFactory.createValue(7 * i + 1),
+                                  ValueFactory.createValue(nodeCount - 5 * i),
+                                  weight, orientation));
+            queries.add(new Query(length,
+                                  ValueFactory.createValue(11 * i + 1),
+                                  weight, orientation));
+            queries.add(new Query(path,
+                                  ValueFactory.createValue(i + 1),
+                                  ValueFactory.createValue(nodeCount - i),
+                                  weight, orientation));
+            // Alternate with and without a radius, so that a radius left
+            // over from another query would show.
+            queries.add(i % 2 == 0
+                    ? new Query(tree,
+                                ValueFactory.createValue(13 * i + 1),
+                                weight, orientation)
+                    : new Query(tree,
+                                ValueFactory.createValue(13 * i + 1),
+                                ValueFactory.createValue(50f * i),
+                                weight, orientation));
+            queries.add(new Query(accessibility,
+                                  ValueFactory.createValue(
+                    (3 * i + 1) + ", " + (nodeCount - 2 * i)),
+                                  weight, orientation));
+        }
+
+        // Expected results: each query alone, on a fresh instance.
+        List<String> expected = new ArrayList<String>();
+        for (Query query : queries) {
+            expected.add(query.evaluate(
+                    query.function.getClass().newInstance()));
+        }
+
+        // All the queries at once on the shared instances, in random order,
+        // with a few graph analyses in between.
+        List<Integer> order = new ArrayList<Integer>();
+        for (int round = 0; round < ROUNDS; round++) {
+            for (int i = 0; i < queries.size(); i++) {
+                order.add(i);
+            }
+        }
+        Collections.shuffle(order, new Random(1L));
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<String>> results = new ArrayList<Future<String>>();
+            List<Future<Void>> analyses = new ArrayList<Future<Void>>();
+            for (int k = 0; k < order.size(); k++) {
+                results.add(executor.submit(queries.get(order.get(k))));
+                if (k % 20 == 0) {
+                    analyses.add(executor.submit(new Analysis(
+                            analysis, ORIENTATIONS[k % 3], k % 40 == 0)));
+                }
+            }
+            for (Future<Void> f : analyses) {
+                f.get();
+            }
+            for (int k = 0; k < order.size(); k++) {
+                assertEquals("Query " + order.get(k),
+                             expected.get(order.get(k)),
+                             results.get(k).get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * A table function call on its own opened edges table, as in a separate
+     * SQL query.
+     */
+    private class Query implements Callable<String> {
+
+        private final TableFunction function;
+        private final Value[] values;
+
+        Query(TableFunction function, Value... values) {
+            this.function = function;
+            this.values = values;
+        }
+
+        @Override
+        public String call() throws Exception {
+            return evaluate(function);
+        }
+
+        String evaluate(TableFunction instance) throws Exception {
+            DataSource edges = dsf.getDataSource(EDGES);
+            edges.open();
+            try {
+                return fingerprint(instance.evaluate(
+                        dsf, new DataSet[]{edges}, values,
+                        new NullProgressMonitor()));
+            } finally {
+                edges.close();
+            }
+        }
+    }
+
+    /**
+     * An {@link ST_GraphAnalysis} call, which must simply not fail.
+     */
+    private class Analysis implements Callable<Void> {
+
+        private final ExecutorFunction function;
+        private final String orientation;
+        private final boolean weighted;
+
+        Analysis(ExecutorFunction function, String orientation,
+                 boolean weighted) {
+            this.function = function;
+            this.orientation = orientation;
+            this.weighted = weighted;
+        }
+
+        @Override
+        public Void call() throws Exception {
+            DataSource edges = dsf.getDataSource(EDGES);
+            edges.open();
+            try {
+                Value[] values = weighted
+                        ? new Value[]{
+                    ValueFactory.createValue(GraphSchema.WEIGHT),
+                    ValueFactory.createValue(orientation)}
+                        : new Value[]{ValueFactory.createValue(orientation)};
+                function.evaluate(dsf, new DataSet[]{edges}, values,
+                                  new NullProgressMonitor());
+            } finally {
+                edges.close();
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Returns the sorted rows of the given result, without the path ids, which
+     * depend on the iteration order of hash sets.
+     */
+    private static String fingerprint(DataSet result) throws Exception {
+        Metadata md = result.getMetadata();
+        int pathIdIndex = md.getFieldIndex(GraphSchema.PATH_ID);
+        List<String> rows = new ArrayList<String>();
+        for (long i = 0; i < result.getRowCount(); i++) {
+            StringBuilder row = new StringBuilder();
+            for (int j = 0; j < md.getFieldCount(); j++) {
+                if (j != pathIdIndex) {
+                    row.append(result.getFieldValue(i, j)).append(';');
+                }
+            }
+            rows.add(row.toString());
+        }
+        Collections.sort(rows);
+        return rows.toString();
+    }
+}
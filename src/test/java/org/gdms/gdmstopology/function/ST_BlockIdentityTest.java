@@ -0,0 +1,94 @@
+/**
+ * GDMS-Topology is a library dedicated to graph analysis. It is based on the
+ * JGraphT library available at <http://www.jgrapht.org/>. It enables computing
+ * and processing large graphs using spatial and alphanumeric indexes.
+ *
+ * This version is developed at French IRSTV institut as part of the EvalPDU
+ * project, funded by the French Agence Nationale de la Recherche (ANR) under
+ * contract ANR-08-VILL-0005-01 and GEBD project funded by the French Ministery
+ * of Ecology and Sustainable Development.
+ *
+ * GDMS-Topology is distributed under GPL 3 license. It is produced by the
+ * "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR
+ * 2488.
+ *
+ * Copyright (C) 2009-2012 IRSTV (FR CNRS 2488)
+ *
+ * GDMS-Topology is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * GDMS-Topology is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * GDMS-Topology. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://wwwc.orbisgis.org/> or contact
+ * directly: info_at_ orbisgis.org
+ */
+package org.gdms.gdmstopology.function;
+
+import org.gdms.data.types.Type;
+import org.gdms.data.types.TypeFactory;
+import org.gdms.data.values.Value;
+import org.gdms.data.values.ValueFactory;
+import org.gdms.driver.DataSet;
+import org.gdms.driver.memory.MemoryDataSetDriver;
+import org.gdms.gdmstopology.TopologySetupTest;
+import org.junit.Test;
+import org.orbisgis.progress.NullProgressMonitor;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests {@link ST_BlockIdentity}.
+ *
+ * @author Adam Gouge
+ */
+public class ST_BlockIdentityTest extends TopologySetupTest {
+
+    /**
+     * Tests two blocks: three squares connected by touching edges or corners,
+     * and two overlapping squares far away. Rows must be grouped by block.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void blockIdentityTest() throws Exception {
+        final MemoryDataSetDriver sourceDriver =
+                new MemoryDataSetDriver(new String[]{"the_geom", "id"},
+                                        new Type[]{
+            TypeFactory.createType(Type.GEOMETRY),
+            TypeFactory.createType(Type.INT)});
+        String[] wkts = new String[]{
+            "POLYGON((0 0, 1 0, 1 1, 0 1, 0 0))",
+            "POLYGON((10 10, 12 10, 12 12, 10 12, 10 10))",
+            "POLYGON((1 0, 2 0, 2 1, 1 1, 1 0))",
+            "POLYGON((11 11, 13 11, 13 13, 11 13, 11 11))",
+            "POLYGON((2 1, 3 1, 3 2, 2 2, 2 1))"};
+        for (int i = 0; i < wkts.length; i++) {
+            sourceDriver.addValues(new Value[]{
+                ValueFactory.createValue(wktReader.read(wkts[i])),
+                ValueFactory.createValue(i + 1)});
+        }
+
+        DataSet result = new ST_BlockIdentity().evaluate(
+                dsf, new DataSet[]{sourceDriver},
+                new Value[]{ValueFactory.createValue("the_geom"),
+                            ValueFactory.createValue("id")},
+                new NullProgressMonitor());
+
+        int[] expectedIds = new int[]{1, 3, 5, 2, 4};
+        long[] expectedBlocks = new long[]{1, 1, 1, 2, 2};
+        assertEquals(expectedIds.length, result.getRowCount());
+        for (int i = 0; i < expectedIds.length; i++) {
+            assertEquals(expectedIds[i],
+                         result.getFieldValue(i, 0).getAsInt());
+            assertEquals(expectedBlocks[i],
+                         result.getFieldValue(i, 1).getAsLong());
+        }
+    }
+}
@@ -0,0 +1,170 @@
+/**
+ * GDMS-Topology is a library dedicated to graph analysis. It is based on the
+ * JGraphT library available at <http://www.jgrapht.org/>. It enables computing
+ * and processing large graphs using spatial and alphanumeric indexes.
+ *
+ * This version is developed at French IRSTV institut as part of the EvalPDU
+ * project, funded by the French Agence Nationale de la Recherche (ANR) under
+ * contract ANR-08-VILL-0005-01 and GEBD project funded by the French Ministery
+ * of Ecology and Sustainable Development.
+ *
+ * GDMS-Topology is distributed under GPL 3 license. It is produced by the
+ * "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR
+ * 2488.
+ *
+ * Copyright (C) 2009-2012 IRSTV (FR CNRS 2488)
+ *
+ * GDMS-Topology is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * GDMS-Topology is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * GDMS-Topology. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://wwwc.orbisgis.org/> or contact
+ * directly: info_at_ orbisgis.org
+ */
+package org.gdms.gdmstopology.function;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+import org.gdms.data.DataSource;
+import org.gdms.data.types.Type;
+import org.gdms.data.types.TypeFactory;
+import org.gdms.data.values.Value;
+import org.gdms.data.values.ValueFactory;
+import org.gdms.driver.DataSet;
+import org.gdms.driver.memory.MemoryDataSetDriver;
+import org.gdms.gdmstopology.TopologySetupTest;
+import org.gdms.gdmstopology.model.DistanceMatrixDataSet;
+import org.gdms.gdmstopology.model.GraphSchema;
+import org.gdms.gdmstopology.utils.RoadNetworkGenerator;
+import org.junit.Test;
+import org.orbisgis.progress.NullProgressMonitor;
+import static org.junit.Assert.*;
+
+/**
+ * Tests {@link ST_DistanceMatrix} against {@link ST_ShortestPathLength}.
+ *
+ * @author Adam Gouge
+ */
+public class ST_DistanceMatrixTest extends TopologySetupTest {
+
+    private static final int SIDE = 8;
+    private static final int[] NODES = new int[]{1, 9, 17, 30, 64, 42, 9};
+    private static final int MISSING_NODE = 1000;
+
+    @Test
+    public void testUndirected() throws Exception {
+        check(ST_ShortestPathLength.UNDIRECTED, null);
+    }
+
+    @Test
+    public void testDirected() throws Exception {
+        check(ST_ShortestPathLength.DIRECTED + ST_ShortestPathLength.SEPARATOR
+              + GraphSchema.EDGE_ORIENTATION, null);
+    }
+
+    @Test
+    public void testReversedFloat32() throws Exception {
+        check(ST_ShortestPathLength.REVERSED + ST_ShortestPathLength.SEPARATOR
+              + GraphSchema.EDGE_ORIENTATION, ST_ShortestPathLength.FLOAT32);
+    }
+
+    @Test
+    public void testDirectedReordered() throws Exception {
+        check(ST_ShortestPathLength.DIRECTED + ST_ShortestPathLength.SEPARATOR
+              + GraphSchema.EDGE_ORIENTATION, ST_Graph.REORDER);
+    }
+
+    /**
+     * Checks the distance matrix against {@link ST_ShortestPathLength}.
+     *
+     * @param orientation The orientation argument
+     * @param options     The options argument, or {@code null} for none
+     */
+    private void check(String orientation, String options)
+            throws Exception {
+        boolean float32 = options != null
+                          && options.contains(ST_ShortestPathLength.FLOAT32);
+        File file = new File(tmpFolder, "roads.gdms");
+        RoadNetworkGenerator generator =
+                new RoadNetworkGenerator(SIDE, SIDE, 5L);
+        generator.setOneWayRatio(0.3);
+        generator.generate(null, file, new NullProgressMonitor());
+        String name = dsf.getSourceManager().getUniqueName("roads");
+        dsf.getSourceManager().register(name, file);
+        DataSource edges = dsf.getDataSource(name);
+        edges.open();
+        try {
+            MemoryDataSetDriver nodes = new MemoryDataSetDriver(
+                    new String[]{GraphSchema.ID},
+                    new Type[]{TypeFactory.createType(Type.INT)});
+            MemoryDataSetDriver pairs = new MemoryDataSetDriver(
+                    new String[]{ST_ShortestPathLength.SOURCE,
+                                 ST_ShortestPathLength.DESTINATION},
+                    new Type[]{TypeFactory.createType(Type.INT),
+                               TypeFactory.createType(Type.INT)});
+            for (int s : NODES) {
+                nodes.addValues(new Value[]{ValueFactory.createValue(s)});
+                for (int d : NODES) {
+                    pairs.addValues(new Value[]{ValueFactory.createValue(s),
+                                                ValueFactory.createValue(d)});
+                }
+            }
+            nodes.addValues(new Value[]{
+                ValueFactory.createValue(MISSING_NODE)});
+            Value weight = ValueFactory.createValue(GraphSchema.WEIGHT);
+            Value o = ValueFactory.createValue(orientation);
+
+            DataSet matrix = options != null
+                    ? new ST_DistanceMatrix().evaluate(
+                    dsf, new DataSet[]{edges, nodes},
+                    new Value[]{weight, o, ValueFactory.createValue(options)},
+                    new NullProgressMonitor())
+                    : new ST_DistanceMatrix().evaluate(
+                    dsf, new DataSet[]{edges, nodes},
+                    new Value[]{o, weight}, new NullProgressMonitor());
+            assertTrue(matrix instanceof DistanceMatrixDataSet);
+            // The repeated node is dropped, the missing node kept.
+            int distinct = NODES.length - 1 + 1;
+            assertEquals(distinct * distinct, matrix.getRowCount());
+
+            DataSet reference = new ST_ShortestPathLength().evaluate(
+                    dsf, new DataSet[]{edges, pairs},
+                    new Value[]{weight, o}, new NullProgressMonitor());
+            Map<String, Double> expected = new HashMap<String, Double>();
+            for (int i = 0; i < reference.getRowCount(); i++) {
+                Value[] row = reference.getRow(i);
+                expected.put(row[0].getAsInt() + "-" + row[1].getAsInt(),
+                             row[2].getAsDouble());
+            }
+            int checked = 0;
+            for (int i = 0; i < matrix.getRowCount(); i++) {
+                Value[] row = matrix.getRow(i);
+                int s = row[0].getAsInt();
+                int d = row[1].getAsInt();
+                if (s == MISSING_NODE || d == MISSING_NODE) {
+                    assertTrue(row[2].isNull());
+                    continue;
+                }
+                Double distance = expected.get(s + "-" + d);
+                if (distance != null) {
+                    assertEquals(s + "-" + d, distance, row[2].getAsDouble(),
+                                 float32 ? 1e-2 : 1e-9);
+                    checked++;
+                }
+            }
+            assertTrue(checked > 0);
+        } finally {
+            edges.close();
+        }
+    }
+}
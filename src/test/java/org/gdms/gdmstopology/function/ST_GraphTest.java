@@ -32,7 +32,12 @@
  */
 package org.gdms.gdmstopology.function;
 
+import com.vividsolutions.jts.geom.Coordinate;
 import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
 import org.gdms.data.DataSource;
 import org.gdms.data.types.Type;
 import org.gdms.data.types.TypeFactory;
@@ -42,6 +47,9 @@ import org.gdms.driver.DataSet;
 import org.gdms.driver.DriverException;
 import org.gdms.driver.memory.MemoryDataSetDriver;
 import org.gdms.gdmstopology.TopologySetupTest;
+import org.gdms.gdmstopology.model.GraphSchema;
+import org.gdms.gdmstopology.process.NetworkGraphBuilder;
+import org.gdms.gdmstopology.process.TopologyExecutorService;
 import static org.junit.Assert.*;
 import org.junit.Test;
 import org.orbisgis.progress.NullProgressMonitor;
@@ -97,6 +105,239 @@ public class ST_GraphTest extends TopologySetupTest {
         data.close();
     }
 
+    /**
+     * Tests that building the 2D graph in parallel gives the same nodes and
+     * edges tables as building it sequentially.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void parallelGraph2DTest() throws Exception {
+
+        DataSource data = dsf.getDataSource(GRAPH2D);
+        data.open();
+        DataSource[] tables = new DataSource[]{data};
+
+        new ST_Graph().evaluate(dsf,
+                                tables,
+                                new Value[]{ValueFactory.createValue(0),
+                                            ValueFactory.createValue(false),
+                                            ValueFactory.createValue("sequential")},
+                                new NullProgressMonitor());
+        new ST_Graph().evaluate(dsf,
+                                tables,
+                                new Value[]{ValueFactory.createValue(0),
+                                            ValueFactory.createValue(false),
+                                            ValueFactory.createValue("parallel"),
+                                            ValueFactory.createValue(ST_Graph.PARALLEL)},
+                                new NullProgressMonitor());
+        data.close();
+
+        // With a zero tolerance, even the numbering is the same.
+        assertSameTable("sequential.nodes", "parallel.nodes");
+        assertSameTable("sequential.edges", "parallel.edges");
+    }
+
+    /**
+     * Tests that building a graph in parallel with a positive tolerance gives
+     * the same nodes and edges tables as building it sequentially. The
+     * endpoints are dense enough to form chains of nodes, each within the
+     * tolerance of the next, across the tile boundaries.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void parallelGraphWithToleranceTest() throws Exception {
+        MemoryDataSetDriver data = new MemoryDataSetDriver(
+                new String[]{"the_geom", "gid"},
+                new Type[]{TypeFactory.createType(Type.GEOMETRY),
+                           TypeFactory.createType(Type.INT)});
+        GeometryFactory gf = new GeometryFactory();
+        Random random = new Random(11L);
+        for (int i = 0; i < 400; i++) {
+            Coordinate a = new Coordinate(100 * random.nextDouble(),
+                                          100 * random.nextDouble());
+            Coordinate b = new Coordinate(100 * random.nextDouble(),
+                                          100 * random.nextDouble());
+            data.addValues(new Value[]{
+                ValueFactory.createValue(gf.createLineString(
+                    new Coordinate[]{a, b})),
+                ValueFactory.createValue(i)});
+        }
+        TopologyExecutorService executor = new TopologyExecutorService(4, 1);
+        try {
+            NetworkGraphBuilder sequential =
+                    new NetworkGraphBuilder(dsf, new NullProgressMonitor());
+            sequential.setOutput_name("sequentialTol");
+            sequential.setTolerance(2);
+            sequential.buildGraph(data);
+
+            NetworkGraphBuilder parallel =
+                    new NetworkGraphBuilder(dsf, new NullProgressMonitor());
+            parallel.setOutput_name("parallelTol");
+            parallel.setTolerance(2);
+            parallel.setParallel(true);
+            parallel.setExecutor(executor);
+            parallel.buildGraph(data);
+        } finally {
+            executor.shutdown();
+        }
+
+        // Some endpoints were snapped.
+        DataSource nodes = dsf.getDataSource("sequentialTol.nodes");
+        nodes.open();
+        assertTrue(nodes.getRowCount() < 2 * data.getRowCount());
+        nodes.close();
+        assertSameTable("sequentialTol.nodes", "parallelTol.nodes");
+        assertSameTable("sequentialTol.edges", "parallelTol.edges");
+    }
+
+    /**
+     * Tests that building the 2D graph with external sorts gives the same
+     * graph as building it sequentially, up to the node numbering. A tiny
+     * sort buffer forces the endpoints to be spread over several runs.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void externalGraph2DTest() throws Exception {
+
+        DataSource data = dsf.getDataSource(GRAPH2D);
+        data.open();
+
+        NetworkGraphBuilder sequential =
+                new NetworkGraphBuilder(dsf, new NullProgressMonitor());
+        sequential.setOutput_name("sequential");
+        sequential.buildGraph(data);
+
+        NetworkGraphBuilder external =
+                new NetworkGraphBuilder(dsf, new NullProgressMonitor());
+        external.setOutput_name("external");
+        external.setExternal(true);
+        external.setSortBufferRecords(3);
+        external.buildGraph(data);
+        data.close();
+
+        Map<Integer, Geometry> expectedNodes = readNodes("sequential.nodes");
+        Map<Integer, Geometry> nodes = readNodes("external.nodes");
+        assertEquals(expectedNodes.size(), nodes.size());
+
+        DataSource expectedEdges = dsf.getDataSource("sequential.edges");
+        DataSource edges = dsf.getDataSource("external.edges");
+        expectedEdges.open();
+        edges.open();
+        assertEquals(expectedEdges.getRowCount(), edges.getRowCount());
+        int startIndex = edges.getFieldIndexByName(GraphSchema.START_NODE);
+        int endIndex = edges.getFieldIndexByName(GraphSchema.END_NODE);
+        for (long i = 0; i < edges.getRowCount(); i++) {
+            Value[] expectedRow = expectedEdges.getRow(i);
+            Value[] row = edges.getRow(i);
+            assertTrue(expectedNodes.get(expectedRow[startIndex].getAsInt())
+                    .equals(nodes.get(row[startIndex].getAsInt())));
+            assertTrue(expectedNodes.get(expectedRow[endIndex].getAsInt())
+                    .equals(nodes.get(row[endIndex].getAsInt())));
+        }
+        expectedEdges.close();
+        edges.close();
+    }
+
+    /**
+     * Tests that reordering the 2D graph keeps the same graph, numbers the
+     * nodes and edges from 1 and groups the edges by start node.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void reorderedGraph2DTest() throws Exception {
+
+        DataSource data = dsf.getDataSource(GRAPH2D);
+        data.open();
+
+        NetworkGraphBuilder reordered =
+                new NetworkGraphBuilder(dsf, new NullProgressMonitor());
+        reordered.setOutput_name("reordered");
+        reordered.setReorder(true);
+        reordered.buildGraph(data);
+        long inputCount = data.getRowCount();
+        data.close();
+
+        Map<Integer, Geometry> nodes = readNodes("reordered.nodes");
+        assertEquals(6, nodes.size());
+        for (int id = 1; id <= nodes.size(); id++) {
+            assertTrue(nodes.containsKey(id));
+        }
+
+        DataSource edges = dsf.getDataSource("reordered.edges");
+        edges.open();
+        assertEquals(inputCount, edges.getRowCount());
+        int idIndex = edges.getFieldIndexByName(GraphSchema.ID);
+        int startIndex = edges.getFieldIndexByName(GraphSchema.START_NODE);
+        int endIndex = edges.getFieldIndexByName(GraphSchema.END_NODE);
+        int previousStart = 0;
+        for (long i = 0; i < edges.getRowCount(); i++) {
+            Value[] row = edges.getRow(i);
+            assertEquals(i + 1, row[idIndex].getAsInt());
+            int start = row[startIndex].getAsInt();
+            assertTrue(previousStart <= start);
+            previousStart = start;
+            Geometry geom = row[0].getAsGeometry();
+            Coordinate[] cc = geom.getCoordinates();
+            assertTrue(nodes.get(start).getCoordinate().equals2D(cc[0]));
+            assertTrue(nodes.get(row[endIndex].getAsInt()).getCoordinate()
+                    .equals2D(cc[cc.length - 1]));
+        }
+        edges.close();
+    }
+
+    /**
+     * Reads the given nodes table into a map from node ids to geometries.
+     *
+     * @param name Nodes table
+     *
+     * @return The map
+     *
+     * @throws Exception
+     */
+    private Map<Integer, Geometry> readNodes(String name) throws Exception {
+        Map<Integer, Geometry> map = new HashMap<Integer, Geometry>();
+        DataSource nodes = dsf.getDataSource(name);
+        nodes.open();
+        for (long i = 0; i < nodes.getRowCount(); i++) {
+            Value[] row = nodes.getRow(i);
+            map.put(row[1].getAsInt(), row[0].getAsGeometry());
+        }
+        nodes.close();
+        return map;
+    }
+
+    /**
+     * Checks that the two given tables contain the same rows in the same
+     * order.
+     *
+     * @param expectedName Expected table
+     * @param actualName   Actual table
+     *
+     * @throws Exception
+     */
+    private void assertSameTable(String expectedName, String actualName)
+            throws Exception {
+        DataSource expected = dsf.getDataSource(expectedName);
+        DataSource actual = dsf.getDataSource(actualName);
+        expected.open();
+        actual.open();
+        assertEquals(expected.getRowCount(), actual.getRowCount());
+        for (long i = 0; i < expected.getRowCount(); i++) {
+            Value[] expectedRow = expected.getRow(i);
+            Value[] actualRow = actual.getRow(i);
+            assertEquals(expectedRow.length, actualRow.length);
+            for (int j = 0; j < expectedRow.length; j++) {
+                assertEquals(expectedRow[j], actualRow[j]);
+            }
+        }
+        expected.close();
+        actual.close();
+    }
+
     /**
      * Tests orienting when node 1 has higher elevation than node 2 (1 --> 2).
      *
@@ -0,0 +1,132 @@
+/**
+ * GDMS-Topology is a library dedicated to graph analysis. It is based on the
+ * JGraphT library available at <http://www.jgrapht.org/>. It enables computing
+ * and processing large graphs using spatial and alphanumeric indexes.
+ *
+ * This version is developed at French IRSTV institut as part of the EvalPDU
+ * project, funded by the French Agence Nationale de la Recherche (ANR) under
+ * contract ANR-08-VILL-0005-01 and GEBD project funded by the French Ministery
+ * of Ecology and Sustainable Development.
+ *
+ * GDMS-Topology is distributed under GPL 3 license. It is produced by the
+ * "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR
+ * 2488.
+ *
+ * Copyright (C) 2009-2012 IRSTV (FR CNRS 2488)
+ *
+ * GDMS-Topology is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * GDMS-Topology is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * GDMS-Topology. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://wwwc.orbisgis.org/> or contact
+ * directly: info_at_ orbisgis.org
+ */
+package org.gdms.gdmstopology.function;
+
+import com.vividsolutions.jts.geom.Geometry;
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+import org.gdms.data.DataSource;
+import org.gdms.data.types.Type;
+import org.gdms.data.types.TypeFactory;
+import org.gdms.data.values.Value;
+import org.gdms.data.values.ValueFactory;
+import org.gdms.driver.DataSet;
+import org.gdms.driver.memory.MemoryDataSetDriver;
+import org.gdms.gdmstopology.TopologySetupTest;
+import org.gdms.gdmstopology.model.GraphSchema;
+import org.gdms.gdmstopology.utils.RoadNetworkGenerator;
+import org.junit.Test;
+import org.orbisgis.progress.NullProgressMonitor;
+import static org.junit.Assert.*;
+
+/**
+ * Tests {@link ST_Isochrones}.
+ *
+ * @author Adam Gouge
+ */
+public class ST_IsochronesTest extends TopologySetupTest {
+
+    private static final int[] FACILITIES = new int[]{1, 45};
+    private static final double[] BREAKS = new double[]{30, 60, 90};
+
+    @Test
+    public void testServiceAreas() throws Exception {
+        File nodesFile = new File(tmpFolder, "iso_nodes.gdms");
+        File edgesFile = new File(tmpFolder, "iso_edges.gdms");
+        new RoadNetworkGenerator(10, 10, 9L).generate(
+                nodesFile, edgesFile, new NullProgressMonitor());
+        dsf.getSourceManager().register("iso_nodes", nodesFile);
+        dsf.getSourceManager().register("iso_edges", edgesFile);
+        DataSource nodes = dsf.getDataSource("iso_nodes");
+        DataSource edges = dsf.getDataSource("iso_edges");
+        nodes.open();
+        edges.open();
+        try {
+            MemoryDataSetDriver facilities = new MemoryDataSetDriver(
+                    new String[]{GraphSchema.ID},
+                    new Type[]{TypeFactory.createType(Type.INT)});
+            for (int f : FACILITIES) {
+                facilities.addValues(new Value[]{ValueFactory.createValue(f)});
+            }
+            // Not in the graph: skipped.
+            facilities.addValues(new Value[]{ValueFactory.createValue(9999)});
+            Value weight = ValueFactory.createValue(GraphSchema.WEIGHT);
+            Value orientation =
+                    ValueFactory.createValue(ST_ShortestPathLength.UNDIRECTED);
+
+            DataSet areas = new ST_Isochrones().evaluate(
+                    dsf, new DataSet[]{edges, facilities},
+                    new Value[]{weight, orientation,
+                                ValueFactory.createValue("90, 30,60"),
+                                ValueFactory.createValue(1.0)},
+                    new NullProgressMonitor());
+            assertEquals(FACILITIES.length * BREAKS.length,
+                         areas.getRowCount());
+
+            Map<Integer, Geometry> points = new HashMap<Integer, Geometry>();
+            for (int i = 0; i < nodes.getRowCount(); i++) {
+                points.put(nodes.getFieldValue(i, 1).getAsInt(),
+                           nodes.getGeometry(i, 0));
+            }
+            int row = 0;
+            for (int f : FACILITIES) {
+                DataSet distances = new ST_ShortestPathLength().evaluate(
+                        dsf, new DataSet[]{edges},
+                        new Value[]{ValueFactory.createValue(f), weight,
+                                    orientation},
+                        new NullProgressMonitor());
+                double previousArea = 0;
+                for (double cutoff : BREAKS) {
+                    Value[] area = areas.getRow(row++);
+                    assertEquals(f, area[1].getAsInt());
+                    assertEquals(cutoff, area[2].getAsDouble(), 0);
+                    Geometry polygon = area[0].getAsGeometry();
+                    assertTrue(polygon.getArea() > previousArea);
+                    previousArea = polygon.getArea();
+                    // Every node within the break is in the service area.
+                    for (int i = 0; i < distances.getRowCount(); i++) {
+                        Value[] d = distances.getRow(i);
+                        if (d[2].getAsDouble() < cutoff) {
+                            assertEquals(0, polygon.distance(
+                                    points.get(d[1].getAsInt())), 1e-6);
+                        }
+                    }
+                }
+            }
+        } finally {
+            nodes.close();
+            edges.close();
+        }
+    }
+}
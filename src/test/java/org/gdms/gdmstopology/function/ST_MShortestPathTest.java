@@ -0,0 +1,235 @@
+/**
+ * GDMS-Topology is a library dedicated to graph analysis. It is based on the
+ * JGraphT library available at <http://www.jgrapht.org/>. It enables computing
+ * and processing large graphs using spatial and alphanumeric indexes.
+ *
+ * This version is developed at French IRSTV institut as part of the EvalPDU
+ * project, funded by the French Agence Nationale de la Recherche (ANR) under
+ * contract ANR-08-VILL-0005-01 and GEBD project funded by the French Ministery
+ * of Ecology and Sustainable Development.
+ *
+ * GDMS-Topology is distributed under GPL 3 license. It is produced by the
+ * "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR
+ * 2488.
+ *
+ * Copyright (C) 2009-2012 IRSTV (FR CNRS 2488)
+ *
+ * GDMS-Topology is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * GDMS-Topology is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * GDMS-Topology. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://wwwc.orbisgis.org/> or contact
+ * directly: info_at_ orbisgis.org
+ */
+package org.gdms.gdmstopology.function;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import org.gdms.data.DataSource;
+import org.gdms.data.types.Type;
+import org.gdms.data.types.TypeFactory;
+import org.gdms.data.values.Value;
+import org.gdms.data.values.ValueFactory;
+import org.gdms.driver.DataSet;
+import org.gdms.driver.DiskBufferDriver;
+import org.gdms.driver.memory.MemoryDataSetDriver;
+import org.gdms.gdmstopology.TopologySetupTest;
+import org.gdms.gdmstopology.model.GraphException;
+import org.gdms.gdmstopology.model.GraphSchema;
+import org.gdms.sql.function.FunctionException;
+import org.junit.Test;
+import org.orbisgis.progress.NullProgressMonitor;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests {@link ST_MShortestPath} and {@link ST_MFindReachableEdges} in
+ * parallel mode against the sequential mode.
+ *
+ * @author Adam Gouge
+ */
+public class ST_MShortestPathTest extends TopologySetupTest {
+
+    /**
+     * Tests that the parallel mode finds the same paths as the sequential
+     * mode, for each orientation.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void parallelShortestPathsTest() throws Exception {
+        DataSource ds = dsf.getDataSource(GRAPH2D_EDGES);
+        ds.open();
+        DataSet[] tables = new DataSet[]{ds, createNodes(ds, 2)};
+        for (int orientation = GraphSchema.DIRECT;
+                orientation <= GraphSchema.UNDIRECT; orientation++) {
+            DataSet sequential = new ST_MShortestPath().evaluate(
+                    dsf, tables,
+                    new Value[]{ValueFactory.createValue("length"),
+                                ValueFactory.createValue(orientation)},
+                    new NullProgressMonitor());
+            DataSet parallel = new ST_MShortestPath().evaluate(
+                    dsf, tables,
+                    new Value[]{ValueFactory.createValue("length"),
+                                ValueFactory.createValue(orientation),
+                                ValueFactory.createValue(ST_Graph.PARALLEL)},
+                    new NullProgressMonitor());
+            assertEquals(rows(sequential), rows(parallel));
+        }
+        ds.close();
+    }
+
+    /**
+     * Tests that the parallel mode finds the same reachable edges as the
+     * sequential mode, with each source repeated.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void parallelReachableEdgesTest() throws Exception {
+        DataSource ds = dsf.getDataSource(GRAPH2D_EDGES);
+        ds.open();
+        DataSet[] tables = new DataSet[]{ds, createNodes(ds, 2)};
+        DataSet sequential = new ST_MFindReachableEdges().evaluate(
+                dsf, tables,
+                new Value[]{ValueFactory.createValue("length"),
+                            ValueFactory.createValue(GraphSchema.UNDIRECT)},
+                new NullProgressMonitor());
+        DataSet parallel = new ST_MFindReachableEdges().evaluate(
+                dsf, tables,
+                new Value[]{ValueFactory.createValue("length"),
+                            ValueFactory.createValue(GraphSchema.UNDIRECT),
+                            ValueFactory.createValue(ST_Graph.PARALLEL)},
+                new NullProgressMonitor());
+        ((DiskBufferDriver) sequential).open();
+        ((DiskBufferDriver) parallel).open();
+        List<String> expected = rows(sequential);
+        assertTrue(!expected.isEmpty());
+        assertEquals(expected, rows(parallel));
+        ds.close();
+    }
+
+    /**
+     * Tests that the parallel mode rejects a source that is not in the graph,
+     * as the sequential mode does.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void parallelMissingSourceTest() throws Exception {
+        DataSource ds = dsf.getDataSource(GRAPH2D_EDGES);
+        ds.open();
+        MemoryDataSetDriver nodes = new MemoryDataSetDriver(
+                new String[]{GraphSchema.ID, GraphSchema.SOURCE_NODE,
+                             GraphSchema.TARGET_NODE},
+                new Type[]{TypeFactory.createType(Type.INT),
+                           TypeFactory.createType(Type.INT),
+                           TypeFactory.createType(Type.INT)});
+        nodes.addValues(new Value[]{ValueFactory.createValue(1),
+                                    ValueFactory.createValue(-5),
+                                    ValueFactory.createValue(1)});
+        DataSet[] tables = new DataSet[]{ds, nodes};
+        try {
+            for (boolean parallel : new boolean[]{false, true}) {
+                Value[] values = parallel
+                        ? new Value[]{ValueFactory.createValue("length"),
+                                      ValueFactory.createValue(GraphSchema.DIRECT),
+                                      ValueFactory.createValue(ST_Graph.PARALLEL)}
+                        : new Value[]{ValueFactory.createValue("length"),
+                                      ValueFactory.createValue(GraphSchema.DIRECT)};
+                try {
+                    new ST_MShortestPath().evaluate(dsf, tables, values,
+                                                    new NullProgressMonitor());
+                    fail();
+                } catch (FunctionException ex) {
+                    assertTrue(ex.getCause() instanceof GraphException);
+                }
+                try {
+                    new ST_MFindReachableEdges().evaluate(
+                            dsf, tables, values, new NullProgressMonitor());
+                    fail();
+                } catch (FunctionException ex) {
+                    assertTrue(ex.getCause() instanceof GraphException);
+                }
+            }
+        } finally {
+            ds.close();
+        }
+    }
+
+    /**
+     * Creates a nodes table (id, source, target) with at most four distinct
+     * sources taken from the start nodes of the edges, and targets taken from
+     * their end nodes.
+     *
+     * @param edges   The edges
+     * @param targets The number of targets of each source
+     *
+     * @return The nodes table
+     *
+     * @throws Exception
+     */
+    private DataSet createNodes(DataSet edges, int targets) throws Exception {
+        MemoryDataSetDriver nodes = new MemoryDataSetDriver(
+                new String[]{GraphSchema.ID, GraphSchema.SOURCE_NODE,
+                             GraphSchema.TARGET_NODE},
+                new Type[]{TypeFactory.createType(Type.INT),
+                           TypeFactory.createType(Type.INT),
+                           TypeFactory.createType(Type.INT)});
+        int startIndex = edges.getMetadata().getFieldIndex(
+                GraphSchema.START_NODE);
+        int endIndex = edges.getMetadata().getFieldIndex(GraphSchema.END_NODE);
+        int rowCount = (int) edges.getRowCount();
+        LinkedHashSet<Integer> sources = new LinkedHashSet<Integer>();
+        for (int i = 0; i < rowCount && sources.size() < 4; i++) {
+            sources.add(edges.getInt(i, startIndex));
+        }
+        int id = 1;
+        for (int source : sources) {
+            for (int j = 0; j < targets; j++) {
+                nodes.addValues(new Value[]{
+                    ValueFactory.createValue(id),
+                    ValueFactory.createValue(source),
+                    ValueFactory.createValue(
+                    edges.getInt((id * 7) % rowCount, endIndex))});
+                id++;
+            }
+        }
+        return nodes;
+    }
+
+    /**
+     * Returns the rows of a table as sorted strings, without geometries.
+     *
+     * @param table The table
+     *
+     * @return The rows
+     *
+     * @throws Exception
+     */
+    private List<String> rows(DataSet table) throws Exception {
+        List<String> rows = new ArrayList<String>();
+        for (long i = 0; i < table.getRowCount(); i++) {
+            StringBuilder row = new StringBuilder();
+            Value[] values = table.getRow(i);
+            for (int j = 1; j < values.length; j++) {
+                row.append(values[j].toString()).append(';');
+            }
+            rows.add(row.toString());
+        }
+        Collections.sort(rows);
+        return rows;
+    }
+}
@@ -0,0 +1,145 @@
+/**
+ * GDMS-Topology is a library dedicated to graph analysis. It is based on the
+ * JGraphT library available at <http://www.jgrapht.org/>. It enables computing
+ * and processing large graphs using spatial and alphanumeric indexes.
+ *
+ * This version is developed at French IRSTV institut as part of the EvalPDU
+ * project, funded by the French Agence Nationale de la Recherche (ANR) under
+ * contract ANR-08-VILL-0005-01 and GEBD project funded by the French Ministery
+ * of Ecology and Sustainable Development.
+ *
+ * GDMS-Topology is distributed under GPL 3 license. It is produced by the
+ * "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR
+ * 2488.
+ *
+ * Copyright (C) 2009-2012 IRSTV (FR CNRS 2488)
+ *
+ * GDMS-Topology is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * GDMS-Topology is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * GDMS-Topology. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://wwwc.orbisgis.org/> or contact
+ * directly: info_at_ orbisgis.org
+ */
+package org.gdms.gdmstopology.function;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import java.util.ArrayList;
+import java.util.List;
+import org.gdms.data.types.Type;
+import org.gdms.data.types.TypeFactory;
+import org.gdms.data.values.Value;
+import org.gdms.data.values.ValueFactory;
+import org.gdms.driver.DataSet;
+import org.gdms.driver.memory.MemoryDataSetDriver;
+import org.gdms.gdmstopology.TopologySetupTest;
+import org.gdms.gdmstopology.model.GraphSchema;
+import org.junit.Test;
+import org.orbisgis.progress.NullProgressMonitor;
+import static org.junit.Assert.*;
+
+/**
+ * Tests {@link ST_MapMatch} on a 3x3 grid with a separate edge far away.
+ *
+ * @author Adam Gouge
+ */
+public class ST_MapMatchTest extends TopologySetupTest {
+
+    private static final double SPACING = 100;
+    private static final GeometryFactory GF = new GeometryFactory();
+    private int nextEdgeId = 1;
+
+    @Test
+    public void testMatchTraces() throws Exception {
+        MemoryDataSetDriver edges = new MemoryDataSetDriver(
+                new String[]{"the_geom", GraphSchema.ID,
+                             GraphSchema.START_NODE, GraphSchema.END_NODE},
+                new Type[]{TypeFactory.createType(Type.GEOMETRY),
+                           TypeFactory.createType(Type.INT),
+                           TypeFactory.createType(Type.INT),
+                           TypeFactory.createType(Type.INT)});
+        // Node (i, j) is 3 * j + i + 1; horizontal edges first.
+        for (int j = 0; j < 3; j++) {
+            for (int i = 0; i < 2; i++) {
+                addEdge(edges, i, j, i + 1, j);
+            }
+        }
+        for (int i = 0; i < 3; i++) {
+            for (int j = 0; j < 2; j++) {
+                addEdge(edges, i, j, i, j + 1);
+            }
+        }
+        // Edge 13 is far from the grid and not connected to it.
+        addEdge(edges, 10, 10, 11, 10);
+
+        MemoryDataSetDriver traces = new MemoryDataSetDriver(
+                new String[]{"the_geom", GraphSchema.ID},
+                new Type[]{TypeFactory.createType(Type.GEOMETRY),
+                           TypeFactory.createType(Type.INT)});
+        // Trace 1 goes east along the bottom row, then north along the
+        // right column, 3 m off the edges.
+        List<Coordinate> fixes = new ArrayList<Coordinate>();
+        for (double x = 5; x < 2 * SPACING; x += 25) {
+            fixes.add(new Coordinate(x, 3));
+        }
+        for (double y = 5; y < 2 * SPACING; y += 25) {
+            fixes.add(new Coordinate(2 * SPACING - 3, y));
+        }
+        addTrace(traces, 1, fixes);
+        // Trace 2 goes along the middle row, then jumps to edge 13.
+        fixes.clear();
+        for (double x = 5; x < SPACING; x += 25) {
+            fixes.add(new Coordinate(x, SPACING + 3));
+        }
+        for (double x = 10 * SPACING + 5; x < 11 * SPACING; x += 25) {
+            fixes.add(new Coordinate(x, 10 * SPACING - 3));
+        }
+        addTrace(traces, 2, fixes);
+
+        DataSet matched = new ST_MapMatch().evaluate(
+                dsf, new DataSet[]{edges, traces}, new Value[0],
+                new NullProgressMonitor());
+        // Trace 1: edges 1, 2, then 11 and 12 (the right column).
+        // Trace 2: edge 3, then edge 13 in a second part.
+        int[][] expected = new int[][]{
+            {1, 1, 1, 1}, {1, 1, 2, 2}, {1, 1, 3, 11}, {1, 1, 4, 12},
+            {2, 1, 1, 3}, {2, 2, 1, 13}};
+        assertEquals(expected.length, matched.getRowCount());
+        for (int k = 0; k < expected.length; k++) {
+            Value[] row = matched.getRow(k);
+            for (int f = 0; f < 4; f++) {
+                assertEquals(expected[k][f], row[f + 1].getAsInt());
+            }
+            assertFalse(row[0].isNull());
+        }
+    }
+
+    private void addEdge(MemoryDataSetDriver edges, int i1, int j1,
+                         int i2, int j2) throws Exception {
+        edges.addValues(new Value[]{
+            ValueFactory.createValue(GF.createLineString(new Coordinate[]{
+                new Coordinate(i1 * SPACING, j1 * SPACING),
+                new Coordinate(i2 * SPACING, j2 * SPACING)})),
+            ValueFactory.createValue(nextEdgeId++),
+            ValueFactory.createValue(3 * j1 + i1 + 1),
+            ValueFactory.createValue(3 * j2 + i2 + 1)});
+    }
+
+    private void addTrace(MemoryDataSetDriver traces, int id,
+                          List<Coordinate> fixes) throws Exception {
+        traces.addValues(new Value[]{
+            ValueFactory.createValue(GF.createLineString(
+            fixes.toArray(new Coordinate[fixes.size()]))),
+            ValueFactory.createValue(id)});
+    }
+}
@@ -0,0 +1,110 @@
+/**
+ * GDMS-Topology is a library dedicated to graph analysis. It is based on the
+ * JGraphT library available at <http://www.jgrapht.org/>. It enables computing
+ * and processing large graphs using spatial and alphanumeric indexes.
+ *
+ * This version is developed at French IRSTV institut as part of the EvalPDU
+ * project, funded by the French Agence Nationale de la Recherche (ANR) under
+ * contract ANR-08-VILL-0005-01 and GEBD project funded by the French Ministery
+ * of Ecology and Sustainable Development.
+ *
+ * GDMS-Topology is distributed under GPL 3 license. It is produced by the
+ * "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR
+ * 2488.
+ *
+ * Copyright (C) 2009-2012 IRSTV (FR CNRS 2488)
+ *
+ * GDMS-Topology is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * GDMS-Topology is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * GDMS-Topology. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://wwwc.orbisgis.org/> or contact
+ * directly: info_at_ orbisgis.org
+ */
+package org.gdms.gdmstopology.function;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import org.gdms.data.types.Type;
+import org.gdms.data.types.TypeFactory;
+import org.gdms.data.values.Value;
+import org.gdms.data.values.ValueFactory;
+import org.gdms.driver.DataSet;
+import org.gdms.driver.memory.MemoryDataSetDriver;
+import org.gdms.gdmstopology.TopologySetupTest;
+import org.gdms.gdmstopology.model.GraphSchema;
+import org.junit.Test;
+import org.orbisgis.progress.NullProgressMonitor;
+import static org.junit.Assert.*;
+
+/**
+ * Tests {@link ST_MinimumSpanningTree}.
+ *
+ * @author Adam Gouge
+ */
+public class ST_MinimumSpanningTreeTest extends TopologySetupTest {
+
+    private static final GeometryFactory GF = new GeometryFactory();
+
+    @Test
+    public void testForest() throws Exception {
+        MemoryDataSetDriver edges = new MemoryDataSetDriver(
+                new String[]{"the_geom", GraphSchema.ID,
+                             GraphSchema.START_NODE, GraphSchema.END_NODE,
+                             GraphSchema.WEIGHT},
+                new Type[]{TypeFactory.createType(Type.GEOMETRY),
+                           TypeFactory.createType(Type.INT),
+                           TypeFactory.createType(Type.INT),
+                           TypeFactory.createType(Type.INT),
+                           TypeFactory.createType(Type.DOUBLE)});
+        // A square 1-2-3-4 with a diagonal 1-3.
+        addEdge(edges, 1, 1, 2, 1);
+        addEdge(edges, 2, 2, 3, 4);
+        addEdge(edges, 3, 3, 4, 2);
+        addEdge(edges, 4, 4, 1, 3);
+        addEdge(edges, 5, 1, 3, 2.5);
+        // A self-loop.
+        addEdge(edges, 6, 2, 2, 0);
+        // A separate triangle 10-11-12 with equal weights.
+        addEdge(edges, 7, 10, 11, 1);
+        addEdge(edges, 8, 11, 12, 1);
+        addEdge(edges, 9, 12, 10, 1);
+
+        DataSet tree = new ST_MinimumSpanningTree().evaluate(
+                dsf, new DataSet[]{edges},
+                new Value[]{ValueFactory.createValue(GraphSchema.WEIGHT)},
+                new NullProgressMonitor());
+        // {id, component}; ties go to the first edge.
+        int[][] expected = new int[][]{{1, 1}, {3, 1}, {5, 1},
+                                       {7, 2}, {8, 2}};
+        assertEquals(expected.length, tree.getRowCount());
+        double total = 0;
+        for (int i = 0; i < expected.length; i++) {
+            Value[] row = tree.getRow(i);
+            assertEquals(expected[i][0], row[1].getAsInt());
+            assertEquals(expected[i][1], row[3].getAsInt());
+            total += row[2].getAsDouble();
+        }
+        assertEquals(7.5, total, 1e-9);
+    }
+
+    private void addEdge(MemoryDataSetDriver edges, int id, int start,
+                         int end, double weight) throws Exception {
+        edges.addValues(new Value[]{
+            ValueFactory.createValue(GF.createLineString(new Coordinate[]{
+                new Coordinate(start, 0), new Coordinate(end, 1)})),
+            ValueFactory.createValue(id),
+            ValueFactory.createValue(start),
+            ValueFactory.createValue(end),
+            ValueFactory.createValue(weight)});
+    }
+}
@@ -32,6 +32,7 @@
  */
 package org.gdms.gdmstopology.function;
 
+import com.vividsolutions.jts.geom.Polygon;
 import org.gdms.data.DataSource;
 import org.gdms.data.types.Type;
 import org.gdms.data.types.TypeFactory;
@@ -41,6 +42,9 @@ import org.gdms.driver.DataSet;
 import org.gdms.driver.memory.MemoryDataSetDriver;
 import org.gdms.gdmstopology.TopologySetupTest;
 import org.orbisgis.progress.NullProgressMonitor;
+import org.gdms.gdmstopology.model.GraphSchema;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 /**
@@ -110,4 +114,130 @@ public class ST_PlanarGraphTest extends TopologySetupTest {
         assertTrue(row2[3].getAsInt() == 1);
         dsResult_edges.close();
     }
+
+    /**
+     * Tests the faces found by the half-edge traversal for two adjacent
+     * squares, one of which holds a dangling edge: the shared edge separates
+     * the two faces, the outer edges have the outside on one side and the
+     * dangle has its square on both sides.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testFacesWithDangle() throws Exception {
+        final MemoryDataSetDriver sourceDriver =
+                new MemoryDataSetDriver(new String[]{"the_geom", "id"},
+                                        new Type[]{
+            TypeFactory.createType(Type.GEOMETRY),
+            TypeFactory.createType(Type.INT)});
+        String[] wkts = new String[]{
+            "LINESTRING(0 0, 10 0, 10 10, 0 10, 0 0)",
+            "LINESTRING(10 0, 20 0, 20 10, 10 10)",
+            "LINESTRING(2 5, 5 5)"};
+        for (int i = 0; i < wkts.length; i++) {
+            sourceDriver.addValues(new Value[]{
+                ValueFactory.createValue(wktReader.read(wkts[i])),
+                ValueFactory.createValue(i + 1)});
+        }
+        new ST_PlanarGraph().evaluate(
+                dsf, new DataSet[]{sourceDriver},
+                new Value[]{ValueFactory.createValue("faces")},
+                new NullProgressMonitor());
+
+        DataSource polygons = dsf.getDataSource("faces.polygons");
+        polygons.open();
+        assertEquals(2, polygons.getRowCount());
+        polygons.close();
+
+        DataSource edges = dsf.getDataSource("faces.edges");
+        edges.open();
+        int rightIndex = edges.getFieldIndexByName(GraphSchema.RIGHT_FACE);
+        int leftIndex = edges.getFieldIndexByName(GraphSchema.LEFT_FACE);
+        int outerSides = 0;
+        int sharedEdges = 0;
+        int dangles = 0;
+        for (long i = 0; i < edges.getRowCount(); i++) {
+            Value[] row = edges.getRow(i);
+            int right = row[rightIndex].getAsInt();
+            int left = row[leftIndex].getAsInt();
+            if (right == -1 || left == -1) {
+                assertTrue(right != left);
+                outerSides++;
+            } else if (right == left) {
+                assertEquals(5.0, row[0].getAsGeometry().getLength(), 1e-9);
+                dangles++;
+            } else {
+                sharedEdges++;
+            }
+        }
+        assertEquals(1, sharedEdges);
+        assertEquals(1, dangles);
+        assertEquals(edges.getRowCount() - 2, outerSides);
+        edges.close();
+    }
+
+    /**
+     * Tests that a ring inside a face, not connected to it, becomes a hole of
+     * that face and that the outer sides of both rings are placed correctly.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testFacesWithNestedRing() throws Exception {
+        final MemoryDataSetDriver sourceDriver =
+                new MemoryDataSetDriver(new String[]{"the_geom", "id"},
+                                        new Type[]{
+            TypeFactory.createType(Type.GEOMETRY),
+            TypeFactory.createType(Type.INT)});
+        String[] wkts = new String[]{
+            "LINESTRING(0 0, 10 0, 10 10, 0 10, 0 0)",
+            "LINESTRING(3 3, 6 3, 6 6, 3 6, 3 3)"};
+        for (int i = 0; i < wkts.length; i++) {
+            sourceDriver.addValues(new Value[]{
+                ValueFactory.createValue(wktReader.read(wkts[i])),
+                ValueFactory.createValue(i + 1)});
+        }
+        new ST_PlanarGraph().evaluate(
+                dsf, new DataSet[]{sourceDriver},
+                new Value[]{ValueFactory.createValue("nested")},
+                new NullProgressMonitor());
+
+        DataSource polygons = dsf.getDataSource("nested.polygons");
+        polygons.open();
+        assertEquals(2, polygons.getRowCount());
+        int outerFace = -1;
+        for (long i = 0; i < polygons.getRowCount(); i++) {
+            Polygon face = (Polygon) polygons.getRow(i)[0].getAsGeometry();
+            if (face.getNumInteriorRing() == 1) {
+                assertEquals(100 - 9, face.getArea(), 1e-9);
+                outerFace = polygons.getRow(i)[1].getAsInt();
+            } else {
+                assertEquals(9, face.getArea(), 1e-9);
+            }
+        }
+        assertTrue(outerFace != -1);
+        polygons.close();
+
+        DataSource edges = dsf.getDataSource("nested.edges");
+        edges.open();
+        assertEquals(2, edges.getRowCount());
+        int rightIndex = edges.getFieldIndexByName(GraphSchema.RIGHT_FACE);
+        int leftIndex = edges.getFieldIndexByName(GraphSchema.LEFT_FACE);
+        for (long i = 0; i < edges.getRowCount(); i++) {
+            Value[] row = edges.getRow(i);
+            int right = row[rightIndex].getAsInt();
+            int left = row[leftIndex].getAsInt();
+            assertTrue(right != left);
+            double length = row[0].getAsGeometry().getLength();
+            if (length == 40) {
+                assertTrue(right == -1 || left == -1);
+                assertTrue(right == outerFace || left == outerFace);
+            } else {
+                assertEquals(12, length, 1e-9);
+                assertTrue(right == outerFace || left == outerFace);
+                assertTrue(right != -1 && left != -1);
+            }
+        }
+        edges.close();
+    }
 }
@@ -48,7 +48,10 @@ import org.gdms.driver.DataSet;
 import org.gdms.driver.DriverException;
 import org.gdms.driver.memory.MemoryDataSetDriver;
 import org.gdms.gdmstopology.TopologySetupTest;
+import org.gdms.gdmstopology.model.DistanceMatrixDataSet;
 import org.gdms.gdmstopology.model.GraphSchema;
+import org.gdms.gdmstopology.model.LazyDistanceDataSet;
+import org.gdms.gdmstopology.utils.DistanceMatrixFile;
 import org.gdms.sql.function.FunctionException;
 import org.javanetworkanalyzer.data.VCent;
 import org.javanetworkanalyzer.model.Edge;
@@ -235,6 +238,103 @@ public class ST_ShortestPathLengthTest extends TopologySetupTest {
                          expectedUndirectedDistances());
     }
 
+    /**
+     * Tests reading every row and field of a one-to-all result, which is
+     * returned as a {@link LazyDistanceDataSet}, on a graph with two
+     * components.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void oneToAllLazyResult() throws Exception {
+        //   2      3          1
+        // o----->o----->o   o----->o
+        MemoryDataSetDriver data = initializeDriver();
+        data.addValues(new Value[]{
+            ValueFactory.createValue(
+            wktReader.read("LINESTRING(0 0, 1 0)")),
+            ValueFactory.createValue(1)});
+        data.addValues(new Value[]{
+            ValueFactory.createValue(
+            wktReader.read("LINESTRING(1 0, 2 0)")),
+            ValueFactory.createValue(2)});
+        data.addValues(new Value[]{
+            ValueFactory.createValue(
+            wktReader.read("LINESTRING(4 0, 5 0)")),
+            ValueFactory.createValue(3)});
+        new ST_Graph().evaluate(dsf,
+                                new DataSet[]{data},
+                                new Value[]{ValueFactory.createValue(0),
+                                            ValueFactory.createValue(false),
+                                            ValueFactory.createValue("lazy")},
+                                new NullProgressMonitor());
+        DataSource edges = dsf.getDataSource("lazy.edges");
+        edges.open();
+        DataSet newEdges = introduceOrientations(
+                introduceWeights(edges, new double[]{2.0, 3.0, 1.0}),
+                new int[]{1, 1, 1});
+        edges.close();
+
+        // The expected distance to each node, found by its x coordinate.
+        double[] expectedByX = new double[]{0.0, 2.0, 5.0, 0.0,
+                                            Double.POSITIVE_INFINITY,
+                                            Double.POSITIVE_INFINITY};
+        Map<Integer, Double> expected = new HashMap<Integer, Double>();
+        int source = -1;
+        DataSource nodes = dsf.getDataSource("lazy.nodes");
+        nodes.open();
+        int geomIndex = nodes.getSpatialFieldIndex();
+        int idIndex = nodes.getMetadata().getFieldIndex(GraphSchema.ID);
+        for (int i = 0; i < nodes.getRowCount(); i++) {
+            int x = (int) nodes.getGeometry(i, geomIndex).getCoordinate().x;
+            int id = nodes.getInt(i, idIndex);
+            expected.put(id, expectedByX[x]);
+            if (x == 0) {
+                source = id;
+            }
+        }
+        nodes.close();
+        assertEquals(5, expected.size());
+
+        DataSet result = new ST_ShortestPathLength().evaluate(
+                dsf,
+                new DataSet[]{newEdges},
+                new Value[]{ValueFactory.createValue(source),
+                            ValueFactory.createValue(GraphSchema.WEIGHT),
+                            ValueFactory.createValue(
+                    ST_ShortestPathLength.DIRECTED
+                    + ST_ShortestPathLength.SEPARATOR
+                    + GraphSchema.EDGE_ORIENTATION)},
+                new NullProgressMonitor());
+        assertTrue(result instanceof LazyDistanceDataSet);
+        LazyDistanceDataSet lazy = (LazyDistanceDataSet) result;
+        assertEquals(source, lazy.getSource());
+
+        Metadata md = result.getMetadata();
+        assertEquals(3, md.getFieldCount());
+        int sourceIndex = md.getFieldIndex(ST_ShortestPathLength.SOURCE);
+        int destinationIndex = md.getFieldIndex(
+                ST_ShortestPathLength.DESTINATION);
+        int distanceIndex = md.getFieldIndex(ST_ShortestPathLength.DISTANCE);
+        assertEquals(expected.size(), result.getRowCount());
+        Map<Integer, Double> found = new HashMap<Integer, Double>();
+        for (int i = 0; i < result.getRowCount(); i++) {
+            Value[] row = result.getRow(i);
+            assertEquals(md.getFieldCount(), row.length);
+            for (int j = 0; j < row.length; j++) {
+                assertEquals(row[j], result.getFieldValue(i, j));
+            }
+            assertEquals(source, row[sourceIndex].getAsInt());
+            int destination = row[destinationIndex].getAsInt();
+            double distance = row[distanceIndex].getAsDouble();
+            assertEquals(destination, lazy.getDestination(i));
+            assertEquals(distance, lazy.getDistance(i), TOLERANCE);
+            assertEquals(expected.get(destination), distance, TOLERANCE);
+            found.put(destination, distance);
+        }
+        assertEquals(expected, found);
+    }
+
     /**
      * Tests calculating the distances from a table of source nodes and
      * destination nodes.
@@ -325,6 +425,161 @@ public class ST_ShortestPathLengthTest extends TopologySetupTest {
                            expectedUndirectedDistances());
     }
 
+    @Test
+    public void manyToManyMatrix() throws Exception {
+        DataSet newEdges =
+                introduceOrientations(introduceWeights(prepareEdges(),
+                                                       EDGE_WEIGHTS),
+                                      EDGE_ORIENTATIONS);
+        MemoryDataSetDriver sourceDestTable = new MemoryDataSetDriver(
+                new String[]{ST_ShortestPathLength.SOURCE,
+                             ST_ShortestPathLength.DESTINATION},
+                new Type[]{TypeFactory.createType(Type.INT),
+                           TypeFactory.createType(Type.INT)});
+        for (int i = numberOfNodes; i > 0; i--) {
+            for (int j = 1; j < numberOfNodes + 1; j++) {
+                sourceDestTable.addValues(new Value[]{
+                    ValueFactory.createValue(i),
+                    ValueFactory.createValue(j)});
+            }
+        }
+
+        DataSet result = new ST_ShortestPathLength().evaluate(
+                dsf,
+                new DataSet[]{newEdges, sourceDestTable},
+                new Value[]{ValueFactory.createValue(GraphSchema.WEIGHT),
+                            ValueFactory.createValue(
+                        ST_ShortestPathLength.UNDIRECTED),
+                            ValueFactory.createValue(
+                        ST_ShortestPathLength.MATRIX + ", "
+                        + ST_ShortestPathLength.FLOAT32)},
+                new NullProgressMonitor());
+        assertTrue(result instanceof DistanceMatrixDataSet);
+        DistanceMatrixFile matrix = ((DistanceMatrixDataSet) result).getMatrix();
+        // Rows follow the order of first appearance.
+        assertEquals(numberOfNodes, matrix.getSource(0));
+        assertEquals(1, matrix.getDestination(0));
+
+        // Read the matrix file back.
+        DataSet read = new ST_ReadDistanceMatrix().evaluate(
+                dsf,
+                new DataSet[]{},
+                new Value[]{ValueFactory.createValue(
+                    matrix.getFile().getAbsolutePath())},
+                new NullProgressMonitor());
+        Map<Integer, Map<Integer, Double>> expected =
+                expectedUndirectedDistances();
+        for (DataSet table : new DataSet[]{result, read}) {
+            assertEquals(numberOfNodes * numberOfNodes, table.getRowCount());
+            for (int i = 0; i < table.getRowCount(); i++) {
+                Value[] row = table.getRow(i);
+                assertEquals(expected.get(row[0].getAsInt())
+                        .get(row[1].getAsInt()),
+                             row[2].getAsDouble(), 1e-6);
+            }
+        }
+    }
+
+    /**
+     * Tests that the output options are recognized by their value, whether
+     * or not they follow a weights column or an orientation.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void matrixOptionAfterWeights() throws Exception {
+        DataSet newEdges =
+                introduceOrientations(introduceWeights(prepareEdges(),
+                                                       EDGE_WEIGHTS),
+                                      EDGE_ORIENTATIONS);
+        MemoryDataSetDriver sourceDestTable = new MemoryDataSetDriver(
+                new String[]{ST_ShortestPathLength.SOURCE,
+                             ST_ShortestPathLength.DESTINATION},
+                new Type[]{TypeFactory.createType(Type.INT),
+                           TypeFactory.createType(Type.INT)});
+        for (int i = 1; i < numberOfNodes + 1; i++) {
+            for (int j = 1; j < numberOfNodes + 1; j++) {
+                sourceDestTable.addValues(new Value[]{
+                    ValueFactory.createValue(i),
+                    ValueFactory.createValue(j)});
+            }
+        }
+        DataSet[] tables = new DataSet[]{newEdges, sourceDestTable};
+
+        // (s_d_t, 'weights', 'matrix')
+        DataSet matrix = new ST_ShortestPathLength().evaluate(
+                dsf,
+                tables,
+                new Value[]{ValueFactory.createValue(GraphSchema.WEIGHT),
+                            ValueFactory.createValue(
+                        ST_ShortestPathLength.MATRIX)},
+                new NullProgressMonitor());
+        assertTrue(matrix instanceof DistanceMatrixDataSet);
+        // (s_d_t, 'weights')
+        DataSet table = new ST_ShortestPathLength().evaluate(
+                dsf,
+                tables,
+                new Value[]{ValueFactory.createValue(GraphSchema.WEIGHT)},
+                new NullProgressMonitor());
+        assertFalse(table instanceof DistanceMatrixDataSet);
+
+        // Both results are weighted.
+        Map<Integer, Map<Integer, Double>> matrixDistances =
+                new HashMap<Integer, Map<Integer, Double>>();
+        for (int i = 0; i < matrix.getRowCount(); i++) {
+            Value[] row = matrix.getRow(i);
+            if (!matrixDistances.containsKey(row[0].getAsInt())) {
+                matrixDistances.put(row[0].getAsInt(),
+                                    new HashMap<Integer, Double>());
+            }
+            matrixDistances.get(row[0].getAsInt())
+                    .put(row[1].getAsInt(), row[2].getAsDouble());
+        }
+        Metadata md = table.getMetadata();
+        int sourceIndex = md.getFieldIndex(ST_ShortestPathLength.SOURCE);
+        int destinationIndex = md.getFieldIndex(
+                ST_ShortestPathLength.DESTINATION);
+        int distanceIndex = md.getFieldIndex(ST_ShortestPathLength.DISTANCE);
+        assertTrue(table.getRowCount() > 0);
+        for (int i = 0; i < table.getRowCount(); i++) {
+            Value[] row = table.getRow(i);
+            assertEquals(row[distanceIndex].getAsDouble(),
+                         matrixDistances.get(row[sourceIndex].getAsInt())
+                    .get(row[destinationIndex].getAsInt()),
+                         TOLERANCE);
+        }
+
+        // (s_d_t, 'matrix')
+        assertTrue(new ST_ShortestPathLength().evaluate(
+                dsf,
+                tables,
+                new Value[]{ValueFactory.createValue(
+                    ST_ShortestPathLength.MATRIX)},
+                new NullProgressMonitor()) instanceof DistanceMatrixDataSet);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void float32WithoutMatrix() throws Exception {
+        MemoryDataSetDriver sourceDestTable = new MemoryDataSetDriver(
+                new String[]{ST_ShortestPathLength.SOURCE,
+                             ST_ShortestPathLength.DESTINATION},
+                new Type[]{TypeFactory.createType(Type.INT),
+                           TypeFactory.createType(Type.INT)});
+        sourceDestTable.addValues(new Value[]{
+            ValueFactory.createValue(1),
+            ValueFactory.createValue(2)});
+        new ST_ShortestPathLength().evaluate(
+                dsf,
+                new DataSet[]{introduceWeights(prepareEdges(), EDGE_WEIGHTS),
+                              sourceDestTable},
+                new Value[]{ValueFactory.createValue(GraphSchema.WEIGHT),
+                            ValueFactory.createValue(
+                        ST_ShortestPathLength.UNDIRECTED),
+                            ValueFactory.createValue(
+                        ST_ShortestPathLength.FLOAT32)},
+                new NullProgressMonitor());
+    }
+
     private DataSet prepareEdges() throws FunctionException, DriverException,
             DataSourceCreationException, NoSuchTableException, ParseException {
         //                   1
@@ -0,0 +1,169 @@
+/**
+ * GDMS-Topology is a library dedicated to graph analysis. It is based on the
+ * JGraphT library available at <http://www.jgrapht.org/>. It enables computing
+ * and processing large graphs using spatial and alphanumeric indexes.
+ *
+ * This version is developed at French IRSTV institut as part of the EvalPDU
+ * project, funded by the French Agence Nationale de la Recherche (ANR) under
+ * contract ANR-08-VILL-0005-01 and GEBD project funded by the French Ministery
+ * of Ecology and Sustainable Development.
+ *
+ * GDMS-Topology is distributed under GPL 3 license. It is produced by the
+ * "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR
+ * 2488.
+ *
+ * Copyright (C) 2009-2012 IRSTV (FR CNRS 2488)
+ *
+ * GDMS-Topology is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * GDMS-Topology is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * GDMS-Topology. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://wwwc.orbisgis.org/> or contact
+ * directly: info_at_ orbisgis.org
+ */
+package org.gdms.gdmstopology.function;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.linearref.LengthIndexedLine;
+import java.io.File;
+import org.gdms.data.DataSource;
+import org.gdms.data.schema.Metadata;
+import org.gdms.data.schema.MetadataUtilities;
+import org.gdms.data.types.Type;
+import org.gdms.data.types.TypeFactory;
+import org.gdms.data.values.Value;
+import org.gdms.data.values.ValueFactory;
+import org.gdms.driver.DataSet;
+import org.gdms.driver.memory.MemoryDataSetDriver;
+import org.gdms.gdmstopology.TopologySetupTest;
+import org.gdms.gdmstopology.model.GraphSchema;
+import org.gdms.gdmstopology.utils.RoadNetworkGenerator;
+import org.junit.Test;
+import org.orbisgis.progress.NullProgressMonitor;
+import static org.junit.Assert.*;
+
+/**
+ * Tests {@link ST_SnapToGraph} and {@link ST_SnappedGraph}.
+ *
+ * @author Adam Gouge
+ */
+public class ST_SnapToGraphTest extends TopologySetupTest {
+
+    private static final int SIDE = 6;
+    private static final int[] EDGE_ROWS = new int[]{0, 7, 19};
+    private static final double MAX_DISTANCE = 5.0;
+
+    @Test
+    public void testSnapAndSplit() throws Exception {
+        File file = new File(tmpFolder, "snap_edges.gdms");
+        new RoadNetworkGenerator(SIDE, SIDE, 11L).generate(
+                null, file, new NullProgressMonitor());
+        dsf.getSourceManager().register("snap_edges", file);
+        DataSource edges = dsf.getDataSource("snap_edges");
+        edges.open();
+        try {
+            Metadata md = edges.getMetadata();
+            int geomIndex = MetadataUtilities.getSpatialFieldIndex(md);
+            int idIndex = md.getFieldIndex(GraphSchema.ID);
+            int weightIndex = md.getFieldIndex(GraphSchema.WEIGHT);
+            int startIndex = md.getFieldIndex(GraphSchema.START_NODE);
+
+            // Points near a third of some edges, and one far away.
+            GeometryFactory gf = new GeometryFactory();
+            MemoryDataSetDriver points = new MemoryDataSetDriver(
+                    new String[]{"the_geom", GraphSchema.ID},
+                    new Type[]{TypeFactory.createType(Type.POINT),
+                               TypeFactory.createType(Type.INT)});
+            for (int k = 0; k < EDGE_ROWS.length; k++) {
+                Geometry edge = edges.getGeometry(EDGE_ROWS[k], geomIndex);
+                Coordinate c = new LengthIndexedLine(edge)
+                        .extractPoint(edge.getLength() / 3);
+                points.addValues(new Value[]{
+                    ValueFactory.createValue(gf.createPoint(
+                    new Coordinate(c.x + 1, c.y + 1))),
+                    ValueFactory.createValue(100 + k)});
+            }
+            points.addValues(new Value[]{
+                ValueFactory.createValue(gf.createPoint(
+                new Coordinate(-1e6, -1e6))),
+                ValueFactory.createValue(200)});
+
+            DataSet snapped = new ST_SnapToGraph().evaluate(
+                    dsf, new DataSet[]{edges, points},
+                    new Value[]{ValueFactory.createValue(MAX_DISTANCE)},
+                    new NullProgressMonitor());
+            assertEquals(EDGE_ROWS.length + 1, snapped.getRowCount());
+            int maxNode = SIDE * SIDE;
+            int[] virtualNodes = new int[EDGE_ROWS.length];
+            for (int k = 0; k < EDGE_ROWS.length; k++) {
+                Value[] row = snapped.getRow(k);
+                assertEquals(100 + k, row[1].getAsInt());
+                assertTrue(row[4].getAsDouble() <= MAX_DISTANCE);
+                assertTrue(row[3].getAsDouble() > 0);
+                assertTrue(row[3].getAsDouble() < 1);
+                virtualNodes[k] = row[5].getAsInt();
+                assertTrue(virtualNodes[k] > maxNode);
+            }
+            assertTrue(snapped.getRow(EDGE_ROWS.length)[5].isNull());
+
+            DataSet split = new ST_SnappedGraph().evaluate(
+                    dsf, new DataSet[]{edges, points},
+                    new Value[]{ValueFactory.createValue(MAX_DISTANCE),
+                                ValueFactory.createValue(GraphSchema.WEIGHT)},
+                    new NullProgressMonitor());
+            assertEquals(edges.getRowCount() + EDGE_ROWS.length,
+                         split.getRowCount());
+            double total = 0;
+            for (int i = 0; i < edges.getRowCount(); i++) {
+                total += edges.getFieldValue(i, weightIndex).getAsDouble();
+            }
+            double splitTotal = 0;
+            for (int i = 0; i < split.getRowCount(); i++) {
+                splitTotal += split.getFieldValue(i, weightIndex).getAsDouble();
+            }
+            assertEquals(total, splitTotal, 1e-6);
+
+            // The virtual nodes can be routed from.
+            for (int k = 0; k < EDGE_ROWS.length; k++) {
+                Value[] row = snapped.getRow(k);
+                int edgeRow = -1;
+                for (int i = 0; i < edges.getRowCount(); i++) {
+                    if (edges.getFieldValue(i, idIndex).getAsInt()
+                        == row[2].getAsInt()) {
+                        edgeRow = i;
+                    }
+                }
+                int startNode =
+                        edges.getFieldValue(edgeRow, startIndex).getAsInt();
+                double weight =
+                        edges.getFieldValue(edgeRow, weightIndex).getAsDouble();
+                DataSet distance = new ST_ShortestPathLength().evaluate(
+                        dsf, new DataSet[]{split},
+                        new Value[]{ValueFactory.createValue(virtualNodes[k]),
+                                    ValueFactory.createValue(startNode),
+                                    ValueFactory.createValue(
+                            GraphSchema.WEIGHT),
+                                    ValueFactory.createValue(
+                            ST_ShortestPathLength.UNDIRECTED)},
+                        new NullProgressMonitor());
+                assertEquals(1, distance.getRowCount());
+                double d = distance.getFieldValue(0, 2).getAsDouble();
+                assertTrue(d > 0);
+                assertTrue(d <= weight * row[3].getAsDouble() + 1e-6);
+            }
+        } finally {
+            edges.close();
+        }
+    }
+}
@@ -0,0 +1,164 @@
+/**
+ * GDMS-Topology is a library dedicated to graph analysis. It is based on the
+ * JGraphT library available at <http://www.jgrapht.org/>. It enables computing
+ * and processing large graphs using spatial and alphanumeric indexes.
+ *
+ * This version is developed at French IRSTV institut as part of the EvalPDU
+ * project, funded by the French Agence Nationale de la Recherche (ANR) under
+ * contract ANR-08-VILL-0005-01 and GEBD project funded by the French Ministery
+ * of Ecology and Sustainable Development.
+ *
+ * GDMS-Topology is distributed under GPL 3 license. It is produced by the
+ * "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR
+ * 2488.
+ *
+ * Copyright (C) 2009-2012 IRSTV (FR CNRS 2488)
+ *
+ * GDMS-Topology is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * GDMS-Topology is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * GDMS-Topology. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://wwwc.orbisgis.org/> or contact
+ * directly: info_at_ orbisgis.org
+ */
+package org.gdms.gdmstopology.function;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import org.gdms.data.types.Type;
+import org.gdms.data.types.TypeFactory;
+import org.gdms.data.values.Value;
+import org.gdms.data.values.ValueFactory;
+import org.gdms.driver.DataSet;
+import org.gdms.driver.memory.MemoryDataSetDriver;
+import org.gdms.gdmstopology.TopologySetupTest;
+import org.junit.Test;
+import org.orbisgis.progress.NullProgressMonitor;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests {@link ST_ToLineNoder}.
+ *
+ * @author Adam Gouge
+ */
+public class ST_ToLineNoderTest extends TopologySetupTest {
+
+    /**
+     * Tests that noding in parallel gives the same lines as noding by union:
+     * a cross, a line overlapping one of its arms and a line far away.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void parallelNodingTest() throws Exception {
+        final MemoryDataSetDriver sourceDriver =
+                new MemoryDataSetDriver(new String[]{"the_geom", "id"},
+                                        new Type[]{
+            TypeFactory.createType(Type.GEOMETRY),
+            TypeFactory.createType(Type.INT)});
+        String[] wkts = new String[]{
+            "LINESTRING(0 5, 10 5)",
+            "LINESTRING(5 0, 5 10)",
+            "LINESTRING(0 5, 5 5)",
+            "LINESTRING(100 100, 110 110)"};
+        for (int i = 0; i < wkts.length; i++) {
+            sourceDriver.addValues(new Value[]{
+                ValueFactory.createValue(wktReader.read(wkts[i])),
+                ValueFactory.createValue(i + 1)});
+        }
+        DataSet[] tables = new DataSet[]{sourceDriver};
+
+        DataSet union = new ST_ToLineNoder().evaluate(
+                dsf, tables, new Value[]{}, new NullProgressMonitor());
+        DataSet parallel = new ST_ToLineNoder().evaluate(
+                dsf, tables,
+                new Value[]{ValueFactory.createValue(ST_Graph.PARALLEL)},
+                new NullProgressMonitor());
+
+        // The cross gives four arms, plus the isolated line.
+        assertEquals(5, union.getRowCount());
+        assertEquals(union.getRowCount(), parallel.getRowCount());
+        assertEquals(totalLength(union), totalLength(parallel), 1e-9);
+    }
+
+    /**
+     * Tests that a snap-rounding scale rounds the intersections to the grid.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void snapRoundingTest() throws Exception {
+        final MemoryDataSetDriver sourceDriver =
+                new MemoryDataSetDriver(new String[]{"the_geom", "id"},
+                                        new Type[]{
+            TypeFactory.createType(Type.GEOMETRY),
+            TypeFactory.createType(Type.INT)});
+        // The lines cross at (5, 1.5).
+        String[] wkts = new String[]{
+            "LINESTRING(0 0, 10 3)",
+            "LINESTRING(0 3, 10 0)"};
+        for (int i = 0; i < wkts.length; i++) {
+            sourceDriver.addValues(new Value[]{
+                ValueFactory.createValue(wktReader.read(wkts[i])),
+                ValueFactory.createValue(i + 1)});
+        }
+        DataSet[] tables = new DataSet[]{sourceDriver};
+
+        DataSet floating = new ST_ToLineNoder().evaluate(
+                dsf, tables,
+                new Value[]{ValueFactory.createValue(ST_Graph.PARALLEL)},
+                new NullProgressMonitor());
+        DataSet rounded = new ST_ToLineNoder().evaluate(
+                dsf, tables,
+                new Value[]{ValueFactory.createValue(""),
+                            ValueFactory.createValue(1.0)},
+                new NullProgressMonitor());
+
+        assertEquals(4, floating.getRowCount());
+        assertEquals(4, rounded.getRowCount());
+        assertFalse(onGrid(floating));
+        assertTrue(onGrid(rounded));
+    }
+
+    /**
+     * Returns true iff all the coordinates of the lines of the given table
+     * are integers.
+     */
+    private boolean onGrid(DataSet lines) throws Exception {
+        for (long i = 0; i < lines.getRowCount(); i++) {
+            for (Coordinate c : lines.getGeometry(i, 1).getCoordinates()) {
+                if (c.x != Math.rint(c.x) || c.y != Math.rint(c.y)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the total length of the lines of the given table.
+     *
+     * @param lines The table
+     *
+     * @return The total length
+     *
+     * @throws Exception
+     */
+    private double totalLength(DataSet lines) throws Exception {
+        double length = 0;
+        for (long i = 0; i < lines.getRowCount(); i++) {
+            length += lines.getGeometry(i, 1).getLength();
+        }
+        return length;
+    }
+}
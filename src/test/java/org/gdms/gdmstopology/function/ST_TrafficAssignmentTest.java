@@ -0,0 +1,124 @@
+/**
+ * GDMS-Topology is a library dedicated to graph analysis. It is based on the
+ * JGraphT library available at <http://www.jgrapht.org/>. It enables computing
+ * and processing large graphs using spatial and alphanumeric indexes.
+ *
+ * This version is developed at French IRSTV institut as part of the EvalPDU
+ * project, funded by the French Agence Nationale de la Recherche (ANR) under
+ * contract ANR-08-VILL-0005-01 and GEBD project funded by the French Ministery
+ * of Ecology and Sustainable Development.
+ *
+ * GDMS-Topology is distributed under GPL 3 license. It is produced by the
+ * "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR
+ * 2488.
+ *
+ * Copyright (C) 2009-2012 IRSTV (FR CNRS 2488)
+ *
+ * GDMS-Topology is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * GDMS-Topology is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * GDMS-Topology. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://wwwc.orbisgis.org/> or contact
+ * directly: info_at_ orbisgis.org
+ */
+package org.gdms.gdmstopology.function;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import org.gdms.data.types.Type;
+import org.gdms.data.types.TypeFactory;
+import org.gdms.data.values.Value;
+import org.gdms.data.values.ValueFactory;
+import org.gdms.driver.DataSet;
+import org.gdms.driver.memory.MemoryDataSetDriver;
+import org.gdms.gdmstopology.TopologySetupTest;
+import org.gdms.gdmstopology.model.GraphSchema;
+import org.junit.Test;
+import org.orbisgis.progress.NullProgressMonitor;
+import static org.junit.Assert.*;
+
+/**
+ * Tests {@link ST_TrafficAssignment}.
+ *
+ * @author Adam Gouge
+ */
+public class ST_TrafficAssignmentTest extends TopologySetupTest {
+
+    private static final GeometryFactory GF = new GeometryFactory();
+
+    @Test
+    public void testAllOrNothing() throws Exception {
+        // 1 - 2 - 3 - 4 with a long edge 1 - 3.
+        MemoryDataSetDriver edges = new MemoryDataSetDriver(
+                new String[]{"the_geom", GraphSchema.ID,
+                             GraphSchema.START_NODE, GraphSchema.END_NODE,
+                             GraphSchema.WEIGHT},
+                new Type[]{TypeFactory.createType(Type.GEOMETRY),
+                           TypeFactory.createType(Type.INT),
+                           TypeFactory.createType(Type.INT),
+                           TypeFactory.createType(Type.INT),
+                           TypeFactory.createType(Type.DOUBLE)});
+        addEdge(edges, 1, 1, 2, 1);
+        addEdge(edges, 2, 2, 3, 1);
+        addEdge(edges, 3, 1, 3, 5);
+        addEdge(edges, 4, 3, 4, 1);
+
+        MemoryDataSetDriver od = new MemoryDataSetDriver(
+                new String[]{GraphSchema.SOURCE_NODE,
+                             ST_ShortestPathLength.DESTINATION,
+                             ST_TrafficAssignment.DEMAND},
+                new Type[]{TypeFactory.createType(Type.INT),
+                           TypeFactory.createType(Type.INT),
+                           TypeFactory.createType(Type.DOUBLE)});
+        addPair(od, 1, 3, 10);
+        addPair(od, 1, 4, 5);
+        addPair(od, 2, 4, 2);
+        addPair(od, 4, 1, 1);
+        // Ignored: no path to take, unknown node, no demand.
+        addPair(od, 1, 1, 7);
+        addPair(od, 1, 99, 3);
+        addPair(od, 2, 3, 0);
+
+        DataSet volumes = new ST_TrafficAssignment().evaluate(
+                dsf, new DataSet[]{edges, od},
+                new Value[]{ValueFactory.createValue(GraphSchema.WEIGHT),
+                            ValueFactory.createValue(
+                    ST_ShortestPathLength.UNDIRECTED)},
+                new NullProgressMonitor());
+        double[] expected = new double[]{16, 18, 0, 8};
+        assertEquals(expected.length, volumes.getRowCount());
+        for (int i = 0; i < expected.length; i++) {
+            Value[] row = volumes.getRow(i);
+            assertEquals(i + 1, row[1].getAsInt());
+            assertEquals(expected[i], row[2].getAsDouble(), 1e-9);
+        }
+    }
+
+    private void addEdge(MemoryDataSetDriver edges, int id, int start,
+                         int end, double weight) throws Exception {
+        edges.addValues(new Value[]{
+            ValueFactory.createValue(GF.createLineString(new Coordinate[]{
+                new Coordinate(start, 0), new Coordinate(end, 0)})),
+            ValueFactory.createValue(id),
+            ValueFactory.createValue(start),
+            ValueFactory.createValue(end),
+            ValueFactory.createValue(weight)});
+    }
+
+    private void addPair(MemoryDataSetDriver od, int source,
+                         int destination, double demand) throws Exception {
+        od.addValues(new Value[]{
+            ValueFactory.createValue(source),
+            ValueFactory.createValue(destination),
+            ValueFactory.createValue(demand)});
+    }
+}
@@ -0,0 +1,224 @@
+/**
+ * GDMS-Topology is a library dedicated to graph analysis. It is based on the
+ * JGraphT library available at <http://www.jgrapht.org/>. It enables computing
+ * and processing large graphs using spatial and alphanumeric indexes.
+ *
+ * This version is developed at French IRSTV institut as part of the EvalPDU
+ * project, funded by the French Agence Nationale de la Recherche (ANR) under
+ * contract ANR-08-VILL-0005-01 and GEBD project funded by the French Ministery
+ * of Ecology and Sustainable Development.
+ *
+ * GDMS-Topology is distributed under GPL 3 license. It is produced by the
+ * "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR
+ * 2488.
+ *
+ * Copyright (C) 2009-2012 IRSTV (FR CNRS 2488)
+ *
+ * GDMS-Topology is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * GDMS-Topology is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * GDMS-Topology. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://wwwc.orbisgis.org/> or contact
+ * directly: info_at_ orbisgis.org
+ */
+package org.gdms.gdmstopology.function;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import org.gdms.data.DataSource;
+import org.gdms.data.types.Type;
+import org.gdms.data.types.TypeFactory;
+import org.gdms.data.values.Value;
+import org.gdms.data.values.ValueFactory;
+import org.gdms.driver.DataSet;
+import org.gdms.driver.memory.MemoryDataSetDriver;
+import org.gdms.gdmstopology.TopologySetupTest;
+import org.gdms.gdmstopology.model.GraphSchema;
+import org.junit.Test;
+import org.orbisgis.progress.NullProgressMonitor;
+import static org.junit.Assert.*;
+
+/**
+ * Tests {@link ST_ShortestPathLength} and {@link ST_ShortestPath} under turn
+ * restrictions.
+ *
+ * @author Adam Gouge
+ */
+public class TurnRestrictionTest extends TopologySetupTest {
+
+    private static final GeometryFactory GF = new GeometryFactory();
+    private static final double TOLERANCE = 1e-9;
+
+    /**
+     * A square 1-2-3-4 with a tail 2-5: e1 = 1-2, e2 = 2-3, e3 = 3-4,
+     * e4 = 4-1 (1.5) and e5 = 2-5, all of weight 1 unless stated.
+     */
+    private MemoryDataSetDriver square() throws Exception {
+        MemoryDataSetDriver edges = new MemoryDataSetDriver(
+                new String[]{"the_geom", GraphSchema.ID,
+                             GraphSchema.START_NODE, GraphSchema.END_NODE,
+                             GraphSchema.WEIGHT},
+                new Type[]{TypeFactory.createType(Type.GEOMETRY),
+                           TypeFactory.createType(Type.INT),
+                           TypeFactory.createType(Type.INT),
+                           TypeFactory.createType(Type.INT),
+                           TypeFactory.createType(Type.DOUBLE)});
+        double[][] xy = new double[][]{{0, 0}, {1, 0}, {1, 1}, {0, 1},
+                                       {2, 0}};
+        int[][] ends = new int[][]{{1, 2}, {2, 3}, {3, 4}, {4, 1}, {2, 5}};
+        double[] weights = new double[]{1, 1, 1, 1.5, 1};
+        for (int e = 0; e < ends.length; e++) {
+            double[] a = xy[ends[e][0] - 1];
+            double[] b = xy[ends[e][1] - 1];
+            edges.addValues(new Value[]{
+                ValueFactory.createValue(GF.createLineString(new Coordinate[]{
+                    new Coordinate(a[0], a[1]), new Coordinate(b[0], b[1])})),
+                ValueFactory.createValue(e + 1),
+                ValueFactory.createValue(ends[e][0]),
+                ValueFactory.createValue(ends[e][1]),
+                ValueFactory.createValue(weights[e])});
+        }
+        return edges;
+    }
+
+    private MemoryDataSetDriver turns(int[][] turns, Double... costs)
+            throws Exception {
+        MemoryDataSetDriver table = new MemoryDataSetDriver(
+                new String[]{GraphSchema.FROM_EDGE, GraphSchema.VIA_NODE,
+                             GraphSchema.TO_EDGE, GraphSchema.TURN_COST},
+                new Type[]{TypeFactory.createType(Type.INT),
+                           TypeFactory.createType(Type.INT),
+                           TypeFactory.createType(Type.INT),
+                           TypeFactory.createType(Type.DOUBLE)});
+        for (int i = 0; i < turns.length; i++) {
+            table.addValues(new Value[]{
+                ValueFactory.createValue(turns[i][0]),
+                ValueFactory.createValue(turns[i][1]),
+                ValueFactory.createValue(turns[i][2]),
+                costs[i] == null
+                ? ValueFactory.createNullValue()
+                : ValueFactory.createValue(costs[i])});
+        }
+        return table;
+    }
+
+    private double distance(DataSet edges, DataSet turns, int source,
+                            int destination) throws Exception {
+        DataSet result = new ST_ShortestPathLength().evaluate(
+                dsf, new DataSet[]{edges, turns},
+                new Value[]{ValueFactory.createValue(source),
+                            ValueFactory.createValue(destination),
+                            ValueFactory.createValue(GraphSchema.WEIGHT),
+                            ValueFactory.createValue(
+                    ST_ShortestPathLength.UNDIRECTED)},
+                new NullProgressMonitor());
+        assertEquals(1, result.getRowCount());
+        return result.getFieldValue(0, 2).getAsDouble();
+    }
+
+    @Test
+    public void testTurnDistances() throws Exception {
+        MemoryDataSetDriver edges = square();
+        // No restriction.
+        assertEquals(2, distance(edges, turns(new int[0][]), 1, 3),
+                     TOLERANCE);
+        // Forbidden: around the other side.
+        assertEquals(2.5, distance(edges, turns(new int[][]{{1, 2, 2}},
+                                                (Double) null), 1, 3),
+                     TOLERANCE);
+        // Penalized.
+        assertEquals(2.3, distance(edges, turns(new int[][]{{1, 2, 2}},
+                                                0.3), 1, 3),
+                     TOLERANCE);
+        // Only by a U-turn at 3, which a node-based graph cannot express.
+        assertEquals(4, distance(edges, turns(new int[][]{{1, 2, 5}},
+                                              (Double) null), 1, 5),
+                     TOLERANCE);
+
+        // One-to-all.
+        DataSet all = new ST_ShortestPathLength().evaluate(
+                dsf, new DataSet[]{edges,
+                                   turns(new int[][]{{1, 2, 2}},
+                                         (Double) null)},
+                new Value[]{ValueFactory.createValue(1),
+                            ValueFactory.createValue(GraphSchema.WEIGHT),
+                            ValueFactory.createValue(
+                    ST_ShortestPathLength.UNDIRECTED)},
+                new NullProgressMonitor());
+        double[] expected = new double[]{0, 1, 2.5, 1.5, 2};
+        assertEquals(expected.length, all.getRowCount());
+        for (int i = 0; i < all.getRowCount(); i++) {
+            Value[] row = all.getRow(i);
+            assertEquals(1, row[0].getAsInt());
+            assertEquals(expected[row[1].getAsInt() - 1],
+                         row[2].getAsDouble(), TOLERANCE);
+        }
+    }
+
+    @Test
+    public void testTurnPath() throws Exception {
+        DataSource ds = dsf.getDataSource(GRAPH2D_EDGES);
+        ds.open();
+        try {
+            Value[] arguments = new Value[]{
+                ValueFactory.createValue(3),
+                ValueFactory.createValue(4),
+                ValueFactory.createValue("length"),
+                ValueFactory.createValue("undirected")};
+            // Without restrictions, the path is a shortest path.
+            DataSet path = new ST_ShortestPath().evaluate(
+                    dsf, new DataSet[]{ds, turns(new int[0][])}, arguments,
+                    new NullProgressMonitor());
+            assertTrue(path.getRowCount() >= 2);
+            double length = 0;
+            for (int i = 0; i < path.getRowCount(); i++) {
+                length += path.getFieldValue(i, 5).getAsDouble();
+            }
+            DataSet distance = new ST_ShortestPathLength().evaluate(
+                    dsf, new DataSet[]{ds}, arguments,
+                    new NullProgressMonitor());
+            assertEquals(distance.getFieldValue(0, 2).getAsDouble(), length,
+                         TOLERANCE);
+            // Forbid its first turn. The path goes from the destination
+            // back to the source.
+            int last = (int) path.getRowCount() - 1;
+            Value[] first = path.getRow(last);
+            Value[] second = path.getRow(last - 1);
+            int[] turn = new int[]{first[1].getAsInt(), first[4].getAsInt(),
+                                   second[1].getAsInt()};
+            DataSet detour = new ST_ShortestPath().evaluate(
+                    dsf, new DataSet[]{ds,
+                                       turns(new int[][]{turn},
+                                             (Double) null)},
+                    arguments, new NullProgressMonitor());
+            for (int i = (int) detour.getRowCount() - 1; i > 0; i--) {
+                assertFalse(detour.getFieldValue(i, 1).getAsInt() == turn[0]
+                            && detour.getFieldValue(i, 4).getAsInt()
+                               == turn[1]
+                            && detour.getFieldValue(i - 1, 1).getAsInt()
+                               == turn[2]);
+            }
+            // The path is connected from the source to the destination.
+            int n = (int) detour.getRowCount();
+            if (n > 0) {
+                assertEquals(3, detour.getFieldValue(n - 1, 3).getAsInt());
+                assertEquals(4, detour.getFieldValue(0, 4).getAsInt());
+                for (int i = n - 1; i > 0; i--) {
+                    assertEquals(detour.getFieldValue(i, 4).getAsInt(),
+                                 detour.getFieldValue(i - 1, 3).getAsInt());
+                }
+            }
+        } finally {
+            ds.close();
+        }
+    }
+}
@@ -0,0 +1,323 @@
+/**
+ * GDMS-Topology is a library dedicated to graph analysis. It is based on the
+ * JGraphT library available at <http://www.jgrapht.org/>. It enables computing
+ * and processing large graphs using spatial and alphanumeric indexes.
+ *
+ * This version is developed at French IRSTV institut as part of the EvalPDU
+ * project, funded by the French Agence Nationale de la Recherche (ANR) under
+ * contract ANR-08-VILL-0005-01 and GEBD project funded by the French Ministery
+ * of Ecology and Sustainable Development.
+ *
+ * GDMS-Topology is distributed under GPL 3 license. It is produced by the
+ * "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR
+ * 2488.
+ *
+ * Copyright (C) 2009-2012 IRSTV (FR CNRS 2488)
+ *
+ * GDMS-Topology is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * GDMS-Topology is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * GDMS-Topology. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://wwwc.orbisgis.org/> or contact
+ * directly: info_at_ orbisgis.org
+ */
+package org.gdms.gdmstopology.function;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import org.gdms.data.types.Type;
+import org.gdms.data.types.TypeFactory;
+import org.gdms.data.values.Value;
+import org.gdms.data.values.ValueFactory;
+import org.gdms.driver.DataSet;
+import org.gdms.driver.DiskBufferDriver;
+import org.gdms.driver.memory.MemoryDataSetDriver;
+import org.gdms.gdmstopology.TopologySetupTest;
+import org.gdms.gdmstopology.graphcreator.GraphCreator;
+import org.gdms.gdmstopology.model.GraphSchema;
+import org.junit.Test;
+import org.orbisgis.progress.NullProgressMonitor;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the shortest path functions without a weights column, against
+ * Dijkstra's algorithm on a column of ones, and the unweighted mode of
+ * {@link ST_MFindReachableEdges}.
+ *
+ * @author Adam Gouge
+ */
+public class UnweightedSearchTest extends TopologySetupTest {
+
+    private static final GeometryFactory GF = new GeometryFactory();
+    private static final String ONES = "ones";
+    private static final int SIZE = 10;
+    private static final String[] ORIENTATIONS = new String[]{
+        ST_ShortestPathLength.DIRECTED + " - " + GraphSchema.EDGE_ORIENTATION,
+        ST_ShortestPathLength.REVERSED + " - " + GraphSchema.EDGE_ORIENTATION,
+        ST_ShortestPathLength.UNDIRECTED};
+
+    @Test
+    public void testOneToAll() throws Exception {
+        DataSet edges = grid();
+        for (String orientation : ORIENTATIONS) {
+            for (int source = 1; source <= SIZE * SIZE; source += 7) {
+                Map<Integer, Double> expected = distances(evaluate(
+                        edges, ValueFactory.createValue(source),
+                        ValueFactory.createValue(ONES),
+                        ValueFactory.createValue(orientation)));
+                Map<Integer, Double> actual = distances(evaluate(
+                        edges, ValueFactory.createValue(source),
+                        ValueFactory.createValue(orientation)));
+                assertEquals(SIZE * SIZE, actual.size());
+                for (Map.Entry<Integer, Double> e : actual.entrySet()) {
+                    assertSameDistance(expected.get(e.getKey()),
+                                       e.getValue());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testOneToOneAndManyToMany() throws Exception {
+        DataSet edges = grid();
+        MemoryDataSetDriver pairs = new MemoryDataSetDriver(
+                new String[]{ST_ShortestPathLength.SOURCE,
+                             ST_ShortestPathLength.DESTINATION},
+                new Type[]{TypeFactory.createType(Type.INT),
+                           TypeFactory.createType(Type.INT)});
+        // More sources than a single multi-source batch.
+        for (int s = 1; s <= SIZE * SIZE; s++) {
+            for (int d = 2; d <= SIZE * SIZE; d += 9) {
+                pairs.addValues(new Value[]{ValueFactory.createValue(s),
+                                            ValueFactory.createValue(d)});
+            }
+        }
+        for (String orientation : ORIENTATIONS) {
+            DataSet expected = new ST_ShortestPathLength().evaluate(
+                    dsf, new DataSet[]{edges, pairs},
+                    new Value[]{ValueFactory.createValue(ONES),
+                                ValueFactory.createValue(orientation)},
+                    new NullProgressMonitor());
+            DataSet actual = new ST_ShortestPathLength().evaluate(
+                    dsf, new DataSet[]{edges, pairs},
+                    new Value[]{ValueFactory.createValue(orientation)},
+                    new NullProgressMonitor());
+            Map<Long, Double> expectedPairs = pairDistances(expected);
+            Map<Long, Double> actualPairs = pairDistances(actual);
+            assertEquals(expectedPairs.keySet(), actualPairs.keySet());
+            for (Map.Entry<Long, Double> e : actualPairs.entrySet()) {
+                assertSameDistance(expectedPairs.get(e.getKey()),
+                                   e.getValue());
+            }
+            DataSet one = evaluate(edges, ValueFactory.createValue(1),
+                                   ValueFactory.createValue(SIZE * SIZE),
+                                   ValueFactory.createValue(orientation));
+            assertEquals(1, one.getRowCount());
+            assertSameDistance(
+                    distances(evaluate(edges, ValueFactory.createValue(1),
+                                       ValueFactory.createValue(ONES),
+                                       ValueFactory.createValue(orientation)))
+                    .get(SIZE * SIZE),
+                    one.getFieldValue(0, 2).getAsDouble());
+        }
+    }
+
+    @Test
+    public void testPathAndTree() throws Exception {
+        DataSet edges = grid();
+        String orientation = ORIENTATIONS[0];
+        Map<Integer, Double> hops = distances(evaluate(
+                edges, ValueFactory.createValue(1),
+                ValueFactory.createValue(orientation)));
+        for (int target = 2; target <= SIZE * SIZE; target++) {
+            DataSet path = new ST_ShortestPath().evaluate(
+                    dsf, new DataSet[]{edges},
+                    new Value[]{ValueFactory.createValue(1),
+                                ValueFactory.createValue(target),
+                                ValueFactory.createValue(orientation)},
+                    new NullProgressMonitor());
+            if (Double.isInfinite(hops.get(target))) {
+                assertEquals(0, path.getRowCount());
+                continue;
+            }
+            assertEquals(hops.get(target).longValue(), path.getRowCount());
+            // From the destination back to the source.
+            int n = (int) path.getRowCount();
+            assertEquals(target, path.getFieldValue(0, 4).getAsInt());
+            assertEquals(1, path.getFieldValue(n - 1, 3).getAsInt());
+            for (int i = 1; i < n; i++) {
+                assertEquals(path.getFieldValue(i - 1, 3).getAsInt(),
+                             path.getFieldValue(i, 4).getAsInt());
+            }
+        }
+
+        int radius = 3;
+        DataSet tree = new ST_ShortestPathTree().evaluate(
+                dsf, new DataSet[]{edges},
+                new Value[]{ValueFactory.createValue(1),
+                            ValueFactory.createValue(radius),
+                            ValueFactory.createValue(orientation)},
+                new NullProgressMonitor());
+        int reached = 0;
+        for (double h : hops.values()) {
+            if (h >= 1 && h <= radius) {
+                reached++;
+            }
+        }
+        assertEquals(reached, tree.getRowCount());
+        for (int i = 0; i < tree.getRowCount(); i++) {
+            Value[] row = tree.getRow(i);
+            assertEquals(hops.get(row[4].getAsInt()) - 1,
+                         hops.get(row[3].getAsInt()), 0);
+            assertEquals(1, row[5].getAsDouble(), 0);
+        }
+    }
+
+    @Test
+    public void testReachableEdgesByHops() throws Exception {
+        DataSet edges = grid();
+        MemoryDataSetDriver nodes = new MemoryDataSetDriver(
+                new String[]{GraphSchema.SOURCE_NODE},
+                new Type[]{TypeFactory.createType(Type.INT)});
+        for (int s = 1; s <= SIZE * SIZE; s++) {
+            nodes.addValues(new Value[]{ValueFactory.createValue(s)});
+        }
+        DataSet reachable = new ST_MFindReachableEdges().evaluate(
+                dsf, new DataSet[]{edges, nodes},
+                new Value[]{ValueFactory.createValue(ONES),
+                            ValueFactory.createValue(GraphSchema.UNDIRECT),
+                            ValueFactory.createValue(
+                    ST_MFindReachableEdges.UNWEIGHTED)},
+                new NullProgressMonitor());
+        ((DiskBufferDriver) reachable).open();
+        // The number of edges reached at each number of hops.
+        Map<Integer, Map<Double, Integer>> counts =
+                new HashMap<Integer, Map<Double, Integer>>();
+        for (int i = 0; i < reachable.getRowCount(); i++) {
+            Value[] row = reachable.getRow(i);
+            assertEquals(1, row[3].getAsDouble(), 0);
+            increment(counts, row[2].getAsInt(), row[4].getAsDouble());
+        }
+        Map<Integer, Map<Double, Integer>> expected =
+                new HashMap<Integer, Map<Double, Integer>>();
+        for (int s = 1; s <= SIZE * SIZE; s++) {
+            for (double h : distances(evaluate(
+                    edges, ValueFactory.createValue(s),
+                    ValueFactory.createValue(ST_ShortestPathLength.UNDIRECTED)))
+                    .values()) {
+                if (h > 0 && !Double.isInfinite(h)) {
+                    increment(expected, s, h);
+                }
+            }
+        }
+        assertEquals(expected, counts);
+        ((DiskBufferDriver) reachable).close();
+    }
+
+    private static void increment(Map<Integer, Map<Double, Integer>> counts,
+                                  int source, double hops) {
+        Map<Double, Integer> count = counts.get(source);
+        if (count == null) {
+            count = new HashMap<Double, Integer>();
+            counts.put(source, count);
+        }
+        Integer c = count.get(hops);
+        count.put(hops, c == null ? 1 : c + 1);
+    }
+
+    private DataSet evaluate(DataSet edges, Value... values)
+            throws Exception {
+        return new ST_ShortestPathLength().evaluate(
+                dsf, new DataSet[]{edges}, values, new NullProgressMonitor());
+    }
+
+    private static void assertSameDistance(double expected, double actual) {
+        if (expected > Double.MAX_VALUE / 2) {
+            assertTrue(Double.isInfinite(actual));
+        } else {
+            assertEquals(expected, actual, 0);
+        }
+    }
+
+    private static Map<Integer, Double> distances(DataSet result)
+            throws Exception {
+        Map<Integer, Double> map = new HashMap<Integer, Double>();
+        for (int i = 0; i < result.getRowCount(); i++) {
+            Value[] row = result.getRow(i);
+            map.put(row[1].getAsInt(), row[2].getAsDouble());
+        }
+        return map;
+    }
+
+    private static Map<Long, Double> pairDistances(DataSet result)
+            throws Exception {
+        Map<Long, Double> map = new HashMap<Long, Double>();
+        for (int i = 0; i < result.getRowCount(); i++) {
+            Value[] row = result.getRow(i);
+            map.put((long) row[0].getAsInt() << 32 | row[1].getAsInt(),
+                    row[2].getAsDouble());
+        }
+        return map;
+    }
+
+    /**
+     * A grid of nodes 1 to SIZE^2 with random edge orientations and a few
+     * diagonals.
+     */
+    private static DataSet grid() throws Exception {
+        MemoryDataSetDriver edges = new MemoryDataSetDriver(
+                new String[]{"the_geom", GraphSchema.ID,
+                             GraphSchema.START_NODE, GraphSchema.END_NODE,
+                             ONES, GraphSchema.EDGE_ORIENTATION},
+                new Type[]{TypeFactory.createType(Type.GEOMETRY),
+                           TypeFactory.createType(Type.INT),
+                           TypeFactory.createType(Type.INT),
+                           TypeFactory.createType(Type.INT),
+                           TypeFactory.createType(Type.DOUBLE),
+                           TypeFactory.createType(Type.INT)});
+        Random random = new Random(7);
+        int id = 1;
+        for (int x = 0; x < SIZE; x++) {
+            for (int y = 0; y < SIZE; y++) {
+                if (x + 1 < SIZE) {
+                    addEdge(edges, id++, x, y, x + 1, y, random);
+                }
+                if (y + 1 < SIZE) {
+                    addEdge(edges, id++, x, y, x, y + 1, random);
+                }
+                if (x + 1 < SIZE && y + 1 < SIZE && random.nextInt(4) == 0) {
+                    addEdge(edges, id++, x, y, x + 1, y + 1, random);
+                }
+            }
+        }
+        return edges;
+    }
+
+    private static void addEdge(MemoryDataSetDriver edges, int id, int x1,
+                                int y1, int x2, int y2, Random random)
+            throws Exception {
+        int[] orientations = new int[]{GraphCreator.DIRECTED_EDGE,
+                                       GraphCreator.REVERSED_EDGE,
+                                       GraphCreator.UNDIRECTED_EDGE};
+        edges.addValues(new Value[]{
+            ValueFactory.createValue(GF.createLineString(new Coordinate[]{
+                new Coordinate(x1, y1), new Coordinate(x2, y2)})),
+            ValueFactory.createValue(id),
+            ValueFactory.createValue(x1 * SIZE + y1 + 1),
+            ValueFactory.createValue(x2 * SIZE + y2 + 1),
+            ValueFactory.createValue(1.0),
+            ValueFactory.createValue(orientations[random.nextInt(3)])});
+    }
+}
@@ -32,6 +32,9 @@
  */
 package org.gdms.gdmstopology.model;
 
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
 import org.junit.Test;
 import org.gdms.data.DataSource;
 import org.gdms.gdmstopology.TopologySetupTest;
@@ -103,4 +106,178 @@ public class GraphModelTest extends TopologySetupTest {
         assertTrue(wMultigraphDataSource.outgoingEdgesOf(5).isEmpty());
         ds.close();
     }
+
+    /**
+     * Tests that the adjacency cache answers repeated lookups and gives the
+     * same edges when it is too small to hold all vertices.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testAdjacencyCache() throws Exception {
+        DataSource ds = dsf.getDataSource(GRAPH2D_EDGES);
+        ds.open();
+        DWMultigraphDataSource graph = new DWMultigraphDataSource(dsf, ds, new NullProgressMonitor());
+        graph.setWeightFieldIndex("length");
+        GDMSGraph gdmsGraph = graph.getGDMSGraph();
+
+        assertEquals(2, graph.outDegreeOf(6));
+        long misses = gdmsGraph.getAdjacencyCacheMisses();
+        long hits = gdmsGraph.getAdjacencyCacheHits();
+        assertEquals(2, graph.outgoingEdgesOf(6).size());
+        assertEquals(misses, gdmsGraph.getAdjacencyCacheMisses());
+        assertEquals(hits + 1, gdmsGraph.getAdjacencyCacheHits());
+
+        // A reversed graph reads the same cache.
+        EdgeReversedGraphDataSource reversed = new EdgeReversedGraphDataSource(graph);
+        assertEquals(2, reversed.inDegreeOf(6));
+        assertEquals(hits + 2, gdmsGraph.getAdjacencyCacheHits());
+
+        graph.setAdjacencyCacheSize(1);
+        for (int i = 0; i < 2; i++) {
+            assertEquals(1, graph.inDegreeOf(3));
+            assertEquals(2, graph.outDegreeOf(6));
+            assertEquals(0, graph.outDegreeOf(5));
+            assertEquals(1, graph.incomingEdgesOf(3).size());
+        }
+        ds.close();
+    }
+
+    /**
+     * Tests that the vertex set and the degrees read from the vertex index
+     * match a scan of the edges table.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testVertexIndex() throws Exception {
+        DataSource ds = dsf.getDataSource(GRAPH2D_EDGES);
+        ds.open();
+        DWMultigraphDataSource graph = new DWMultigraphDataSource(dsf, ds, new NullProgressMonitor());
+        int startIndex = ds.getMetadata().getFieldIndex(GraphSchema.START_NODE);
+        int endIndex = ds.getMetadata().getFieldIndex(GraphSchema.END_NODE);
+        Map<Integer, int[]> degrees = new HashMap<Integer, int[]>();
+        for (long i = 0; i < ds.getRowCount(); i++) {
+            int start = ds.getInt(i, startIndex);
+            int end = ds.getInt(i, endIndex);
+            if (!degrees.containsKey(start)) {
+                degrees.put(start, new int[2]);
+            }
+            if (!degrees.containsKey(end)) {
+                degrees.put(end, new int[2]);
+            }
+            degrees.get(start)[1]++;
+            degrees.get(end)[0]++;
+        }
+        assertEquals(degrees.keySet(), graph.vertexSet());
+        for (Integer vertex : degrees.keySet()) {
+            assertTrue(graph.containsVertex(vertex));
+            assertEquals(degrees.get(vertex)[0], graph.inDegreeOf(vertex));
+            assertEquals(degrees.get(vertex)[1], graph.outDegreeOf(vertex));
+            assertEquals(degrees.get(vertex)[0] + degrees.get(vertex)[1],
+                         graph.degreeOf(vertex));
+        }
+        assertFalse(graph.containsVertex(100));
+        ds.close();
+    }
+
+    /**
+     * Tests that each vertex index is built from the current table and that
+     * its file is deleted once mapped.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testVertexIndexFile() throws Exception {
+        DataSource ds = dsf.getDataSource(GRAPH2D_EDGES);
+        ds.open();
+        int startIndex = ds.getMetadata().getFieldIndex(GraphSchema.START_NODE);
+        int endIndex = ds.getMetadata().getFieldIndex(GraphSchema.END_NODE);
+        VertexIndex first = VertexIndex.build(dsf, ds, startIndex, endIndex,
+                                              new NullProgressMonitor());
+        VertexIndex second = VertexIndex.build(dsf, ds, startIndex, endIndex,
+                                               new NullProgressMonitor());
+        assertTrue(first != second);
+        assertFalse(first.getFile().exists());
+        assertFalse(second.getFile().exists());
+        assertEquals(first.size(), second.size());
+        for (int i = 0; i < first.size(); i++) {
+            assertEquals(first.getVertex(i), second.getVertex(i));
+            assertEquals(first.degreeOf(first.getVertex(i)),
+                         second.degreeOf(second.getVertex(i)));
+        }
+        ds.close();
+    }
+
+    /**
+     * Tests that the memory-mapped adjacency graph has the same vertices,
+     * edges and weights as the index-backed graph.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testMappedAdjacencyGraph() throws Exception {
+        DataSource ds = dsf.getDataSource(GRAPH2D_EDGES);
+        ds.open();
+        DWMultigraphDataSource graph = new DWMultigraphDataSource(dsf, ds, new NullProgressMonitor());
+        graph.setWeightFieldIndex("length");
+        MappedAdjacencyGraph mapped = new MappedAdjacencyGraph(dsf, ds, "length", new NullProgressMonitor());
+
+        assertEquals(graph.vertexSet(), new HashSet<Integer>(mapped.vertexSet()));
+        assertEquals(ds.getRowCount(), mapped.edgeSet().size());
+        for (Integer vertex : graph.vertexSet()) {
+            assertEquals(graph.inDegreeOf(vertex), mapped.inDegreeOf(vertex));
+            assertEquals(graph.outDegreeOf(vertex), mapped.outDegreeOf(vertex));
+            for (GraphEdge edge : mapped.outgoingEdgesOf(vertex)) {
+                assertEquals(vertex, edge.getSource());
+                assertEquals(ds.getInt(edge.getRowId(), ds.getMetadata().getFieldIndex(GraphSchema.END_NODE)),
+                             edge.getTarget().intValue());
+                assertEquals(ds.getGeometry(edge.getRowId()).getLength(), edge.getWeight(), 0);
+            }
+        }
+        GraphEdge ge = mapped.getEdge(3, 5);
+        assertTrue(ge != null);
+        assertTrue((ge.getWeight() - ds.getGeometry(1).getLength()) == 0);
+        assertEquals(ds.getGeometry(1), mapped.getGeometry(ge));
+        assertTrue(mapped.getEdge(5, 3) == null);
+        assertFalse(mapped.containsVertex(100));
+        mapped.close();
+        ds.close();
+    }
+
+    /**
+     * Checks that reordering a {@link CompactGraph} keeps the vertex ids,
+     * the edge ids and the distances.
+     */
+    @Test
+    public void testCompactGraphReorder() {
+        // A path 10 - 20 - 30 - 40 - 50 with a one-way chord 50 -> 20.
+        int[] starts = new int[]{30, 10, 50, 20, 40, 50};
+        int[] ends = new int[]{40, 20, 40, 30, 50, 20};
+        double[] weights = new double[]{1, 2, 3, 4, 5, 1.5};
+        boolean[] forward = new boolean[]{true, true, true, true, true, true};
+        boolean[] backward =
+                new boolean[]{true, true, true, true, false, false};
+        CompactGraph graph =
+                new CompactGraph(starts, ends, weights, forward, backward);
+        CompactGraph reordered = graph.reorder();
+        assertEquals(graph.getVertexCount(), reordered.getVertexCount());
+        assertEquals(graph.getArcCount(), reordered.getArcCount());
+        for (int v = 0; v < graph.getVertexCount(); v++) {
+            int id = graph.getId(v);
+            int w = reordered.getIndex(id);
+            assertEquals(id, reordered.getId(w));
+            assertEquals(graph.getEndArc(v) - graph.getFirstArc(v),
+                         reordered.getEndArc(w) - reordered.getFirstArc(w));
+            double[] expected =
+                    graph.search(v, Double.POSITIVE_INFINITY, null);
+            double[] distances =
+                    reordered.search(w, Double.POSITIVE_INFINITY, null);
+            for (int u = 0; u < graph.getVertexCount(); u++) {
+                assertEquals(expected[u],
+                             distances[reordered.getIndex(graph.getId(u))],
+                             0);
+            }
+        }
+    }
 }
@@ -0,0 +1,79 @@
+/**
+ * GDMS-Topology is a library dedicated to graph analysis. It is based on the
+ * JGraphT library available at <http://www.jgrapht.org/>. It enables computing
+ * and processing large graphs using spatial and alphanumeric indexes.
+ *
+ * This version is developed at French IRSTV institut as part of the EvalPDU
+ * project, funded by the French Agence Nationale de la Recherche (ANR) under
+ * contract ANR-08-VILL-0005-01 and GEBD project funded by the French Ministery
+ * of Ecology and Sustainable Development.
+ *
+ * GDMS-Topology is distributed under GPL 3 license. It is produced by the
+ * "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR
+ * 2488.
+ *
+ * Copyright (C) 2009-2012 IRSTV (FR CNRS 2488)
+ *
+ * GDMS-Topology is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * GDMS-Topology is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * GDMS-Topology. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://wwwc.orbisgis.org/> or contact
+ * directly: info_at_ orbisgis.org
+ */
+package org.gdms.gdmstopology.process;
+
+import java.util.Arrays;
+import java.util.Random;
+import org.gdms.gdmstopology.TopologySetupTest;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests {@link ExternalRecordSorter}.
+ *
+ * @author Adam Gouge
+ */
+public class ExternalRecordSorterTest extends TopologySetupTest {
+
+    /**
+     * Sorts enough runs to need several merge passes.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testMultiPassMerge() throws Exception {
+        int capacity = 3;
+        int count = capacity * ExternalRecordSorter.MAX_FAN_IN
+                    * ExternalRecordSorter.MAX_FAN_IN / 2;
+        ExternalRecordSorter sorter =
+                new ExternalRecordSorter(dsf, 2, 1, capacity);
+        Random random = new Random(27);
+        long[] keys = new long[count];
+        for (int i = 0; i < count; i++) {
+            keys[i] = random.nextInt(1000);
+            sorter.add(keys[i], i);
+        }
+        Arrays.sort(keys);
+        ExternalRecordSorter.RecordIterator sorted = sorter.sort();
+        try {
+            long[] record = new long[2];
+            int i = 0;
+            while (sorted.next(record)) {
+                assertEquals(keys[i++], record[0]);
+            }
+            assertEquals(count, i);
+        } finally {
+            sorted.close();
+        }
+    }
+}
@@ -0,0 +1,130 @@
+/**
+ * GDMS-Topology is a library dedicated to graph analysis. It is based on the
+ * JGraphT library available at <http://www.jgrapht.org/>. It enables computing
+ * and processing large graphs using spatial and alphanumeric indexes.
+ *
+ * This version is developed at French IRSTV institut as part of the EvalPDU
+ * project, funded by the French Agence Nationale de la Recherche (ANR) under
+ * contract ANR-08-VILL-0005-01 and GEBD project funded by the French Ministery
+ * of Ecology and Sustainable Development.
+ *
+ * GDMS-Topology is distributed under GPL 3 license. It is produced by the
+ * "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR
+ * 2488.
+ *
+ * Copyright (C) 2009-2012 IRSTV (FR CNRS 2488)
+ *
+ * GDMS-Topology is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * GDMS-Topology is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * GDMS-Topology. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://wwwc.orbisgis.org/> or contact
+ * directly: info_at_ orbisgis.org
+ */
+package org.gdms.gdmstopology.process;
+
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.io.WKTReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import org.gdms.gdmstopology.TopologySetupTest;
+import org.junit.Test;
+import org.orbisgis.progress.NullProgressMonitor;
+import static org.junit.Assert.*;
+
+/**
+ * Tests {@link TopologyExecutorService}.
+ *
+ * @author Adam Gouge
+ */
+public class TopologyExecutorServiceTest extends TopologySetupTest {
+
+    @Test
+    public void testProperties() {
+        TopologyExecutorService executor =
+                TopologyExecutorService.fromProperties("3", "not a number");
+        try {
+            assertEquals(3, executor.getParallelism());
+            assertEquals(2, executor.getIoThreads());
+        } finally {
+            executor.shutdown();
+        }
+        executor = TopologyExecutorService.fromProperties("0", "5");
+        try {
+            assertEquals(Runtime.getRuntime().availableProcessors(),
+                         executor.getParallelism());
+            assertEquals(5, executor.getIoThreads());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testTaskGroup() throws Exception {
+        TopologyExecutorService executor =
+                new TopologyExecutorService(2, 1);
+        try {
+            TopologyExecutorService.TaskGroup tasks =
+                    executor.newTaskGroup(new NullProgressMonitor());
+            List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+            for (int i = 0; i < 2000; i++) {
+                final int value = i;
+                Callable<Integer> task = new Callable<Integer>() {
+                    @Override
+                    public Integer call() {
+                        return value;
+                    }
+                };
+                futures.add(i % 2 == 0 ? tasks.submit(task)
+                        : tasks.submitIo(task));
+            }
+            int sum = 0;
+            for (Future<Integer> f : futures) {
+                sum += tasks.get(f);
+            }
+            assertEquals(1999 * 2000 / 2, sum);
+            assertFalse(tasks.isCancelled());
+            tasks.cancel();
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testParallelismDoesNotChangeBlocks() throws Exception {
+        WKTReader reader = new WKTReader();
+        Geometry[] geometries = new Geometry[300];
+        for (int i = 0; i < geometries.length; i++) {
+            // Chains of 10 touching squares.
+            int x = i % 10;
+            int y = 2 * (i / 10);
+            geometries[i] = reader.read("POLYGON((" + x + " " + y + ", "
+                    + (x + 1) + " " + y + ", " + (x + 1) + " " + (y + 1)
+                    + ", " + x + " " + (y + 1) + ", " + x + " " + y + "))");
+        }
+        TopologyExecutorService single = new TopologyExecutorService(1, 1);
+        TopologyExecutorService several = new TopologyExecutorService(4, 1);
+        try {
+            int[] expected = new BlockIdentifier(single)
+                    .identifyBlocks(geometries, new NullProgressMonitor());
+            int[] actual = new BlockIdentifier(several)
+                    .identifyBlocks(geometries, new NullProgressMonitor());
+            assertArrayEquals(expected, actual);
+            assertEquals(30, expected[geometries.length - 1]);
+        } finally {
+            single.shutdown();
+            several.shutdown();
+        }
+    }
+}
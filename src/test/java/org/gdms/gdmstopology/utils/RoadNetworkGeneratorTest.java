@@ -0,0 +1,129 @@
+/**
+ * GDMS-Topology is a library dedicated to graph analysis. It is based on the
+ * JGraphT library available at <http://www.jgrapht.org/>. It enables computing
+ * and processing large graphs using spatial and alphanumeric indexes.
+ *
+ * This version is developed at French IRSTV institut as part of the EvalPDU
+ * project, funded by the French Agence Nationale de la Recherche (ANR) under
+ * contract ANR-08-VILL-0005-01 and GEBD project funded by the French Ministery
+ * of Ecology and Sustainable Development.
+ *
+ * GDMS-Topology is distributed under GPL 3 license. It is produced by the
+ * "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR
+ * 2488.
+ *
+ * Copyright (C) 2009-2012 IRSTV (FR CNRS 2488)
+ *
+ * GDMS-Topology is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * GDMS-Topology is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * GDMS-Topology. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://wwwc.orbisgis.org/> or contact
+ * directly: info_at_ orbisgis.org
+ */
+package org.gdms.gdmstopology.utils;
+
+import java.io.File;
+import org.gdms.data.DataSource;
+import org.gdms.data.values.Value;
+import org.gdms.driver.DataSet;
+import org.gdms.gdmstopology.TopologySetupTest;
+import org.gdms.gdmstopology.function.ST_ConnectedComponents;
+import org.gdms.gdmstopology.model.GraphSchema;
+import org.junit.Test;
+import org.orbisgis.progress.NullProgressMonitor;
+import static org.junit.Assert.*;
+
+/**
+ * Tests {@link RoadNetworkGenerator}.
+ *
+ * @author Adam Gouge
+ */
+public class RoadNetworkGeneratorTest extends TopologySetupTest {
+
+    @Test
+    public void testGenerate() throws Exception {
+        RoadNetworkGenerator generator = new RoadNetworkGenerator(20, 15, 7L);
+        generator.setSpacing(4, 8);
+        File nodesFile = new File(tmpFolder, "nodes.gdms");
+        File edgesFile = new File(tmpFolder, "edges.gdms");
+        long edgeCount = generator.generate(nodesFile, edgesFile,
+                                            new NullProgressMonitor());
+        assertTrue(edgeCount <= generator.getMaxEdgeCount());
+        // Vertical streets and the first row are never dropped.
+        assertTrue(edgeCount >= 20 * 14 + 19);
+        assertTrue(edgeCount < generator.getMaxEdgeCount());
+
+        DataSource nodes = dsf.getDataSource(nodesFile);
+        nodes.open();
+        assertEquals(generator.getNodeCount(), nodes.getRowCount());
+        nodes.close();
+
+        DataSource edges = dsf.getDataSource(edgesFile);
+        edges.open();
+        assertEquals(edgeCount, edges.getRowCount());
+        int roadClassIndex = edges.getFieldIndex(
+                RoadNetworkGenerator.ROAD_CLASS);
+        int weightIndex = edges.getFieldIndex(GraphSchema.WEIGHT);
+        int startIndex = edges.getFieldIndex(GraphSchema.START_NODE);
+        int endIndex = edges.getFieldIndex(GraphSchema.END_NODE);
+        int[] classCounts = new int[4];
+        for (int i = 0; i < edges.getRowCount(); i++) {
+            Value[] row = edges.getRow(i);
+            classCounts[row[roadClassIndex].getAsInt()]++;
+            assertTrue(row[weightIndex].getAsDouble() > 0);
+            assertTrue(row[startIndex].getAsInt() >= 1);
+            assertTrue(row[endIndex].getAsInt() <= generator.getNodeCount());
+            assertEquals(3, row[0].getAsGeometry().getNumPoints());
+        }
+        assertTrue(classCounts[RoadNetworkGenerator.MOTORWAY] > 0);
+        assertTrue(classCounts[RoadNetworkGenerator.ARTERIAL] > 0);
+        assertTrue(classCounts[RoadNetworkGenerator.LOCAL] > 0);
+
+        // The network is connected.
+        DataSet components = new ST_ConnectedComponents().evaluate(
+                dsf, new DataSet[]{edges}, new Value[]{},
+                new NullProgressMonitor());
+        assertEquals(generator.getNodeCount(), components.getRowCount());
+        for (int i = 0; i < components.getRowCount(); i++) {
+            assertEquals(components.getFieldValue(0, 1),
+                         components.getFieldValue(i, 1));
+        }
+
+        // The same seed gives the same network.
+        File otherFile = new File(tmpFolder, "other.gdms");
+        generator.generate(null, otherFile, new NullProgressMonitor());
+        DataSource other = dsf.getDataSource(otherFile);
+        other.open();
+        assertEquals(edges.getRowCount(), other.getRowCount());
+        for (int i = 0; i < edges.getRowCount(); i++) {
+            assertEquals(edges.getFieldValue(i, weightIndex).getAsDouble(),
+                         other.getFieldValue(i, weightIndex).getAsDouble(),
+                         0.0);
+        }
+        other.close();
+        edges.close();
+    }
+
+    @Test
+    public void testIdLimit() {
+        // Two rows of c intersections hold 3c - 2 streets.
+        RoadNetworkGenerator generator =
+                new RoadNetworkGenerator(600000000, 2, 7L);
+        assertEquals(1799999998L, generator.getMaxEdgeCount());
+        try {
+            new RoadNetworkGenerator(800000000, 2, 7L);
+            fail();
+        } catch (IllegalArgumentException ex) {
+        }
+    }
+}